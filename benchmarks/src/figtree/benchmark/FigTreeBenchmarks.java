@@ -0,0 +1,406 @@
+/*
+ * FigTreeBenchmarks.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.application.*;
+import figtree.treeviewer.TreePane;
+import figtree.treeviewer.treelayouts.*;
+import jebl.evolution.io.NewickExporter;
+import jebl.evolution.io.NewickImporter;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Tree;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Times the stages of reading, laying out, drawing and writing trees, on synthetic trees
+ * of each shape and a range of sizes, so that changes to their performance show up.
+ *
+ * Each benchmark is run a number of times to warm up the JIT and then a number of times
+ * to measure it. The time and memory allocated by each run are recorded with a
+ * RenderMetrics, which the tree pane also reports its layout, calibrate and draw stages
+ * to, so a draw is broken down into those stages.
+ *
+ * It is configured by system properties (which the Ant benchmark target passes on):
+ *
+ *     benchmark.sizes       the numbers of tips, default 1000,10000
+ *     benchmark.shapes      the tree shapes, default balanced,caterpillar,coalescent
+ *     benchmark.include     only run benchmarks whose name contains one of these, default all
+ *     benchmark.warmups     the warm up runs of each benchmark, default 2
+ *     benchmark.iterations  the measured runs of each benchmark, default 5
+ *     benchmark.seed        the seed of the random trees, default 1
+ *
+ * A benchmark that fails (a deep caterpillar overflowing the stack of a recursive
+ * method, say) is reported as failed and the rest carry on.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class FigTreeBenchmarks {
+
+    private final static int WIDTH = 800;
+    // as tall as the command line makes a graphic of a tree
+    private final static int FONT_SIZE = 8;
+    private final static int TOP_BOTTOM_MARGIN = 46;
+    // the raster benchmark draws one screen (or image band) of the tree
+    private final static int RASTER_HEIGHT = 1200;
+
+    /**
+     * One thing to time. The setUp is not timed, and tearDown is always called (if setUp
+     * succeeded) to let go of anything the benchmark holds on to.
+     */
+    public abstract static class Benchmark {
+        protected Benchmark(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setUp() throws Exception {
+        }
+
+        public abstract void run(RenderMetrics metrics) throws Exception;
+
+        public void tearDown() {
+        }
+
+        private final String name;
+    }
+
+    public FigTreeBenchmarks(int warmups, int iterations, List<String> includes, PrintStream out) {
+        this.warmups = warmups;
+        this.iterations = iterations;
+        this.includes = includes;
+        this.out = out;
+    }
+
+    public void run(SyntheticTrees.Shape shape, int tipCount, long seed) {
+        final RootedTree tree;
+        final String newick;
+        final String nexus;
+        try {
+            tree = SyntheticTrees.createTree(shape, tipCount, seed);
+            newick = SyntheticTrees.toNewick(tree, false);
+            nexus = SyntheticTrees.toNexus(tree);
+        } catch (Throwable t) {
+            printFailure("generate", shape, tipCount, t);
+            return;
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add(new Benchmark("import.newick") {
+            public void run(RenderMetrics metrics) throws Exception {
+                TreeFileImporter importer = new TreeFileImporter(new StringReader(newick), false);
+                importer.importNextTree();
+            }
+        });
+        benchmarks.add(new Benchmark("import.nexus") {
+            public void run(RenderMetrics metrics) throws Exception {
+                TreeFileImporter importer = new TreeFileImporter(new StringReader(nexus), true);
+                importer.importNextTree();
+            }
+        });
+        // the JEBL importers that TreeFileImporter replaced, for comparison
+        benchmarks.add(new Benchmark("import.jebl.newick") {
+            public void run(RenderMetrics metrics) throws Exception {
+                NewickImporter importer = new NewickImporter(new StringReader(newick), true);
+                importer.importNextTree();
+            }
+        });
+        benchmarks.add(new Benchmark("import.jebl.nexus") {
+            public void run(RenderMetrics metrics) throws Exception {
+                FigTreeNexusImporter importer = new FigTreeNexusImporter(new StringReader(nexus));
+                importer.importNextTree();
+            }
+        });
+        benchmarks.add(new Benchmark("export.newick") {
+            public void run(RenderMetrics metrics) throws Exception {
+                NewickExporter exporter = new NewickExporter(new NullWriter());
+                exporter.exportTree(tree);
+            }
+        });
+        benchmarks.add(new Benchmark("export.nexus") {
+            public void run(RenderMetrics metrics) throws Exception {
+                FigTreeNexusExporter exporter = new FigTreeNexusExporter(new NullWriter(), true);
+                exporter.exportTrees(Collections.singletonList((Tree)tree));
+            }
+        });
+
+        benchmarks.add(new LayoutBenchmark("layout.rectilinear", new RectilinearTreeLayout(), tree));
+        benchmarks.add(new LayoutBenchmark("layout.polar", new PolarTreeLayout(), tree));
+        benchmarks.add(new LayoutBenchmark("layout.radial", new RadialTreeLayout(), tree));
+
+        benchmarks.add(new DrawBenchmark("draw.raster", GraphicFormat.PNG, tree) {
+            protected void draw(TreePane treePane, int width, int height) {
+                BufferedImage image = new BufferedImage(width, Math.min(height, RASTER_HEIGHT), BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g2 = image.createGraphics();
+                treePane.paint(g2);
+                g2.dispose();
+            }
+        });
+        benchmarks.add(new DrawBenchmark("draw.svg", GraphicFormat.SVG, tree) {
+            protected void draw(TreePane treePane, int width, int height) throws Exception {
+                StreamingSVGGraphics2D g2 = new StreamingSVGGraphics2D(new NullOutputStream(), width, height);
+                treePane.paint(g2);
+                g2.finish();
+            }
+        });
+        benchmarks.add(new DrawBenchmark("draw.pdf", GraphicFormat.PDF, tree) {
+            protected void draw(TreePane treePane, int width, int height) throws Exception {
+                MultiPagePDF pdf = new MultiPagePDF(new NullOutputStream());
+                pdf.addPage(treePane, width, height);
+                pdf.close();
+            }
+        });
+
+        for (Benchmark benchmark : benchmarks) {
+            if (isIncluded(benchmark.getName())) {
+                measure(benchmark, shape, tipCount);
+            }
+        }
+    }
+
+    private boolean isIncluded(String name) {
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (String include : includes) {
+            if (name.contains(include)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void measure(Benchmark benchmark, SyntheticTrees.Shape shape, int tipCount) {
+        try {
+            benchmark.setUp();
+        } catch (Throwable t) {
+            printFailure(benchmark.getName(), shape, tipCount, t);
+            return;
+        }
+
+        try {
+            for (int i = 0; i < warmups; i++) {
+                runOnce(benchmark);
+            }
+
+            long[] totals = new long[iterations];
+            long totalBytes = 0;
+            Map<String, Long> stageNanos = new LinkedHashMap<String, Long>();
+            for (int i = 0; i < iterations; i++) {
+                RenderMetrics metrics = runOnce(benchmark);
+                for (String stage : metrics.getStageNames()) {
+                    long nanos = metrics.getStageNanos(stage);
+                    totals[i] += nanos;
+                    totalBytes += metrics.getStageAllocatedBytes(stage);
+                    Long sum = stageNanos.get(stage);
+                    stageNanos.put(stage, (sum != null ? sum : 0L) + nanos);
+                }
+            }
+
+            printResult(benchmark.getName(), shape, tipCount, totals, totalBytes / iterations, stageNanos);
+        } catch (Throwable t) {
+            printFailure(benchmark.getName(), shape, tipCount, t);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private RenderMetrics runOnce(Benchmark benchmark) throws Exception {
+        RenderMetrics metrics = new RenderMetrics();
+        metrics.begin(benchmark.getName());
+        benchmark.run(metrics);
+        metrics.end(benchmark.getName());
+        return metrics;
+    }
+
+    public void printHeader() {
+        out.println(String.format(Locale.US, "%-20s %-12s %8s %10s %10s %10s  %s",
+                "benchmark", "shape", "tips", "mean ms", "min ms", "MB/op", "stages (mean ms)"));
+    }
+
+    private void printResult(String name, SyntheticTrees.Shape shape, int tipCount, long[] totals, long bytes,
+                             Map<String, Long> stageNanos) {
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        for (long total : totals) {
+            sum += total;
+            min = Math.min(min, total);
+        }
+
+        StringBuilder stages = new StringBuilder();
+        if (stageNanos.size() > 1) {
+            for (Map.Entry<String, Long> entry : stageNanos.entrySet()) {
+                // the benchmark's own stage is whatever isn't in a nested stage
+                String stage = entry.getKey().equals(name) ? "other" : entry.getKey();
+                stages.append(String.format(Locale.US, "%s=%.1f ", stage, toMillis(entry.getValue() / totals.length)));
+            }
+        }
+
+        out.println(String.format(Locale.US, "%-20s %-12s %8d %10.1f %10.1f %10.1f  %s",
+                name, shape.name().toLowerCase(), tipCount, toMillis(sum / totals.length), toMillis(min),
+                bytes / (1024.0 * 1024.0), stages.toString().trim()));
+    }
+
+    private void printFailure(String name, SyntheticTrees.Shape shape, int tipCount, Throwable t) {
+        out.println(String.format(Locale.US, "%-20s %-12s %8d  failed: %s",
+                name, shape.name().toLowerCase(), tipCount, t));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1.0E6;
+    }
+
+    /**
+     * Lays a tree out into a new cache, as the tree pane does whenever it recalibrates.
+     */
+    private static class LayoutBenchmark extends Benchmark {
+        LayoutBenchmark(String name, TreeLayout treeLayout, RootedTree tree) {
+            super(name);
+            this.treeLayout = treeLayout;
+            this.tree = tree;
+        }
+
+        public void run(RenderMetrics metrics) {
+            treeLayout.layout(tree, new TreeLayoutCache());
+        }
+
+        private final TreeLayout treeLayout;
+        private final RootedTree tree;
+    }
+
+    /**
+     * Draws a tree pane, set up as the command line would set it up to draw the tree with
+     * its annotations shown, into a graphics. The pane is laid out and calibrated again
+     * before each draw.
+     */
+    private abstract static class DrawBenchmark extends Benchmark {
+        DrawBenchmark(String name, GraphicFormat format, RootedTree tree) {
+            super(name);
+            this.format = format;
+            this.tree = tree;
+        }
+
+        public void setUp() {
+            Map<String, Object> settings = new HashMap<String, Object>();
+            settings.put("appearance.branchColorAttribute", "state");
+            settings.put("nodeLabels.isShown", true);
+            settings.put("nodeLabels.displayAttribute", "posterior");
+            settings.put("nodeBars.isShown", true);
+            settings.put("nodeBars.displayAttribute", "height_95%_HPD");
+
+            height = tree.getExternalNodes().size() * FONT_SIZE + TOP_BOTTOM_MARGIN;
+            TreeRenderer renderer = new TreeRenderer(new RenderSettings(format, WIDTH, height, settings));
+            treePane = renderer.createTreePane(tree);
+        }
+
+        public void run(RenderMetrics metrics) throws Exception {
+            treePane.invalidateLayout();
+            treePane.addStageListener(metrics);
+            try {
+                draw(treePane, WIDTH, height);
+            } finally {
+                treePane.removeStageListener(metrics);
+            }
+        }
+
+        protected abstract void draw(TreePane treePane, int width, int height) throws Exception;
+
+        public void tearDown() {
+            treePane = null;
+        }
+
+        private final GraphicFormat format;
+        private final RootedTree tree;
+        private TreePane treePane;
+        private int height;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    private static class NullWriter extends Writer {
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+
+    static public void main(String[] args) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (String size : getList("benchmark.sizes", "1000,10000")) {
+            sizes.add(Integer.parseInt(size));
+        }
+        List<SyntheticTrees.Shape> shapes = new ArrayList<SyntheticTrees.Shape>();
+        for (String shape : getList("benchmark.shapes", "balanced,caterpillar,coalescent")) {
+            shapes.add(SyntheticTrees.Shape.valueOf(shape.toUpperCase()));
+        }
+        List<String> includes = getList("benchmark.include", "");
+        int warmups = Integer.getInteger("benchmark.warmups", 2);
+        int iterations = Math.max(1, Integer.getInteger("benchmark.iterations", 5));
+        long seed = Long.getLong("benchmark.seed", 1L);
+
+        FigTreeBenchmarks benchmarks = new FigTreeBenchmarks(warmups, iterations, includes, System.out);
+        benchmarks.printHeader();
+        for (int size : sizes) {
+            for (SyntheticTrees.Shape shape : shapes) {
+                benchmarks.run(shape, size, seed);
+            }
+        }
+    }
+
+    private static List<String> getList(String property, String defaultValue) {
+        List<String> values = new ArrayList<String>();
+        for (String value : System.getProperty(property, defaultValue).split(",")) {
+            if (value.trim().length() > 0) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    private final int warmups;
+    private final int iterations;
+    private final List<String> includes;
+    private final PrintStream out;
+}
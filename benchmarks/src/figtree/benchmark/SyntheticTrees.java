@@ -0,0 +1,249 @@
+/*
+ * SyntheticTrees.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.benchmark;
+
+import figtree.treeviewer.ArrayRootedTree;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+
+import java.util.*;
+
+/**
+ * Random trees of a given shape and number of tips (ArrayRootedTrees, as FigTree reads
+ * trees into), annotated the way the output of
+ * BEAST's TreeAnnotator is (a posterior, a height HPD, a rate and a discrete state on
+ * the nodes), for benchmarking.
+ *
+ * Trees are built from the tips up by joining pairs of lineages, and written out with
+ * an explicit stack, so a tree of any depth can be made and written (though not
+ * necessarily read back or drawn).
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class SyntheticTrees {
+
+    public enum Shape {
+        // every internal node splits its tips evenly, so the depth is log2 of the tips
+        BALANCED,
+        // every internal node has a tip as one child, so the depth is the number of tips
+        CATERPILLAR,
+        // pairs of lineages joined at random, going back in time, as in Kingman's coalescent
+        COALESCENT
+    }
+
+    private final static String[] STATES = { "human", "swine", "avian", "equine", "canine" };
+
+    private SyntheticTrees() {
+    }
+
+    /**
+     * @param shape the shape of the tree
+     * @param tipCount the number of tips (at least 2)
+     * @param seed the seed of the random numbers, so that the same tree can be made again
+     */
+    public static RootedTree createTree(Shape shape, int tipCount, long seed) {
+        Random random = new Random(seed);
+        ArrayRootedTree tree = new ArrayRootedTree(tipCount);
+
+        List<Node> tips = new ArrayList<Node>(tipCount);
+        for (int i = 0; i < tipCount; i++) {
+            Node tip = tree.createExternalNode(Taxon.getTaxon("taxon_" + (i + 1)));
+            tree.setHeight(tip, 0.0);
+            annotate(tip, random);
+            tips.add(tip);
+        }
+
+        // the time goes back as lineages are joined, at the coalescent rate for the
+        // number of lineages left, so the node heights look alike whatever the shape
+        double time = 0.0;
+        switch (shape) {
+            case BALANCED: {
+                // joining the two oldest lineages and putting the new one at the back
+                // makes the tree balanced (exactly so for a power of two tips)
+                ArrayDeque<Node> lineages = new ArrayDeque<Node>(tips);
+                while (lineages.size() > 1) {
+                    time += nextWaitingTime(lineages.size(), random);
+                    Node node = join(tree, lineages.poll(), lineages.poll(), time, random);
+                    lineages.add(node);
+                }
+                break;
+            }
+            case CATERPILLAR: {
+                Node node = tips.get(0);
+                for (int i = 1; i < tipCount; i++) {
+                    time += nextWaitingTime(tipCount - i + 1, random);
+                    node = join(tree, node, tips.get(i), time, random);
+                }
+                break;
+            }
+            case COALESCENT: {
+                List<Node> lineages = new ArrayList<Node>(tips);
+                while (lineages.size() > 1) {
+                    time += nextWaitingTime(lineages.size(), random);
+                    Node node1 = remove(lineages, random.nextInt(lineages.size()));
+                    Node node2 = remove(lineages, random.nextInt(lineages.size()));
+                    lineages.add(join(tree, node1, node2, time, random));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+
+        return tree;
+    }
+
+    private static double nextWaitingTime(int lineageCount, Random random) {
+        double rate = lineageCount * (lineageCount - 1) / 2.0;
+        return -Math.log(1.0 - random.nextDouble()) / rate;
+    }
+
+    /**
+     * Removes an element by moving the last one into its place, so that picking lineages
+     * at random doesn't take time proportional to the number left.
+     */
+    private static Node remove(List<Node> lineages, int index) {
+        Node node = lineages.get(index);
+        Node last = lineages.remove(lineages.size() - 1);
+        if (index < lineages.size()) {
+            lineages.set(index, last);
+        }
+        return node;
+    }
+
+    private static Node join(ArrayRootedTree tree, Node node1, Node node2, double height, Random random) {
+        List<Node> children = new ArrayList<Node>(2);
+        children.add(node1);
+        children.add(node2);
+        Node node = tree.createInternalNode(children);
+        tree.setHeight(node, height);
+
+        double spread = height * 0.2 * random.nextDouble();
+        node.setAttribute("height", height);
+        node.setAttribute("height_95%_HPD", new Object[] { Math.max(0.0, height - spread), height + spread });
+        node.setAttribute("posterior", random.nextDouble() < 0.5 ? 1.0 : random.nextDouble());
+        annotate(node, random);
+        return node;
+    }
+
+    private static void annotate(Node node, Random random) {
+        node.setAttribute("rate", 1.0E-3 * Math.exp(random.nextGaussian() * 0.5));
+        node.setAttribute("state", STATES[random.nextInt(STATES.length)]);
+    }
+
+    /**
+     * Writes the tree in Newick format, optionally with the node attributes in [&...]
+     * comments as BEAST does (which a plain Newick reader takes for taxon names).
+     */
+    public static String toNewick(RootedTree tree, boolean writeAttributes) {
+        StringBuilder builder = new StringBuilder();
+
+        // each entry is a node and the index of the next of its children to write
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        Deque<Integer> indices = new ArrayDeque<Integer>();
+        nodes.push(tree.getRootNode());
+        indices.push(0);
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.peek();
+            int index = indices.pop();
+            List<Node> children = tree.getChildren(node);
+
+            if (index < children.size()) {
+                builder.append(index == 0 ? "(" : ",");
+                indices.push(index + 1);
+                nodes.push(children.get(index));
+                indices.push(0);
+                continue;
+            }
+
+            if (children.isEmpty()) {
+                builder.append(tree.getTaxon(node).getName());
+            } else {
+                builder.append(")");
+            }
+            if (writeAttributes) {
+                appendAttributes(node, builder);
+            }
+            nodes.pop();
+            if (!tree.isRoot(node)) {
+                builder.append(":").append(tree.getLength(node));
+            }
+        }
+
+        builder.append(";");
+        return builder.toString();
+    }
+
+    /**
+     * Writes the tree as the only tree of a NEXUS file with a taxa block.
+     */
+    public static String toNexus(RootedTree tree) {
+        StringBuilder builder = new StringBuilder("#NEXUS\n\n");
+        builder.append("begin taxa;\n");
+        builder.append("\tdimensions ntax=").append(tree.getExternalNodes().size()).append(";\n");
+        builder.append("\ttaxlabels\n");
+        for (Node tip : tree.getExternalNodes()) {
+            builder.append("\t\t").append(tree.getTaxon(tip).getName()).append("\n");
+        }
+        builder.append(";\nend;\n\n");
+        builder.append("begin trees;\n");
+        builder.append("\ttree tree_1 = [&R] ").append(toNewick(tree, true)).append("\n");
+        builder.append("end;\n");
+        return builder.toString();
+    }
+
+    private static void appendAttributes(Node node, StringBuilder builder) {
+        boolean first = true;
+        for (String name : node.getAttributeNames()) {
+            builder.append(first ? "[&" : ",");
+            first = false;
+
+            builder.append(name).append("=");
+            Object value = node.getAttribute(name);
+            if (value instanceof Object[]) {
+                builder.append("{");
+                Object[] values = (Object[])value;
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        builder.append(",");
+                    }
+                    builder.append(values[i]);
+                }
+                builder.append("}");
+            } else if (value instanceof String) {
+                builder.append("\"").append(value).append("\"");
+            } else {
+                builder.append(value);
+            }
+        }
+        if (!first) {
+            builder.append("]");
+        }
+    }
+}
@@ -379,7 +379,9 @@ public class Arguments {
 
 		int n = 0;
 		int i = arguments.length - 1;
-		while (i >= 0 && optionIndex[i] == -1 && !arguments[i].startsWith(ARGUMENT_CHARACTER)) {
+		// a lone '-' is a file name (standard input), not an option
+		while (i >= 0 && optionIndex[i] == -1 &&
+				(!arguments[i].startsWith(ARGUMENT_CHARACTER) || arguments[i].equals(ARGUMENT_CHARACTER))) {
 			n++;
 			i--;
 		}
@@ -0,0 +1,207 @@
+/*
+ * BandedImage.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.Vector;
+
+/**
+ * A raster image of a component that is never held in memory as a whole. The image
+ * is divided into horizontal bands and only one band is kept at a time: when pixels
+ * outside it are asked for, the component is painted again through a clip, translated
+ * so that the next band lands in the band buffer.
+ *
+ * An image writer that pulls rows in order (as the PNG writer does) therefore needs
+ * memory for a single band, however tall the image is.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class BandedImage implements RenderedImage {
+
+    // the default band size, in pixels (16MB of ARGB)
+    public final static int BAND_PIXELS = 1 << 22;
+
+    /**
+     * @param component the component to paint (already sized)
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param imageType the BufferedImage type of each band
+     * @param background the colour to clear each band to (null to leave it transparent)
+     */
+    public BandedImage(JComponent component, int width, int height, int imageType, Color background) {
+        this(component, width, height, imageType, background, Math.max(1, BAND_PIXELS / Math.max(1, width)));
+    }
+
+    public BandedImage(JComponent component, int width, int height, int imageType, Color background, int bandHeight) {
+        this.component = component;
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.bandHeight = Math.max(1, Math.min(bandHeight, height));
+
+        band = new BufferedImage(width, this.bandHeight, imageType);
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    /**
+     * Paints the band with the given index into the band buffer, unless it is already there.
+     */
+    private synchronized WritableRaster getBand(int index) {
+        if (index != bandIndex) {
+            int y = index * bandHeight;
+
+            Graphics2D g2 = band.createGraphics();
+            g2.setComposite(AlphaComposite.Src);
+            g2.setColor(background != null ? background : new Color(0, 0, 0, 0));
+            g2.fillRect(0, 0, width, bandHeight);
+            g2.setComposite(AlphaComposite.SrcOver);
+
+            g2.translate(0, -y);
+            g2.clipRect(0, y, width, bandHeight);
+            component.paint(g2);
+            g2.dispose();
+
+            bandIndex = index;
+        }
+        return band.getRaster().createWritableTranslatedChild(0, index * bandHeight);
+    }
+
+    public Raster getTile(int tileX, int tileY) {
+        return getBand(tileY);
+    }
+
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    public synchronized Raster getData(Rectangle rect) {
+        WritableRaster raster = band.getRaster().createCompatibleWritableRaster(rect.x, rect.y, rect.width, rect.height);
+        return copyData(raster);
+    }
+
+    public synchronized WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = band.getRaster().createCompatibleWritableRaster(width, height);
+        }
+        Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (bounds.isEmpty()) {
+            return raster;
+        }
+
+        int first = bounds.y / bandHeight;
+        int last = (bounds.y + bounds.height - 1) / bandHeight;
+        for (int index = first; index <= last; index++) {
+            WritableRaster bandRaster = getBand(index);
+            Rectangle overlap = bandRaster.getBounds().intersection(bounds);
+            raster.setRect(bandRaster.createChild(overlap.x, overlap.y, overlap.width, overlap.height,
+                    overlap.x, overlap.y, null));
+        }
+        return raster;
+    }
+
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    public ColorModel getColorModel() {
+        return band.getColorModel();
+    }
+
+    public SampleModel getSampleModel() {
+        return band.getSampleModel();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMinX() {
+        return 0;
+    }
+
+    public int getMinY() {
+        return 0;
+    }
+
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    public int getNumYTiles() {
+        return (height + bandHeight - 1) / bandHeight;
+    }
+
+    public int getMinTileX() {
+        return 0;
+    }
+
+    public int getMinTileY() {
+        return 0;
+    }
+
+    public int getTileWidth() {
+        return width;
+    }
+
+    public int getTileHeight() {
+        return bandHeight;
+    }
+
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    private final JComponent component;
+    private final int width;
+    private final int height;
+    private final Color background;
+    private final int bandHeight;
+
+    private final BufferedImage band;
+    private int bandIndex = -1;
+}
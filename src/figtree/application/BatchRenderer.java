@@ -0,0 +1,242 @@
+/*
+ * BatchRenderer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Renders a whole set of tree files inside a single JVM. The inputs are given as
+ * a directory, a glob pattern or a manifest file (one tree file per line) and each
+ * one is rendered on a fixed pool of workers sharing a single GraphicRenderer.
+ *
+ * Failures are reported per file and do not stop the rest of the batch.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class BatchRenderer {
+
+    public final static String DEFAULT_PATTERN = "*.{tre,tree,trees,treefile,nex,nexus,newick,nwk,txt," +
+            "tre.gz,tree.gz,trees.gz,treefile.gz,nex.gz,nexus.gz,newick.gz,nwk.gz,txt.gz}";
+
+    public BatchRenderer(GraphicRenderer renderer, String graphicFormat, int width, int height,
+                         Map<String, Object> settings,
+                         boolean writeNewick, boolean writeNexus,
+                         Map<String, Object> colorMap, boolean extractColorsFromFileName) {
+        this.renderer = renderer;
+        this.graphicFormat = graphicFormat;
+        this.width = width;
+        this.height = height;
+        this.settings = settings;
+        this.writeNewick = writeNewick;
+        this.writeNexus = writeNexus;
+        this.colorMap = colorMap;
+        this.extractColorsFromFileName = extractColorsFromFileName;
+    }
+
+    /**
+     * Expands a batch source into the list of tree files it names. The source may be a
+     * directory (searched recursively for file names matching the pattern), a glob
+     * pattern, or a manifest file listing one tree file per line. Blank lines and
+     * lines starting with '#' in a manifest are ignored.
+     *
+     * @param source a directory, glob or manifest file
+     * @param pattern a file name glob used when the source is a directory (null for the default)
+     * @return the tree files, in a stable order
+     * @throws IOException if the source can't be read
+     */
+    public static List<String> collectInputs(String source, String pattern) throws IOException {
+        final List<String> inputs = new ArrayList<String>();
+
+        File sourceFile = new File(source);
+
+        if (sourceFile.isDirectory()) {
+            final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" +
+                    (pattern != null ? pattern : DEFAULT_PATTERN));
+            walk(sourceFile.toPath(), new PathMatcher() {
+                public boolean matches(Path path) {
+                    String name = path.getFileName().toString();
+                    // don't pick up the tree files written alongside the graphics by a previous run
+                    return matcher.matches(path.getFileName()) &&
+                            !name.endsWith(GraphicRenderer.NEWICK_SUFFIX) && !name.endsWith(GraphicRenderer.NEXUS_SUFFIX);
+                }
+            }, inputs);
+        } else if (sourceFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new FileReader(sourceFile));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    line = line.trim();
+                    if (line.length() > 0 && !line.startsWith("#")) {
+                        inputs.add(line);
+                    }
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } else if (isGlob(source)) {
+            // walk from the deepest directory that doesn't contain a wildcard
+            String base = source.substring(0, firstWildcard(source));
+            int lastSeparator = base.lastIndexOf(File.separatorChar);
+            Path basePath = Paths.get(lastSeparator >= 0 ? base.substring(0, lastSeparator + 1) : ".");
+            if (!Files.isDirectory(basePath)) {
+                throw new FileNotFoundException("No such directory: " + basePath);
+            }
+
+            // match against the path as the user wrote it, so relative globs stay relative
+            final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + source);
+            final boolean relativeToCurrent = lastSeparator < 0;
+            walk(basePath, new PathMatcher() {
+                public boolean matches(Path path) {
+                    return matcher.matches(relativeToCurrent ? path.normalize() : path);
+                }
+            }, inputs);
+        } else {
+            throw new FileNotFoundException("No such file, directory or pattern: " + source);
+        }
+
+        return inputs;
+    }
+
+    private static void walk(Path root, final PathMatcher matcher, final List<String> inputs) throws IOException {
+        final List<String> found = new ArrayList<String>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && matcher.matches(file)) {
+                    found.add(file.normalize().toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        inputs.addAll(found);
+    }
+
+    private static boolean isGlob(String source) {
+        return firstWildcard(source) < source.length();
+    }
+
+    private static int firstWildcard(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return source.length();
+    }
+
+    /**
+     * The name of the graphic file written for a given tree file.
+     */
+    public static String getGraphicFileName(String treeFileName, String graphicFormat) {
+        for (GraphicFormat format : GraphicFormat.values()) {
+            if (format.name().equals(graphicFormat)) {
+                return treeFileName + "." + format.getName().toLowerCase();
+            }
+        }
+        throw new IllegalArgumentException("Unknown graphic format: " + graphicFormat);
+    }
+
+    /**
+     * Renders every input on a pool of worker threads and waits until all have finished.
+     *
+     * @param inputs the tree files to render
+     * @param threadCount the number of workers to use
+     * @return the number of inputs that failed
+     */
+    public int render(List<String> inputs, int threadCount) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final String input : inputs) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return renderOne(input);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    failed++;
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failed++;
+            } catch (ExecutionException ee) {
+                failed++;
+            }
+        }
+
+        System.out.println("Batch complete: " + (inputs.size() - failed) + " succeeded, " + failed + " failed");
+        return failed;
+    }
+
+    private boolean renderOne(String treeFileName) {
+        long start = System.currentTimeMillis();
+
+        // each file gets its own colour map as 'extract' depends on the file name
+        Map<String, Object> fileColorMap = new LinkedHashMap<String, Object>(colorMap);
+        if (extractColorsFromFileName) {
+            FigTreeApplication.parseColorMapFromTimePoints(fileColorMap, treeFileName);
+        }
+
+        String graphicFileName = getGraphicFileName(treeFileName, graphicFormat);
+        try {
+            renderer.render(graphicFormat, width, height, treeFileName, graphicFileName,
+                    settings, writeNewick, writeNexus, fileColorMap);
+            System.out.println("OK " + treeFileName + " -> " + graphicFileName +
+                    " (" + (System.currentTimeMillis() - start) + " ms)");
+            return true;
+        } catch (Throwable t) {
+            System.err.println("FAILED " + treeFileName + ": " + t.getMessage());
+            return false;
+        }
+    }
+
+    // renders hold no state so every worker can use the same renderer
+    private final GraphicRenderer renderer;
+
+    private final String graphicFormat;
+    private final int width;
+    private final int height;
+    private final Map<String, Object> settings;
+    private final boolean writeNewick;
+    private final boolean writeNexus;
+    private final Map<String, Object> colorMap;
+    private final boolean extractColorsFromFileName;
+}
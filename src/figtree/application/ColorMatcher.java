@@ -0,0 +1,156 @@
+/*
+ * ColorMatcher.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import jebl.evolution.taxa.Taxon;
+
+import java.util.*;
+
+/**
+ * Colours taxa from a -colors map of text patterns to colours. A taxon takes the
+ * colour of a pattern that its name contains and, when several patterns match, the
+ * one that comes last in the map's iteration order wins (as it did when each pattern
+ * was tested in turn and overwrote the last).
+ *
+ * The patterns are compiled into an Aho-Corasick automaton so each name is scanned
+ * once, whatever the number of patterns.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class ColorMatcher {
+
+    public final static String COLOR_ATTRIBUTE = "!color";
+
+    public ColorMatcher(Map<String, ?> colorMap) {
+        values = new ArrayList<Object>(colorMap.size());
+
+        int emptyPattern = NO_MATCH;
+        for (Map.Entry<String, ?> entry : colorMap.entrySet()) {
+            int order = values.size();
+            values.add(entry.getValue());
+
+            String pattern = entry.getKey();
+            if (pattern.length() == 0) {
+                // every name contains the empty string
+                emptyPattern = order;
+                continue;
+            }
+
+            State state = root;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                State next = state.next.get(c);
+                if (next == null) {
+                    next = new State();
+                    state.next.put(c, next);
+                }
+                state = next;
+            }
+            state.match = order;
+        }
+        root.match = emptyPattern;
+
+        // breadth first, so each state's failure state is finished before it is used
+        LinkedList<State> queue = new LinkedList<State>();
+        for (State child : root.next.values()) {
+            child.failure = root;
+            child.match = Math.max(child.match, root.match);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            State state = queue.removeFirst();
+            for (Map.Entry<Character, State> entry : state.next.entrySet()) {
+                char c = entry.getKey();
+                State child = entry.getValue();
+
+                State failure = state.failure;
+                while (failure != root && !failure.next.containsKey(c)) {
+                    failure = failure.failure;
+                }
+                State target = failure.next.get(c);
+                child.failure = (target != null && target != child ? target : root);
+
+                // the best pattern ending here, including those that are suffixes of this one
+                child.match = Math.max(child.match, child.failure.match);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return the value of the last pattern (in map order) contained in the name, or null
+     */
+    public Object match(String name) {
+        int best = root.match;
+        State state = root;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            State next = state.next.get(c);
+            while (next == null && state != root) {
+                state = state.failure;
+                next = state.next.get(c);
+            }
+            state = (next != null ? next : root);
+            if (state.match > best) {
+                best = state.match;
+            }
+        }
+        return (best != NO_MATCH ? values.get(best) : null);
+    }
+
+    /**
+     * Finds the colour of every taxon whose name matches a pattern. The taxa themselves
+     * are left as they are: jebl keeps one Taxon for each name, shared by every tree that
+     * is read, so a colour set on one would carry over to later renders.
+     *
+     * @return the colours of the taxa that match, by taxon
+     */
+    public Map<Taxon, Object> getColors(Collection<Taxon> taxa) {
+        Map<Taxon, Object> colors = new HashMap<Taxon, Object>();
+        if (values.isEmpty()) {
+            return colors;
+        }
+        for (Taxon taxon : taxa) {
+            Object color = match(taxon.getName());
+            if (color != null) {
+                colors.put(taxon, color);
+            }
+        }
+        return colors;
+    }
+
+    private final static int NO_MATCH = -1;
+
+    private static class State {
+        final Map<Character, State> next = new HashMap<Character, State>();
+        State failure;
+        int match = NO_MATCH;
+    }
+
+    private final State root = new State();
+    private final List<Object> values;
+}
@@ -30,20 +30,14 @@
 
 package figtree.application;
 
-import com.itextpdf.text.DocumentException;
 import figtree.application.preferences.AppearancePreferencesSection;
 import figtree.application.preferences.FontsPreferencesSection;
-import figtree.treeviewer.ExtendedTreeViewer;
-import jam.controlpalettes.BasicControlPalette;
-import jam.controlpalettes.ControlPalette;
 import jam.framework.*;
 import jam.mac.Utils;
 import jebl.evolution.io.*;
-import jebl.evolution.taxa.Taxon;
 import jebl.evolution.trees.RootedTree;
 import jebl.evolution.trees.SimpleRootedTree;
 import jebl.evolution.trees.Tree;
-import jebl.util.Attributable;
 
 import javax.swing.*;
 import java.awt.*;
@@ -102,254 +96,101 @@ public class FigTreeApplication extends MultiDocApplication {
     }
 
     static public void createGraphic(String graphicFormat, int width, int height, String treeFileName, String graphicFileName, Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus, Map<String, Object> colorMap) {
+        createGraphic(new GraphicRenderer(), graphicFormat, width, height, treeFileName, graphicFileName, cmdSettings, writeNewick, writeNexus, colorMap);
+    }
 
-        try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(treeFileName));
-            String line = bufferedReader.readLine();
-            while (line != null && line.length() == 0) {
-                line = bufferedReader.readLine();
-            }
-
-            bufferedReader.close();
-
-            boolean isNexus = (line != null && line.toUpperCase().contains("#NEXUS"));
-
-            Reader reader = new FileReader(treeFileName);
-
-            Map<String, Object> settings = new HashMap<String, Object>();
-
-            ExtendedTreeViewer treeViewer = new ExtendedTreeViewer();
-            ControlPalette controlPalette = new BasicControlPalette(FigTreePanel.CONTROL_PALETTE_WIDTH, BasicControlPalette.DisplayMode.ONLY_ONE_OPEN);
-            FigTreePanel figTreePanel = new FigTreePanel(null, treeViewer, controlPalette);
-
-            // First of all, fully populate the settings map if it isn't already populated so that
-            // all the settings have defaults
-            if (settings.size() == 0) {
-                controlPalette.getSettings(settings);
-            }
-            // Add any command line, default ordering and font size settings
-            settings.putAll(cmdSettings);
-
-            List<Tree> trees = new ArrayList<Tree>();
-
-            if (isNexus) {
-                FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
-                trees.add(importer.importNextTree());
-
-                // Try to find a figtree block and if found, parse the settings
-                while (true) {
-                    try {
-                        importer.findNextBlock();
-                        if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
-                            importer.parseFigTreeBlock(settings);
-                        }
-                    } catch (EOFException ex) {
-                        break;
-                    }
-                }
-            } else {
-                NewickImporter importer = new NewickImporter(reader, true);
-                trees.add(importer.importNextTree());
-            }
-
-            if (trees.size() == 0) {
-                throw new ImportException("This file contained no trees.");
-            }
-
-            // insert color choices
-            int numberOfTaxa = 0;
-            Set<Taxon> taxa = new HashSet<Taxon>();
-            for (Tree tree : trees) {
-                taxa.addAll(tree.getTaxa());
-                numberOfTaxa = numberOfTaxa + taxa.size();
-                for (Taxon taxon : taxa) {
-                    for (String key : colorMap.keySet()) {
-                        if (taxon.getName().contains(key)) {
-                            taxon.setAttribute("!color", colorMap.get(key));
-                        }
-                    }
-                }
-
-            }
-            int FONT_SIZE = 8;
-            int TOP_BOTTOM_MARGIN = 46;
-            int calculatedHeight = (numberOfTaxa * FONT_SIZE) + TOP_BOTTOM_MARGIN;
-            ////////////
-            treeViewer.setTrees(trees);
-
-            controlPalette.setSettings(settings);
-
-            // Jeff replaced height with calculatedHeight
-            treeViewer.getContentPane().setSize(width, calculatedHeight);
-
-            OutputStream stream;
-            if (graphicFileName != null) {
-                stream = new FileOutputStream(graphicFileName);
-            } else {
-                stream = System.out;
-            }
-
-            GraphicFormat format = null;
-            if (graphicFormat.equals("PDF")) {
-                format = GraphicFormat.PDF;
-            } else if (graphicFormat.equals("SVG")) {
-                format = GraphicFormat.SVG;
-            } else if (graphicFormat.equals("GIF")) {
-                format = GraphicFormat.GIF;
-            } else if (graphicFormat.equals("PNG")) {
-                format = GraphicFormat.PNG;
-            } else if (graphicFormat.equals("JPEG")) {
-                format = GraphicFormat.JPEG;
-            } else {
-                throw new RuntimeException("Unknown graphic format");
-            }
-
-            if (graphicFileName != null) {
-                System.out.println("Creating " + graphicFormat + " graphic: " + graphicFileName);
-            }
-
-            FigTreeFrame.exportGraphics(format, treeViewer.getContentPane(), stream);
-
-            if (writeNewick) {
-                if (graphicFileName != null) {
-                    String newickFileName = graphicFileName.substring(0, graphicFileName.length() - 4);
-                    newickFileName = newickFileName + "_newick.tre";
-                    FileWriter fileNewick = new FileWriter(newickFileName);
-                    List<Tree> treesList = new ArrayList<Tree>();
-                    treesList.addAll(treeViewer.getTreesAsViewed());
-                    System.out.println("Creating Newick file: " + newickFileName);
-
-                    if (treesList.size() > 0) {
-                        NewickExporter newickExporter = new NewickExporter(fileNewick);
-                        newickExporter.exportTrees(treesList);
-                    }
-                    fileNewick.flush();
-                    fileNewick.close();
-                } else {
-                    System.out.println("Can't build Newick file name - make sure graphic file name is provided.");
-                }
-            }
+    static public void createGraphic(GraphicRenderer renderer, String graphicFormat, int width, int height, String treeFileName, String graphicFileName, Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus, Map<String, Object> colorMap) {
+        renderer.render(graphicFormat, width, height, treeFileName, graphicFileName, cmdSettings, writeNewick, writeNexus, colorMap);
+    }
 
-            if (writeNexus) {
-                if (graphicFileName != null) {
-                    String nexusFileName = graphicFileName.substring(0, graphicFileName.length() - 4);
-                    nexusFileName = nexusFileName + "_nexus.tre";
-                    FileWriter fileNexus = new FileWriter(nexusFileName);
-                    List<Tree> treesList = new ArrayList<Tree>();
-                    treesList.addAll(treeViewer.getTreesAsViewed());
-                    System.out.println("Creating Nexus file: " + nexusFileName);
-
-                    if (treesList.size() > 0) {
-                        FigTreeNexusExporter nexusExporter = new FigTreeNexusExporter(fileNexus, true);
-                        Taxon[] taxonArray = taxa.toArray(new Taxon[0]);
-                        int len = taxonArray.length;
-                        fileNexus.write("begin taxa;\n");
-                        fileNexus.write("\tdimensions ntax=" + taxonArray.length + ";\n");
-                        fileNexus.write("\ttaxlabels\n");
-                        for(int i = 0; i < len; ++i) {
-                            Taxon taxon = taxonArray[i];
-                            StringBuilder builder = new StringBuilder("\t");
-                            String name = taxon.getName();
-                            if (!name.matches("^(\\w|-)+$")) {
-                                name = name.replace("'", "''");
-                                builder.append("'").append(name).append("'");
-                            } else {
-                                builder.append(name);
-                            }
-                            appendAttributes(taxon, (String[])null, builder);
-                            fileNexus.write(builder.toString() + "\n");
-                        }
-                        fileNexus.write(";\nend;\n");
-                        nexusExporter.exportTrees(treesList);
-                        nexusExporter.writeFigTreeBlock(settings);
-                    }
-                    fileNexus.flush();
-                    fileNexus.close();
-                } else {
-                    System.out.println("Can't build Nexus file name - make sure graphic file name is provided.");
+    /**
+     * Builds the settings map for a command line render: the defaults FigTree uses for
+     * Phylobook graphics plus anything given with -avg_seq_length or -settings.
+     */
+    static Map<String, Object> createSettingsMap(Arguments arguments) {
+        Map<String, Object> settingsMap = new HashMap<String, Object>();
+        settingsMap.put("branchLabels.fontSize", new Double("9"));
+        settingsMap.put("trees.order", true);
+        settingsMap.put("trees.orderType", "increasing");
+        if (arguments.hasOption("avg_seq_length")) {
+            int seqLen = arguments.getIntegerOption("avg_seq_length");
+            double scaleR = 1.0/(double) seqLen;
+            NumberFormat formatter = new DecimalFormat("0.0E0");
+            settingsMap.put("scaleBar.automaticScale", false);
+            settingsMap.put("scaleBar.scaleRange", new Double(formatter.format(scaleR)));
+        }
+        if (arguments.hasOption("settings")) {
+            for (String item : arguments.getStringOption("settings").split("\\s*,\\s*")) {
+                int index = item.indexOf('=');
+                if (index < 1) {
+                    throw new IllegalArgumentException("Missing = in settings value: " + item + ".  Should be a comma delimited list of key=value (e.g. tipLabels.fontSize=10).");
                 }
+                settingsMap.put(item.substring(0, index).trim(), FigTreeNexusImporter.parseValue(item.substring(index + 1).trim()));
             }
-
-        } catch(ImportException ie) {
-            throw new RuntimeException("Error writing graphic file: " + ie.getMessage());
-        } catch(IOException ioe) {
-            throw new RuntimeException("Error writing graphic file: " + ioe.getMessage());
-        } catch (DocumentException de) {
-            throw new RuntimeException("Error writing graphic file: " + de.getMessage());
         }
-
+        return settingsMap;
     }
 
-    static private StringBuilder appendAttributes(Attributable item, String[] excludeKeys, StringBuilder builder) {
-        boolean first = true;
-        Iterator i$ = item.getAttributeNames().iterator();
-
-        while (i$.hasNext()) {
-            String key = (String) i$.next();
-            boolean exclude = false;
-            if (excludeKeys != null) {
-                String[] arr$ = excludeKeys;
-                int len$ = excludeKeys.length;
-
-                for (int i = 0; i < len$; ++i) {
-                    String eKey = arr$[i];
-                    if (eKey.equals(key)) {
-                        exclude = true;
-                    }
-                }
+    /**
+     * Parses a -colors value into the colour map.
+     *
+     * @return true if the colours should be extracted from the tree file name instead
+     */
+    static boolean parseColorMap(String colors, Map<String, Object> colorMap) {
+        if (colors.equals("extract")) {
+            return true;
+        }
+        List<String> items = Arrays.asList(colors.split("\\s*,\\s*"));
+        for (String item : items) {
+            if (!item.contains(":")) {
+                throw new IllegalArgumentException("Missing : in colors value.  Should be a comma delimited list of text:color (e.g. V704_0026_232:#3333ff).");
             }
-
-            Object value = item.getAttribute(key);
-            if (!exclude && !key.startsWith("&") && value != null) {
-                if (first) {
-                    builder.append("[&");
-                    first = false;
-                } else {
-                    builder.append(",");
-                }
-
-                if (key.indexOf(32) < 0) {
-                    builder.append(key);
-                } else {
-                    builder.append("\"").append(key).append("\"");
-                }
-
-                builder.append('=');
-                appendAttributeValue(value, builder);
+            String[] keyPair = item.split(":");
+            try {
+                colorMap.put(keyPair[0], Color.decode(keyPair[1]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Failed to decode color: " + keyPair[1] + ".  Should be a comma delimited list of text:color (e.g. V704_0026_232:#3333ff).");
             }
         }
-
-        if (!first) {
-            builder.append("]");
-        }
-
-        return builder;
+        return false;
     }
 
-    static private StringBuilder appendAttributeValue(Object value, StringBuilder builder) {
-        if (!(value instanceof Object[])) {
-            if (value instanceof Color) {
-                return builder.append("#").append(Integer.toHexString(((Color)value).getRGB()).substring(2));
-            } else {
-                return value instanceof String ? builder.append("\"").append(value).append("\"") : builder.append(value);
-            }
-        } else {
-            builder.append("{");
-            Object[] elements = (Object[])((Object[])value);
-            if (elements.length > 0) {
-                appendAttributeValue(elements[0], builder);
-
-                for(int i = 1; i < elements.length; ++i) {
-                    builder.append(",");
-                    appendAttributeValue(elements[i], builder);
+    /**
+     * Reads a colour map from a file with one pattern and colour per line, separated by
+     * a tab, a comma or a colon (e.g. 'V704_0026_232,#3333ff'). Blank lines and lines
+     * starting with '#' are ignored and later lines take precedence over earlier ones
+     * when a taxon matches more than one pattern.
+     */
+    static void parseColorMapFile(String fileName, Map<String, Object> colorMap) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            int lineNumber = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                lineNumber++;
+                if (line.trim().length() > 0 && !line.startsWith("#")) {
+                    int separator = Math.max(line.lastIndexOf('\t'), Math.max(line.lastIndexOf(','), line.lastIndexOf(':')));
+                    if (separator < 0) {
+                        throw new IllegalArgumentException("Missing separator at line " + lineNumber + " of " + fileName +
+                                ".  Each line should be text and a color separated by a tab, comma or colon (e.g. V704_0026_232,#3333ff).");
+                    }
+                    String color = line.substring(separator + 1).trim();
+                    try {
+                        // remove and re-insert so a repeated pattern moves to its latest position
+                        String key = line.substring(0, separator).trim();
+                        colorMap.remove(key);
+                        colorMap.put(key, Color.decode(color));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Failed to decode color: " + color + " at line " + lineNumber + " of " + fileName + ".");
+                    }
                 }
+                line = reader.readLine();
             }
-
-            return builder.append("}");
+        } finally {
+            reader.close();
         }
     }
 
-
     public static void centreLine(String line, int pageWidth) {
         int n = pageWidth - line.length();
         int n1 = n / 2;
@@ -388,6 +229,13 @@ public class FigTreeApplication extends MultiDocApplication {
         System.out.println("  Example: figtree test.tree");
         System.out.println("  Example: figtree -graphic PDF test.tree test.pdf");
         System.out.println("  Example: figtree -graphic PNG -width 320 -height 320 test.tree test.png");
+        System.out.println("  Example: cat test.trees.gz | figtree -graphic SVG - test.svg");
+        System.out.println("  Example: figtree -graphic PNG -trees 1-1000/10 posterior.trees tree.png   (tree_0001.png, tree_0011.png...)");
+        System.out.println("  Example: figtree -graphic PDF -trees all -pages posterior.trees trees.pdf   (one tree per page)");
+        System.out.println("  Example: figtree -graphic PDF -pageheight 842 big.tree big.pdf   (a tall tree split over A4 height pages)");
+        System.out.println("  Example: figtree -graphic SVG -batch results/ -pattern '*phyml_tree.txt' -threads 8");
+        System.out.println("  Example: figtree -graphic SVG -batch results/ -cachedir ~/.figtree-cache   (unchanged files are not rendered again)");
+        System.out.println("  Example: figtree serve -port 7171 -threads 8   (see figtree serve -help)");
         System.out.println();
     }
 
@@ -400,6 +248,12 @@ public class FigTreeApplication extends MultiDocApplication {
         // To ensure compatibility between programs in the package, enforce the US locale.
         //Locale.setDefault(Locale.US);
 
+        if (args.length > 0 && args[0].equals("serve")) {
+            // long running render server - see RenderServer
+            RenderServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         Arguments arguments = new Arguments(
                 new Arguments.Option[] {
                         new Arguments.StringOption("graphic", new String[] {
@@ -418,7 +272,18 @@ public class FigTreeApplication extends MultiDocApplication {
                         new Arguments.Option("nexusexport", "export the displayed tree in Nexus format"),
                         new Arguments.Option("stdout", "write the image file to stdout"),
                         new Arguments.StringOption("colors", "text:color", "comma delimited list of colors to associate with a text pattern (e.g. V704_0026_232:#3333ff) OR use the keyword 'extract' to extract from file name (expected format is hyphen delimited)"),
-                        new Arguments.IntegerOption("avg_seq_length", "average length of sequences")
+                        new Arguments.StringOption("colorfile", "file", "a file of colors to associate with text patterns, one text and color per line separated by a tab, comma or colon (patterns from -colors are added after these)"),
+                        new Arguments.IntegerOption("avg_seq_length", "average length of sequences"),
+                        new Arguments.StringOption("settings", "key=value", "comma delimited list of FigTree settings to override (e.g. tipLabels.fontSize=10,rectilinearLayout.alignTipLabels=true)"),
+                        new Arguments.StringOption("batch", "source", "render every tree file in a directory, glob pattern or manifest file (one file per line) in a single run"),
+                        new Arguments.StringOption("pattern", "glob", "file name pattern used to select tree files when -batch is a directory (default " + BatchRenderer.DEFAULT_PATTERN + ")"),
+                        new Arguments.StringOption("trees", "selection", "render several trees of a multi-tree file to numbered graphic files: all, N, N-M, N- or any of these followed by /step (e.g. 1-1000/10)"),
+                        new Arguments.Option("pages", "with -trees and -graphic PDF, write the selected trees as the pages of a single PDF file"),
+                        new Arguments.IntegerOption("pageheight", 1, Integer.MAX_VALUE, "the height of PDF pages in points, trees taller than this being split over several pages"),
+                        new Arguments.StringOption("cachedir", "directory", "keep the graphics (and Newick/NEXUS files) written for each tree file in this directory and copy them from there when the same file is rendered again with the same options"),
+                        new Arguments.IntegerOption("cachelimit", 1, Integer.MAX_VALUE, "the size the -cachedir directory is kept within, in megabytes (default " + (RenderCache.DEFAULT_SIZE_LIMIT >> 20) + ")"),
+                        new Arguments.StringOption("metrics", new String[] { "stderr", "file" }, false, "record the time and memory taken by each stage of a render (parse, setup, layout, calibrate, draw, encode) and write them as a line of JSON on stderr or in a _metrics.json file next to the graphic"),
+                        new Arguments.IntegerOption("threads", 1, Integer.MAX_VALUE, "number of worker threads used by -batch and -trees (default is the number of processors)")
                 });
 
         try {
@@ -438,16 +303,12 @@ public class FigTreeApplication extends MultiDocApplication {
             System.exit(0);
         }
 
-        Map<String, Object> settingsMap = new HashMap<String, Object>();
-        settingsMap.put("branchLabels.fontSize", new Double("9"));
-        settingsMap.put("trees.order", true);
-        settingsMap.put("trees.orderType", "increasing");
-        if (arguments.hasOption("avg_seq_length")) {
-            int seqLen = arguments.getIntegerOption("avg_seq_length");
-            double scaleR = 1.0/(double) seqLen;
-            NumberFormat formatter = new DecimalFormat("0.0E0");
-            settingsMap.put("scaleBar.automaticScale", false);
-            settingsMap.put("scaleBar.scaleRange", new Double(formatter.format(scaleR)));
+        Map<String, Object> settingsMap = null;
+        try {
+            settingsMap = createSettingsMap(arguments);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            System.exit(1);
         }
 
         boolean exportNewick = false;
@@ -468,27 +329,26 @@ public class FigTreeApplication extends MultiDocApplication {
             exportNexus = true;
         }
 
-        Map<String, Object> colorMap = new HashMap<String, Object>();
+        // ordered, as the last matching pattern gives a taxon its colour
+        Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
         boolean extractColorsFromFileName = false;
+        if (arguments.hasOption("colorfile")) {
+            try {
+                parseColorMapFile(arguments.getStringOption("colorfile"), colorMap);
+            } catch (IOException ioe) {
+                System.out.println("Unable to read color file: " + ioe.getMessage());
+                System.exit(1);
+            } catch (IllegalArgumentException iae) {
+                System.out.println(iae.getMessage());
+                System.exit(1);
+            }
+        }
         if (arguments.hasOption("colors")) {
-            String colors = arguments.getStringOption("colors");
-            if (colors.equals("extract")) {
-                extractColorsFromFileName = true;
-            } else {
-                List<String> items = Arrays.asList(colors.split("\\s*,\\s*"));
-                for (String item : items) {
-                    if (!item.contains(":")) {
-                        System.out.println("Missing : in colors value.  Should be a comma delimited list of text:color (e.g. V704_0026_232:#3333ff).");
-                        System.exit(0);
-                    }
-                    String[] keyPair = item.split(":");
-                    try {
-                        colorMap.put(keyPair[0], Color.decode(keyPair[1]));
-                    } catch (NumberFormatException e) {
-                        System.out.println("Failed to decode color: " + keyPair[1] + ".  Should be a comma delimited list of text:color (e.g. V704_0026_232:#3333ff).");
-                        System.exit(0);
-                    }
-                }
+            try {
+                extractColorsFromFileName = parseColorMap(arguments.getStringOption("colors"), colorMap);
+            } catch (IllegalArgumentException iae) {
+                System.out.println(iae.getMessage());
+                System.exit(1);
             }
         }
 
@@ -507,8 +367,76 @@ public class FigTreeApplication extends MultiDocApplication {
 
             // command line version...
             String graphicFormat = arguments.getStringOption("graphic");
+
+            int pageHeight = 0;
+            if (arguments.hasOption("pageheight")) {
+                pageHeight = arguments.getIntegerOption("pageheight");
+            }
+
+            RenderCache renderCache = null;
+            if (arguments.hasOption("cachedir")) {
+                long sizeLimit = RenderCache.DEFAULT_SIZE_LIMIT;
+                if (arguments.hasOption("cachelimit")) {
+                    sizeLimit = (long)arguments.getIntegerOption("cachelimit") << 20;
+                }
+                try {
+                    renderCache = new RenderCache(new File(arguments.getStringOption("cachedir")), sizeLimit);
+                } catch (IOException ioe) {
+                    System.err.println("Unable to use render cache: " + ioe.getMessage());
+                    System.exit(1);
+                }
+            }
+            RenderMetrics.Output metricsOutput = null;
+            if (arguments.hasOption("metrics")) {
+                metricsOutput = RenderMetrics.Output.valueOf(arguments.getStringOption("metrics").toUpperCase());
+            }
+            GraphicRenderer renderer = new GraphicRenderer(pageHeight, renderCache, metricsOutput);
+
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+
+            if (arguments.hasOption("batch")) {
+                List<String> inputs = null;
+                try {
+                    inputs = BatchRenderer.collectInputs(arguments.getStringOption("batch"),
+                            arguments.hasOption("pattern") ? arguments.getStringOption("pattern") : null);
+                } catch (IOException ioe) {
+                    System.err.println("Unable to read batch source: " + ioe.getMessage());
+                    System.exit(1);
+                }
+
+                BatchRenderer batchRenderer = new BatchRenderer(renderer, graphicFormat, width, height, settingsMap,
+                        exportNewick, exportNexus, colorMap, extractColorsFromFileName);
+                int failed = batchRenderer.render(inputs, threadCount);
+                System.exit(failed > 0 ? 1 : 0);
+            }
+
             String[] args2 = arguments.getLeftoverArguments();
 
+            if (arguments.hasOption("trees") && args2.length > 0) {
+                TreeSelection selection = null;
+                try {
+                    selection = TreeSelection.parse(arguments.getStringOption("trees"));
+                } catch (IllegalArgumentException iae) {
+                    System.out.println(iae.getMessage());
+                    System.exit(1);
+                }
+                if (extractColorsFromFileName) {
+                    parseColorMapFromTimePoints(colorMap, args2[0]);
+                }
+                String graphicFileName = (args2.length > 1 ? args2[1] : BatchRenderer.getGraphicFileName(args2[0], graphicFormat));
+                if (arguments.hasOption("pages") && graphicFormat.equals("PDF")) {
+                    int failed = renderer.renderPages(args2[0], graphicFileName, width,
+                            settingsMap, exportNewick, exportNexus, colorMap, selection);
+                    System.exit(failed > 0 ? 1 : 0);
+                }
+                int failed = renderer.renderAll(graphicFormat, width, args2[0], graphicFileName,
+                        settingsMap, exportNewick, exportNexus, colorMap, selection, threadCount);
+                System.exit(failed > 0 ? 1 : 0);
+            }
+
             if (args2.length == 0) {
                 // no tree file specified
                 printTitle();
@@ -521,9 +449,9 @@ public class FigTreeApplication extends MultiDocApplication {
                 }
                 String graphicFileName = args2[0] + ".svg";
                 if (!stdout) {
-                    createGraphic(graphicFormat, width, height, args2[0], graphicFileName, settingsMap, exportNewick, exportNexus, colorMap);
+                    createGraphic(renderer, graphicFormat, width, height, args2[0], graphicFileName, settingsMap, exportNewick, exportNexus, colorMap);
                 } else {
-                    createGraphic(graphicFormat, width, height, args2[0], null, settingsMap, exportNewick, exportNexus, colorMap);
+                    createGraphic(renderer, graphicFormat, width, height, args2[0], null, settingsMap, exportNewick, exportNexus, colorMap);
                 }
                 System.exit(0);
             } else {
@@ -531,7 +459,7 @@ public class FigTreeApplication extends MultiDocApplication {
                 if (extractColorsFromFileName) {
                     parseColorMapFromTimePoints(colorMap, args2[0]);
                 }
-                createGraphic(graphicFormat, width, height, args2[0], (args2.length > 1 ? args2[1] : null), settingsMap, exportNewick, exportNexus, colorMap);
+                createGraphic(renderer, graphicFormat, width, height, args2[0], (args2.length > 1 ? args2[1] : null), settingsMap, exportNewick, exportNexus, colorMap);
                 System.exit(0);
             }
         }
@@ -673,7 +601,7 @@ public class FigTreeApplication extends MultiDocApplication {
         }
     }
 
-    private static void parseColorMapFromTimePoints(Map<String, Object> colorMap, String fileName) {
+    static void parseColorMapFromTimePoints(Map<String, Object> colorMap, String fileName) {
         if (fileName.contains("-")) {
             if (fileName.contains(File.separator)) {
                 fileName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
@@ -49,11 +49,6 @@ import figtree.application.menus.FigTreeFileMenuHandler;
 import figtree.treeviewer.*;
 import figtree.treeviewer.TreeSelectionListener;
 import figtree.treeviewer.annotations.*;
-import org.apache.batik.dom.GenericDOMImplementation;
-import org.apache.batik.svggen.SVGGraphics2D;
-import org.apache.batik.svggen.SVGGraphics2DIOException;
-import org.w3c.dom.DOMImplementation;
-import org.w3c.dom.Element;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -64,9 +59,12 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Primary window for FigTree. The window contains a toolbar, a control panel and a panel displaying the
@@ -667,56 +665,54 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     }
 
     public boolean readFromFile(File file) throws IOException {
-        Reader reader = null;
-        try {
-            reader = new FileReader(file);
-
-            boolean isNexus = isNexus(reader);
-
-            ProgressMonitorInputStream in = new ProgressMonitorInputStream(
-                    this,
-                    "Reading " + file.getName(),
-                    new FileInputStream(file));
-            in.getProgressMonitor().setMillisToDecideToPopup(1000);
-            in.getProgressMonitor().setMillisToPopup(1000);
-
-            reader = new InputStreamReader(in);
-
-            boolean success = readData(reader, isNexus);
-
-            reader.close();
-
-            return success;
-
-        } catch (IOException ioe) {
-            if (reader != null) {
-                reader.close();
+        if (file.length() >= IndexedTreeFile.MINIMUM_INDEXED_SIZE) {
+            // the trees of a large file (e.g., a posterior sample from BEAST) are only
+            // read as they are shown
+            try {
+                IndexedTreeFile trees = IndexedTreeFile.open(file);
+                if (trees != null) {
+                    return readIndexedData(trees);
+                }
+            } catch (ImportException ie) {
+                JOptionPane.showMessageDialog(this, "Error reading tree file: \n" + ie.getMessage(),
+                        "Import Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return false;
             }
-            throw ioe;
         }
-    }
 
-    public boolean readFromURL(URL url) throws IOException {
-        InputStream in = url.openStream();
-        Reader reader = new InputStreamReader(url.openStream());
-
-        boolean isNexus = isNexus(reader);
-
-        reader.close();
+        File cachedFile = null;
+        if (file.length() >= TreeFileCache.MINIMUM_CACHED_SIZE) {
+            // the trees of a file that has been read before are read back from the cache
+            TreeFileCache.Entry entry = treeFileCache.read(file);
+            if (entry != null) {
+                return readCachedData(entry);
+            }
+            cachedFile = file;
+        }
 
-        reader = new InputStreamReader(url.openStream());
+        ProgressMonitorInputStream in = new ProgressMonitorInputStream(
+                this,
+                "Reading " + file.getName(),
+                new FileInputStream(file));
+        in.getProgressMonitor().setMillisToDecideToPopup(1000);
+        in.getProgressMonitor().setMillisToPopup(1000);
 
-        return readData(reader, isNexus);
+        TreeSource source = new TreeSource(file.getName(), in);
+        try {
+            return readData(source.getReader(), source.isNexus(), cachedFile);
+        } finally {
+            source.close();
+        }
     }
 
-    private boolean isNexus(Reader reader) throws IOException {
-        BufferedReader bufferedReader = new BufferedReader(reader);
-        String line = bufferedReader.readLine();
-        while (line != null && line.length() == 0) {
-            line = bufferedReader.readLine();
+    public boolean readFromURL(URL url) throws IOException {
+        TreeSource source = TreeSource.open(url);
+        try {
+            return readData(source.getReader(), source.isNexus());
+        } finally {
+            source.close();
         }
-
-        return (line != null && line.toUpperCase().contains("#NEXUS"));
     }
 
     public boolean readFromString(String string) throws IOException {
@@ -725,6 +721,14 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     }
 
     protected boolean readData(Reader reader, boolean isNexus) throws IOException {
+        return readData(reader, isNexus, null);
+    }
+
+    /**
+     * @param cachedFile the file being read, if its trees are to be kept in the tree
+     *                   file cache, or null
+     */
+    private boolean readData(Reader reader, boolean isNexus, File cachedFile) throws IOException {
 
         List<Tree> trees = new ArrayList<Tree>();
 
@@ -736,36 +740,24 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
             // all the settings have defaults
             controlPalette.getSettings(settings);
 
-            if (isNexus) {
-                FigTreeNexusImporter importer = new FigTreeNexusImporter(reader);
-                while (importer.hasTree()) {
-                    Tree tree = importer.importNextTree();
-                    trees.add(tree);
-                }
-                // Try to find a figtree block and if found, parse the settings
-                while (true) {
-                    try {
-                        importer.findNextBlock();
-                        if (importer.getNextBlockName().equalsIgnoreCase("FIGTREE")) {
-                            importer.parseFigTreeBlock(settings);
-                            hasSettings = true;
-                        }
-                    } catch (EOFException ex) {
-                        break;
-                    }
-                }
-            } else {
-                NewickImporter importer = new NewickImporter(reader, true);
-                while (importer.hasTree()) {
-                    Tree tree = importer.importNextTree();
-                    trees.add(tree);
-                }
-            }
+            TreeFileImporter importer = new TreeFileImporter(reader, isNexus);
+            // the trees of a NEXUS file are parsed in parallel (tree files from BEAST
+            // can have tens of thousands)
+            trees.addAll(importer.importTrees(ForkJoinPool.commonPool()));
+            // Try to find a figtree block and if found, parse the settings
+            Map<String, Object> fileSettings = new HashMap<String, Object>();
+            hasSettings = importer.readFigTreeBlocks(fileSettings);
+            settings.putAll(fileSettings);
 
             if (trees.size() == 0) {
                 throw new ImportException("This file contained no trees.");
             }
 
+            if (cachedFile != null) {
+                // the trees are kept as they are in the file, before any labels are renamed
+                treeFileCache.writeLater(cachedFile, trees, importer.getTaxonAttributes(), fileSettings, hasSettings);
+            }
+
             checkLabelAttribute(trees);
 
             treeViewer.setTrees(trees);
@@ -788,6 +780,69 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         return true;
     }
 
+    private boolean readCachedData(TreeFileCache.Entry entry) {
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        controlPalette.getSettings(settings);
+        settings.putAll(entry.getSettings());
+
+        // as parsing the file would have done
+        for (Map.Entry<Taxon, Map<String, Object>> taxonAttributes : entry.getTaxonAttributes().entrySet()) {
+            for (Map.Entry<String, Object> attribute : taxonAttributes.getValue().entrySet()) {
+                taxonAttributes.getKey().setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+
+        List<Tree> trees = entry.getTrees();
+        checkLabelAttribute(trees);
+
+        treeViewer.setTrees(trees);
+        controlPalette.setSettings(settings);
+
+        if (!entry.hasFigTreeBlock()) {
+            setDirty();
+            clearFile();
+        }
+
+        return true;
+    }
+
+    private boolean readIndexedData(IndexedTreeFile trees) throws IOException {
+
+        boolean hasSettings = false;
+
+        try {
+            Map<String, Object> settings = new HashMap<String, Object>();
+            // First of all, fully populate the settings map so that
+            // all the settings have defaults
+            controlPalette.getSettings(settings);
+
+            hasSettings = trees.readFigTreeBlocks(settings);
+
+            // only the trees read so far are looked at for labels, and the name chosen is
+            // given to the labels of the rest as they are read
+            String labelName = checkLabelAttribute(trees.getLoadedTrees());
+            if (labelName != null) {
+                trees.renameNodeAttribute("label", labelName);
+            }
+
+            treeViewer.setTrees(trees);
+            controlPalette.setSettings(settings);
+        } catch (ImportException ie) {
+            JOptionPane.showMessageDialog(this, "Error reading tree file: \n" + ie.getMessage(),
+                    "Import Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        if (!hasSettings) {
+            setDirty();
+            clearFile();
+        }
+
+        return true;
+    }
+
     /**
      * This version loads the trees in a thread but this needs more thought in order
      * to tie in to the JAM framework correctly
@@ -886,7 +941,13 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
 //    }
 
 
-    private void checkLabelAttribute(List<Tree> trees) {
+    /**
+     * Asks for a name for the node labels, if there are any, and gives it to them.
+     *
+     * @return the new name of the labels, or null if they have kept the name 'label' (or
+     *         there are none)
+     */
+    private String checkLabelAttribute(List<Tree> trees) {
 
         boolean hasLabel = false;
 
@@ -926,8 +987,10 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
                         }
                     }
                 }
+                return labelName;
             }
         }
+        return null;
     }
 
 
@@ -936,12 +999,23 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
         Map<String, Object> settings = new TreeMap<String, Object>();
         controlPalette.getSettings(settings);
 
-        FileWriter writer = new FileWriter(file);
-        FigTreeNexusExporter exporter = new FigTreeNexusExporter(writer, true);
-        exporter.exportTrees(treeViewer.getTrees(), true);
-        exporter.writeFigTreeBlock(settings);
+        // written next to the file and then moved over it, as the trees of a large file
+        // may still be being read from it (see IndexedTreeFile) while they are written
+        File temporary = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileWriter writer = new FileWriter(temporary);
+            try {
+                FigTreeNexusExporter exporter = new FigTreeNexusExporter(writer, true);
+                exporter.exportTrees(treeViewer.getTrees(), true);
+                exporter.writeFigTreeBlock(settings);
+            } finally {
+                writer.close();
+            }
 
-        writer.close();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
 
         return true;
     }
@@ -1262,43 +1336,31 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
 
     }
     private final static void exportGraphicsFile(GraphicFormat format, JComponent component, OutputStream stream) throws IOException {
-        int imageType = BufferedImage.TYPE_INT_RGB;
-
         if (format == GraphicFormat.PNG) {
-            // PNG allows an alpha channel
-            imageType = BufferedImage.TYPE_INT_ARGB;
+            // the PNG writer pulls rows in order so the image is painted a band at a time
+            ImageIO.write(new BandedImage(component, component.getSize().width, component.getSize().height,
+                    BufferedImage.TYPE_INT_ARGB, null), format.getName(), stream);
+            return;
         }
+
+        // GIF and JPEG have no alpha channel, so they are drawn on white
+        int imageType = BufferedImage.TYPE_INT_RGB;
         BufferedImage bi = new BufferedImage(component.getSize().width, component.getSize().height, imageType);
         Graphics g = bi.createGraphics();
-
-        if (format != GraphicFormat.PNG) {
-            g.setColor(Color.WHITE);
-            g.fillRect(0, 0, bi.getWidth(), bi.getHeight());
-        }
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, bi.getWidth(), bi.getHeight());
         component.paint(g);
         g.dispose();
         ImageIO.write(bi, format.getName(), stream);
     }
 
     private final static void exportSVGFile(JComponent component, OutputStream stream) throws IOException {
-        // Get a DOMImplementation and create an XML document
-        DOMImplementation domImpl = GenericDOMImplementation.getDOMImplementation();
-        org.w3c.dom.Document document = domImpl.createDocument(null, "svg", null);
-
-        // Create an instance of the SVG Generator
-        SVGGraphics2D svgGenerator = new SVGGraphics2D(document);
-
-        component.paint(svgGenerator);
-        Element svgRoot = svgGenerator.getRoot();
         Rectangle2D bounds = component.getBounds();
-        String viewBox = "0 0 " + bounds.getWidth() + " " + bounds.getHeight();
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_VIEW_BOX_ATTRIBUTE, viewBox);
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_WIDTH_ATTRIBUTE, Double.toString(bounds.getWidth()));
-        svgRoot.setAttributeNS(null, svgGenerator.SVG_HEIGHT_ATTRIBUTE, Double.toString(bounds.getHeight()));
 
-        // Write svg file
-        Writer out = new OutputStreamWriter(stream, "UTF-8");
-        svgGenerator.stream(svgRoot, out, true /* use css */, false /* escaped */);
+        // Write the svg file as the component is painted
+        StreamingSVGGraphics2D svgGenerator = new StreamingSVGGraphics2D(stream, bounds.getWidth(), bounds.getHeight());
+        component.paint(svgGenerator);
+        svgGenerator.finish();
     }
 
     public final static void exportPDFFile(JComponent component, OutputStream stream) throws DocumentException {
@@ -1870,4 +1932,6 @@ public class FigTreeFrame extends DocumentFrame implements FigTreeFileMenuHandle
     private AnnotationDialog annotationDialog = null;
     private AnnotationDialog copyAnnotationDialog = null;
     private SelectAnnotationDialog selectAnnotationDialog = null;
+
+    private final TreeFileCache treeFileCache = TreeFileCache.getDefault();
 }
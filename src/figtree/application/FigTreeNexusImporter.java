@@ -86,7 +86,7 @@ public class FigTreeNexusImporter extends NexusImporter {
 	}
 
 
-	private Object parseValue(String value) {
+	static Object parseValue(String value) {
 		if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
 			return new Boolean(value);
 		}
@@ -0,0 +1,809 @@
+/*
+ * GraphicRenderer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.DocumentException;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.io.NewickExporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Renders tree files to graphics for the command line. The drawing itself is done by
+ * a TreeRenderer, which builds a fresh tree pane for each render and none of the user
+ * interface, so a GraphicRenderer holds no state and can be shared by any number of
+ * threads.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class GraphicRenderer {
+
+    public final static String NEWICK_SUFFIX = "_newick.tre";
+    public final static String NEXUS_SUFFIX = "_nexus.tre";
+
+    private final static String WARM_UP_TREE = "((A:1,B:1)[&posterior=1.0]:1,(C:1,D:1):1);";
+
+    public GraphicRenderer() {
+        this(0, null, null);
+    }
+
+    /**
+     * @param pageHeight the height of the pages of PDF graphics, a tree taller than this
+     *                   being split over several pages (zero for a single page)
+     * @param renderCache a cache of earlier renders of single tree files to copy from
+     *                    rather than render again (null for none)
+     * @param metricsOutput where to write the time and memory taken by each stage of
+     *                      every render (null for nowhere)
+     */
+    public GraphicRenderer(int pageHeight, RenderCache renderCache, RenderMetrics.Output metricsOutput) {
+        this.pageHeight = pageHeight;
+        this.renderCache = renderCache;
+        this.metricsOutput = metricsOutput;
+    }
+
+    /**
+     * Renders a small tree to nowhere so that the classes, fonts and image writers
+     * used by a render are loaded before the first real job arrives.
+     */
+    public static void warmUp() {
+        try {
+            TreeFileImporter importer = new TreeFileImporter(new StringReader(WARM_UP_TREE), false);
+            Tree tree = importer.importNextTree();
+            for (GraphicFormat format : new GraphicFormat[] { GraphicFormat.PNG, GraphicFormat.SVG, GraphicFormat.PDF }) {
+                new TreeRenderer(new RenderSettings(format, 100, 100, Collections.<String, Object>emptyMap()))
+                        .render(tree, new ByteArrayOutputStream());
+            }
+        } catch (Exception e) {
+            // a failed warm up only costs time on the first job
+        }
+    }
+
+    public void render(String graphicFormat, int width, int height, String treeFileName, String graphicFileName, Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus, Map<String, Object> colorMap) {
+        if (renderCache == null || graphicFileName == null || !RenderCache.isCacheable(treeFileName)) {
+            renderFile(graphicFormat, width, treeFileName, graphicFileName, cmdSettings, writeNewick, writeNexus, colorMap);
+            return;
+        }
+
+        // the files the render writes, named as they are kept in the cache
+        Map<String, File> outputs = new LinkedHashMap<String, File>();
+        outputs.put("graphic", new File(graphicFileName));
+        if (writeNewick) {
+            outputs.put("newick", new File(getTreeFileName(graphicFileName, NEWICK_SUFFIX)));
+        }
+        if (writeNexus) {
+            outputs.put("nexus", new File(getTreeFileName(graphicFileName, NEXUS_SUFFIX)));
+        }
+
+        String key = null;
+        try {
+            key = RenderCache.getKey(new File(treeFileName),
+                    Arrays.asList(graphicFormat, width, pageHeight, writeNewick, writeNexus), cmdSettings, colorMap);
+            if (renderCache.restore(key, outputs)) {
+                System.out.println("Copied " + graphicFormat + " graphic from cache: " + graphicFileName);
+                return;
+            }
+        } catch (IOException ioe) {
+            // rendering will report the problem if it is with the tree file itself
+            System.err.println("Render cache not used: " + ioe.getMessage());
+        }
+
+        renderFile(graphicFormat, width, treeFileName, graphicFileName, cmdSettings, writeNewick, writeNexus, colorMap);
+
+        if (key != null) {
+            try {
+                renderCache.store(key, outputs);
+            } catch (IOException ioe) {
+                System.err.println("Unable to add graphic to render cache: " + ioe.getMessage());
+            }
+        }
+    }
+
+    private void renderFile(String graphicFormat, int width, String treeFileName, String graphicFileName, Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus, Map<String, Object> colorMap) {
+
+        RenderMetrics metrics = createMetrics(treeFileName, graphicFormat);
+        try {
+            if (metrics != null) {
+                metrics.begin(RenderMetrics.PARSE);
+            }
+
+            // the file is read once, sniffing the format from the buffered start of the stream
+            TreeSource source = TreeSource.open(treeFileName);
+
+            // Start from a fully populated settings map so that all the settings have defaults
+            Map<String, Object> settings = RenderSettings.getDefaultSettings();
+
+            // Add any command line, default ordering and font size settings
+            settings.putAll(cmdSettings);
+
+            List<Tree> trees = new ArrayList<Tree>();
+            Map<Taxon, Map<String, Object>> taxonAttributes;
+
+            try {
+                TreeFileImporter importer = new TreeFileImporter(source.getReader(), source.isNexus(), false);
+                Tree tree = importer.importNextTree();
+                if (tree != null) {
+                    // null if the file has no trees, which is reported below
+                    trees.add(tree);
+                }
+
+                // Try to find a figtree block and if found, parse the settings
+                importer.readFigTreeBlocks(settings);
+                taxonAttributes = importer.getTaxonAttributes();
+            } finally {
+                source.close();
+            }
+
+            if (metrics != null) {
+                metrics.end(RenderMetrics.PARSE);
+            }
+
+            if (trees.size() == 0) {
+                throw new ImportException("This file contained no trees.");
+            }
+
+            // the color choices are kept for this render rather than set on the (shared) taxa
+            Map<Taxon, Object> taxonColors = new ColorMatcher(colorMap).getColors(trees.get(0).getTaxa());
+
+            TaxonAttributeScope scope = TaxonAttributeScope.enter(taxonAttributes);
+            try {
+                renderTree(getGraphicFormat(graphicFormat), width, trees.get(0), taxonAttributes, taxonColors, graphicFileName, settings, writeNewick, writeNexus, metrics);
+            } finally {
+                scope.exit();
+            }
+
+        } catch(ImportException ie) {
+            throw new RuntimeException("Error writing graphic file: " + ie.getMessage());
+        } catch(IOException ioe) {
+            throw new RuntimeException("Error writing graphic file: " + ioe.getMessage());
+        } catch (DocumentException de) {
+            throw new RuntimeException("Error writing graphic file: " + de.getMessage());
+        }
+
+    }
+
+    /**
+     * Renders a selection of the trees in a multi-tree file, each to its own numbered
+     * graphic file (e.g., trees.png becomes trees_0001.png, trees_0002.png...). Trees
+     * are handed to a pool of workers as they are read so that reading the file and
+     * rendering overlap. A FIGTREE block may come after the trees, so the FIGTREE blocks
+     * of a NEXUS file are read ahead by one of the workers (skipping over the trees)
+     * and the others start drawing once they have been. A NEXUS file read from
+     * standard input can't be read twice, so there the workers wait for the end of the
+     * file before they start drawing.
+     *
+     * @return the number of trees that failed to render, plus one if the file couldn't be read to the end
+     */
+    public int renderAll(String graphicFormat, int width, String treeFileName, String graphicFileName,
+                         Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus,
+                         Map<String, Object> colorMap, TreeSelection selection, int threadCount) {
+        if (graphicFileName == null) {
+            throw new IllegalArgumentException("A graphic file name is needed to number the graphics of each tree");
+        }
+        final GraphicFormat format = getGraphicFormat(graphicFormat);
+
+        final Map<String, Object> settings = RenderSettings.getDefaultSettings();
+        settings.putAll(cmdSettings);
+
+        // completed with the final settings once they are known
+        final boolean readsAhead = canReadTwice(treeFileName);
+        final FutureTask<Map<String, Object>> settingsTask = new FutureTask<Map<String, Object>>(new Callable<Map<String, Object>>() {
+            public Map<String, Object> call() {
+                if (readsAhead) {
+                    try {
+                        readFigTreeBlocks(treeFileName, settings);
+                    } catch (ImportException ie) {
+                        // the trees are drawn with whatever settings were read
+                        System.err.println("Error reading settings: " + ie.getMessage());
+                    } catch (IOException ioe) {
+                        System.err.println("Error reading settings: " + ioe.getMessage());
+                    }
+                }
+                return settings;
+            }
+        });
+
+        // keeps the reader from running far ahead of the workers once they can draw
+        final Semaphore pending = new Semaphore(Math.max(1, threadCount) * 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        if (readsAhead) {
+            executor.execute(settingsTask);
+        }
+        final Map<Integer, Future<Boolean>> results = new TreeMap<Integer, Future<Boolean>>();
+        final ColorMatcher colorMatcher = new ColorMatcher(colorMap);
+        final Map<Taxon, Map<String, Object>> taxonAttributes = new LinkedHashMap<Taxon, Map<String, Object>>();
+
+        boolean readFailed = false;
+        int index = 0;
+        // entered once the TAXA block has been read, and held until the workers are done
+        TaxonAttributeScope scope = null;
+        int failed = 0;
+        try {
+            try {
+                TreeSource source = TreeSource.open(treeFileName);
+                try {
+                    TreeFileImporter importer = new TreeFileImporter(source.getReader(), source.isNexus(), false);
+                    if (!importer.isNexus() && !readsAhead) {
+                        // no settings will be found in the file
+                        settingsTask.run();
+                    }
+
+                    while (!selection.isPastEnd(index + 1) && importer.hasTree()) {
+                        final RenderMetrics metrics = createMetrics(treeFileName, graphicFormat);
+                        if (metrics != null) {
+                            metrics.begin(RenderMetrics.PARSE);
+                        }
+                        final Tree tree = importer.importNextTree();
+                        index++;
+                        if (!selection.contains(index)) {
+                            continue;
+                        }
+                        if (metrics != null) {
+                            metrics.end(RenderMetrics.PARSE);
+                            metrics.setProperty("tree", index);
+                        }
+                        if (scope == null) {
+                            // the TAXA block comes before the trees
+                            taxonAttributes.putAll(importer.getTaxonAttributes());
+                            scope = TaxonAttributeScope.enter(taxonAttributes);
+                        }
+
+                        final boolean throttled = readsAhead || settingsTask.isDone();
+                        if (throttled) {
+                            pending.acquire();
+                        }
+
+                        final int treeIndex = index;
+                        final String fileName = getNumberedFileName(graphicFileName, treeIndex);
+                        results.put(treeIndex, executor.submit(new Callable<Boolean>() {
+                            public Boolean call() throws Exception {
+                                try {
+                                    Map<Taxon, Object> taxonColors = colorMatcher.getColors(tree.getTaxa());
+                                    renderTree(format, width, tree, taxonAttributes, taxonColors, fileName, settingsTask.get(), writeNewick, writeNexus, metrics);
+                                    return true;
+                                } catch (Exception e) {
+                                    System.err.println("FAILED tree " + treeIndex + ": " + e.getMessage());
+                                    return false;
+                                } finally {
+                                    if (throttled) {
+                                        pending.release();
+                                    }
+                                }
+                            }
+                        }));
+                    }
+
+                    if (importer.isNexus() && !readsAhead) {
+                        importer.readFigTreeBlocks(settings);
+                    }
+                } finally {
+                    source.close();
+                }
+            } catch (ImportException ie) {
+                System.err.println("Error reading tree " + (index + 1) + ": " + ie.getMessage());
+                readFailed = true;
+            } catch (IOException ioe) {
+                System.err.println("Error reading trees: " + ioe.getMessage());
+                readFailed = true;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // let any waiting workers go, with whatever settings were read
+                settingsTask.run();
+                executor.shutdown();
+            }
+
+            for (Future<Boolean> result : results.values()) {
+                try {
+                    if (!result.get()) {
+                        failed++;
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    failed++;
+                } catch (ExecutionException ee) {
+                    failed++;
+                }
+            }
+        } finally {
+            if (scope != null) {
+                scope.exit();
+            }
+        }
+
+        if (results.size() == 0 && !readFailed) {
+            System.err.println("No trees were selected from " + treeFileName + " (selection " + selection + ")");
+            return 1;
+        }
+
+        System.out.println("Rendered " + (results.size() - failed) + " of " + results.size() + " trees");
+        return failed + (readFailed ? 1 : 0);
+    }
+
+    /**
+     * Renders a selection of the trees in a multi-tree file as the pages of a single PDF
+     * file, in the order they appear in the file. Pages are written out as they are
+     * drawn, and each tree is drawn as soon as it has been read. A FIGTREE block may
+     * come after the trees, so the FIGTREE blocks of a NEXUS file are read first
+     * (skipping over the trees), except when it is read from standard input and can't
+     * be read twice, in which case the selected trees are kept until the end of the file.
+     *
+     * Any Newick or NEXUS files asked for hold all of the selected trees as drawn.
+     *
+     * @return the number of trees that failed to render, plus one if the file couldn't be read to the end
+     */
+    public int renderPages(String treeFileName, String graphicFileName, int width,
+                           Map<String, Object> cmdSettings, boolean writeNewick, boolean writeNexus,
+                           Map<String, Object> colorMap, TreeSelection selection) {
+        if (graphicFileName == null) {
+            throw new IllegalArgumentException("A graphic file name is needed to write the pages to");
+        }
+
+        Map<String, Object> settings = RenderSettings.getDefaultSettings();
+        settings.putAll(cmdSettings);
+
+        ColorMatcher colorMatcher = new ColorMatcher(colorMap);
+        Set<Taxon> taxa = new HashSet<Taxon>();
+        Map<Taxon, Object> taxonColors = new HashMap<Taxon, Object>();
+
+        List<Tree> treesAsViewed = new ArrayList<Tree>();
+        int failed = 0;
+        int count = 0;
+        boolean readFailed = false;
+        int index = 0;
+
+        MultiPagePDF pdf = null;
+        OutputStream stream = null;
+        Map<Taxon, Map<String, Object>> taxonAttributes = Collections.emptyMap();
+        TaxonAttributeScope scope = null;
+        try {
+            stream = new FileOutputStream(graphicFileName);
+            pdf = new MultiPagePDF(stream);
+            System.out.println("Creating PDF graphic: " + graphicFileName);
+
+            boolean readsAhead = canReadTwice(treeFileName);
+            if (readsAhead) {
+                try {
+                    readFigTreeBlocks(treeFileName, settings);
+                } catch (ImportException ie) {
+                    // the trees are drawn with whatever settings were read
+                    System.err.println("Error reading settings: " + ie.getMessage());
+                }
+            }
+
+            // trees waiting for the settings at the end of a NEXUS file
+            Map<Integer, Tree> pending = new TreeMap<Integer, Tree>();
+
+            TreeSource source = TreeSource.open(treeFileName);
+            try {
+                TreeFileImporter importer = new TreeFileImporter(source.getReader(), source.isNexus(), false);
+
+                while (!selection.isPastEnd(index + 1) && importer.hasTree()) {
+                    Tree tree = importer.importNextTree();
+                    index++;
+                    if (!selection.contains(index)) {
+                        continue;
+                    }
+
+                    if (scope == null) {
+                        // the TAXA block comes before the trees
+                        taxonAttributes = new LinkedHashMap<Taxon, Map<String, Object>>(importer.getTaxonAttributes());
+                        scope = TaxonAttributeScope.enter(taxonAttributes);
+                    }
+
+                    // the colors are kept for this render rather than set on the (shared) taxa
+                    taxa.addAll(tree.getTaxa());
+                    taxonColors.putAll(colorMatcher.getColors(tree.getTaxa()));
+
+                    count++;
+                    if (importer.isNexus() && !readsAhead) {
+                        pending.put(index, tree);
+                    } else if (!renderPage(pdf, width, tree, taxonColors, index, settings, writeNewick || writeNexus ? treesAsViewed : null)) {
+                        failed++;
+                    }
+                }
+
+                if (importer.isNexus() && !readsAhead) {
+                    importer.readFigTreeBlocks(settings);
+                }
+            } catch (ImportException ie) {
+                System.err.println("Error reading tree " + (index + 1) + ": " + ie.getMessage());
+                readFailed = true;
+            } catch (IOException ioe) {
+                System.err.println("Error reading trees: " + ioe.getMessage());
+                readFailed = true;
+            } finally {
+                source.close();
+            }
+
+            // draw whatever was read, with whatever settings were found
+            for (Map.Entry<Integer, Tree> entry : pending.entrySet()) {
+                if (!renderPage(pdf, width, entry.getValue(), taxonColors, entry.getKey(), settings, writeNewick || writeNexus ? treesAsViewed : null)) {
+                    failed++;
+                }
+            }
+        } catch (IOException ioe) {
+            System.err.println("Error writing graphic file: " + ioe.getMessage());
+            return 1;
+        } catch (DocumentException de) {
+            System.err.println("Error writing graphic file: " + de.getMessage());
+            return 1;
+        } finally {
+            try {
+                if (pdf != null) {
+                    pdf.close();
+                }
+            } finally {
+                // the PDF only closes the stream if it has been given a page
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ioe) {
+                        System.err.println("Error closing graphic file: " + ioe.getMessage());
+                    }
+                }
+                if (pdf == null || pdf.getPageCount() == 0) {
+                    // a PDF can't have no pages, so no (empty) file is left behind
+                    new File(graphicFileName).delete();
+                }
+                if (scope != null) {
+                    scope.exit();
+                }
+            }
+        }
+
+        if (count == 0 && !readFailed) {
+            System.err.println("No trees were selected from " + treeFileName + " (selection " + selection + ")");
+            return 1;
+        }
+
+        if (pdf.getPageCount() == 0) {
+            System.err.println("No trees could be drawn, so " + graphicFileName + " was not written");
+        }
+
+        try {
+            writeTreeFiles(graphicFileName, treesAsViewed, taxa, taxonAttributes, taxonColors, settings, writeNewick, writeNexus);
+        } catch (IOException ioe) {
+            System.err.println("Error writing tree files: " + ioe.getMessage());
+            failed++;
+        }
+
+        System.out.println("Rendered " + (count - failed) + " of " + count + " trees on " + pdf.getPageCount() + " pages");
+        return failed + (readFailed ? 1 : 0);
+    }
+
+    private boolean renderPage(MultiPagePDF pdf, int width, Tree tree, Map<Taxon, Object> taxonColors, int treeIndex,
+                               Map<String, Object> settings, List<Tree> treesAsViewed) {
+        try {
+            TreeRenderer renderer = new TreeRenderer(new RenderSettings(GraphicFormat.PDF, width, getGraphicHeight(tree), settings), taxonColors);
+            Tree treeAsViewed = renderer.render(tree, pdf, pageHeight);
+            if (treesAsViewed != null) {
+                treesAsViewed.add(treeAsViewed);
+            }
+            return true;
+        } catch (Exception e) {
+            System.err.println("FAILED tree " + treeIndex + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the tree file can be opened a second time to read ahead (it is a
+     *         file, rather than standard input or a URL)
+     */
+    private static boolean canReadTwice(String treeFileName) {
+        return !treeFileName.equals(TreeSource.STANDARD_INPUT) && new File(treeFileName).isFile();
+    }
+
+    /**
+     * Reads the FIGTREE blocks of a tree file ahead of its trees, which are skipped over
+     * rather than read.
+     */
+    private static void readFigTreeBlocks(String treeFileName, Map<String, Object> settings) throws IOException, ImportException {
+        TreeSource source = TreeSource.open(treeFileName);
+        try {
+            if (source.isNexus()) {
+                new TreeFileImporter(source.getReader(), true, false).readFigTreeBlocks(settings);
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * The name of the graphic file for one tree of a multi-tree render: the tree
+     * number is inserted before the extension.
+     */
+    public static String getNumberedFileName(String fileName, int index) {
+        String number = String.format("_%04d", index);
+        int dot = fileName.lastIndexOf('.');
+        if (dot > fileName.lastIndexOf(File.separatorChar)) {
+            return fileName.substring(0, dot) + number + fileName.substring(dot);
+        }
+        return fileName + number;
+    }
+
+    private static GraphicFormat getGraphicFormat(String graphicFormat) {
+        GraphicFormat format = null;
+        if (graphicFormat.equals("PDF")) {
+            format = GraphicFormat.PDF;
+        } else if (graphicFormat.equals("SVG")) {
+            format = GraphicFormat.SVG;
+        } else if (graphicFormat.equals("GIF")) {
+            format = GraphicFormat.GIF;
+        } else if (graphicFormat.equals("PNG")) {
+            format = GraphicFormat.PNG;
+        } else if (graphicFormat.equals("JPEG")) {
+            format = GraphicFormat.JPEG;
+        } else {
+            throw new RuntimeException("Unknown graphic format");
+        }
+        return format;
+    }
+
+    /**
+     * Draws a single tree (sizing the graphic to the number of taxa) and writes the
+     * Newick and NEXUS files of the tree as viewed if they were asked for.
+     */
+    private void renderTree(GraphicFormat format, int width, Tree tree, Map<Taxon, Map<String, Object>> taxonAttributes,
+                            Map<Taxon, Object> taxonColors, String graphicFileName,
+                            Map<String, Object> settings, boolean writeNewick, boolean writeNexus, RenderMetrics metrics)
+            throws IOException, DocumentException {
+        Set<Taxon> taxa = new HashSet<Taxon>(tree.getTaxa());
+
+        int height = getGraphicHeight(tree);
+        TreeRenderer renderer = new TreeRenderer(new RenderSettings(format, width, height, settings), taxonColors);
+        if (metrics != null) {
+            metrics.setProperty("output", graphicFileName != null ? graphicFileName : "standard output");
+            metrics.setProperty("width", width);
+            metrics.setProperty("height", height);
+        }
+
+        OutputStream stream;
+        if (graphicFileName != null) {
+            stream = new FileOutputStream(graphicFileName);
+        } else {
+            stream = System.out;
+        }
+
+        if (graphicFileName != null) {
+            System.out.println("Creating " + format.name() + " graphic: " + graphicFileName);
+        }
+
+        List<Tree> treesAsViewed = new ArrayList<Tree>();
+        try {
+            if (format == GraphicFormat.PDF && pageHeight > 0) {
+                MultiPagePDF pdf = new MultiPagePDF(stream);
+                treesAsViewed.add(renderer.render(tree, pdf, pageHeight, metrics));
+                pdf.close();
+            } else {
+                treesAsViewed.add(renderer.render(tree, stream, metrics));
+            }
+        } finally {
+            if (graphicFileName != null) {
+                stream.close();
+            } else {
+                stream.flush();
+            }
+        }
+
+        if (metrics != null) {
+            metrics.begin(RenderMetrics.TREE_FILES);
+        }
+        writeTreeFiles(graphicFileName, treesAsViewed, taxa, taxonAttributes, taxonColors, settings, writeNewick, writeNexus);
+        if (metrics != null) {
+            metrics.end(RenderMetrics.TREE_FILES);
+            metrics.write(metricsOutput, graphicFileName);
+        }
+    }
+
+    /**
+     * @return the metrics for a render, or null if no metrics were asked for
+     */
+    private RenderMetrics createMetrics(String treeFileName, String graphicFormat) {
+        if (metricsOutput == null) {
+            return null;
+        }
+        RenderMetrics metrics = new RenderMetrics();
+        metrics.setProperty("input", treeFileName);
+        metrics.setProperty("format", graphicFormat);
+        return metrics;
+    }
+
+    /**
+     * The height of the graphic for a tree, which gives each tip room for a label.
+     */
+    private static int getGraphicHeight(Tree tree) {
+        int numberOfTaxa = tree.getTaxa().size();
+        int FONT_SIZE = 8;
+        int TOP_BOTTOM_MARGIN = 46;
+        // Jeff replaced height with calculatedHeight
+        return (numberOfTaxa * FONT_SIZE) + TOP_BOTTOM_MARGIN;
+    }
+
+    /**
+     * The name of a Newick or NEXUS file written next to a graphic file: the suffix
+     * replaces the graphic's extension.
+     */
+    public static String getTreeFileName(String graphicFileName, String suffix) {
+        return graphicFileName.substring(0, graphicFileName.length() - 4) + suffix;
+    }
+
+    /**
+     * Writes the Newick and NEXUS files of the trees as viewed, if they were asked for,
+     * next to the graphic file. The taxa are written with the attributes their file gave
+     * them and the colors they were drawn in.
+     */
+    private static void writeTreeFiles(String graphicFileName, List<Tree> treesAsViewed, Set<Taxon> taxa,
+                                       Map<Taxon, Map<String, Object>> taxonAttributes, Map<Taxon, Object> taxonColors,
+                                       Map<String, Object> settings, boolean writeNewick, boolean writeNexus) throws IOException {
+        if (writeNewick) {
+            if (graphicFileName != null) {
+                String newickFileName = getTreeFileName(graphicFileName, NEWICK_SUFFIX);
+                FileWriter fileNewick = new FileWriter(newickFileName);
+                List<Tree> treesList = new ArrayList<Tree>();
+                treesList.addAll(treesAsViewed);
+                System.out.println("Creating Newick file: " + newickFileName);
+
+                if (treesList.size() > 0) {
+                    NewickExporter newickExporter = new NewickExporter(fileNewick);
+                    newickExporter.exportTrees(treesList);
+                }
+                fileNewick.flush();
+                fileNewick.close();
+            } else {
+                System.out.println("Can't build Newick file name - make sure graphic file name is provided.");
+            }
+        }
+
+        if (writeNexus) {
+            if (graphicFileName != null) {
+                String nexusFileName = getTreeFileName(graphicFileName, NEXUS_SUFFIX);
+                FileWriter fileNexus = new FileWriter(nexusFileName);
+                List<Tree> treesList = new ArrayList<Tree>();
+                treesList.addAll(treesAsViewed);
+                System.out.println("Creating Nexus file: " + nexusFileName);
+
+                if (treesList.size() > 0) {
+                    FigTreeNexusExporter nexusExporter = new FigTreeNexusExporter(fileNexus, true);
+                    Taxon[] taxonArray = taxa.toArray(new Taxon[0]);
+                    int len = taxonArray.length;
+                    fileNexus.write("begin taxa;\n");
+                    fileNexus.write("\tdimensions ntax=" + taxonArray.length + ";\n");
+                    fileNexus.write("\ttaxlabels\n");
+                    for(int i = 0; i < len; ++i) {
+                        Taxon taxon = taxonArray[i];
+                        StringBuilder builder = new StringBuilder("\t");
+                        String name = taxon.getName();
+                        if (!name.matches("^(\\w|-)+$")) {
+                            name = name.replace("'", "''");
+                            builder.append("'").append(name).append("'");
+                        } else {
+                            builder.append(name);
+                        }
+                        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+                        if (taxonAttributes.containsKey(taxon)) {
+                            attributes.putAll(taxonAttributes.get(taxon));
+                        }
+                        Object color = taxonColors.get(taxon);
+                        if (color != null) {
+                            attributes.put(ColorMatcher.COLOR_ATTRIBUTE, color);
+                        }
+                        appendAttributes(attributes, (String[])null, builder);
+                        fileNexus.write(builder.toString() + "\n");
+                    }
+                    fileNexus.write(";\nend;\n");
+                    nexusExporter.exportTrees(treesList);
+                    nexusExporter.writeFigTreeBlock(settings);
+                }
+                fileNexus.flush();
+                fileNexus.close();
+            } else {
+                System.out.println("Can't build Nexus file name - make sure graphic file name is provided.");
+            }
+        }
+    }
+
+    static private StringBuilder appendAttributes(Map<String, Object> attributes, String[] excludeKeys, StringBuilder builder) {
+        boolean first = true;
+        Iterator i$ = attributes.keySet().iterator();
+
+        while (i$.hasNext()) {
+            String key = (String) i$.next();
+            boolean exclude = false;
+            if (excludeKeys != null) {
+                String[] arr$ = excludeKeys;
+                int len$ = excludeKeys.length;
+
+                for (int i = 0; i < len$; ++i) {
+                    String eKey = arr$[i];
+                    if (eKey.equals(key)) {
+                        exclude = true;
+                    }
+                }
+            }
+
+            Object value = attributes.get(key);
+            if (!exclude && !key.startsWith("&") && value != null) {
+                if (first) {
+                    builder.append("[&");
+                    first = false;
+                } else {
+                    builder.append(",");
+                }
+
+                if (key.indexOf(32) < 0) {
+                    builder.append(key);
+                } else {
+                    builder.append("\"").append(key).append("\"");
+                }
+
+                builder.append('=');
+                appendAttributeValue(value, builder);
+            }
+        }
+
+        if (!first) {
+            builder.append("]");
+        }
+
+        return builder;
+    }
+
+    static private StringBuilder appendAttributeValue(Object value, StringBuilder builder) {
+        if (!(value instanceof Object[])) {
+            if (value instanceof Color) {
+                return builder.append("#").append(Integer.toHexString(((Color)value).getRGB()).substring(2));
+            } else {
+                return value instanceof String ? builder.append("\"").append(value).append("\"") : builder.append(value);
+            }
+        } else {
+            builder.append("{");
+            Object[] elements = (Object[])((Object[])value);
+            if (elements.length > 0) {
+                appendAttributeValue(elements[0], builder);
+
+                for(int i = 1; i < elements.length; ++i) {
+                    builder.append(",");
+                    appendAttributeValue(elements[i], builder);
+                }
+            }
+
+            return builder.append("}");
+        }
+    }
+
+    private final int pageHeight;
+    private final RenderCache renderCache;
+    private final RenderMetrics.Output metricsOutput;
+}
@@ -0,0 +1,382 @@
+/*
+ * IndexedTreeFile.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.ArrayRootedTree;
+import figtree.treeviewer.LazyTreeList;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The trees of a NEXUS file, read from the file only as they are asked for. Opening the
+ * file scans it once, through a memory mapping, for where each TREE command starts and
+ * ends, and a tree is parsed when it is first asked for. The most recently used trees
+ * are kept, so going back and forth between trees doesn't read them again, but memory
+ * only grows with the number of trees kept rather than the size of the file.
+ *
+ * A tree that has been changed (e.g., annotated) has to be kept with keepTree(), as a
+ * tree that has been dropped is read again as it is in the file. Trees that are kept
+ * are never dropped.
+ *
+ * Only files with all their trees in one run of TREE commands (as BEAST writes them) can
+ * be indexed.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class IndexedTreeFile extends AbstractList<Tree> implements LazyTreeList, RandomAccess {
+
+    // files smaller than this are read all at once
+    public final static long MINIMUM_INDEXED_SIZE = 64L << 20;
+
+    // the number of parsed trees kept
+    public final static int DEFAULT_CACHE_SIZE = 32;
+
+    // the file is mapped in regions of at most this many bytes
+    private final static int REGION_SIZE = 1 << 30;
+
+    // the longest first word of a command that matters (TRANSLATE)
+    private final static int MAX_COMMAND_LENGTH = 9;
+
+    /**
+     * Indexes the trees of a NEXUS file.
+     *
+     * @return the trees, or null if the file isn't a NEXUS file (or is compressed) or its
+     *         trees can't be indexed, in which case it should be read all at once
+     */
+    public static IndexedTreeFile open(File file) throws IOException, ImportException {
+        TreeSource source = TreeSource.open(file);
+        try {
+            if (source.isCompressed() || !source.isNexus()) {
+                return null;
+            }
+        } finally {
+            source.close();
+        }
+
+        IndexedTreeFile trees = new IndexedTreeFile(file, DEFAULT_CACHE_SIZE);
+        return trees.index() ? trees : null;
+    }
+
+    private IndexedTreeFile(File file, final int cacheSize) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            length = channel.size();
+            regions = new MappedByteBuffer[(int)((length + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long)i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+            }
+        } finally {
+            // the mappings stay valid after the channel is closed
+            in.close();
+        }
+
+        cache = new LinkedHashMap<Integer, Tree>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Scans the file for the TREE commands and then reads everything before the first
+     * tree (the TAXA block, TRANSLATE command and so on).
+     *
+     * @return false if the trees can't be indexed
+     */
+    private boolean index() throws IOException, ImportException {
+        CommandScanner scanner = new CommandScanner();
+
+        // the mapped bytes are copied out a block at a time, which is much quicker to go
+        // through than getting them one at a time from the mapping
+        byte[] block = new byte[1 << 16];
+        for (int r = 0; r < regions.length; r++) {
+            ByteBuffer region = regions[r].duplicate();
+            while (region.hasRemaining()) {
+                long offset = (long)r * REGION_SIZE + region.position();
+                int count = Math.min(block.length, region.remaining());
+                region.get(block, 0, count);
+                if (!scanner.scan(block, count, offset)) {
+                    return false;
+                }
+            }
+        }
+
+        int count = scanner.count;
+        long[] ends = scanner.ends;
+        if (count == 0) {
+            return false;
+        }
+
+        // the first tree is read along with the header so as to get the TRANSLATE table
+        // (which is only set up once a TREES block is being read)
+        header = new TreeFileImporter(new StringReader(decode(0, ends[0])), true);
+        if (!header.hasTree()) {
+            return false;
+        }
+        translationMap = header.getTranslationMap();
+        if (translationMap == null) {
+            return false;
+        }
+        cache.put(0, header.importNextTree());
+
+        treeStarts = Arrays.copyOf(scanner.starts, count);
+        treeEnds = Arrays.copyOf(ends, count);
+        return true;
+    }
+
+    /**
+     * @return the tree, reading it from the file if it isn't being kept
+     * @throws IllegalStateException if the tree can't be read
+     */
+    @Override
+    public synchronized Tree get(int index) {
+        if (index < 0 || index >= treeStarts.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + treeStarts.length);
+        }
+
+        Tree tree = keptTrees.get(index);
+        if (tree == null) {
+            tree = cache.get(index);
+        }
+        if (tree == null) {
+            try {
+                tree = TreeFileImporter.importTreeCommand(decode(treeStarts[index], treeEnds[index]), translationMap);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Error reading tree " + (index + 1) + ": " + ioe.getMessage(), ioe);
+            } catch (ImportException ie) {
+                throw new IllegalStateException("Error reading tree " + (index + 1) + ": " + ie.getMessage(), ie);
+            }
+            if (tree == null) {
+                throw new IllegalStateException("Error reading tree " + (index + 1));
+            }
+            renameAttributes(tree);
+            cache.put(index, tree);
+        }
+        return tree;
+    }
+
+    @Override
+    public int size() {
+        return treeStarts.length;
+    }
+
+    public synchronized List<Tree> getLoadedTrees() {
+        List<Tree> trees = new ArrayList<Tree>(keptTrees.values());
+        trees.addAll(cache.values());
+        return trees;
+    }
+
+    public synchronized void keepTree(int index) {
+        if (!keptTrees.containsKey(index)) {
+            Tree tree = get(index);
+            cache.remove(index);
+            keptTrees.put(index, tree);
+        }
+    }
+
+    /**
+     * Renames a node attribute in the trees that are kept and in every tree read from now on.
+     */
+    public synchronized void renameNodeAttribute(String name, String newName) {
+        attributeNames.put(name, newName);
+        for (Tree tree : getLoadedTrees()) {
+            renameAttributes(tree);
+        }
+    }
+
+    private void renameAttributes(Tree tree) {
+        for (Map.Entry<String, String> entry : attributeNames.entrySet()) {
+            if (tree instanceof ArrayRootedTree) {
+                // the whole column is renamed at once
+                ((ArrayRootedTree)tree).getAttributeTable().renameAttribute(entry.getKey(), entry.getValue());
+                continue;
+            }
+            for (Node node : tree.getNodes()) {
+                Object value = node.getAttribute(entry.getKey());
+                if (value != null) {
+                    node.removeAttribute(entry.getKey());
+                    node.setAttribute(entry.getValue(), value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the FIGTREE blocks before the trees and after them.
+     *
+     * @return true if a FIGTREE block was found
+     */
+    public boolean readFigTreeBlocks(Map<String, Object> settings) throws IOException, ImportException {
+        long trailerStart = treeEnds[treeEnds.length - 1];
+        TreeFileImporter trailer = new TreeFileImporter(new StringReader(decode(trailerStart, length)), true);
+
+        boolean hasFigTreeBlock = header.readFigTreeBlocks(settings);
+        hasFigTreeBlock |= trailer.readFigTreeBlocks(settings);
+        return hasFigTreeBlock;
+    }
+
+    /**
+     * Decodes part of the file, in the character set that TreeSource reads files with.
+     */
+    private String decode(long start, long end) {
+        long size = end - start;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too much of the file to read at once");
+        }
+        byte[] bytes = new byte[(int)size];
+        int copied = 0;
+        while (copied < bytes.length) {
+            long position = start + copied;
+            ByteBuffer region = regions[(int)(position / REGION_SIZE)].duplicate();
+            region.position((int)(position % REGION_SIZE));
+            int count = Math.min(bytes.length - copied, region.remaining());
+            region.get(bytes, copied, count);
+            copied += count;
+        }
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    /**
+     * Finds where the TREE commands start and end, keeping track of quotes and comments
+     * (in the same way as TreeFileImporter) so that semicolons in them aren't taken for
+     * the ends of commands.
+     */
+    private static class CommandScanner {
+
+        /**
+         * @param offset the position in the file of the first byte
+         * @return false if the trees are found not to be in one run of TREE commands
+         */
+        boolean scan(byte[] bytes, int length, long offset) {
+            for (int i = 0; i < length; i++) {
+                int ch = bytes[i];
+
+                if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (depth > 0) {
+                    if (ch == '[') {
+                        depth++;
+                    } else if (ch == ']') {
+                        depth--;
+                    }
+                } else if (ch == '[') {
+                    depth++;
+                    commandEnded |= command.length() > 0;
+                } else if (ch == '\'' || ch == '"') {
+                    quote = ch;
+                    if (commandStart == -1) {
+                        commandStart = offset + i;
+                    }
+                    commandEnded = true;
+                } else if (ch == ';') {
+                    if (!endCommand(offset + i + 1)) {
+                        return false;
+                    }
+                } else if (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r') {
+                    commandEnded |= command.length() > 0;
+                } else {
+                    if (commandStart == -1) {
+                        commandStart = offset + i;
+                    }
+                    if (!commandEnded) {
+                        if (command.length() < MAX_COMMAND_LENGTH) {
+                            command.append((char)ch);
+                        } else {
+                            // too long to be a command that matters
+                            commandEnded = true;
+                            command.setLength(0);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean endCommand(long end) {
+            String name = command.toString();
+            if (name.equalsIgnoreCase("TREE") || name.equalsIgnoreCase("UTREE")) {
+                if (treesEnded) {
+                    return false;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = commandStart;
+                ends[count] = end;
+                count++;
+            } else if (count > 0) {
+                if (name.equalsIgnoreCase("TRANSLATE")) {
+                    // a new TRANSLATE table for the trees after it
+                    return false;
+                }
+                treesEnded = true;
+            }
+            command.setLength(0);
+            commandEnded = false;
+            commandStart = -1;
+            return true;
+        }
+
+        long[] starts = new long[1024];
+        long[] ends = new long[1024];
+        int count = 0;
+        private boolean treesEnded = false;
+
+        // the first word of the current command
+        private final StringBuilder command = new StringBuilder();
+        private boolean commandEnded = false;
+        private long commandStart = -1;
+        private int quote = 0;
+        private int depth = 0;
+    }
+
+    private final long length;
+    private final MappedByteBuffer[] regions;
+    private final Map<Integer, Tree> cache;
+    private final Map<Integer, Tree> keptTrees = new HashMap<Integer, Tree>();
+    private final Map<String, String> attributeNames = new LinkedHashMap<String, String>();
+
+    private long[] treeStarts;
+    private long[] treeEnds;
+    private TreeFileImporter header;
+    private Map<String, Taxon> translationMap;
+}
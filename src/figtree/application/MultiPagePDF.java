@@ -0,0 +1,179 @@
+/*
+ * MultiPagePDF.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.*;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A PDF document that components are painted into one page at a time. All the pages
+ * share a single writer and font mapper, so each font is embedded once, and pages
+ * also share the graphics states (transparency) they use. Each page is written to
+ * the stream as soon as the next one is started, so memory use doesn't grow with
+ * the number of pages.
+ *
+ * A component taller than a page can be split over as many pages as it needs, each
+ * page showing the next slice of it.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class MultiPagePDF {
+
+    public MultiPagePDF(OutputStream stream) throws DocumentException {
+        document = new Document();
+        writer = PdfWriter.getInstance(document, stream);
+    }
+
+    /**
+     * Paints the component as a page of its own.
+     */
+    public void addPage(JComponent component, int width, int height) throws DocumentException {
+        startPage(width, height);
+
+        SharedStateContentByte cb = new SharedStateContentByte(writer, graphicsStates);
+        Graphics2D g2 = cb.createGraphics((float)width, (float)height, fontMapper);
+        component.paint(g2);
+        g2.dispose();
+
+        writer.getDirectContent().add(cb);
+        pageCount++;
+    }
+
+    /**
+     * Paints the component over as many pages as it takes, each at most pageHeight high.
+     * A pageHeight of zero (or one at least as tall as the component) gives a single page.
+     *
+     * The component is painted once, into a form that every page places so that its
+     * slice shows, so the drawing is only in the file once however many pages it covers.
+     *
+     * @return the number of pages added
+     */
+    public int addPages(JComponent component, int width, int height, int pageHeight) throws DocumentException {
+        if (pageHeight <= 0 || pageHeight >= height) {
+            addPage(component, width, height);
+            return 1;
+        }
+
+        PdfTemplate template = null;
+        int count = 0;
+        for (int y = 0; y < height; y += pageHeight) {
+            int sliceHeight = Math.min(pageHeight, height - y);
+            startPage(width, sliceHeight);
+
+            PdfContentByte cb = writer.getDirectContent();
+            if (template == null) {
+                // made once the document is open, on the first page
+                template = cb.createTemplate((float)width, (float)height);
+                Graphics2D g2 = template.createGraphics((float)width, (float)height, fontMapper);
+                component.paint(g2);
+                g2.dispose();
+            }
+            // PDF coordinates go up the page, so the bottom of the slice goes at the bottom
+            cb.addTemplate(template, 0, -(height - y - sliceHeight));
+            pageCount++;
+            count++;
+        }
+
+        try {
+            writer.releaseTemplate(template);
+        } catch (IOException ioe) {
+            throw new DocumentException(ioe);
+        }
+        return count;
+    }
+
+    private void startPage(int width, int height) {
+        document.setPageSize(new com.itextpdf.text.Rectangle((float)width, (float)height));
+        if (!document.isOpen()) {
+            document.open();
+        } else {
+            // finishes (and writes out) the last page
+            document.newPage();
+        }
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Finishes the document. The stream is closed too.
+     */
+    public void close() {
+        if (document.isOpen()) {
+            document.close();
+        }
+    }
+
+    /**
+     * A content byte that gives every page the same graphics state object for the same
+     * settings. PdfGraphics2D creates new graphics states for every graphics, so without
+     * this each page would write its own copy of each.
+     */
+    private static class SharedStateContentByte extends PdfContentByte {
+
+        SharedStateContentByte(PdfWriter writer, Map<String, PdfGState> graphicsStates) {
+            super(writer);
+            this.graphicsStates = graphicsStates;
+        }
+
+        @Override
+        public void setGState(PdfGState gstate) {
+            StringBuilder key = new StringBuilder();
+            for (Object name : gstate.getKeys()) {
+                key.append(name).append('=').append(gstate.get((PdfName)name)).append(';');
+            }
+            PdfGState shared = graphicsStates.get(key.toString());
+            if (shared == null) {
+                shared = gstate;
+                graphicsStates.put(key.toString(), shared);
+            }
+            super.setGState(shared);
+        }
+
+        @Override
+        public PdfContentByte getDuplicate() {
+            return new SharedStateContentByte(writer, graphicsStates);
+        }
+
+        private final Map<String, PdfGState> graphicsStates;
+    }
+
+    private final Document document;
+    private final PdfWriter writer;
+    private final FontMapper fontMapper = new DefaultFontMapper();
+    private final Map<String, PdfGState> graphicsStates = new HashMap<String, PdfGState>();
+    private int pageCount = 0;
+}
@@ -0,0 +1,272 @@
+/*
+ * RenderCache.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A directory of the files written by earlier renders, keyed by a hash of everything
+ * that goes into a render: the bytes of the tree file (and so any FIGTREE block in it),
+ * the command line settings, the colour map, the graphic format and size and the
+ * FigTree version. A render with the same key would write the same files, so they are
+ * copied from the cache instead. This relies on nothing being carried over from one
+ * render to the next, so the attributes a file gives its taxa are only set on jebl's
+ * shared taxa while that file is drawn (see TaxonAttributeScope).
+ *
+ * Each entry is a subdirectory named by its key. Entries are written to a temporary
+ * directory and then renamed into place, so a reader never sees half an entry, and the
+ * least recently used entries are removed once the cache grows past its size limit.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class RenderCache {
+
+    public final static long DEFAULT_SIZE_LIMIT = 1024L * 1024L * 1024L;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static String TEMPORARY_PREFIX = ".";
+
+    /**
+     * @param directory the cache directory (created if need be)
+     * @param sizeLimit the size, in bytes, the entries are kept within
+     */
+    public RenderCache(File directory, long sizeLimit) throws IOException {
+        this.directory = directory.toPath();
+        this.sizeLimit = sizeLimit;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Only local files can be hashed before they are read to render them.
+     */
+    public static boolean isCacheable(String treeFileName) {
+        return !treeFileName.equals(TreeSource.STANDARD_INPUT) && !treeFileName.contains("://");
+    }
+
+    /**
+     * Builds the key for a render from the tree file's bytes and a description of
+     * everything else the output depends on.
+     *
+     * @param treeFile the tree file
+     * @param parameters the graphic format, size, etc., in a fixed order
+     * @param settings the settings given on the command line
+     * @param colorMap the colours given for text patterns (in order, as order matters)
+     */
+    public static String getKey(File treeFile, List<?> parameters, Map<String, Object> settings, Map<String, Object> colorMap) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("No SHA-256 message digest available", nsae);
+        }
+
+        update(digest, "FigTree " + FigTreeApplication.VERSION);
+        for (Object parameter : parameters) {
+            update(digest, String.valueOf(parameter));
+        }
+        // the settings are sorted as their order doesn't matter
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(settings).entrySet()) {
+            update(digest, entry.getKey() + "=" + entry.getValue());
+        }
+        update(digest, "colors");
+        for (Map.Entry<String, Object> entry : colorMap.entrySet()) {
+            update(digest, entry.getKey() + "=" + entry.getValue());
+        }
+        update(digest, "trees");
+
+        InputStream in = new FileInputStream(treeFile);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b & 0xff));
+        }
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(UTF8));
+        // a separator so that no two lists of strings give the same bytes
+        digest.update((byte)0);
+    }
+
+    /**
+     * Copies the files of a cached render to where the render would have written them.
+     *
+     * @param key the key of the render
+     * @param outputs the files the render writes, by name
+     * @return true if the cache held all of the files, false if the render has to be done
+     */
+    public boolean restore(String key, Map<String, File> outputs) throws IOException {
+        Path entry = directory.resolve(key);
+        for (String name : outputs.keySet()) {
+            if (!Files.isRegularFile(entry.resolve(name))) {
+                return false;
+            }
+        }
+
+        for (Map.Entry<String, File> output : outputs.entrySet()) {
+            Files.copy(entry.resolve(output.getKey()), output.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // marks the entry as recently used so it is evicted last
+        try {
+            Files.setLastModifiedTime(entry, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ioe) {
+            // the entry may have just been evicted by another render, which doesn't matter
+        }
+        return true;
+    }
+
+    /**
+     * Keeps copies of the files written by a render and then evicts old entries if the
+     * cache has grown too large.
+     *
+     * @param key the key of the render
+     * @param outputs the files the render wrote, by name
+     */
+    public void store(String key, Map<String, File> outputs) throws IOException {
+        Path entry = directory.resolve(key);
+        if (Files.isDirectory(entry)) {
+            return;
+        }
+
+        long size = 0;
+        for (File output : outputs.values()) {
+            size += output.length();
+        }
+        if (size > sizeLimit) {
+            // it would only push everything else out and then be evicted itself
+            return;
+        }
+
+        Path temporary = Files.createTempDirectory(directory, TEMPORARY_PREFIX + key);
+        try {
+            for (Map.Entry<String, File> output : outputs.entrySet()) {
+                Files.copy(output.getValue().toPath(), temporary.resolve(output.getKey()));
+            }
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            delete(temporary);
+            if (!Files.isDirectory(entry)) {
+                throw ioe;
+            }
+            // stored by another render of the same thing in the meantime
+            return;
+        }
+
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its size limit.
+     */
+    private void evict() throws IOException {
+        synchronized (RenderCache.class) {
+            final Map<Path, Long> sizes = new HashMap<Path, Long>();
+            final Map<Path, Long> times = new HashMap<Path, Long>();
+            long total = 0;
+
+            DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+            try {
+                for (Path entry : entries) {
+                    if (!Files.isDirectory(entry) || entry.getFileName().toString().startsWith(TEMPORARY_PREFIX)) {
+                        continue;
+                    }
+                    long size = getSize(entry);
+                    sizes.put(entry, size);
+                    times.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                    total += size;
+                }
+            } finally {
+                entries.close();
+            }
+
+            if (total <= sizeLimit) {
+                return;
+            }
+
+            List<Path> oldestFirst = new ArrayList<Path>(sizes.keySet());
+            Collections.sort(oldestFirst, new Comparator<Path>() {
+                public int compare(Path path1, Path path2) {
+                    return times.get(path1).compareTo(times.get(path2));
+                }
+            });
+            for (Path entry : oldestFirst) {
+                if (total <= sizeLimit) {
+                    break;
+                }
+                delete(entry);
+                total -= sizes.get(entry);
+            }
+        }
+    }
+
+    private static long getSize(Path entry) throws IOException {
+        long size = 0;
+        DirectoryStream<Path> files = Files.newDirectoryStream(entry);
+        try {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        } finally {
+            files.close();
+        }
+        return size;
+    }
+
+    private static void delete(Path entry) throws IOException {
+        if (!Files.exists(entry)) {
+            return;
+        }
+        DirectoryStream<Path> files = Files.newDirectoryStream(entry);
+        try {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } finally {
+            files.close();
+        }
+        Files.deleteIfExists(entry);
+    }
+
+    private final Path directory;
+    private final long sizeLimit;
+}
@@ -0,0 +1,263 @@
+/*
+ * RenderMetrics.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.TreePaneStageListener;
+import jebl.evolution.trees.RootedTree;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * The wall time and memory allocated by each stage of a single render, written as one
+ * line of JSON so that the metrics of a batch can be gathered up and aggregated.
+ *
+ * Stages may be nested (the tree pane's layout, calibrate and draw stages all happen
+ * inside the encode stage, as image writers pull pixels while they encode) and each
+ * stage is only charged for the time outside the stages nested in it, so the stage
+ * times add up to the total. A stage that happens more than once (drawing a banded
+ * image, say) is added up. Allocations are counted per thread, which is where every
+ * stage begins and ends.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class RenderMetrics implements TreePaneStageListener {
+
+    public enum Output {
+        // a line of JSON on standard error
+        STDERR,
+        // a _metrics.json file next to the graphic
+        FILE
+    }
+
+    public final static String METRICS_SUFFIX = "_metrics.json";
+
+    // reading and parsing the tree file
+    public final static String PARSE = "parse";
+    // building and configuring the tree pane
+    public final static String SETUP = "setup";
+    // writing the graphic, less the tree pane's own stages
+    public final static String ENCODE = "encode";
+    // writing the Newick and NEXUS files
+    public final static String TREE_FILES = "treeFiles";
+
+    private final static ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    public RenderMetrics() {
+    }
+
+    public void setProperty(String name, Object value) {
+        properties.put(name, value);
+    }
+
+    public void setTree(RootedTree tree) {
+        setProperty("tips", tree.getExternalNodes().size());
+        setProperty("nodes", tree.getNodes().size());
+    }
+
+    public void begin(String stage) {
+        stack.addLast(new Frame(stage));
+    }
+
+    public void end(String stage) {
+        Frame frame = stack.removeLast();
+        if (!frame.stage.equals(stage)) {
+            throw new IllegalStateException("Stage " + stage + " ended inside stage " + frame.stage);
+        }
+
+        long nanos = System.nanoTime() - frame.startNanos;
+        long bytes = getAllocatedBytes() - frame.startBytes;
+
+        Stage totals = stages.get(stage);
+        if (totals == null) {
+            totals = new Stage();
+            stages.put(stage, totals);
+        }
+        totals.nanos += nanos - frame.childNanos;
+        totals.bytes += bytes - frame.childBytes;
+        totals.count++;
+
+        if (!stack.isEmpty()) {
+            stack.getLast().childNanos += nanos;
+            stack.getLast().childBytes += bytes;
+        }
+    }
+
+    public void stageStarted(String stage) {
+        begin(stage);
+    }
+
+    public void stageFinished(String stage) {
+        end(stage);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or zero if the JVM can't tell
+     */
+    private static long getAllocatedBytes() {
+        if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)THREAD_BEAN;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the names of the stages that have ended, in the order they first ended
+     */
+    public Set<String> getStageNames() {
+        return Collections.unmodifiableSet(stages.keySet());
+    }
+
+    /**
+     * @return the time spent in the stage, less the stages nested in it
+     */
+    public long getStageNanos(String stage) {
+        Stage totals = stages.get(stage);
+        return totals != null ? totals.nanos : 0;
+    }
+
+    /**
+     * @return the bytes allocated in the stage, less the stages nested in it
+     */
+    public long getStageAllocatedBytes(String stage) {
+        Stage totals = stages.get(stage);
+        return totals != null ? totals.bytes : 0;
+    }
+
+    /**
+     * Writes the metrics to standard error or to a file named after the graphic file (to
+     * standard error if there is no graphic file).
+     */
+    public void write(Output output, String graphicFileName) throws IOException {
+        String json = toJSON();
+        if (output == Output.FILE && graphicFileName != null) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(
+                    GraphicRenderer.getTreeFileName(graphicFileName, METRICS_SUFFIX)), "UTF-8");
+            try {
+                writer.write(json);
+                writer.write("\n");
+            } finally {
+                writer.close();
+            }
+        } else {
+            System.err.println(json);
+        }
+    }
+
+    public String toJSON() {
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            appendString(property.getKey(), builder);
+            builder.append(":");
+            Object value = property.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                builder.append(value);
+            } else {
+                appendString(String.valueOf(value), builder);
+            }
+            builder.append(",");
+        }
+
+        long totalNanos = 0;
+        long totalBytes = 0;
+        StringBuilder stageBuilder = new StringBuilder();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            totalNanos += stage.nanos;
+            totalBytes += stage.bytes;
+            if (stageBuilder.length() > 0) {
+                stageBuilder.append(",");
+            }
+            appendString(entry.getKey(), stageBuilder);
+            stageBuilder.append(":{\"ms\":").append(toMillis(stage.nanos))
+                    .append(",\"allocatedBytes\":").append(stage.bytes);
+            if (stage.count > 1) {
+                stageBuilder.append(",\"count\":").append(stage.count);
+            }
+            stageBuilder.append("}");
+        }
+
+        builder.append("\"ms\":").append(toMillis(totalNanos));
+        builder.append(",\"allocatedBytes\":").append(totalBytes);
+        builder.append(",\"stages\":{").append(stageBuilder).append("}}");
+        return builder.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1.0E6);
+    }
+
+    private static void appendString(String text, StringBuilder builder) {
+        builder.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private static class Frame {
+        Frame(String stage) {
+            this.stage = stage;
+            startNanos = System.nanoTime();
+            startBytes = getAllocatedBytes();
+        }
+
+        final String stage;
+        final long startNanos;
+        final long startBytes;
+        long childNanos = 0;
+        long childBytes = 0;
+    }
+
+    private static class Stage {
+        long nanos = 0;
+        long bytes = 0;
+        int count = 0;
+    }
+
+    private final Map<String, Object> properties = new LinkedHashMap<String, Object>();
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private final LinkedList<Frame> stack = new LinkedList<Frame>();
+}
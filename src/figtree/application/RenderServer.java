@@ -0,0 +1,460 @@
+/*
+ * RenderServer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A long running render server ('figtree serve'). It keeps a pool of warm
+ * render workers and accepts render jobs over a TCP socket bound to the
+ * loopback interface and/or from a spool directory.
+ *
+ * A job is a single line holding the same arguments as a command line render:
+ *
+ *     -graphic SVG -width 783 -colors extract -newickexport tree.txt [tree.svg]
+ *
+ * and each job is answered by a single line:
+ *
+ *     OK &lt;milliseconds&gt; &lt;graphic file&gt;
+ *     ERROR &lt;milliseconds&gt; &lt;message&gt;
+ *
+ * Over the socket, jobs are answered in order on the connection that sent them.
+ * In the spool directory, each 'name.job' file holds one or more jobs, is claimed by
+ * renaming it to 'name.job.running' and is answered by writing 'name.result'.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class RenderServer {
+
+    public final static int DEFAULT_PORT = 7171;
+
+    public final static String JOB_SUFFIX = ".job";
+    public final static String RUNNING_SUFFIX = ".running";
+    public final static String RESULT_SUFFIX = ".result";
+
+    private final static long SPOOL_POLL_INTERVAL = 250;
+
+    public RenderServer(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        executor = Executors.newFixedThreadPool(this.threadCount);
+    }
+
+    /**
+     * Runs a warm up render on every worker so that the first jobs don't pay for
+     * loading the classes, fonts and image writers.
+     */
+    public void warmUp() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executor.submit(new Runnable() {
+                public void run() {
+                    GraphicRenderer.warmUp();
+                    latch.countDown();
+                    try {
+                        // hold this worker until every worker has warmed up
+                        latch.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        latch.await();
+    }
+
+    /**
+     * Runs one job on the worker pool and waits for its response line. A job sent
+     * once the server has begun to shut down gets an error line.
+     */
+    public String submitJob(final String job) {
+        Future<String> future;
+        try {
+            future = executor.submit(new Callable<String>() {
+                public String call() {
+                    return runJob(job);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            return "ERROR 0 the server is shutting down";
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return "ERROR 0 interrupted";
+        } catch (ExecutionException ee) {
+            return "ERROR 0 " + singleLine(ee.getCause().getMessage());
+        }
+    }
+
+    private String runJob(String job) {
+        long start = System.currentTimeMillis();
+        try {
+            Arguments arguments = new Arguments(
+                    new Arguments.Option[] {
+                            new Arguments.StringOption("graphic", new String[] {
+                                    "PDF", "SVG", "PNG", "JPEG"
+                            }, false, "produce a graphic with the given format"),
+                            new Arguments.IntegerOption("width", "the width of the graphic in pixels"),
+                            new Arguments.IntegerOption("height", "the height of the graphic in pixels"),
+                            new Arguments.Option("newickexport", "export the displayed tree in Newick format"),
+                            new Arguments.Option("nexusexport", "export the displayed tree in Nexus format"),
+                            new Arguments.StringOption("colors", "text:color", "comma delimited list of colors to associate with a text pattern"),
+                            new Arguments.StringOption("colorfile", "file", "a file of colors to associate with text patterns, one per line"),
+                            new Arguments.IntegerOption("avg_seq_length", "average length of sequences"),
+                            new Arguments.StringOption("settings", "key=value", "comma delimited list of FigTree settings to override")
+                    });
+            arguments.parseArguments(tokenize(job));
+
+            if (!arguments.hasOption("graphic")) {
+                throw new IllegalArgumentException("a job must give a -graphic format");
+            }
+            String graphicFormat = arguments.getStringOption("graphic");
+
+            String[] files = arguments.getLeftoverArguments();
+            if (files.length < 1 || files.length > 2) {
+                throw new IllegalArgumentException("a job must give a tree file and optionally a graphic file");
+            }
+            String treeFileName = files[0];
+            String graphicFileName = (files.length > 1 ? files[1] :
+                    BatchRenderer.getGraphicFileName(treeFileName, graphicFormat));
+
+            int width = arguments.hasOption("width") ? arguments.getIntegerOption("width") : 800;
+            int height = arguments.hasOption("height") ? arguments.getIntegerOption("height") : 600;
+
+            Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
+            if (arguments.hasOption("colorfile")) {
+                FigTreeApplication.parseColorMapFile(arguments.getStringOption("colorfile"), colorMap);
+            }
+            if (arguments.hasOption("colors") &&
+                    FigTreeApplication.parseColorMap(arguments.getStringOption("colors"), colorMap)) {
+                FigTreeApplication.parseColorMapFromTimePoints(colorMap, treeFileName);
+            }
+
+            renderer.render(graphicFormat, width, height, treeFileName, graphicFileName,
+                    FigTreeApplication.createSettingsMap(arguments),
+                    arguments.hasOption("newickexport"), arguments.hasOption("nexusexport"), colorMap);
+
+            return "OK " + (System.currentTimeMillis() - start) + " " + graphicFileName;
+        } catch (Arguments.ArgumentException ae) {
+            return "ERROR " + (System.currentTimeMillis() - start) + " " + singleLine(ae.getMessage());
+        } catch (Throwable t) {
+            return "ERROR " + (System.currentTimeMillis() - start) + " " + singleLine(t.getMessage());
+        }
+    }
+
+    /**
+     * Accepts connections on the loopback interface until a client sends 'SHUTDOWN'.
+     */
+    public void serveSocket(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println("FigTree render server listening on " +
+                serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort());
+
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ioe) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                throw ioe;
+            }
+
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    handleConnection(socket);
+                }
+            }, "figtree-connection-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.equalsIgnoreCase("SHUTDOWN")) {
+                    writer.println("OK 0 shutting down");
+                    shutdown();
+                    break;
+                } else if (line.equalsIgnoreCase("PING")) {
+                    writer.println("OK 0 PONG");
+                } else if (line.length() > 0) {
+                    writer.println(submitJob(line));
+                }
+                line = reader.readLine();
+            }
+            socket.close();
+        } catch (IOException ioe) {
+            System.err.println("Connection error: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Polls the spool directory for job files until the server is shut down.
+     */
+    public void serveSpool(File spoolDirectory) throws IOException, InterruptedException {
+        if (!spoolDirectory.isDirectory()) {
+            throw new FileNotFoundException("Spool directory doesn't exist: " + spoolDirectory);
+        }
+        System.out.println("FigTree render server watching " + spoolDirectory);
+
+        while (!isShutdown) {
+            File[] jobFiles = spoolDirectory.listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(JOB_SUFFIX);
+                }
+            });
+
+            if (jobFiles != null) {
+                Arrays.sort(jobFiles);
+                for (File jobFile : jobFiles) {
+                    File runningFile = new File(jobFile.getPath() + RUNNING_SUFFIX);
+                    // the rename claims the job so several servers can share a spool directory
+                    if (jobFile.renameTo(runningFile)) {
+                        runSpoolJob(runningFile, jobFile);
+                    }
+                }
+            }
+
+            Thread.sleep(SPOOL_POLL_INTERVAL);
+        }
+    }
+
+    private void runSpoolJob(File runningFile, File jobFile) throws IOException {
+        List<String> jobs = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(runningFile), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    jobs.add(line);
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+
+        // run the jobs in this file concurrently but report them in order
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String job : jobs) {
+            try {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return runJob(job);
+                    }
+                }));
+            } catch (RejectedExecutionException ree) {
+                if (results.size() == 0) {
+                    // none of it has been run, so it is left for the next server to claim
+                    if (!runningFile.renameTo(jobFile)) {
+                        throw new IOException("Unable to return job file to the spool: " + jobFile);
+                    }
+                    return;
+                }
+                break;
+            }
+        }
+
+        String name = jobFile.getName().substring(0, jobFile.getName().length() - JOB_SUFFIX.length());
+        File resultFile = new File(jobFile.getParentFile(), name + RESULT_SUFFIX);
+        File partialFile = new File(jobFile.getParentFile(), "." + name + RESULT_SUFFIX);
+
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(partialFile), "UTF-8"));
+        for (Future<String> result : results) {
+            try {
+                writer.println(result.get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                writer.println("ERROR 0 interrupted");
+            } catch (ExecutionException ee) {
+                writer.println("ERROR 0 " + singleLine(ee.getCause().getMessage()));
+            }
+        }
+        // the jobs the server began to shut down before taking
+        for (int i = results.size(); i < jobs.size(); i++) {
+            writer.println("ERROR 0 the server is shutting down");
+        }
+        writer.close();
+
+        // only make the result visible once it is complete
+        if (!partialFile.renameTo(resultFile)) {
+            throw new IOException("Unable to write result file: " + resultFile);
+        }
+        runningFile.delete();
+    }
+
+    public void shutdown() {
+        isShutdown = true;
+        executor.shutdown();
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ioe) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Splits a job line into arguments, honouring single and double quotes so that
+     * file names can contain spaces.
+     */
+    static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static String singleLine(String message) {
+        if (message == null) {
+            return "unknown error";
+        }
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[] {
+                        new Arguments.IntegerOption("port", 0, 65535, "the loopback TCP port to accept jobs on (default " + DEFAULT_PORT + ")"),
+                        new Arguments.StringOption("spool", "directory", "a directory to poll for *.job files"),
+                        new Arguments.IntegerOption("threads", 1, Integer.MAX_VALUE, "number of render workers (default is the number of processors)"),
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println();
+            System.out.println(ae.getMessage());
+            System.out.println();
+            arguments.printUsage("figtree serve", "");
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            arguments.printUsage("figtree serve", "");
+            System.out.println();
+            System.out.println("  Each job is a line of render arguments, e.g.");
+            System.out.println("    -graphic SVG -width 783 -colors extract -newickexport tree.txt tree.svg");
+            System.out.println("  and is answered with 'OK <ms> <graphic file>' or 'ERROR <ms> <message>'.");
+            System.out.println();
+            System.exit(0);
+        }
+
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
+        final RenderServer server = new RenderServer(threadCount);
+
+        try {
+            server.warmUp();
+
+            if (arguments.hasOption("spool")) {
+                final File spoolDirectory = new File(arguments.getStringOption("spool"));
+                if (arguments.hasOption("port")) {
+                    Thread spoolThread = new Thread(new Runnable() {
+                        public void run() {
+                            try {
+                                server.serveSpool(spoolDirectory);
+                            } catch (Exception e) {
+                                System.err.println("Spool error: " + e.getMessage());
+                                server.shutdown();
+                            }
+                        }
+                    }, "figtree-spool");
+                    spoolThread.setDaemon(true);
+                    spoolThread.start();
+                    server.serveSocket(arguments.getIntegerOption("port"));
+                } else {
+                    server.serveSpool(spoolDirectory);
+                }
+            } else {
+                server.serveSocket(arguments.hasOption("port") ? arguments.getIntegerOption("port") : DEFAULT_PORT);
+            }
+        } catch (Exception e) {
+            System.err.println("FigTree render server failed: " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    private final int threadCount;
+    private final ExecutorService executor;
+    private ServerSocket serverSocket = null;
+    private volatile boolean isShutdown = false;
+
+    // renders hold no state so every worker can use the same renderer
+    private final GraphicRenderer renderer = new GraphicRenderer();
+}
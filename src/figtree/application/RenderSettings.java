@@ -0,0 +1,228 @@
+/*
+ * RenderSettings.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.painters.NodeShapePainter;
+
+import java.awt.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The complete, immutable description of a headless render: the output format, the
+ * size of the graphic and a full FigTree settings map (the same keys as are written
+ * to a FIGTREE block). Any setting not given explicitly takes the value a freshly
+ * opened FigTree window would have, ignoring the user's preferences, so a render
+ * depends only on its settings and its tree.
+ *
+ * Instances can be shared freely between threads.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public final class RenderSettings {
+
+    private final static Map<String, Object> DEFAULT_SETTINGS;
+
+    static {
+        Map<String, Object> settings = new HashMap<String, Object>();
+
+        settings.put("layout.layoutType", "RECTILINEAR");
+        settings.put("layout.zoom", 0);
+        settings.put("layout.expansion", 0);
+        settings.put("rectilinearLayout.rootLength", 100);
+        settings.put("rectilinearLayout.curvature", 0);
+        settings.put("rectilinearLayout.alignTipLabels", false);
+        settings.put("polarLayout.rootAngle", 0);
+        settings.put("polarLayout.angularRange", 0);
+        settings.put("polarLayout.rootLength", 100);
+        settings.put("polarLayout.showRoot", true);
+        settings.put("polarLayout.alignTipLabels", false);
+        settings.put("radialLayout.spread", 0.0);
+
+        settings.put("appearance.foregroundColour", Color.BLACK);
+        settings.put("appearance.backgroundColour", Color.WHITE);
+        settings.put("appearance.selectionColour", new Color(45, 54, 128));
+        settings.put("appearance.branchColorAttribute", "No attributes");
+        settings.put("appearance.branchColorGradient", false);
+        settings.put("appearance.hilightingGradient", false);
+        settings.put("appearance.backgroundColorAttribute", "No attributes");
+        settings.put("appearance.branchLineWidth", 1.0);
+        settings.put("appearance.branchWidthAttribute", "No attributes");
+        settings.put("appearance.branchMinLineWidth", 0.0);
+
+        settings.put("trees.transform", false);
+        settings.put("trees.transformType", "cladogram");
+        settings.put("trees.order", false);
+        settings.put("trees.orderType", "increasing");
+        settings.put("trees.rooting", false);
+        settings.put("trees.rootingType", "User Selection");
+
+        settings.put("scale.scaleRoot", false);
+        settings.put("scale.rootAge", 1.0);
+        settings.put("scale.offsetAge", 0.0);
+        settings.put("scale.scaleFactor", 1.0);
+
+        for (String key : new String[] { "tipLabels", "nodeLabels", "branchLabels" }) {
+            settings.put(key + ".isShown", key.equals("tipLabels"));
+            settings.put(key + ".displayAttribute", "No attributes");
+            settings.put(key + ".colorAttribute", "No attributes");
+            settings.put(key + ".fontName", "sansserif");
+            settings.put(key + ".fontSize", 8);
+            settings.put(key + ".fontStyle", Font.PLAIN);
+            settings.put(key + ".significantDigits", 4);
+            settings.put(key + ".hideOverlaps", false);
+        }
+
+        for (String key : new String[] { "nodeShapeExternal", "nodeShapeInternal" }) {
+            settings.put(key + ".isShown", false);
+            settings.put(key + ".shapeType", NodeShapePainter.ShapeType.CIRCLE);
+            settings.put(key + ".scaleType", NodeShapePainter.ScaleType.WIDTH);
+            settings.put(key + ".colourAttribute", null);
+            settings.put(key + ".sizeAttribute", null);
+            settings.put(key + ".size", NodeShapePainter.MAX_SIZE);
+            settings.put(key + ".minSize", 10.0);
+        }
+
+        settings.put("nodeBars.isShown", false);
+        settings.put("nodeBars.displayAttribute", null);
+        settings.put("nodeBars.barWidth", 4.0);
+
+        settings.put("scaleBar.isShown", true);
+        settings.put("scaleBar.automaticScale", true);
+        settings.put("scaleBar.scaleRange", 0.0);
+        settings.put("scaleBar.fontSize", 10.0);
+        settings.put("scaleBar.lineWidth", 1.0);
+
+        settings.put("scaleAxis.isShown", false);
+        settings.put("scaleAxis.reverseAxis", false);
+        settings.put("scaleAxis.showGrid", true);
+        settings.put("scaleAxis.automaticScale", true);
+        settings.put("scaleAxis.minorTicks", 0.5);
+        settings.put("scaleAxis.majorTicks", 1.0);
+        settings.put("scaleAxis.origin", 0.0);
+        settings.put("scaleAxis.fontSize", 8.0);
+        settings.put("scaleAxis.lineWidth", 1.0);
+
+        settings.put("legend.isShown", false);
+        settings.put("legend.attribute", null);
+        settings.put("legend.fontSize", 10.0);
+        settings.put("legend.significantDigits", 4);
+
+        DEFAULT_SETTINGS = Collections.unmodifiableMap(settings);
+    }
+
+    /**
+     * @param format the graphic format to write
+     * @param width the width of the graphic
+     * @param height the height of the graphic
+     * @param settings the settings that differ from the defaults (may be empty)
+     */
+    public RenderSettings(GraphicFormat format, int width, int height, Map<String, Object> settings) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("The graphic size must be positive: " + width + "x" + height);
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+
+        Map<String, Object> allSettings = new HashMap<String, Object>(DEFAULT_SETTINGS);
+        allSettings.putAll(settings);
+        this.settings = Collections.unmodifiableMap(allSettings);
+    }
+
+    /**
+     * @return a new, modifiable copy of the default settings
+     */
+    public static Map<String, Object> getDefaultSettings() {
+        return new HashMap<String, Object>(DEFAULT_SETTINGS);
+    }
+
+    public GraphicFormat getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return every setting, including the defaults, as an unmodifiable map
+     */
+    public Map<String, Object> getSettings() {
+        return settings;
+    }
+
+    public Object get(String key) {
+        return settings.get(key);
+    }
+
+    public String getString(String key) {
+        Object value = settings.get(key);
+        return (value != null ? value.toString() : null);
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = settings.get(key);
+        if (value instanceof Boolean) {
+            return (Boolean)value;
+        }
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    public double getDouble(String key) {
+        return getNumber(key).doubleValue();
+    }
+
+    public int getInteger(String key) {
+        return getNumber(key).intValue();
+    }
+
+    private Number getNumber(String key) {
+        Object value = settings.get(key);
+        if (value instanceof Number) {
+            return (Number)value;
+        }
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (NumberFormatException nfe) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Setting " + key + " should be a number but was: " + value);
+    }
+
+    private final GraphicFormat format;
+    private final int width;
+    private final int height;
+    private final Map<String, Object> settings;
+}
@@ -0,0 +1,548 @@
+/*
+ * StreamingSVGGraphics2D.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import org.apache.batik.ext.awt.g2d.AbstractGraphics2D;
+import org.apache.batik.ext.awt.g2d.GraphicContext;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.*;
+import java.text.AttributedCharacterIterator;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * A Graphics2D that writes SVG to a stream as it is drawn on. Each draw call becomes
+ * a single element (a path, a text or an image) carrying its own style and transform,
+ * so, unlike Batik's SVGGraphics2D, no document is built in memory and the memory
+ * used does not grow with the size of the drawing.
+ *
+ * Strings are written as text elements. Call finish() once drawing is complete to
+ * close the document; any error writing to the stream is reported there.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class StreamingSVGGraphics2D extends AbstractGraphics2D {
+
+    // used for font metrics, as there is no real device behind this graphics
+    private final static Graphics2D METRICS_GRAPHICS = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+    public StreamingSVGGraphics2D(OutputStream stream, double width, double height) throws IOException {
+        super(false);
+        gc = new GraphicContext(new AffineTransform());
+        gc.setFont(new Font("Dialog", Font.PLAIN, 12));
+
+        document = new Document(new BufferedWriter(new OutputStreamWriter(stream, "UTF-8")));
+
+        Writer out = document.out;
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        out.write(" width=\"" + format(width) + "\" height=\"" + format(height) + "\"");
+        out.write(" viewBox=\"0 0 " + format(width) + " " + format(height) + "\"");
+        out.write(" style=\"stroke-miterlimit:10;\">\n");
+    }
+
+    private StreamingSVGGraphics2D(StreamingSVGGraphics2D g) {
+        super(g);
+        document = g.document;
+    }
+
+    /**
+     * Closes the svg element and flushes the stream (which is left open).
+     *
+     * @throws IOException if anything could not be written
+     */
+    public void finish() throws IOException {
+        if (document.error == null) {
+            try {
+                document.out.write("</svg>\n");
+                document.out.flush();
+            } catch (IOException ioe) {
+                document.error = ioe;
+            }
+        }
+        if (document.error != null) {
+            throw document.error;
+        }
+    }
+
+    public Graphics create() {
+        return new StreamingSVGGraphics2D(this);
+    }
+
+    public void dispose() {
+    }
+
+    public void draw(Shape shape) {
+        Stroke stroke = gc.getStroke();
+        if (!(stroke instanceof BasicStroke)) {
+            // anything fancier than a BasicStroke is drawn as its outline
+            fill(stroke.createStrokedShape(shape));
+            return;
+        }
+        if (!isVisible(shape, ((BasicStroke)stroke).getLineWidth())) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder("<path d=\"");
+        appendPath(shape, builder);
+        builder.append("\" style=\"fill:none;");
+        if (!appendPaint("stroke", builder)) {
+            return;
+        }
+        appendStroke((BasicStroke)stroke, builder);
+        builder.append("\"");
+        appendTransformAndClip(builder);
+        builder.append("/>\n");
+        write(builder);
+    }
+
+    public void fill(Shape shape) {
+        if (!isVisible(shape, 0)) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder("<path d=\"");
+        appendPath(shape, builder);
+        builder.append("\" style=\"stroke:none;");
+        if (!appendPaint("fill", builder)) {
+            return;
+        }
+        if (shape instanceof java.awt.geom.Path2D &&
+                ((java.awt.geom.Path2D)shape).getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+            builder.append(" fill-rule:evenodd;");
+        }
+        builder.append("\"");
+        appendTransformAndClip(builder);
+        builder.append("/>\n");
+        write(builder);
+    }
+
+    public void drawString(String text, float x, float y) {
+        if (text.length() == 0) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder("<text x=\"");
+        builder.append(format(x)).append("\" y=\"").append(format(y)).append("\" xml:space=\"preserve\" style=\"stroke:none;");
+        if (!appendPaint("fill", builder)) {
+            return;
+        }
+        appendFont(gc.getFont(), builder);
+        builder.append("\"");
+        appendTransformAndClip(builder);
+        builder.append(">");
+        appendEscaped(text, builder);
+        builder.append("</text>\n");
+        write(builder);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        StringBuilder text = new StringBuilder();
+        Font oldFont = gc.getFont();
+        Object font = iterator.getAttribute(TextAttribute.FONT);
+        if (font instanceof Font) {
+            gc.setFont((Font)font);
+        }
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()) {
+            text.append(c);
+        }
+        drawString(text.toString(), x, y);
+        gc.setFont(oldFont);
+    }
+
+    public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+        return drawImage(image, x, y, image.getWidth(observer), image.getHeight(observer), observer);
+    }
+
+    public boolean drawImage(Image image, int x, int y, int width, int height, ImageObserver observer) {
+        int imageWidth = image.getWidth(observer);
+        int imageHeight = image.getHeight(observer);
+        if (imageWidth <= 0 || imageHeight <= 0 || width <= 0 || height <= 0) {
+            return false;
+        }
+
+        RenderedImage rendered;
+        if (image instanceof RenderedImage) {
+            rendered = (RenderedImage)image;
+        } else {
+            BufferedImage buffered = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics g = buffered.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            rendered = buffered;
+        }
+
+        AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+        transform.scale((double)width / imageWidth, (double)height / imageHeight);
+        drawRenderedImage(rendered, transform);
+        return true;
+    }
+
+    public void drawRenderedImage(RenderedImage image, AffineTransform transform) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", bytes);
+        } catch (IOException ioe) {
+            document.error = ioe;
+            return;
+        }
+
+        AffineTransform oldTransform = gc.getTransform();
+        if (transform != null) {
+            gc.transform(transform);
+        }
+        StringBuilder builder = new StringBuilder("<image x=\"0\" y=\"0\" width=\"");
+        builder.append(image.getWidth()).append("\" height=\"").append(image.getHeight()).append("\"");
+        builder.append(" preserveAspectRatio=\"none\" xlink:href=\"data:image/png;base64,");
+        builder.append(java.util.Base64.getEncoder().encodeToString(bytes.toByteArray()));
+        builder.append("\"");
+        appendTransformAndClip(builder);
+        builder.append("/>\n");
+        gc.setTransform(oldTransform);
+        write(builder);
+    }
+
+    public void drawRenderableImage(RenderableImage image, AffineTransform transform) {
+        drawRenderedImage(image.createDefaultRendering(), transform);
+    }
+
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return METRICS_GRAPHICS.getDeviceConfiguration();
+    }
+
+    public FontMetrics getFontMetrics(Font font) {
+        synchronized (METRICS_GRAPHICS) {
+            return METRICS_GRAPHICS.getFontMetrics(font);
+        }
+    }
+
+    public void setXORMode(Color color) {
+        // not supported in SVG
+    }
+
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        // not supported in SVG
+    }
+
+    private boolean isVisible(Shape shape, float lineWidth) {
+        if (shape.getPathIterator(null).isDone()) {
+            // an empty shape would be written as a path with no data
+            return false;
+        }
+        Shape clip = gc.getClip();
+        if (clip == null) {
+            return true;
+        }
+        // the clip is in user space, as is the shape
+        java.awt.geom.Rectangle2D bounds = shape.getBounds2D();
+        double grow = lineWidth / 2.0;
+        return clip.intersects(bounds.getX() - grow, bounds.getY() - grow,
+                bounds.getWidth() + lineWidth, bounds.getHeight() + lineWidth);
+    }
+
+    /**
+     * Appends the current paint as the given property (fill or stroke).
+     *
+     * @return false if there is nothing to draw (a fully transparent colour)
+     */
+    private boolean appendPaint(String property, StringBuilder builder) {
+        Paint paint = gc.getPaint();
+        float opacity = 1.0F;
+        Composite composite = gc.getComposite();
+        if (composite instanceof AlphaComposite) {
+            opacity = ((AlphaComposite)composite).getAlpha();
+        }
+
+        if (paint instanceof GradientPaint) {
+            String id = defineGradient((GradientPaint)paint);
+            if (id == null) {
+                return false;
+            }
+            builder.append(" ").append(property).append(":url(#").append(id).append(");");
+        } else {
+            Color color = (paint instanceof Color ? (Color)paint : gc.getColor());
+            if (color == null) {
+                return false;
+            }
+            opacity *= color.getAlpha() / 255.0F;
+            if (opacity == 0.0F) {
+                return false;
+            }
+            builder.append(" ").append(property).append(":");
+            appendColor(color, builder);
+            builder.append(";");
+        }
+        if (opacity < 1.0F) {
+            builder.append(" ").append(property).append("-opacity:").append(format(opacity)).append(";");
+        }
+        return true;
+    }
+
+    /**
+     * Writes a linear gradient for the paint (unless it is the same as the last one)
+     * and returns its id.
+     */
+    private String defineGradient(GradientPaint paint) {
+        if (paint.equals(document.lastGradient) ||
+                (document.lastGradient != null &&
+                        paint.getPoint1().equals(document.lastGradient.getPoint1()) &&
+                        paint.getPoint2().equals(document.lastGradient.getPoint2()) &&
+                        paint.getColor1().equals(document.lastGradient.getColor1()) &&
+                        paint.getColor2().equals(document.lastGradient.getColor2()) &&
+                        paint.isCyclic() == document.lastGradient.isCyclic())) {
+            return document.lastGradientId;
+        }
+
+        String id = "gradient" + (document.nextId++);
+        StringBuilder builder = new StringBuilder("<defs><linearGradient id=\"");
+        builder.append(id).append("\" gradientUnits=\"userSpaceOnUse\"");
+        Point2D p1 = paint.getPoint1();
+        Point2D p2 = paint.getPoint2();
+        builder.append(" x1=\"").append(format(p1.getX())).append("\" y1=\"").append(format(p1.getY())).append("\"");
+        builder.append(" x2=\"").append(format(p2.getX())).append("\" y2=\"").append(format(p2.getY())).append("\"");
+        builder.append(" spreadMethod=\"").append(paint.isCyclic() ? "reflect" : "pad").append("\">");
+        appendStop(0, paint.getColor1(), builder);
+        appendStop(1, paint.getColor2(), builder);
+        builder.append("</linearGradient></defs>\n");
+        write(builder);
+
+        document.lastGradient = paint;
+        document.lastGradientId = id;
+        return id;
+    }
+
+    private void appendStop(int offset, Color color, StringBuilder builder) {
+        builder.append("<stop offset=\"").append(offset).append("\" style=\"stop-color:");
+        appendColor(color, builder);
+        if (color.getAlpha() < 255) {
+            builder.append("; stop-opacity:").append(format(color.getAlpha() / 255.0));
+        }
+        builder.append(";\"/>");
+    }
+
+    private static void appendColor(Color color, StringBuilder builder) {
+        builder.append("rgb(").append(color.getRed()).append(",").append(color.getGreen()).append(",").append(color.getBlue()).append(")");
+    }
+
+    private void appendStroke(BasicStroke stroke, StringBuilder builder) {
+        builder.append(" stroke-width:").append(format(stroke.getLineWidth())).append(";");
+        switch (stroke.getEndCap()) {
+            case BasicStroke.CAP_BUTT: builder.append(" stroke-linecap:butt;"); break;
+            case BasicStroke.CAP_ROUND: builder.append(" stroke-linecap:round;"); break;
+            default: builder.append(" stroke-linecap:square;"); break;
+        }
+        switch (stroke.getLineJoin()) {
+            case BasicStroke.JOIN_BEVEL: builder.append(" stroke-linejoin:bevel;"); break;
+            case BasicStroke.JOIN_ROUND: builder.append(" stroke-linejoin:round;"); break;
+            default: builder.append(" stroke-linejoin:miter;"); break;
+        }
+        if (stroke.getMiterLimit() != 10.0F) {
+            builder.append(" stroke-miterlimit:").append(format(stroke.getMiterLimit())).append(";");
+        }
+        float[] dashes = stroke.getDashArray();
+        if (dashes != null && dashes.length > 0) {
+            builder.append(" stroke-dasharray:");
+            for (int i = 0; i < dashes.length; i++) {
+                builder.append(i > 0 ? "," : "").append(format(dashes[i]));
+            }
+            builder.append("; stroke-dashoffset:").append(format(stroke.getDashPhase())).append(";");
+        }
+    }
+
+    private void appendFont(Font font, StringBuilder builder) {
+        builder.append(" font-family:");
+        String family = font.getFamily();
+        if (family.equalsIgnoreCase("sansserif") || family.equalsIgnoreCase("sans-serif")) {
+            builder.append("sans-serif");
+        } else if (family.equalsIgnoreCase("serif")) {
+            builder.append("serif");
+        } else if (family.equalsIgnoreCase("monospaced")) {
+            builder.append("monospace");
+        } else {
+            builder.append("&apos;");
+            appendEscaped(family, builder);
+            builder.append("&apos;");
+        }
+        builder.append("; font-size:").append(format(font.getSize2D())).append(";");
+        if (font.isBold()) {
+            builder.append(" font-weight:bold;");
+        }
+        if (font.isItalic()) {
+            builder.append(" font-style:italic;");
+        }
+    }
+
+    private void appendTransformAndClip(StringBuilder builder) {
+        AffineTransform transform = gc.getTransform();
+        if (!transform.isIdentity()) {
+            if (transform.getType() == AffineTransform.TYPE_TRANSLATION) {
+                builder.append(" transform=\"translate(").append(format(transform.getTranslateX())).append(",")
+                        .append(format(transform.getTranslateY())).append(")\"");
+            } else {
+                builder.append(" transform=\"matrix(")
+                        .append(format(transform.getScaleX())).append(" ")
+                        .append(format(transform.getShearY())).append(" ")
+                        .append(format(transform.getShearX())).append(" ")
+                        .append(format(transform.getScaleY())).append(" ")
+                        .append(format(transform.getTranslateX())).append(" ")
+                        .append(format(transform.getTranslateY())).append(")\"");
+            }
+        }
+
+        Shape clip = gc.getClip();
+        if (clip != null) {
+            builder.append(" clip-path=\"url(#").append(defineClip(clip, transform)).append(")\"");
+        }
+    }
+
+    /**
+     * Writes a clip path (unless it is the same as the last one) and returns its id.
+     * The clip is given in user space, so it is written in the same coordinates as the
+     * element that uses it and can only be used again by an element with the same
+     * transform.
+     */
+    private String defineClip(Shape clip, AffineTransform transform) {
+        StringBuilder clipPath = new StringBuilder();
+        appendPath(clip, clipPath);
+        String pathData = clipPath.toString();
+        if (pathData.equals(document.lastClipPath) && transform.equals(document.lastClipTransform)) {
+            return document.lastClipId;
+        }
+
+        String id = "clip" + (document.nextId++);
+        StringBuilder builder = new StringBuilder("<defs><clipPath id=\"");
+        builder.append(id).append("\" clipPathUnits=\"userSpaceOnUse\"><path d=\"");
+        builder.append(pathData);
+        builder.append("\"/></clipPath></defs>\n");
+        write(builder);
+
+        document.lastClipPath = pathData;
+        document.lastClipTransform = new AffineTransform(transform);
+        document.lastClipId = id;
+        return id;
+    }
+
+    private void appendPath(Shape shape, StringBuilder builder) {
+        double[] coords = new double[6];
+        boolean first = true;
+        for (PathIterator iterator = shape.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            if (!first) {
+                builder.append(" ");
+            }
+            first = false;
+            switch (iterator.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    builder.append("M").append(format(coords[0])).append(" ").append(format(coords[1]));
+                    break;
+                case PathIterator.SEG_LINETO:
+                    builder.append("L").append(format(coords[0])).append(" ").append(format(coords[1]));
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    builder.append("Q").append(format(coords[0])).append(" ").append(format(coords[1]))
+                            .append(" ").append(format(coords[2])).append(" ").append(format(coords[3]));
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    builder.append("C").append(format(coords[0])).append(" ").append(format(coords[1]))
+                            .append(" ").append(format(coords[2])).append(" ").append(format(coords[3]))
+                            .append(" ").append(format(coords[4])).append(" ").append(format(coords[5]));
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    builder.append("Z");
+                    break;
+            }
+        }
+    }
+
+    private static void appendEscaped(String text, StringBuilder builder) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': builder.append("&amp;"); break;
+                case '<': builder.append("&lt;"); break;
+                case '>': builder.append("&gt;"); break;
+                case '"': builder.append("&quot;"); break;
+                case '\'': builder.append("&apos;"); break;
+                default:
+                    // characters that can't appear in XML are dropped
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        builder.append(c);
+                    }
+            }
+        }
+    }
+
+    private String format(double value) {
+        if (value == (long)value) {
+            return Long.toString((long)value);
+        }
+        return document.numberFormat.format(value);
+    }
+
+    private void write(StringBuilder builder) {
+        if (document.error != null) {
+            return;
+        }
+        try {
+            document.out.append(builder);
+        } catch (IOException ioe) {
+            document.error = ioe;
+        }
+    }
+
+    /**
+     * The state shared by a graphics and all the graphics created from it.
+     */
+    private static class Document {
+        Document(Writer out) {
+            this.out = out;
+        }
+
+        final Writer out;
+        final DecimalFormat numberFormat = new DecimalFormat("0.####", DecimalFormatSymbols.getInstance(Locale.US));
+        IOException error = null;
+        int nextId = 0;
+
+        GradientPaint lastGradient = null;
+        String lastGradientId = null;
+        String lastClipPath = null;
+        AffineTransform lastClipTransform = null;
+        String lastClipId = null;
+    }
+
+    private final Document document;
+}
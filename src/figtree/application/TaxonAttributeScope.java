@@ -0,0 +1,112 @@
+/*
+ * TaxonAttributeScope.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import jebl.evolution.taxa.Taxon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sets the attributes given to taxa in one tree file's TAXA block on the taxa for as long
+ * as that file is being drawn. jebl keeps a single Taxon for each name, shared by every
+ * tree in the JVM, and the painters read taxon attributes from them, so when files are
+ * drawn one after another (-batch) or side by side (the render server) the attributes of
+ * one file would otherwise show up in the graphics of the others.
+ *
+ * A file with taxon attributes has the taxa to itself while it is drawn, and they are
+ * put back as they were when it is done. Files without any are drawn side by side.
+ *
+ * A scope must be exited by the thread that entered it and a thread can only be in one
+ * scope at a time. Threads working for the one that entered it (e.g., the workers of
+ * renderAll) are covered by its scope.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+final class TaxonAttributeScope {
+
+    private final static ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private TaxonAttributeScope(Lock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Waits until no other file's attributes are set on the taxa and then sets these,
+     * remembering the values they replace.
+     *
+     * @param taxonAttributes the attributes of each taxon in the file (e.g., from
+     *                        TreeFileImporter.getTaxonAttributes())
+     */
+    static TaxonAttributeScope enter(Map<Taxon, Map<String, Object>> taxonAttributes) {
+        if (taxonAttributes.isEmpty()) {
+            LOCK.readLock().lock();
+            return new TaxonAttributeScope(LOCK.readLock());
+        }
+
+        LOCK.writeLock().lock();
+        TaxonAttributeScope scope = new TaxonAttributeScope(LOCK.writeLock());
+        for (Map.Entry<Taxon, Map<String, Object>> entry : taxonAttributes.entrySet()) {
+            Taxon taxon = entry.getKey();
+            for (Map.Entry<String, Object> attribute : entry.getValue().entrySet()) {
+                scope.taxa.add(taxon);
+                scope.names.add(attribute.getKey());
+                scope.oldValues.add(taxon.getAttribute(attribute.getKey()));
+                taxon.setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Puts the attributes of the taxa back as they were and lets other files be drawn.
+     */
+    void exit() {
+        try {
+            // in reverse, so that a name given twice gets its first old value back
+            for (int i = taxa.size() - 1; i >= 0; i--) {
+                if (oldValues.get(i) != null) {
+                    taxa.get(i).setAttribute(names.get(i), oldValues.get(i));
+                } else {
+                    taxa.get(i).removeAttribute(names.get(i));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final Lock lock;
+
+    private final List<Taxon> taxa = new ArrayList<Taxon>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<Object> oldValues = new ArrayList<Object>();
+}
@@ -0,0 +1,735 @@
+/*
+ * TreeFileCache.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.ArrayRootedTree;
+import figtree.treeviewer.AttributeTable;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of the trees read from tree files, kept in a binary form that can be
+ * read back far faster than the file can be parsed. Once a file has been read its
+ * trees (their structure, branch lengths and attribute columns), its taxa and the
+ * settings of any FIGTREE block are written to the cache, and the next time the file
+ * is opened they are read from a memory mapping of the cache file instead, as long as
+ * the file's size, modification time and a checksum of its contents haven't changed.
+ * The checksum is a CRC-32 of the whole file, which notices any edit made to it but is
+ * quick enough (tens of milliseconds for a file that takes seconds to parse) that it
+ * doesn't eat into what the cache saves.
+ *
+ * Only the attributes a file itself gives its taxa (in its TAXA block) are kept, not
+ * whatever attributes the taxa have (jebl's taxa are shared by every file read in the
+ * session).
+ *
+ * Each file has one entry, named by a hash of its path, which is written to a
+ * temporary file and renamed into place so that a reader never sees half an entry.
+ * The least recently used entries are removed once the cache grows past its size
+ * limit. Problems with the cache are never errors: the file is simply parsed.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeFileCache {
+
+    // files smaller than this are parsed about as quickly as they could be read back
+    public final static long MINIMUM_CACHED_SIZE = 1L << 20;
+
+    public final static long DEFAULT_SIZE_LIMIT = 1024L * 1024L * 1024L;
+
+    // the system property giving the cache directory
+    public final static String DIRECTORY_PROPERTY = "figtree.treecache";
+
+    private final static int MAGIC = 0x46544331; // "FTC1"
+    private final static int VERSION = 1;
+
+    // temporary files older than this were left by a write that never finished
+    private final static long STALE_TEMPORARY_AGE = 60L * 60L * 1000L;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static String SUFFIX = ".ftc";
+    private final static String TEMPORARY_PREFIX = ".";
+
+    // one thread writes all the entries, one after another
+    private final static ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Tree file cache");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // the kinds of column
+    private final static byte DOUBLE_COLUMN = 1;
+    private final static byte INTEGER_COLUMN = 2;
+    private final static byte STRING_COLUMN = 3;
+    private final static byte RANGE_COLUMN = 4;
+    private final static byte OBJECT_COLUMN = 5;
+
+    // the types of attribute and setting value
+    private final static byte NULL_VALUE = 0;
+    private final static byte BOOLEAN_VALUE = 1;
+    private final static byte INTEGER_VALUE = 2;
+    private final static byte DOUBLE_VALUE = 3;
+    private final static byte STRING_VALUE = 4;
+    private final static byte COLOR_VALUE = 5;
+    private final static byte ARRAY_VALUE = 6;
+    private final static byte FLOAT_VALUE = 7;
+
+    /**
+     * The trees and settings of a file, as read from the cache.
+     */
+    public static class Entry {
+        Entry(List<Tree> trees, Map<Taxon, Map<String, Object>> taxonAttributes, Map<String, Object> settings, boolean hasFigTreeBlock) {
+            this.trees = trees;
+            this.taxonAttributes = taxonAttributes;
+            this.settings = settings;
+            this.hasFigTreeBlock = hasFigTreeBlock;
+        }
+
+        public List<Tree> getTrees() {
+            return trees;
+        }
+
+        /**
+         * @return the attributes the file gave its taxa, which (unlike parsing the file)
+         *         reading the entry doesn't set on the taxa
+         */
+        public Map<Taxon, Map<String, Object>> getTaxonAttributes() {
+            return taxonAttributes;
+        }
+
+        /**
+         * @return the settings of the file's FIGTREE blocks
+         */
+        public Map<String, Object> getSettings() {
+            return settings;
+        }
+
+        public boolean hasFigTreeBlock() {
+            return hasFigTreeBlock;
+        }
+
+        private final List<Tree> trees;
+        private final Map<Taxon, Map<String, Object>> taxonAttributes;
+        private final Map<String, Object> settings;
+        private final boolean hasFigTreeBlock;
+    }
+
+    /**
+     * @return the cache in the directory given by the figtree.treecache system property,
+     *         or in .figtree/trees in the user's home directory
+     */
+    public static TreeFileCache getDefault() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null) {
+            directory = System.getProperty("user.home") + File.separator + ".figtree" + File.separator + "trees";
+        }
+        return new TreeFileCache(new File(directory), DEFAULT_SIZE_LIMIT);
+    }
+
+    /**
+     * @param directory the cache directory (created when the first entry is written)
+     * @param sizeLimit the size, in bytes, the entries are kept within
+     */
+    public TreeFileCache(File directory, long sizeLimit) {
+        this.directory = directory.toPath();
+        this.sizeLimit = sizeLimit;
+    }
+
+    /**
+     * @return the trees of the file as they were when it was last read, or null if the
+     *         cache has no entry for the file as it is now
+     */
+    public Entry read(File file) {
+        try {
+            Path path = getEntryPath(file);
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+
+            ByteBuffer buffer;
+            FileInputStream in = new FileInputStream(path.toFile());
+            try {
+                FileChannel channel = in.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                in.close();
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (!readString(buffer).equals(file.getCanonicalPath()) ||
+                    buffer.getLong() != file.length() || buffer.getLong() != file.lastModified()) {
+                return null;
+            }
+            if (buffer.getLong() != getChecksum(file)) {
+                return null;
+            }
+
+            boolean hasFigTreeBlock = buffer.get() != 0;
+            Map<String, Object> settings = new LinkedHashMap<String, Object>();
+            readAttributes(buffer, settings);
+
+            Taxon[] taxa = new Taxon[buffer.getInt()];
+            Map<Taxon, Map<String, Object>> taxonAttributes = new LinkedHashMap<Taxon, Map<String, Object>>();
+            for (int i = 0; i < taxa.length; i++) {
+                taxa[i] = Taxon.getTaxon(readString(buffer));
+                Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+                readAttributes(buffer, attributes);
+                if (attributes.size() > 0) {
+                    taxonAttributes.put(taxa[i], attributes);
+                }
+            }
+
+            List<Tree> trees = new ArrayList<Tree>();
+            int treeCount = buffer.getInt();
+            for (int i = 0; i < treeCount; i++) {
+                trees.add(readTree(buffer, taxa));
+            }
+
+            // marks the entry as recently used so it is evicted last
+            Files.setLastModifiedTime(path, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
+
+            return new Entry(trees, taxonAttributes, settings, hasFigTreeBlock);
+        } catch (IOException ioe) {
+            return null;
+        } catch (RuntimeException re) {
+            // a damaged entry (e.g., one cut short)
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the trees of a file, as write() does, on a background thread so that opening
+     * the file doesn't wait for it. The trees are copied before this returns, so they can
+     * be changed (e.g., annotated) straight away.
+     */
+    public void writeLater(final File file, List<Tree> trees, Map<Taxon, Map<String, Object>> taxonAttributes,
+                           Map<String, Object> settings, final boolean hasFigTreeBlock) {
+        final List<Tree> copies = new ArrayList<Tree>();
+        for (Tree tree : trees) {
+            if (!(tree instanceof ArrayRootedTree)) {
+                return;
+            }
+            copies.add(((ArrayRootedTree)tree).copy());
+        }
+        final Map<Taxon, Map<String, Object>> taxonAttributesCopy = new LinkedHashMap<Taxon, Map<String, Object>>(taxonAttributes);
+        final Map<String, Object> settingsCopy = new LinkedHashMap<String, Object>(settings);
+
+        WRITER.execute(new Runnable() {
+            public void run() {
+                write(file, copies, taxonAttributesCopy, settingsCopy, hasFigTreeBlock);
+            }
+        });
+    }
+
+    /**
+     * Keeps the trees of a file, just as they were read, and then evicts old entries if
+     * the cache has grown too large. Nothing is kept if the trees aren't ArrayRootedTrees
+     * or have attributes of types that can't be written.
+     *
+     * @param taxonAttributes the attributes the file gives its taxa (e.g., from
+     *                        TreeFileImporter.getTaxonAttributes())
+     * @param settings the settings of the file's FIGTREE blocks (only)
+     * @return true if the trees were kept
+     */
+    public boolean write(File file, List<Tree> trees, Map<Taxon, Map<String, Object>> taxonAttributes,
+                         Map<String, Object> settings, boolean hasFigTreeBlock) {
+        for (Tree tree : trees) {
+            if (!(tree instanceof ArrayRootedTree)) {
+                return false;
+            }
+        }
+
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            Path path = getEntryPath(file);
+            temporary = Files.createTempFile(directory, TEMPORARY_PREFIX, SUFFIX);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary.toFile()), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, file.getCanonicalPath());
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+                out.writeLong(getChecksum(file));
+
+                out.writeBoolean(hasFigTreeBlock);
+                writeAttributes(out, settings);
+
+                // the taxa are shared between the trees
+                Map<Taxon, Integer> taxonIndices = new LinkedHashMap<Taxon, Integer>();
+                for (Tree tree : trees) {
+                    for (Taxon taxon : tree.getTaxa()) {
+                        if (!taxonIndices.containsKey(taxon)) {
+                            taxonIndices.put(taxon, taxonIndices.size());
+                        }
+                    }
+                }
+                out.writeInt(taxonIndices.size());
+                for (Taxon taxon : taxonIndices.keySet()) {
+                    writeString(out, taxon.getName());
+                    Map<String, Object> attributes = taxonAttributes.get(taxon);
+                    writeAttributes(out, attributes != null ? attributes : Collections.<String, Object>emptyMap());
+                }
+
+                out.writeInt(trees.size());
+                for (Tree tree : trees) {
+                    writeTree(out, (ArrayRootedTree)tree, taxonIndices);
+                }
+            } finally {
+                out.close();
+            }
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+
+            evict();
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ioe) {
+                    // left for the next eviction
+                }
+            }
+        }
+    }
+
+    private Path getEntryPath(File file) throws IOException {
+        MessageDigest digest = getDigest();
+        digest.update(file.getCanonicalPath().getBytes(UTF8));
+        return directory.resolve(toHex(digest.digest()) + SUFFIX);
+    }
+
+    /**
+     * @return a CRC-32 of the whole file
+     */
+    private static long getChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(block) > 0) {
+                block.flip();
+                crc.update(block);
+                block.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return crc.getValue();
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("No SHA-256 message digest available", nsae);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    // the trees
+
+    private static void writeTree(DataOutputStream out, ArrayRootedTree tree, Map<Taxon, Integer> taxonIndices) throws IOException {
+        writeAttributes(out, tree.getAttributeMap());
+        out.writeBoolean(tree.conceptuallyUnrooted());
+
+        // the nodes in the order they were made, so each node's children come before it
+        int nodeCount = tree.getNodeCount();
+        out.writeInt(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            Taxon taxon = tree.getTaxon(tree.getNode(i));
+            out.writeInt(taxon != null ? taxonIndices.get(taxon) : -1);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            out.writeInt(tree.getChildCount(i));
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j = 0; j < tree.getChildCount(i); j++) {
+                out.writeInt(tree.getChildIndex(i, j));
+            }
+        }
+
+        out.writeBoolean(tree.hasLengths());
+        if (tree.hasLengths()) {
+            for (int i = 0; i < nodeCount; i++) {
+                out.writeDouble(tree.getLength(tree.getNode(i)));
+            }
+        }
+
+        AttributeTable attributes = tree.getAttributeTable();
+        out.writeInt(attributes.getColumnNames().size());
+        for (String name : attributes.getColumnNames()) {
+            writeString(out, name);
+            writeColumn(out, attributes.getColumn(name), nodeCount);
+        }
+    }
+
+    private static Tree readTree(ByteBuffer buffer, Taxon[] taxa) throws IOException {
+        Map<String, Object> treeAttributes = new LinkedHashMap<String, Object>();
+        readAttributes(buffer, treeAttributes);
+        boolean conceptuallyUnrooted = buffer.get() != 0;
+
+        int nodeCount = buffer.getInt();
+        int[] taxonIndices = readInts(buffer, nodeCount);
+        int[] childCounts = readInts(buffer, nodeCount);
+        int childIndexCount = 0;
+        for (int childCount : childCounts) {
+            childIndexCount += childCount;
+        }
+        int[] childIndices = readInts(buffer, childIndexCount);
+
+        ArrayRootedTree tree = new ArrayRootedTree((nodeCount + 1) / 2);
+        Node[] nodes = new Node[nodeCount];
+        int childIndex = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (taxonIndices[i] != -1) {
+                nodes[i] = tree.createExternalNode(taxa[taxonIndices[i]]);
+            } else {
+                List<Node> children = new ArrayList<Node>(childCounts[i]);
+                for (int j = 0; j < childCounts[i]; j++) {
+                    children.add(nodes[childIndices[childIndex++]]);
+                }
+                nodes[i] = tree.createInternalNode(children);
+            }
+        }
+
+        if (buffer.get() != 0) {
+            double[] lengths = readDoubles(buffer, nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                tree.setLength(nodes[i], lengths[i]);
+            }
+        }
+
+        AttributeTable attributes = tree.getAttributeTable();
+        int columnCount = buffer.getInt();
+        for (int i = 0; i < columnCount; i++) {
+            String name = readString(buffer);
+            attributes.putColumn(name, readColumn(buffer, nodeCount));
+        }
+
+        for (Map.Entry<String, Object> entry : treeAttributes.entrySet()) {
+            tree.setAttribute(entry.getKey(), entry.getValue());
+        }
+        tree.setConceptuallyUnrooted(conceptuallyUnrooted);
+        return tree;
+    }
+
+    // the attribute columns, which are written out in full (absent rows as zeros)
+    // after the rows that have values
+
+    private static void writeColumn(DataOutputStream out, AttributeTable.Column column, int rowCount) throws IOException {
+        BitSet present = new BitSet(rowCount);
+        for (int row = column.nextRow(0); row >= 0 && row < rowCount; row = column.nextRow(row + 1)) {
+            present.set(row);
+        }
+
+        if (column instanceof AttributeTable.DoubleColumn) {
+            out.writeByte(DOUBLE_COLUMN);
+            writePresent(out, present);
+            for (int row = 0; row < rowCount; row++) {
+                out.writeDouble(present.get(row) ? column.getDouble(row) : 0.0);
+            }
+        } else if (column instanceof AttributeTable.IntegerColumn) {
+            AttributeTable.IntegerColumn integers = (AttributeTable.IntegerColumn)column;
+            out.writeByte(INTEGER_COLUMN);
+            writePresent(out, present);
+            for (int row = 0; row < rowCount; row++) {
+                out.writeInt(present.get(row) ? integers.getInt(row) : 0);
+            }
+        } else if (column instanceof AttributeTable.StringColumn) {
+            AttributeTable.StringColumn strings = (AttributeTable.StringColumn)column;
+            out.writeByte(STRING_COLUMN);
+            writePresent(out, present);
+            out.writeInt(strings.getValueCount());
+            for (int code = 0; code < strings.getValueCount(); code++) {
+                writeString(out, strings.getValue(code));
+            }
+            for (int row = 0; row < rowCount; row++) {
+                out.writeInt(present.get(row) ? strings.getCode(row) : 0);
+            }
+        } else if (column instanceof AttributeTable.RangeColumn) {
+            AttributeTable.RangeColumn ranges = (AttributeTable.RangeColumn)column;
+            out.writeByte(RANGE_COLUMN);
+            writePresent(out, present);
+            for (int row = 0; row < rowCount; row++) {
+                out.writeDouble(present.get(row) ? ranges.getLower(row) : 0.0);
+            }
+            for (int row = 0; row < rowCount; row++) {
+                out.writeDouble(present.get(row) ? ranges.getUpper(row) : 0.0);
+            }
+        } else {
+            out.writeByte(OBJECT_COLUMN);
+            writePresent(out, present);
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+                writeValue(out, column.get(row));
+            }
+        }
+    }
+
+    private static AttributeTable.Column readColumn(ByteBuffer buffer, int rowCount) throws IOException {
+        byte kind = buffer.get();
+        BitSet present = readPresent(buffer);
+        switch (kind) {
+            case DOUBLE_COLUMN:
+                return new AttributeTable.DoubleColumn(readDoubles(buffer, rowCount), present);
+            case INTEGER_COLUMN:
+                return new AttributeTable.IntegerColumn(readInts(buffer, rowCount), present);
+            case STRING_COLUMN: {
+                List<String> values = new ArrayList<String>();
+                int valueCount = buffer.getInt();
+                for (int code = 0; code < valueCount; code++) {
+                    values.add(readString(buffer));
+                }
+                return new AttributeTable.StringColumn(readInts(buffer, rowCount), values, present);
+            }
+            case RANGE_COLUMN: {
+                double[] lowers = readDoubles(buffer, rowCount);
+                double[] uppers = readDoubles(buffer, rowCount);
+                return new AttributeTable.RangeColumn(lowers, uppers, present);
+            }
+            case OBJECT_COLUMN: {
+                Object[] values = new Object[rowCount];
+                for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+                    values[row] = readValue(buffer);
+                }
+                return new AttributeTable.ObjectColumn(values, present);
+            }
+            default:
+                throw new IOException("Unknown column in tree cache");
+        }
+    }
+
+    private static void writePresent(DataOutputStream out, BitSet present) throws IOException {
+        long[] words = present.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readPresent(ByteBuffer buffer) {
+        long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        buffer.position(buffer.position() + words.length * 8);
+        return BitSet.valueOf(words);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    // attribute maps and values
+
+    private static void writeAttributes(DataOutputStream out, Map<String, Object> attributes) throws IOException {
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void readAttributes(ByteBuffer buffer, Map<String, Object> attributes) throws IOException {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = readString(buffer);
+            attributes.put(name, readValue(buffer));
+        }
+    }
+
+    /**
+     * Writes a value of one of the types that tree files and FIGTREE blocks are read into.
+     *
+     * @throws IOException if the value is of any other type
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean)value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER_VALUE);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble((Double)value);
+        } else if (value instanceof Float) {
+            // the weights of trees
+            out.writeByte(FLOAT_VALUE);
+            out.writeFloat((Float)value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            writeString(out, (String)value);
+        } else if (value instanceof Color) {
+            out.writeByte(COLOR_VALUE);
+            out.writeInt(((Color)value).getRGB());
+        } else if (value.getClass() == Object[].class) {
+            Object[] values = (Object[])value;
+            out.writeByte(ARRAY_VALUE);
+            out.writeInt(values.length);
+            for (Object element : values) {
+                writeValue(out, element);
+            }
+        } else {
+            throw new IOException("Values of type " + value.getClass().getName() + " can't be cached");
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case BOOLEAN_VALUE:
+                return buffer.get() != 0;
+            case INTEGER_VALUE:
+                return buffer.getInt();
+            case DOUBLE_VALUE:
+                return buffer.getDouble();
+            case FLOAT_VALUE:
+                return buffer.getFloat();
+            case STRING_VALUE:
+                return readString(buffer);
+            case COLOR_VALUE:
+                return new Color(buffer.getInt(), true);
+            case ARRAY_VALUE: {
+                Object[] values = new Object[buffer.getInt()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readValue(buffer);
+                }
+                return values;
+            }
+            default:
+                throw new IOException("Unknown value in tree cache");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its size limit.
+     */
+    private void evict() throws IOException {
+        synchronized (TreeFileCache.class) {
+            final Map<Path, Long> times = new HashMap<Path, Long>();
+            final Map<Path, Long> sizes = new HashMap<Path, Long>();
+            long total = 0;
+
+            DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX);
+            try {
+                for (Path entry : entries) {
+                    if (entry.getFileName().toString().startsWith(TEMPORARY_PREFIX)) {
+                        if (Files.getLastModifiedTime(entry).toMillis() < System.currentTimeMillis() - STALE_TEMPORARY_AGE) {
+                            Files.deleteIfExists(entry);
+                        }
+                        continue;
+                    }
+                    long size = Files.size(entry);
+                    sizes.put(entry, size);
+                    times.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                    total += size;
+                }
+            } finally {
+                entries.close();
+            }
+
+            if (total <= sizeLimit) {
+                return;
+            }
+
+            List<Path> oldestFirst = new ArrayList<Path>(sizes.keySet());
+            Collections.sort(oldestFirst, new Comparator<Path>() {
+                public int compare(Path path1, Path path2) {
+                    return times.get(path1).compareTo(times.get(path2));
+                }
+            });
+            for (Path entry : oldestFirst) {
+                if (total <= sizeLimit) {
+                    break;
+                }
+                Files.deleteIfExists(entry);
+                total -= sizes.get(entry);
+            }
+        }
+    }
+
+    private final Path directory;
+    private final long sizeLimit;
+}
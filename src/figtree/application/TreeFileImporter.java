@@ -0,0 +1,1153 @@
+/*
+ * TreeFileImporter.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.treeviewer.ArrayRootedTree;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.io.TreeImporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+import jebl.util.Attributable;
+import jebl.util.AttributableHelper;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the trees of a NEXUS or Newick file, building ArrayRootedTrees with the same
+ * nodes and attributes as the trees JEBL's NexusImporter and NewickImporter build, and
+ * reads any FIGTREE blocks in a NEXUS file (as FigTreeNexusImporter does).
+ *
+ * The file is read through a block of characters rather than a character at a time,
+ * [&...] comments are parsed without regular expressions and trees are parsed with an
+ * explicit stack rather than by recursion, so a tree of any depth can be read and large
+ * trees are read faster. The trees of a NEXUS file can also be parsed
+ * in parallel, with importTrees(ForkJoinPool).
+ *
+ * Unlike JEBL's NewickImporter, [&...] comments in Newick files are read as attributes
+ * (rather than becoming part of the taxon names) and FIGTREE blocks are found wherever
+ * they are in a NEXUS file, including before the TREES block.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeFileImporter implements TreeImporter {
+
+    private final static int EOF = -1;
+    private final static String NODE_DELIMITERS = ":(),;";
+    private final static String COMMAND_DELIMITERS = ";";
+
+    /**
+     * @param reader the file to read
+     * @param isNexus true for a NEXUS file, false for a file of Newick trees
+     */
+    public TreeFileImporter(Reader reader, boolean isNexus) {
+        this(reader, isNexus, true);
+    }
+
+    /**
+     * @param reader the file to read
+     * @param isNexus true for a NEXUS file, false for a file of Newick trees
+     * @param setsTaxonAttributes true to set the attributes given to taxa in a TAXA block
+     *                            on the taxa themselves (as JEBL's NexusImporter does),
+     *                            false to only keep them in getTaxonAttributes(). jebl
+     *                            keeps a single Taxon for each name, so attributes set on
+     *                            them are seen by the trees of every file read after.
+     */
+    public TreeFileImporter(Reader reader, boolean isNexus, boolean setsTaxonAttributes) {
+        this.reader = reader;
+        this.isNexus = isNexus;
+        this.setsTaxonAttributes = setsTaxonAttributes;
+    }
+
+    /**
+     * Makes an importer for a single TREE command taken out of a TREES block.
+     */
+    private TreeFileImporter(String treeCommand, Map<String, Taxon> translationMap) {
+        this(new StringReader(treeCommand), true);
+        this.inTreesBlock = true;
+        this.translationMap = translationMap;
+    }
+
+    public boolean isNexus() {
+        return isNexus;
+    }
+
+    public boolean hasTree() throws IOException, ImportException {
+        if (nextTree == null) {
+            nextTree = isNexus ? readNextNexusTree() : readNextNewickTree();
+        }
+        return nextTree != null;
+    }
+
+    public Tree importNextTree() throws IOException, ImportException {
+        if (!hasTree()) {
+            return null;
+        }
+        Tree tree = nextTree;
+        nextTree = null;
+        return tree;
+    }
+
+    public List<Tree> importTrees() throws IOException, ImportException {
+        List<Tree> trees = new ArrayList<Tree>();
+        while (hasTree()) {
+            trees.add(importNextTree());
+        }
+        return trees;
+    }
+
+    /**
+     * Imports the rest of the trees, parsing them on the pool. The TREE commands of a
+     * NEXUS file are split out of the file on this thread (which reads everything else
+     * in the file as it goes) and each is parsed as a separate task, using the TRANSLATE
+     * table that came before it. The trees of a Newick file are read on this thread.
+     *
+     * @return the trees, in the order they are in the file
+     */
+    public List<Tree> importTrees(ForkJoinPool pool) throws IOException, ImportException {
+        if (!isNexus) {
+            return importTrees();
+        }
+
+        List<Tree> trees = new ArrayList<Tree>();
+        if (nextTree != null) {
+            trees.add(nextTree);
+            nextTree = null;
+        }
+
+        List<ForkJoinTask<Tree>> tasks = new ArrayList<ForkJoinTask<Tree>>();
+        try {
+            String command;
+            while ((command = findNextTreeCommand()) != null) {
+                final String treeCommand = readTreeCommandText(command);
+                final Map<String, Taxon> translation = translationMap;
+                tasks.add(pool.submit(new Callable<Tree>() {
+                    public Tree call() throws Exception {
+                        return importTreeCommand(treeCommand, translation);
+                    }
+                }));
+            }
+
+            for (ForkJoinTask<Tree> task : tasks) {
+                Tree tree = task.get();
+                if (tree != null) {
+                    trees.add(tree);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading trees");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof ImportException) {
+                throw (ImportException)cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new ImportException(cause.getMessage());
+        } finally {
+            for (ForkJoinTask<Tree> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        return trees;
+    }
+
+    /**
+     * Parses the text of a single TREE command, as taken out of a TREES block.
+     *
+     * @param translationMap the TRANSLATE table (and TAXA block taxa) for the tree
+     */
+    static Tree importTreeCommand(String treeCommand, Map<String, Taxon> translationMap) throws IOException, ImportException {
+        return new TreeFileImporter(treeCommand, translationMap).importNextTree();
+    }
+
+    /**
+     * @return the taxa for the tip labels of trees in the current TREES block, or null if
+     *         the importer isn't in a TREES block
+     */
+    Map<String, Taxon> getTranslationMap() {
+        return inTreesBlock ? translationMap : null;
+    }
+
+    /**
+     * @return the attributes given to each taxon in the TAXA blocks read so far, which
+     *         are those of this file alone whether or not they were set on the taxa
+     */
+    public Map<Taxon, Map<String, Object>> getTaxonAttributes() {
+        return Collections.unmodifiableMap(taxonAttributes);
+    }
+
+    public Iterator<Tree> iterator() {
+        return new Iterator<Tree>() {
+            public boolean hasNext() {
+                try {
+                    return hasTree();
+                } catch (IOException ioe) {
+                    return false;
+                } catch (ImportException ie) {
+                    return false;
+                }
+            }
+
+            public Tree next() {
+                Tree tree = null;
+                try {
+                    tree = importNextTree();
+                } catch (IOException ioe) {
+                    // reported as no more trees
+                } catch (ImportException ie) {
+                    // reported as no more trees
+                }
+                if (tree == null) {
+                    throw new NoSuchElementException("No more trees in this file");
+                }
+                return tree;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("operation is not supported by this Iterator");
+            }
+        };
+    }
+
+    /**
+     * Reads the rest of the file for FIGTREE blocks and puts their settings, along with
+     * those of any FIGTREE blocks already passed over, into the settings map. The trees
+     * that haven't yet been imported are skipped.
+     *
+     * @return true if a FIGTREE block was found
+     */
+    public boolean readFigTreeBlocks(Map<String, Object> settings) throws IOException, ImportException {
+        if (isNexus) {
+            nextTree = null;
+            try {
+                while (true) {
+                    String blockName = findNextBlock();
+                    if (blockName.equals("TREES")) {
+                        skipBlock();
+                    } else {
+                        readBlock(blockName);
+                    }
+                }
+            } catch (EOFException eofe) {
+                // the end of the file
+            }
+            // even a block without trees is left as it was found
+            inTreesBlock = false;
+        }
+        settings.putAll(figTreeSettings);
+        return hasFigTreeBlock;
+    }
+
+    // NEXUS structure
+
+    private Tree readNextNexusTree() throws IOException, ImportException {
+        String command = findNextTreeCommand();
+        if (command == null) {
+            return null;
+        }
+        try {
+            return readTreeCommand(command.equalsIgnoreCase("UTREE"));
+        } catch (EOFException eofe) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads up to the next TREE or UTREE command in a TREES block, reading the TAXA,
+     * FIGTREE and TRANSLATE commands on the way.
+     *
+     * @return the command, or null at the end of the file
+     */
+    private String findNextTreeCommand() throws IOException, ImportException {
+        try {
+            while (true) {
+                if (!inTreesBlock) {
+                    String blockName = findNextBlock();
+                    if (blockName.equals("TREES")) {
+                        inTreesBlock = true;
+                        translationMap = new HashMap<String, Taxon>();
+                        if (taxonList != null) {
+                            for (Taxon taxon : taxonList) {
+                                translationMap.put(taxon.getName(), taxon);
+                            }
+                        }
+                    } else {
+                        readBlock(blockName);
+                    }
+                    continue;
+                }
+
+                metaComments.clear();
+                String command = readToken(COMMAND_DELIMITERS);
+                if (command.equalsIgnoreCase("TREE") || command.equalsIgnoreCase("UTREE")) {
+                    return command;
+                } else if (command.equalsIgnoreCase("TRANSLATE")) {
+                    readTranslateCommand();
+                } else if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+                    inTreesBlock = false;
+                } else {
+                    skipCommand();
+                }
+            }
+        } catch (EOFException eofe) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the next BEGIN and reads the name of the block. As in JEBL, BEGIN is looked
+     * for token by token rather than command by command, as the #NEXUS at the start of
+     * the file isn't ended by a semicolon.
+     *
+     * @return the block name, in upper case
+     */
+    private String findNextBlock() throws IOException {
+        while (true) {
+            String token = readToken(COMMAND_DELIMITERS);
+            if (token.equalsIgnoreCase("BEGIN") && lastDelimiter != ';') {
+                String blockName = readToken(COMMAND_DELIMITERS).toUpperCase();
+                if (lastDelimiter != ';') {
+                    skipCommand();
+                }
+                return blockName;
+            }
+        }
+    }
+
+    private void readBlock(String blockName) throws IOException, ImportException {
+        if (blockName.equals("TAXA")) {
+            readTaxaBlock();
+        } else if (blockName.equals("FIGTREE")) {
+            readFigTreeBlock();
+        } else {
+            skipBlock();
+        }
+    }
+
+    private void readTaxaBlock() throws IOException, ImportException {
+        int taxonCount = -1;
+        List<Taxon> taxa = null;
+
+        while (true) {
+            metaComments.clear();
+            String command = readToken(COMMAND_DELIMITERS);
+            if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+                break;
+            }
+
+            if (command.equalsIgnoreCase("DIMENSIONS")) {
+                while (lastDelimiter != ';') {
+                    String subcommand = readToken("=;");
+                    if (subcommand.equalsIgnoreCase("NTAX") && lastDelimiter == '=') {
+                        String value = readToken(COMMAND_DELIMITERS);
+                        try {
+                            taxonCount = Integer.parseInt(value);
+                        } catch (NumberFormatException nfe) {
+                            throw new ImportException("Number format error: " + nfe.getMessage());
+                        }
+                    }
+                }
+            } else if (command.equalsIgnoreCase("TAXLABELS")) {
+                taxa = new ArrayList<Taxon>();
+                while (lastDelimiter != ';') {
+                    metaComments.clear();
+                    String name = readToken(COMMAND_DELIMITERS);
+                    if (name.length() == 0) {
+                        if (lastDelimiter == ';') {
+                            break;
+                        }
+                        throw new ImportException.UnknownTaxonException("Expected nonempty taxon name, got empty string");
+                    }
+                    Taxon taxon = getTaxon(name);
+                    taxa.add(taxon);
+                    if (metaComments.size() > 0) {
+                        AttributableHelper attributes = new AttributableHelper();
+                        parseMetaComments(attributes);
+                        taxonAttributes.put(taxon, attributes.getAttributeMap());
+                        if (setsTaxonAttributes) {
+                            for (Map.Entry<String, Object> entry : attributes.getAttributeMap().entrySet()) {
+                                taxon.setAttribute(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                }
+            } else if (lastDelimiter != ';') {
+                skipCommand();
+            }
+        }
+
+        if (taxa != null) {
+            if (taxonCount != -1 && taxa.size() != taxonCount) {
+                throw new ImportException.BadFormatException("Number of taxa doesn't match NTAXA field");
+            }
+            taxonList = taxa;
+            taxonSet = null;
+        }
+    }
+
+    private void readFigTreeBlock() throws IOException, ImportException {
+        String command = readToken(COMMAND_DELIMITERS);
+        while (!command.equalsIgnoreCase("END") && !command.equalsIgnoreCase("ENDBLOCK")) {
+            if (command.equalsIgnoreCase("SET")) {
+                while (lastDelimiter != ';') {
+                    String key = readToken("=;");
+                    if (lastDelimiter != '=') {
+                        throw new ImportException("Subcommand, " + key + ", is missing a value in command, " + command + ", in FIGTREE block");
+                    }
+                    String value = readToken(COMMAND_DELIMITERS);
+                    figTreeSettings.put(key, FigTreeNexusImporter.parseValue(value));
+                }
+            } else {
+                throw new ImportException("Unknown command, " + command + ", in FIGTREE block");
+            }
+            command = readToken(COMMAND_DELIMITERS);
+        }
+        hasFigTreeBlock = true;
+    }
+
+    private void skipBlock() throws IOException {
+        while (true) {
+            String command = readToken(COMMAND_DELIMITERS);
+            if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+                if (lastDelimiter != ';') {
+                    skipCommand();
+                }
+                return;
+            }
+            if (lastDelimiter != ';') {
+                skipCommand();
+            }
+        }
+    }
+
+    private void readTranslateCommand() throws IOException, ImportException {
+        // trees being parsed on other threads may be using the current table, so it is
+        // replaced rather than changed
+        translationMap = new HashMap<String, Taxon>(translationMap);
+        if (taxonList != null && taxonSet == null) {
+            taxonSet = new HashSet<Taxon>(taxonList);
+        }
+        do {
+            String key = readToken(",;");
+            if (lastDelimiter == ',' || lastDelimiter == ';') {
+                if (key.length() == 0 && lastDelimiter == ';') {
+                    break;
+                }
+                throw new ImportException.BadFormatException("Missing taxon label in TRANSLATE command of TREES block");
+            }
+            String name = readToken(",;");
+            if (lastDelimiter != ',' && lastDelimiter != ';') {
+                throw new ImportException.BadFormatException("Expecting ',' or ';' after taxon label in TRANSLATE command of TREES block");
+            }
+            Taxon taxon = getTaxon(name);
+            if (taxonSet != null && !taxonSet.contains(taxon)) {
+                throw new ImportException.UnknownTaxonException("Taxon in TRANSLATE command, '" + name + "', is not in the TAXA block");
+            }
+            translationMap.put(key, taxon);
+        } while (lastDelimiter != ';');
+    }
+
+    /**
+     * Reads the text of a TREE command, up to and including its semicolon, without
+     * parsing it.
+     */
+    private String readTreeCommandText(String command) throws IOException {
+        StringBuilder builder = new StringBuilder(command).append(' ');
+        int depth = 0;
+        int quote = 0;
+        while (true) {
+            int ch = read();
+            if (ch == EOF) {
+                break;
+            }
+            builder.append((char)ch);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (depth > 0) {
+                if (ch == '[') {
+                    depth++;
+                } else if (ch == ']') {
+                    depth--;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+            } else if (ch == '[') {
+                depth++;
+            } else if (ch == ';') {
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private Tree readTreeCommand(boolean isUnrooted) throws IOException, ImportException {
+        if (skipSpaceAndComments() == '*') {
+            read();
+        }
+        for (String meta : metaComments) {
+            if (meta.equalsIgnoreCase("U")) {
+                isUnrooted = true;
+            }
+        }
+        metaComments.clear();
+
+        String treeName = readToken("=;");
+        if (treeName.length() == 0) {
+            throw new ImportException("At least one tree has no name");
+        }
+        treeName = makeIntoAllowableIdentifier(treeName);
+        if (lastDelimiter != '=') {
+            throw new ImportException.BadFormatException("Missing label for tree '" + treeName + "' or missing '=' in TREE command of TREES block");
+        }
+
+        if (skipSpaceAndComments() != '(') {
+            throw new ImportException.BadFormatException("Missing tree definition in TREE command of TREES block");
+        }
+        List<String> comments = new ArrayList<String>(metaComments);
+        metaComments.clear();
+
+        ArrayRootedTree tree = readTree(translationMap, false);
+        if (!treeName.matches("tree_[0-9]+")) {
+            tree.setAttribute("name", treeName);
+        }
+
+        int ch = skipSpaceAndComments();
+        if (ch == ':') {
+            read();
+            readNumber();
+            ch = skipSpaceAndComments();
+        }
+        if (ch == ';') {
+            read();
+        } else if (ch != EOF) {
+            throw new ImportException.BadFormatException("Expecting ';' after tree, '" + treeName + "', TREE command of TREES block");
+        }
+
+        for (String comment : comments) {
+            String commentName = comment;
+            if (commentName.contains("=")) {
+                commentName = commentName.substring(0, commentName.indexOf("="));
+            }
+            if (commentName.toUpperCase().equals("U")) {
+                isUnrooted = true;
+            } else if (comment.matches("^W\\s+[\\+\\-]?[\\d\\.]+")) {
+                tree.setAttribute("weight", Float.valueOf(comment.substring(2)));
+            } else if (!commentName.toUpperCase().equals("R")) {
+                try {
+                    parseMetaComment(comment, tree);
+                } catch (ImportException.BadFormatException bfe) {
+                    tree.setAttribute("comment", comment);
+                }
+            }
+        }
+        tree.setConceptuallyUnrooted(isUnrooted);
+
+        return tree;
+    }
+
+    /**
+     * As JEBL's NexusImporter names trees, so that the same trees get the same names.
+     */
+    private static String makeIntoAllowableIdentifier(String identifier) {
+        identifier = identifier.replaceAll("[^\\w\\.]", "_");
+        char first = identifier.charAt(0);
+        if (!(first == '_' || (first >= 'a' && first <= 'z') || (first >= 'A' && first <= 'Z'))) {
+            identifier = "_" + identifier;
+        }
+        return identifier;
+    }
+
+    // Newick structure
+
+    private Tree readNextNewickTree() throws IOException, ImportException {
+        // anything before the next tree is ignored
+        int ch = skipSpaceAndComments();
+        while (ch != '(') {
+            if (ch == EOF) {
+                return null;
+            }
+            read();
+            ch = skipSpaceAndComments();
+        }
+        metaComments.clear();
+
+        ArrayRootedTree tree = readTree(null, true);
+
+        ch = skipSpaceAndComments();
+        if (ch == ':') {
+            read();
+            readNumber();
+            ch = skipSpaceAndComments();
+        }
+        if (ch == ';') {
+            read();
+        }
+        return tree;
+    }
+
+    // trees
+
+    /**
+     * Reads a tree in Newick format, starting at its opening bracket. Each open bracket
+     * pushes a new list of children onto a stack, and each close bracket pops the list
+     * and makes the internal node, so the depth of the tree is limited by memory rather
+     * than by the size of the thread's stack.
+     *
+     * Attributes in [&...] comments anywhere from the start of a node to the end of its
+     * branch are given to the node (JEBL gives them to the node or to its parent edge,
+     * which hands them to the node).
+     *
+     * @param translationMap the taxa for the labels of the tips (null or empty to make the
+     *                       taxa from the labels)
+     * @param isNewick true to read tip labels broken by spaces as one label, and to give
+     *                 branches without lengths a length of one, as JEBL's NewickImporter does
+     */
+    private ArrayRootedTree readTree(Map<String, Taxon> translationMap, boolean isNewick) throws IOException, ImportException {
+        ArrayRootedTree tree = new ArrayRootedTree();
+        Deque<List<Node>> stack = new ArrayDeque<List<Node>>();
+
+        // the opening bracket of the root
+        read();
+        stack.push(new ArrayList<Node>(2));
+        metaComments.clear();
+
+        while (true) {
+            int ch = skipSpaceAndComments();
+            if (ch == '(') {
+                read();
+                stack.push(new ArrayList<Node>(2));
+                metaComments.clear();
+                continue;
+            }
+
+            Node node = readExternalNode(tree, translationMap, isNewick);
+
+            while (true) {
+                readBranch(tree, node, isNewick);
+                stack.peek().add(node);
+
+                ch = skipSpaceAndComments();
+                if (ch == ',') {
+                    read();
+                    metaComments.clear();
+                    break;
+                }
+                if (ch != ')') {
+                    throw new ImportException.BadFormatException("Missing closing ')' in tree");
+                }
+                read();
+
+                node = tree.createInternalNode(stack.pop());
+                metaComments.clear();
+                ch = skipSpaceAndComments();
+                if (ch != EOF && NODE_DELIMITERS.indexOf(ch) == -1) {
+                    String label = readLabel(false);
+                    if (label.length() > 0) {
+                        node.setAttribute("label", parseValue(label));
+                    }
+                }
+
+                if (stack.isEmpty()) {
+                    // the root, whose branch (if any) is read by the caller
+                    skipSpaceAndComments();
+                    parseMetaComments(node);
+                    return tree;
+                }
+            }
+        }
+    }
+
+    private Node readExternalNode(ArrayRootedTree tree, Map<String, Taxon> translationMap, boolean isNewick) throws IOException, ImportException {
+        String label = readLabel(isNewick);
+        if (label.length() == 0) {
+            throw new ImportException.UnknownTaxonException("Empty node names are not allowed.");
+        }
+
+        Taxon taxon;
+        if (translationMap != null && translationMap.size() > 0) {
+            taxon = translationMap.get(label);
+            if (taxon == null) {
+                throw new ImportException.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+            }
+        } else {
+            taxon = getTaxon(label);
+        }
+
+        try {
+            return tree.createExternalNode(taxon);
+        } catch (IllegalArgumentException iae) {
+            throw new ImportException.DuplicateTaxaException(iae.getMessage());
+        }
+    }
+
+    /**
+     * Reads the rest of a node's branch, after its label: its length and any comments.
+     */
+    private void readBranch(ArrayRootedTree tree, Node node, boolean isNewick) throws IOException, ImportException {
+        int ch = skipSpaceAndComments();
+        if (ch == ':') {
+            read();
+            tree.setLength(node, readNumber());
+            skipSpaceAndComments();
+        } else if (isNewick) {
+            tree.setLength(node, 1.0);
+        }
+        parseMetaComments(node);
+    }
+
+    private double readNumber() throws IOException, ImportException {
+        skipSpaceAndComments();
+        token.setLength(0);
+        int ch = peek();
+        while (ch != EOF && ch != '[' && !isWhitespace(ch) && NODE_DELIMITERS.indexOf(ch) == -1) {
+            token.append((char)read());
+            ch = peek();
+        }
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException nfe) {
+            throw new ImportException("Number format error: " + nfe.getMessage());
+        }
+    }
+
+    /**
+     * Reads a node label: either quoted (with a doubled quote standing for a quote) or
+     * running up to a delimiter, a space or a comment.
+     *
+     * @param joinWords true to carry on past spaces, joining the words with single spaces
+     */
+    private String readLabel(boolean joinWords) throws IOException {
+        token.setLength(0);
+        int ch = skipSpaceAndComments();
+        if (ch == '\'' || ch == '"') {
+            readQuoted(token);
+            return token.toString();
+        }
+
+        while (true) {
+            while (ch != EOF && ch != '[' && !isWhitespace(ch) && NODE_DELIMITERS.indexOf(ch) == -1) {
+                token.append((char)read());
+                ch = peek();
+            }
+            if (!joinWords || !isWhitespace(ch)) {
+                return token.toString();
+            }
+            ch = skipSpace();
+            if (ch == EOF || ch == '[' || NODE_DELIMITERS.indexOf(ch) != -1) {
+                return token.toString();
+            }
+            token.append(' ');
+        }
+    }
+
+    // tokens
+
+    /**
+     * Reads a NEXUS token, either quoted or running up to a space, a comment or one of
+     * the delimiters. The token's delimiter is then skipped over (along with any space
+     * before it) and left in lastDelimiter, which is a space if the token ended with
+     * something other than a delimiter.
+     *
+     * @throws EOFException if the file ends before the token starts
+     */
+    private String readToken(String delimiters) throws IOException {
+        token.setLength(0);
+        int ch = skipSpaceAndComments();
+        if (ch == EOF) {
+            throw new EOFException();
+        }
+
+        lastDelimiter = ' ';
+        if (ch == '\'' || ch == '"') {
+            readQuoted(token);
+        } else {
+            while (ch != EOF && ch != '[' && !isWhitespace(ch)) {
+                read();
+                if (delimiters.indexOf(ch) != -1) {
+                    lastDelimiter = (char)ch;
+                    return token.toString();
+                }
+                token.append((char)ch);
+                ch = peek();
+            }
+        }
+
+        ch = skipSpaceAndComments();
+        if (ch != EOF && delimiters.indexOf(ch) != -1) {
+            lastDelimiter = (char)read();
+        }
+        return token.toString();
+    }
+
+    /**
+     * Reads a quoted string, starting at its opening quote.
+     */
+    private void readQuoted(StringBuilder builder) throws IOException {
+        int quote = read();
+        while (true) {
+            int ch = read();
+            if (ch == EOF) {
+                return;
+            }
+            if (ch == quote) {
+                if (peek() != quote) {
+                    return;
+                }
+                read();
+            }
+            builder.append((char)ch);
+        }
+    }
+
+    /**
+     * Skips everything up to the next semicolon, which is read.
+     */
+    private void skipCommand() throws IOException {
+        int ch = skipSpaceAndComments();
+        while (ch != ';') {
+            if (ch == EOF) {
+                throw new EOFException();
+            }
+            if (ch == '\'' || ch == '"') {
+                readQuoted(new StringBuilder());
+            } else {
+                read();
+            }
+            ch = skipSpaceAndComments();
+        }
+        read();
+        lastDelimiter = ';';
+    }
+
+    private int skipSpace() throws IOException {
+        int ch = peek();
+        while (isWhitespace(ch)) {
+            read();
+            ch = peek();
+        }
+        return ch;
+    }
+
+    /**
+     * Skips over white space and comments, keeping the text of any [&...] comments.
+     *
+     * @return the next character (which is not read)
+     */
+    private int skipSpaceAndComments() throws IOException {
+        int ch = skipSpace();
+        while (ch == '[') {
+            readComment();
+            ch = skipSpace();
+        }
+        return ch;
+    }
+
+    /**
+     * Reads a comment, starting at its opening bracket. Comments can be nested. Quotes
+     * mean nothing in a comment (as in JEBL), so a comment can hold an apostrophe.
+     */
+    private void readComment() throws IOException {
+        read();
+        StringBuilder meta = null;
+        if (peek() == '&') {
+            read();
+            meta = new StringBuilder();
+        }
+
+        int depth = 1;
+        while (true) {
+            int ch = read();
+            if (ch == EOF) {
+                break;
+            }
+            if (ch == '[') {
+                depth++;
+            } else if (ch == ']') {
+                depth--;
+                if (depth == 0) {
+                    break;
+                }
+            }
+            if (meta != null) {
+                meta.append((char)ch);
+            }
+        }
+
+        if (meta != null) {
+            metaComments.add(meta.toString());
+        }
+    }
+
+    private static boolean isWhitespace(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r' || (ch != EOF && Character.isWhitespace(ch));
+    }
+
+    // the characters of the file
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        while (count == 0) {
+            count = reader.read(buffer, 0, buffer.length);
+        }
+        if (count < 0) {
+            position = limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    // attributes
+
+    private static Taxon getTaxon(String name) throws ImportException {
+        try {
+            return Taxon.getTaxon(name);
+        } catch (IllegalArgumentException iae) {
+            throw new ImportException.UnknownTaxonException(iae.getMessage());
+        }
+    }
+
+    /**
+     * Gives the attributes in the [&...] comments read since they were last cleared to
+     * the item, and clears them.
+     */
+    private void parseMetaComments(Attributable item) throws ImportException.BadFormatException {
+        for (String meta : metaComments) {
+            parseMetaComment(meta, item);
+        }
+        metaComments.clear();
+    }
+
+    /**
+     * Parses the comma separated name=value pairs of a [&...] comment, as JEBL's
+     * NexusImporter does with a regular expression: names are quoted or run up to a
+     * comma, equals or space; values are {...} lists, quoted or run up to a comma; a
+     * name without a value is given the value true.
+     */
+    static void parseMetaComment(String meta, Attributable item) throws ImportException.BadFormatException {
+        int length = meta.length();
+        int i = 0;
+        while (i < length) {
+            char ch = meta.charAt(i);
+            if (ch == ',' || ch == '=' || Character.isWhitespace(ch)) {
+                i++;
+                continue;
+            }
+
+            // the name
+            String name;
+            int end = ch == '"' ? findQuoted(meta, i) : -1;
+            if (end != -1) {
+                name = meta.substring(i + 1, end - 1);
+                i = end;
+            } else {
+                end = i;
+                while (end < length && meta.charAt(end) != ',' && meta.charAt(end) != '=' && !Character.isWhitespace(meta.charAt(end))) {
+                    end++;
+                }
+                name = meta.substring(i, end);
+                i = end;
+            }
+            if (name.trim().length() == 0) {
+                throw new ImportException.BadFormatException("Badly formatted attribute: '" + meta + "'");
+            }
+
+            // the value, if there is one
+            int j = i;
+            while (j < length && Character.isWhitespace(meta.charAt(j))) {
+                j++;
+            }
+            if (j < length && meta.charAt(j) == '=') {
+                j++;
+                while (j < length && Character.isWhitespace(meta.charAt(j))) {
+                    j++;
+                }
+                end = -1;
+                if (j < length && meta.charAt(j) == '{') {
+                    end = j + 1;
+                    while (end < length && meta.charAt(end) != '}' && meta.charAt(end) != '=') {
+                        end++;
+                    }
+                    end = (end < length && meta.charAt(end) == '}') ? end + 1 : -1;
+                } else if (j < length && meta.charAt(j) == '"') {
+                    end = findQuoted(meta, j);
+                }
+                if (end == -1) {
+                    end = j;
+                    while (end < length && meta.charAt(end) != ',') {
+                        end++;
+                    }
+                }
+                if (end > j) {
+                    item.setAttribute(name, parseValue(meta.substring(j, end)));
+                    i = end;
+                    continue;
+                }
+            }
+            item.setAttribute(name, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return the index after the closing quote (and any quotes straight after it) of the
+     *         quoted string starting at start, or -1 if it isn't closed
+     */
+    private static int findQuoted(String text, int start) {
+        int end = text.indexOf('"', start + 1);
+        if (end == -1) {
+            return -1;
+        }
+        end++;
+        while (end < text.length() && text.charAt(end) == '"') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Parses an attribute value as JEBL's NexusImporter does: a {...} list, a colour,
+     * a quoted string, a boolean, an integer, a real number or, failing those, a string.
+     */
+    static Object parseValue(String value) {
+        value = value.trim();
+        if (value.startsWith("{")) {
+            String[] elements = value.substring(1, value.length() - 1).split(",");
+            Object[] values = new Object[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                values[i] = parseValue(elements[i]);
+            }
+            return values;
+        }
+
+        if (value.startsWith("#")) {
+            String colourValue = value.substring(1);
+            try {
+                return Color.decode(colourValue.startsWith("-") ? colourValue : "0x" + colourValue);
+            } catch (NumberFormatException nfe) {
+                // not a colour
+            }
+        }
+
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+
+        if (value.equalsIgnoreCase("TRUE") || value.equalsIgnoreCase("FALSE")) {
+            return Boolean.valueOf(value);
+        }
+
+        // only a few characters can start a number, so most strings needn't be tried, and
+        // real numbers aren't tried as integers first (throwing exceptions is slow)
+        if (value.length() > 0 && "0123456789+-.NI".indexOf(value.charAt(0)) != -1) {
+            try {
+                if (isInteger(value)) {
+                    return Integer.parseInt(value);
+                }
+            } catch (NumberFormatException nfe) {
+                // too big for an integer
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException nfe) {
+                // not a number
+            }
+        }
+        return value;
+    }
+
+    private static boolean isInteger(String value) {
+        int start = (value.charAt(0) == '+' || value.charAt(0) == '-') ? 1 : 0;
+        if (start == value.length()) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final Reader reader;
+    private final boolean isNexus;
+    private final boolean setsTaxonAttributes;
+
+    private final char[] buffer = new char[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+
+    private final StringBuilder token = new StringBuilder();
+    private char lastDelimiter = 0;
+    private final List<String> metaComments = new ArrayList<String>();
+
+    private boolean inTreesBlock = false;
+    private List<Taxon> taxonList = null;
+    private Set<Taxon> taxonSet = null;
+    private Map<String, Taxon> translationMap = null;
+    private Tree nextTree = null;
+
+    private final Map<Taxon, Map<String, Object>> taxonAttributes = new LinkedHashMap<Taxon, Map<String, Object>>();
+
+    private final Map<String, Object> figTreeSettings = new HashMap<String, Object>();
+    private boolean hasFigTreeBlock = false;
+}
@@ -0,0 +1,594 @@
+/*
+ * TreeRenderer.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import com.itextpdf.text.DocumentException;
+import figtree.treeviewer.AttributeColourController;
+import figtree.treeviewer.TimeScale;
+import figtree.treeviewer.TreePane;
+import figtree.treeviewer.decorators.*;
+import figtree.treeviewer.painters.*;
+import figtree.treeviewer.treelayouts.PolarTreeLayout;
+import figtree.treeviewer.treelayouts.RadialTreeLayout;
+import figtree.treeviewer.treelayouts.RectilinearTreeLayout;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.*;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws a tree to a graphic without building any of the FigTree user interface. Each
+ * render creates its own TreePane, painters and decorators, configures them directly
+ * from a RenderSettings (doing what the control palette's controllers would do) and
+ * draws the pane straight into the export graphics. The pane is only used as a drawing
+ * surface and is never added to a window.
+ *
+ * Nothing is shared between renders, so one TreeRenderer can be used by any number of
+ * threads at once.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeRenderer {
+
+    private final static String USER_SELECTION = "User selection";
+    private final static String DEFAULT_BACKGROUND = "Default";
+
+    public TreeRenderer(RenderSettings settings) {
+        this(settings, Collections.<Taxon, Object>emptyMap());
+    }
+
+    /**
+     * @param taxonColours colours for the tip labels of particular taxa (e.g., those
+     *                     matched by -colors), which take the place of their !color
+     *                     attributes in this render only
+     */
+    public TreeRenderer(RenderSettings settings, Map<Taxon, ?> taxonColours) {
+        this.settings = settings;
+        this.taxonColours = taxonColours;
+    }
+
+    public RenderSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Renders a tree to the stream in the graphic format of the settings.
+     *
+     * @param tree the tree to draw (unrooted trees are rooted as the viewer would)
+     * @param stream the stream to write the graphic to (not closed)
+     * @return the tree as drawn, i.e., after any rooting, ordering and transform
+     */
+    public RootedTree render(Tree tree, OutputStream stream) throws IOException, DocumentException {
+        return render(tree, stream, null);
+    }
+
+    /**
+     * Renders a tree to the stream, as above, timing each stage of the render.
+     *
+     * @param metrics the metrics to record the stages in (or null)
+     */
+    public RootedTree render(Tree tree, OutputStream stream, RenderMetrics metrics) throws IOException, DocumentException {
+        if (metrics == null) {
+            TreePane treePane = createTreePane(tree);
+            exportGraphics(settings.getFormat(), treePane, settings.getWidth(), settings.getHeight(), stream);
+            return treePane.constructTransformedTree(treePane.getOriginalTree());
+        }
+
+        metrics.begin(RenderMetrics.SETUP);
+        TreePane treePane = createTreePane(tree);
+        metrics.end(RenderMetrics.SETUP);
+
+        // the layout, calibrate and draw stages are reported by the pane as it paints
+        treePane.addStageListener(metrics);
+        metrics.begin(RenderMetrics.ENCODE);
+        exportGraphics(settings.getFormat(), treePane, settings.getWidth(), settings.getHeight(), stream);
+        metrics.end(RenderMetrics.ENCODE);
+        treePane.removeStageListener(metrics);
+
+        RootedTree treeAsViewed = treePane.constructTransformedTree(treePane.getOriginalTree());
+        metrics.setTree(treeAsViewed);
+        return treeAsViewed;
+    }
+
+    /**
+     * Renders a tree as the next page (or pages) of a PDF document.
+     *
+     * @param tree the tree to draw (unrooted trees are rooted as the viewer would)
+     * @param pdf the document to add the pages to
+     * @param pageHeight the height of each page, a tree taller than this being split over
+     *                   several pages (zero for a single page however tall the tree)
+     * @return the tree as drawn, i.e., after any rooting, ordering and transform
+     */
+    public RootedTree render(Tree tree, MultiPagePDF pdf, int pageHeight) throws DocumentException {
+        return render(tree, pdf, pageHeight, null);
+    }
+
+    /**
+     * Renders a tree as the next page (or pages) of a PDF document, as above, timing each
+     * stage of the render.
+     *
+     * @param metrics the metrics to record the stages in (or null)
+     */
+    public RootedTree render(Tree tree, MultiPagePDF pdf, int pageHeight, RenderMetrics metrics) throws DocumentException {
+        if (metrics == null) {
+            TreePane treePane = createTreePane(tree);
+            pdf.addPages(treePane, settings.getWidth(), settings.getHeight(), pageHeight);
+            return treePane.constructTransformedTree(treePane.getOriginalTree());
+        }
+
+        metrics.begin(RenderMetrics.SETUP);
+        TreePane treePane = createTreePane(tree);
+        metrics.end(RenderMetrics.SETUP);
+
+        // the layout, calibrate and draw stages are reported by the pane as it paints
+        treePane.addStageListener(metrics);
+        metrics.begin(RenderMetrics.ENCODE);
+        pdf.addPages(treePane, settings.getWidth(), settings.getHeight(), pageHeight);
+        metrics.end(RenderMetrics.ENCODE);
+        treePane.removeStageListener(metrics);
+
+        RootedTree treeAsViewed = treePane.constructTransformedTree(treePane.getOriginalTree());
+        metrics.setTree(treeAsViewed);
+        return treeAsViewed;
+    }
+
+    /**
+     * Builds a TreePane for the tree with all of the settings applied, ready to be drawn
+     * at the size given in the settings.
+     */
+    public TreePane createTreePane(Tree tree) {
+        RootedTree rootedTree = (tree instanceof RootedTree ? (RootedTree)tree : Utils.rootTheTree(tree));
+        List<Tree> trees = Collections.singletonList((Tree)rootedTree);
+
+        TreePane treePane = new TreePane();
+        AttributeColourController colourController = new AttributeColourController(trees);
+
+        // the same painters, with the same initial state, as FigTreePanel creates
+        BasicLabelPainter tipLabelPainter = new BasicLabelPainter(BasicLabelPainter.PainterIntent.TIP);
+        treePane.setTipLabelPainter(tipLabelPainter);
+
+        NodeShapePainter tipShapePainter = new NodeShapePainter();
+        tipShapePainter.setVisible(false);
+        treePane.setTipShapePainter(tipShapePainter);
+
+        BasicLabelPainter nodeLabelPainter = new BasicLabelPainter(BasicLabelPainter.PainterIntent.NODE);
+        nodeLabelPainter.setVisible(false);
+        treePane.setNodeLabelPainter(nodeLabelPainter);
+
+        NodeShapePainter nodeShapePainter = new NodeShapePainter();
+        nodeShapePainter.setVisible(false);
+        treePane.setNodeShapePainter(nodeShapePainter);
+
+        NodeBarPainter nodeBarPainter = new NodeBarPainter();
+        nodeBarPainter.setForeground(new Color(24, 32, 228, 128));
+        nodeBarPainter.setVisible(false);
+        treePane.setNodeBarPainter(nodeBarPainter);
+
+        BasicLabelPainter branchLabelPainter = new BasicLabelPainter(BasicLabelPainter.PainterIntent.BRANCH);
+        branchLabelPainter.setVisible(false);
+        treePane.setBranchLabelPainter(branchLabelPainter);
+
+        ScaleBarPainter scaleBarPainter = new ScaleBarPainter();
+        scaleBarPainter.setVisible(true);
+        treePane.addScalePainter(scaleBarPainter);
+
+        ScaleAxisPainter scaleAxisPainter = new ScaleAxisPainter();
+        ScaleGridPainter scaleGridPainter = new ScaleGridPainter();
+        scaleAxisPainter.setVisible(false);
+        scaleGridPainter.setVisible(false);
+        treePane.addScalePainter(scaleAxisPainter);
+        treePane.setScaleGridPainter(scaleGridPainter);
+
+        LegendPainter legendPainter = new LegendPainter(colourController);
+        legendPainter.setVisible(false);
+        treePane.setLegendPainter(legendPainter);
+
+        setupLayout(treePane);
+
+        // the tree options are only changed when they differ from the pane's initial
+        // state so that, for example, a tree without branch lengths stays transformed
+        boolean transformOn = treePane.isTransformBranchesOn();
+        TransformedRootedTree.Transform transform = treePane.getBranchTransform();
+        boolean orderOn = treePane.isOrderBranchesOn();
+        SortedRootedTree.BranchOrdering ordering = treePane.getBranchOrdering();
+        boolean rootingOn = treePane.isRootingOn();
+        TreePane.RootingType rootingType = treePane.getRootingType();
+
+        treePane.setTree(rootedTree);
+
+        setupTrees(treePane, transformOn, transform, orderOn, ordering, rootingOn, rootingType);
+        setupTimeScale(treePane);
+
+        colourController.setSettings(settings.getSettings());
+
+        setupAppearance(treePane, colourController, trees);
+
+        setupLabelPainter(tipLabelPainter, "tipLabels", colourController, trees);
+        setupNodeShapePainter(tipShapePainter, "nodeShapeExternal", colourController, trees);
+        setupLabelPainter(nodeLabelPainter, "nodeLabels", colourController, trees);
+        setupNodeShapePainter(nodeShapePainter, "nodeShapeInternal", colourController, trees);
+        setupNodeBarPainter(nodeBarPainter, trees);
+        setupLabelPainter(branchLabelPainter, "branchLabels", colourController, trees);
+        setupScaleBarPainter(scaleBarPainter);
+        setupScaleAxisPainter(scaleAxisPainter, scaleGridPainter);
+        setupLegendPainter(legendPainter, colourController, trees);
+
+        treePane.setSize(settings.getWidth(), settings.getHeight());
+
+        return treePane;
+    }
+
+    private void setupLayout(TreePane treePane) {
+        String layoutType = settings.getString("layout.layoutType");
+
+        if ("POLAR".equals(layoutType)) {
+            PolarTreeLayout treeLayout = new PolarTreeLayout();
+            // the layout only takes account of its root angle and angular range once one
+            // of them has been set, so they are left alone at their initial (zero) values
+            int rootAngle = settings.getInteger("polarLayout.rootAngle");
+            if (rootAngle != 0) {
+                treeLayout.setRootAngle((180.0 + rootAngle / 1000.0) % 360);
+            }
+            int angularRange = settings.getInteger("polarLayout.angularRange");
+            if (angularRange != 0) {
+                treeLayout.setAngularRange(360.0 - angularRange / 1000.0);
+            }
+            treeLayout.setRootLengthProportion(settings.getInteger("polarLayout.rootLength") / 10000.0);
+            treeLayout.setShowingRootBranch(settings.getBoolean("polarLayout.showRoot"));
+            treeLayout.setTipLabelPosition(settings.getBoolean("polarLayout.alignTipLabels") ?
+                    PolarTreeLayout.TipLabelPosition.RADIAL : PolarTreeLayout.TipLabelPosition.FLUSH);
+            treePane.setTreeLayout(treeLayout);
+        } else if ("RADIAL".equals(layoutType)) {
+            RadialTreeLayout treeLayout = new RadialTreeLayout();
+            treeLayout.setSpread(settings.getDouble("radialLayout.spread") / 100.0);
+            treePane.setTreeLayout(treeLayout);
+        } else if ("RECTILINEAR".equals(layoutType)) {
+            RectilinearTreeLayout treeLayout = new RectilinearTreeLayout();
+            treeLayout.setRootLengthProportion(settings.getInteger("rectilinearLayout.rootLength") / 10000.0);
+            treeLayout.setCurvature(settings.getInteger("rectilinearLayout.curvature") / 10000.0);
+            treeLayout.setAlignTipLabels(settings.getBoolean("rectilinearLayout.alignTipLabels"));
+            treePane.setTreeLayout(treeLayout);
+        } else {
+            throw new IllegalArgumentException("Unknown layout type: " + layoutType);
+        }
+    }
+
+    private void setupTrees(TreePane treePane,
+                            boolean transformOn, TransformedRootedTree.Transform transform,
+                            boolean orderOn, SortedRootedTree.BranchOrdering ordering,
+                            boolean rootingOn, TreePane.RootingType rootingType) {
+
+        if (settings.getBoolean("trees.transform") != transformOn) {
+            treePane.setTransformBranchesOn(!transformOn);
+        }
+        String transformName = settings.getString("trees.transformType");
+        for (TransformedRootedTree.Transform value : TransformedRootedTree.Transform.values()) {
+            if (value.toString().equalsIgnoreCase(transformName) && value != transform) {
+                treePane.setBranchTransform(value);
+            }
+        }
+
+        if (settings.getBoolean("trees.order") != orderOn) {
+            treePane.setOrderBranchesOn(!orderOn);
+        }
+        String orderName = settings.getString("trees.orderType");
+        for (SortedRootedTree.BranchOrdering value : SortedRootedTree.BranchOrdering.values()) {
+            if (value.toString().equalsIgnoreCase(orderName) && value != ordering) {
+                treePane.setBranchOrdering(value);
+            }
+        }
+
+        if (settings.getBoolean("trees.rooting") != rootingOn) {
+            treePane.setRootingOn(!rootingOn);
+        }
+        String rootingName = settings.getString("trees.rootingType");
+        for (TreePane.RootingType value : TreePane.RootingType.values()) {
+            if (value.toString().equalsIgnoreCase(rootingName) && value != rootingType) {
+                treePane.setRootingType(value);
+            }
+        }
+    }
+
+    private void setupTimeScale(TreePane treePane) {
+        if (settings.getBoolean("scale.scaleRoot")) {
+            treePane.setTimeScale(new TimeScale(settings.getDouble("scale.rootAge")));
+        } else {
+            treePane.setTimeScale(new TimeScale(settings.getDouble("scale.scaleFactor"), settings.getDouble("scale.offsetAge")));
+        }
+    }
+
+    private void setupAppearance(TreePane treePane, AttributeColourController colourController, List<Tree> trees) {
+        // the initial stroke has round ends; a changed width gets butt ends
+        float lineWidth = (float)settings.getDouble("appearance.branchLineWidth");
+        if (lineWidth == 1.0F) {
+            treePane.setBranchStroke(new BasicStroke(lineWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        } else {
+            treePane.setBranchStroke(new BasicStroke(lineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER));
+        }
+
+        AttributableDecorator userBranchColourDecorator = new AttributableDecorator();
+        userBranchColourDecorator.setPaintAttributeName("!color");
+        userBranchColourDecorator.setStrokeAttributeName("!stroke");
+
+        List<String> colourAttributes = new ArrayList<String>();
+        colourAttributes.add(USER_SELECTION);
+        AttributeComboHelper.getAttributeNames(colourAttributes, trees, true);
+        Decorator colourDecorator = getColourDecorator(colourController, colourAttributes,
+                settings.getString("appearance.branchColorAttribute"), userBranchColourDecorator);
+
+        CompoundDecorator compoundDecorator = new CompoundDecorator();
+        if (colourDecorator != null) {
+            treePane.setBranchColouringDecorator(null, null);
+            compoundDecorator.addDecorator(colourDecorator);
+        }
+
+        List<String> widthAttributes = new ArrayList<String>();
+        widthAttributes.add(NodeShapePainter.FIXED);
+        AttributeComboHelper.getAttributeNames(widthAttributes, trees, null, true);
+        String widthAttribute = select(widthAttributes, settings.getString("appearance.branchWidthAttribute"));
+        if (widthAttributes.indexOf(widthAttribute) > 0) {
+            ContinuousScale widthScale = new ContinuousScale(widthAttribute, trees.get(0).getNodes());
+            double fromWidth = settings.getDouble("appearance.branchMinLineWidth");
+            double toWidth = lineWidth + fromWidth;
+            compoundDecorator.addDecorator(new ContinuousStrokeDecorator(widthScale, (float)fromWidth, (float)toWidth));
+        }
+
+        treePane.setBranchDecorator(compoundDecorator, settings.getBoolean("appearance.branchColorGradient"));
+
+        List<String> backgroundAttributes = new ArrayList<String>();
+        backgroundAttributes.add(DEFAULT_BACKGROUND);
+        AttributeComboHelper.getAttributeNames(backgroundAttributes, trees, false);
+        String backgroundAttribute = select(backgroundAttributes, settings.getString("appearance.backgroundColorAttribute"));
+        Decorator backgroundDecorator = null;
+        if (backgroundAttributes.indexOf(backgroundAttribute) > 1) {
+            backgroundDecorator = colourController.getDecoratorForAttribute(backgroundAttribute);
+        }
+        treePane.setNodeBackgroundDecorator(backgroundDecorator);
+
+        treePane.setHilightingGradient(settings.getBoolean("appearance.hilightingGradient"));
+    }
+
+    private void setupLabelPainter(BasicLabelPainter labelPainter, String key,
+                                   AttributeColourController colourController, List<Tree> trees) {
+        labelPainter.setVisible(settings.getBoolean(key + ".isShown"));
+
+        List<String> displayAttributes = new ArrayList<String>();
+        AttributeComboHelper.getAttributeNames(displayAttributes, trees, labelPainter.getIntent(), false);
+        labelPainter.setDisplayAttribute(select(displayAttributes, settings.getString(key + ".displayAttribute")));
+
+        AttributableDecorator userLabelDecorator = new TaxonColourDecorator(taxonColours);
+        userLabelDecorator.setPaintAttributeName("!color");
+        userLabelDecorator.setFontAttributeName("!font");
+
+        List<String> colourAttributes = new ArrayList<String>();
+        colourAttributes.add(USER_SELECTION);
+        AttributeComboHelper.getAttributeNames(colourAttributes, trees, labelPainter.getIntent(), false);
+        Decorator colourDecorator = getColourDecorator(colourController, colourAttributes,
+                settings.getString(key + ".colorAttribute"), userLabelDecorator);
+
+        CompoundDecorator compoundDecorator = new CompoundDecorator();
+        compoundDecorator.addDecorator(colourDecorator);
+        compoundDecorator.addDecorator(new AttributableDecorator());
+        labelPainter.setTextDecorator(compoundDecorator);
+
+        labelPainter.setFont(new Font(settings.getString(key + ".fontName"),
+                settings.getInteger(key + ".fontStyle"),
+                settings.getInteger(key + ".fontSize")));
+
+        DecimalFormat format = new DecimalFormat("#.####");
+        format.setMaximumFractionDigits(settings.getInteger(key + ".significantDigits"));
+        labelPainter.setNumberFormat(format);
+
+        labelPainter.setHidingOverlaps(settings.getBoolean(key + ".hideOverlaps"));
+    }
+
+    private void setupNodeShapePainter(NodeShapePainter nodeShapePainter, String key,
+                                       AttributeColourController colourController, List<Tree> trees) {
+        if (key.endsWith("External")) {
+            nodeShapePainter.setNodeType(true, false);
+        } else {
+            nodeShapePainter.setNodeType(false, true);
+        }
+        nodeShapePainter.setVisible(settings.getBoolean(key + ".isShown"));
+        nodeShapePainter.setShapeType(NodeShapePainter.ShapeType.valueOf(settings.getString(key + ".shapeType").toUpperCase()));
+        nodeShapePainter.setScaleType(NodeShapePainter.ScaleType.valueOf(settings.getString(key + ".scaleType").toUpperCase()));
+
+        List<String> colourAttributes = new ArrayList<String>();
+        colourAttributes.add(USER_SELECTION);
+        AttributeComboHelper.getAttributeNames(colourAttributes, trees, false);
+        nodeShapePainter.setColourDecorator(getColourDecorator(colourController, colourAttributes,
+                settings.getString(key + ".colourAttribute"), null));
+
+        List<String> sizeAttributes = new ArrayList<String>();
+        sizeAttributes.add(NodeShapePainter.FIXED);
+        AttributeComboHelper.getAttributeNames(sizeAttributes, trees, null, true);
+        nodeShapePainter.setSizeAttribute(select(sizeAttributes, settings.getString(key + ".sizeAttribute")));
+
+        nodeShapePainter.setMaxSize(settings.getDouble(key + ".size"));
+        nodeShapePainter.setMinSize(settings.getDouble(key + ".minSize"));
+    }
+
+    private void setupNodeBarPainter(NodeBarPainter nodeBarPainter, List<Tree> trees) {
+        nodeBarPainter.setVisible(settings.getBoolean("nodeBars.isShown"));
+
+        List<String> rangeAttributes = new ArrayList<String>();
+        AttributeComboHelper.getAttributeNames(rangeAttributes, trees, LabelPainter.PainterIntent.RANGE, false);
+        String attribute = select(rangeAttributes, settings.getString("nodeBars.displayAttribute"));
+        if (attribute != null) {
+            nodeBarPainter.setDisplayAttribute(attribute);
+        }
+
+        float barWidth = (float)settings.getDouble("nodeBars.barWidth");
+        nodeBarPainter.setStroke(new BasicStroke(barWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL));
+    }
+
+    private void setupScaleBarPainter(ScaleBarPainter scaleBarPainter) {
+        scaleBarPainter.setVisible(settings.getBoolean("scaleBar.isShown"));
+        scaleBarPainter.setFont(new Font("sansserif", Font.PLAIN, 10).deriveFont((float)settings.getDouble("scaleBar.fontSize")));
+        scaleBarPainter.setNumberFormat(new DecimalFormat("#.####"));
+        scaleBarPainter.setScaleBarStroke(createScaleStroke((float)settings.getDouble("scaleBar.lineWidth")));
+        scaleBarPainter.setAutomaticScale(settings.getBoolean("scaleBar.automaticScale"));
+        scaleBarPainter.setScaleRange(settings.getDouble("scaleBar.scaleRange"));
+        scaleBarPainter.calculateScaleRange();
+    }
+
+    private void setupScaleAxisPainter(ScaleAxisPainter scaleAxisPainter, ScaleGridPainter scaleGridPainter) {
+        boolean isShown = settings.getBoolean("scaleAxis.isShown");
+        scaleAxisPainter.setVisible(isShown);
+        scaleGridPainter.setVisible(isShown && settings.getBoolean("scaleAxis.showGrid"));
+
+        scaleAxisPainter.setFont(new Font("sansserif", Font.PLAIN, 8).deriveFont((float)settings.getDouble("scaleAxis.fontSize")));
+        scaleAxisPainter.setNumberFormat(new DecimalFormat("#.####"));
+        scaleAxisPainter.setScaleBarStroke(createScaleStroke((float)settings.getDouble("scaleAxis.lineWidth")));
+        scaleAxisPainter.setAxisReversed(settings.getBoolean("scaleAxis.reverseAxis"));
+
+        // the axis starts out automatic, as the control palette leaves it when it is initialized
+        scaleAxisPainter.setAutomatic(true);
+        if (!settings.getBoolean("scaleAxis.automaticScale")) {
+            scaleAxisPainter.setAutomatic(false);
+            scaleAxisPainter.setAxisSpacing(settings.getDouble("scaleAxis.majorTicks"), settings.getDouble("scaleAxis.minorTicks"));
+            scaleAxisPainter.setAxisOrigin(settings.getDouble("scaleAxis.origin"));
+        }
+    }
+
+    private void setupLegendPainter(LegendPainter legendPainter, AttributeColourController colourController, List<Tree> trees) {
+        legendPainter.setVisible(settings.getBoolean("legend.isShown"));
+        legendPainter.setFont(new Font("sansserif", Font.PLAIN, 10).deriveFont((float)settings.getDouble("legend.fontSize")));
+
+        DecimalFormat format = new DecimalFormat("#.####");
+        format.setMaximumFractionDigits(settings.getInteger("legend.significantDigits"));
+        legendPainter.setNumberFormat(format);
+
+        List<String> attributes = new ArrayList<String>();
+        AttributeComboHelper.getAttributeNames(attributes, trees, false);
+        String attribute = select(attributes, settings.getString("legend.attribute"));
+        if (attribute != null && attribute.length() > 0) {
+            legendPainter.setColourDecorator(colourController.getDecoratorForAttribute(attribute));
+        }
+    }
+
+    private static BasicStroke createScaleStroke(float lineWidth) {
+        if (lineWidth == 1.0F) {
+            return new BasicStroke(lineWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        }
+        return new BasicStroke(lineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL);
+    }
+
+    /**
+     * Does what AttributeColourController.getColourDecorator does for a combo box holding
+     * the given items with the given value selected.
+     */
+    private static Decorator getColourDecorator(AttributeColourController colourController, List<String> items,
+                                                String value, Decorator defaultDecorator) {
+        String attribute = select(items, value);
+        Decorator decorator = defaultDecorator;
+        if (defaultDecorator == null || items.indexOf(attribute) > 0) {
+            if (attribute != null && attribute.length() > 0) {
+                decorator = colourController.getDecoratorForAttribute(attribute);
+            }
+        }
+        return decorator;
+    }
+
+    /**
+     * The item a combo box holding these items would show after being asked to select the
+     * value: the value itself if it is one of the items, otherwise the first item.
+     */
+    private static String select(List<String> items, String value) {
+        if (value != null && items.contains(value)) {
+            return value;
+        }
+        return (items.size() > 0 ? items.get(0) : null);
+    }
+
+    /**
+     * Draws the tree pane into a graphic of the given format. This is the equivalent of
+     * FigTreeFrame.exportGraphics for a component that is not on screen.
+     */
+    public static void exportGraphics(GraphicFormat format, TreePane treePane, int width, int height, OutputStream stream) throws IOException, DocumentException {
+        switch (format) {
+            case PNG:
+            case GIF:
+            case BMP:
+            case JPEG:
+                exportGraphicsFile(format, treePane, width, height, stream);
+                break;
+            case SVG:
+                exportSVGFile(treePane, width, height, stream);
+                break;
+            case PDF:
+                exportPDFFile(treePane, width, height, stream);
+                break;
+            default:
+                throw new UnsupportedOperationException("Format not handled: " + format);
+        }
+    }
+
+    private static void exportGraphicsFile(GraphicFormat format, TreePane treePane, int width, int height, OutputStream stream) throws IOException {
+        if (format == GraphicFormat.PNG) {
+            // the PNG writer pulls rows in order so the image is painted a band at a time
+            // and a very tall tree never needs a full size image in memory
+            ImageIO.write(new BandedImage(treePane, width, height, BufferedImage.TYPE_INT_ARGB, null), format.getName(), stream);
+            return;
+        }
+
+        // GIF and JPEG have no alpha channel, so they are drawn on white
+        int imageType = BufferedImage.TYPE_INT_RGB;
+        BufferedImage bi = new BufferedImage(width, height, imageType);
+        Graphics2D g2 = bi.createGraphics();
+        g2.setColor(Color.WHITE);
+        g2.fillRect(0, 0, bi.getWidth(), bi.getHeight());
+        treePane.paint(g2);
+        g2.dispose();
+        ImageIO.write(bi, format.getName(), stream);
+    }
+
+    private static void exportSVGFile(TreePane treePane, int width, int height, OutputStream stream) throws IOException {
+        // elements are written as they are drawn so no SVG document is held in memory
+        StreamingSVGGraphics2D svgGenerator = new StreamingSVGGraphics2D(stream, width, height);
+        treePane.paint(svgGenerator);
+        svgGenerator.finish();
+    }
+
+    private static void exportPDFFile(TreePane treePane, int width, int height, OutputStream stream) throws DocumentException {
+        MultiPagePDF pdf = new MultiPagePDF(stream);
+        pdf.addPage(treePane, width, height);
+        pdf.close();
+    }
+
+    private final RenderSettings settings;
+    private final Map<Taxon, ?> taxonColours;
+}
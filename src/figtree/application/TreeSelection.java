@@ -0,0 +1,120 @@
+/*
+ * TreeSelection.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+/**
+ * Selects which trees of a multi-tree file to render. Trees are numbered from 1 in
+ * the order they appear in the file and a selection is written as
+ *
+ *     all          every tree
+ *     12           just the 12th tree
+ *     100-200      trees 100 to 200 inclusive
+ *     1001-        every tree from the 1001st on
+ *     1-1000/10    every 10th tree from 1 to 1000 (1, 11, 21, ...)
+ *     /100         every 100th tree (1, 101, 201, ...)
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public final class TreeSelection {
+
+    public final static TreeSelection ALL = new TreeSelection(1, Integer.MAX_VALUE, 1);
+
+    public TreeSelection(int first, int last, int step) {
+        if (first < 1 || last < first || step < 1) {
+            throw new IllegalArgumentException("Bad tree selection: " + first + "-" + last + "/" + step);
+        }
+        this.first = first;
+        this.last = last;
+        this.step = step;
+    }
+
+    /**
+     * Parses a selection in the form described above.
+     *
+     * @throws IllegalArgumentException if the selection is malformed
+     */
+    public static TreeSelection parse(String selection) {
+        String text = selection.trim();
+        if (text.equalsIgnoreCase("all")) {
+            return ALL;
+        }
+
+        try {
+            int step = 1;
+            int slash = text.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(text.substring(slash + 1).trim());
+                text = text.substring(0, slash).trim();
+            }
+
+            int first = 1;
+            int last = Integer.MAX_VALUE;
+            if (text.length() > 0) {
+                int dash = text.indexOf('-');
+                if (dash < 0) {
+                    first = Integer.parseInt(text);
+                    // a single tree unless a step was given, in which case it is a start point
+                    last = (slash >= 0 ? Integer.MAX_VALUE : first);
+                } else {
+                    first = Integer.parseInt(text.substring(0, dash).trim());
+                    String end = text.substring(dash + 1).trim();
+                    if (end.length() > 0) {
+                        last = Integer.parseInt(end);
+                    }
+                }
+            }
+            return new TreeSelection(first, last, step);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Bad tree selection: " + selection +
+                    " (expecting all, N, N-M, N- or any of these followed by /step)");
+        }
+    }
+
+    /**
+     * @param index the number of a tree, counting from 1
+     * @return true if the tree should be rendered
+     */
+    public boolean contains(int index) {
+        return index >= first && index <= last && (index - first) % step == 0;
+    }
+
+    /**
+     * @param index the number of a tree, counting from 1
+     * @return true if no tree from this one on can be selected
+     */
+    public boolean isPastEnd(int index) {
+        return index > last;
+    }
+
+    public String toString() {
+        return first + "-" + (last == Integer.MAX_VALUE ? "" : Integer.toString(last)) + (step > 1 ? "/" + step : "");
+    }
+
+    private final int first;
+    private final int last;
+    private final int step;
+}
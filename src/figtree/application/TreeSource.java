@@ -0,0 +1,154 @@
+/*
+ * TreeSource.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import java.io.*;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tree file opened for reading exactly once. The source can be a file, a URL or
+ * standard input ('-' as the file name) and gzip compressed data is decompressed
+ * transparently whatever the name. Whether the trees are in NEXUS or Newick format
+ * is sniffed from the start of the buffered stream, which is then reset, so nothing
+ * is ever opened or read twice.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeSource implements Closeable {
+
+    public final static String STANDARD_INPUT = "-";
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    // how far into the stream to look for the #NEXUS token
+    private final static int SNIFF_LIMIT = 8192;
+
+    /**
+     * Opens a tree file, a URL (anything containing '://') or standard input ('-').
+     */
+    public static TreeSource open(String name) throws IOException {
+        if (name.equals(STANDARD_INPUT)) {
+            // don't let closing the source close stdin
+            return new TreeSource("standard input", new FilterInputStream(System.in) {
+                @Override
+                public void close() {
+                }
+            });
+        }
+        if (name.contains("://")) {
+            return open(new URL(name));
+        }
+        return open(new File(name));
+    }
+
+    public static TreeSource open(File file) throws IOException {
+        return new TreeSource(file.getName(), new FileInputStream(file));
+    }
+
+    public static TreeSource open(URL url) throws IOException {
+        return new TreeSource(url.toString(), url.openStream());
+    }
+
+    /**
+     * Wraps an already open stream (e.g. one that monitors progress). The source takes
+     * ownership of the stream and closes it when it is closed.
+     */
+    public TreeSource(String name, InputStream in) throws IOException {
+        this.name = name;
+
+        BufferedInputStream bufferedIn = new BufferedInputStream(in, BUFFER_SIZE);
+        try {
+            isCompressed = isGzip(bufferedIn);
+            reader = new BufferedReader(new InputStreamReader(
+                    isCompressed ? new GZIPInputStream(bufferedIn, BUFFER_SIZE) : bufferedIn), BUFFER_SIZE);
+            isNexus = isNexus(reader);
+        } catch (IOException ioe) {
+            bufferedIn.close();
+            throw ioe;
+        }
+    }
+
+    private static boolean isGzip(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        return b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Looks at the first non-blank line (or as much of it as fits in the sniff limit)
+     * for the #NEXUS token and then puts the reader back at the start.
+     */
+    private static boolean isNexus(BufferedReader reader) throws IOException {
+        reader.mark(SNIFF_LIMIT);
+        StringBuilder line = new StringBuilder();
+        int c = reader.read();
+        while (c != -1 && line.length() < SNIFF_LIMIT - 1) {
+            if (c == '\n' || c == '\r') {
+                if (line.toString().trim().length() > 0) {
+                    break;
+                }
+                line.setLength(0);
+            } else {
+                line.append((char)c);
+            }
+            c = reader.read();
+        }
+        reader.reset();
+        return line.toString().toUpperCase().contains("#NEXUS");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isNexus() {
+        return isNexus;
+    }
+
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * @return a reader positioned at the start of the (decompressed) trees
+     */
+    public BufferedReader getReader() {
+        return reader;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private final String name;
+    private final boolean isCompressed;
+    private final boolean isNexus;
+    private final BufferedReader reader;
+}
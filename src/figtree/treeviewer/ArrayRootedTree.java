@@ -0,0 +1,752 @@
+/*
+ * ArrayRootedTree.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import jebl.evolution.graphs.Edge;
+import jebl.evolution.graphs.Graph;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.BaseEdge;
+import jebl.evolution.trees.RootedTree;
+import jebl.util.AttributableHelper;
+
+import java.util.*;
+
+/**
+ * A rooted tree that keeps its structure in arrays indexed by node (the parent, the
+ * children, the height, the branch length and the taxon of each), rather than in a
+ * graph of node objects, and the attributes of the nodes in an AttributeTable. Each
+ * node is still an object (layouts and painters key their maps on nodes) but one that
+ * only holds its index, so a node takes a fraction of the memory of one in a
+ * SimpleRootedTree. Heights are worked out from branch lengths (and the other way round)
+ * with loops rather than recursion, so trees of any depth can be drawn.
+ *
+ * It is built in the same way as a SimpleRootedTree, from the tips up (every node must
+ * be created before its parent) and behaves the same way, including the order of the
+ * nodes and how heights and lengths are worked out from each other.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public final class ArrayRootedTree implements RootedTree {
+
+    private final static int NONE = -1;
+
+    public ArrayRootedTree() {
+        this(16);
+    }
+
+    /**
+     * @param tipCount the expected number of tips, so the arrays don't need to grow
+     */
+    public ArrayRootedTree(int tipCount) {
+        int capacity = Math.max(2 * tipCount, 16);
+        nodes = new ArrayNode[capacity];
+        parents = new int[capacity];
+        childStarts = new int[capacity];
+        childCounts = new int[capacity];
+        children = new int[capacity];
+        heights = new double[capacity];
+        lengths = new double[capacity];
+        taxa = new Taxon[capacity];
+        externalNodes = new int[Math.max(tipCount, 16)];
+        internalNodes = new int[Math.max(tipCount, 16)];
+        attributes = new AttributeTable(capacity);
+    }
+
+    /**
+     * Makes a copy of a tree, with nodes of its own, which can be changed (e.g., given
+     * new attributes) without changing the tree it was copied from.
+     */
+    private ArrayRootedTree(ArrayRootedTree tree) {
+        nodes = new ArrayNode[tree.nodes.length];
+        nodeCount = tree.nodeCount;
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new ArrayNode(i);
+        }
+        rootIndex = tree.rootIndex;
+
+        parents = tree.parents.clone();
+        childStarts = tree.childStarts.clone();
+        childCounts = tree.childCounts.clone();
+        children = tree.children.clone();
+        childIndexCount = tree.childIndexCount;
+
+        heights = tree.heights.clone();
+        lengths = tree.lengths.clone();
+        taxa = tree.taxa.clone();
+        for (int i = 0; i < nodeCount; i++) {
+            if (taxa[i] != null) {
+                taxonNodes.put(taxa[i], nodes[i]);
+            }
+        }
+
+        externalNodes = tree.externalNodes.clone();
+        externalNodeCount = tree.externalNodeCount;
+        internalNodes = tree.internalNodes.clone();
+        internalNodeCount = tree.internalNodeCount;
+
+        attributes = tree.attributes.copy();
+
+        heightsKnown = tree.heightsKnown;
+        lengthsKnown = tree.lengthsKnown;
+        hasHeights = tree.hasHeights;
+        hasLengths = tree.hasLengths;
+        conceptuallyUnrooted = tree.conceptuallyUnrooted;
+
+        for (Map.Entry<String, Object> entry : tree.getAttributeMap().entrySet()) {
+            setAttribute(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return a copy of the tree, with nodes of its own, which can be changed without
+     *         changing this one
+     */
+    public ArrayRootedTree copy() {
+        return new ArrayRootedTree(this);
+    }
+
+    public Node createExternalNode(Taxon taxon) {
+        if (taxonNodes.containsKey(taxon)) {
+            throw new IllegalArgumentException("duplicate taxon " + taxon.getName());
+        }
+        ArrayNode node = createNode();
+        taxa[node.index] = taxon;
+        taxonNodes.put(taxon, node);
+        externalNodes = add(externalNodes, externalNodeCount, node.index);
+        externalNodeCount++;
+        return node;
+    }
+
+    /**
+     * @param children the children of the node, which must all be nodes of this tree
+     *                 that have no parent yet
+     */
+    public Node createInternalNode(List<? extends Node> children) {
+        int start = childIndexCount;
+        for (Node child : children) {
+            int index = getIndex(child);
+            if (parents[index] != NONE) {
+                throw new IllegalArgumentException("The node already has a parent");
+            }
+            this.children = add(this.children, childIndexCount, index);
+            childIndexCount++;
+        }
+
+        ArrayNode node = createNode();
+        childStarts[node.index] = start;
+        childCounts[node.index] = children.size();
+        for (int i = start; i < childIndexCount; i++) {
+            parents[this.children[i]] = node.index;
+        }
+        internalNodes = add(internalNodes, internalNodeCount, node.index);
+        internalNodeCount++;
+        rootIndex = node.index;
+        return node;
+    }
+
+    private ArrayNode createNode() {
+        if (nodeCount == nodes.length) {
+            int capacity = nodeCount * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            childStarts = Arrays.copyOf(childStarts, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            taxa = Arrays.copyOf(taxa, capacity);
+        }
+        ArrayNode node = new ArrayNode(nodeCount);
+        nodes[nodeCount] = node;
+        parents[nodeCount] = NONE;
+        nodeCount++;
+        return node;
+    }
+
+    private static int[] add(int[] array, int count, int value) {
+        if (count == array.length) {
+            array = Arrays.copyOf(array, count * 2);
+        }
+        array[count] = value;
+        return array;
+    }
+
+    private int getIndex(Node node) {
+        if (!(node instanceof ArrayNode) || ((ArrayNode)node).getTree() != this) {
+            throw new IllegalArgumentException("Node, " + node + " is not a node of this tree");
+        }
+        return ((ArrayNode)node).index;
+    }
+
+    public void setHeight(Node node, double height) {
+        lengthsKnown = false;
+        heightsKnown = true;
+        hasLengths = true;
+        hasHeights = true;
+        heights[getIndex(node)] = height;
+    }
+
+    public void setLength(Node node, double length) {
+        heightsKnown = false;
+        lengthsKnown = true;
+        hasLengths = true;
+        hasHeights = true;
+        lengths[getIndex(node)] = length;
+    }
+
+    public void setConceptuallyUnrooted(boolean conceptuallyUnrooted) {
+        this.conceptuallyUnrooted = conceptuallyUnrooted;
+    }
+
+    /**
+     * @return the attributes of the nodes, by node index
+     */
+    public AttributeTable getAttributeTable() {
+        return attributes;
+    }
+
+    // the structure by index
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @return the index of the node, which is the order it was created in (so a node's
+     *         index is always greater than those of its children)
+     */
+    public int getNodeIndex(Node node) {
+        return getIndex(node);
+    }
+
+    /**
+     * @return the index of the node's parent, or -1 for the root
+     */
+    public int getParentIndex(int index) {
+        return parents[index];
+    }
+
+    public int getChildCount(int index) {
+        return childCounts[index];
+    }
+
+    public int getChildIndex(int index, int child) {
+        return children[childStarts[index] + child];
+    }
+
+    // RootedTree
+
+    public List<Node> getChildren(Node node) {
+        int index = getIndex(node);
+        int start = childStarts[index];
+        int count = childCounts[index];
+        List<Node> nodeChildren = new ArrayList<Node>(count);
+        for (int i = start; i < start + count; i++) {
+            nodeChildren.add(nodes[children[i]]);
+        }
+        return nodeChildren;
+    }
+
+    public boolean hasHeights() {
+        return hasHeights;
+    }
+
+    public double getHeight(Node node) {
+        if (!hasHeights) {
+            throw new IllegalArgumentException("This tree has no node heights");
+        }
+        if (!heightsKnown) {
+            calculateNodeHeights();
+        }
+        return heights[getIndex(node)];
+    }
+
+    public boolean hasLengths() {
+        return hasLengths;
+    }
+
+    public double getLength(Node node) {
+        if (!hasLengths) {
+            throw new IllegalArgumentException("This tree has no branch lengths");
+        }
+        if (!lengthsKnown) {
+            calculateBranchLengths();
+        }
+        return lengths[getIndex(node)];
+    }
+
+    public Node getParent(Node node) {
+        int parent = parents[getIndex(node)];
+        return parent != NONE ? nodes[parent] : null;
+    }
+
+    public Node getRootNode() {
+        return rootIndex != NONE ? nodes[rootIndex] : null;
+    }
+
+    public boolean conceptuallyUnrooted() {
+        return conceptuallyUnrooted;
+    }
+
+    public boolean isRoot(Node node) {
+        return rootIndex != NONE && node == nodes[rootIndex];
+    }
+
+    /**
+     * Works out the heights from the branch lengths, as SimpleRootedTree does: the
+     * distance of each node from the root is taken from the greatest distance of a tip.
+     * A node's parent always comes after it, so going through the nodes backwards visits
+     * every parent before its children.
+     */
+    private void calculateNodeHeights() {
+        if (!lengthsKnown) {
+            throw new IllegalArgumentException("Can't calculate node heights because branch lengths not known");
+        }
+
+        // the distance from the root, in the heights array for now
+        for (int i = nodeCount - 1; i >= 0; i--) {
+            double height = parents[i] != NONE ? heights[parents[i]] : 0.0;
+            if (lengths[i] > 0.0) {
+                height += lengths[i];
+            }
+            heights[i] = height;
+        }
+
+        double maxHeight = 0.0;
+        for (int i = 0; i < externalNodeCount; i++) {
+            maxHeight = Math.max(maxHeight, heights[externalNodes[i]]);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            heights[i] = maxHeight - heights[i];
+        }
+        heightsKnown = true;
+    }
+
+    /**
+     * Works out the branch lengths from the heights, as SimpleRootedTree does.
+     */
+    private void calculateBranchLengths() {
+        if (!hasLengths) {
+            throw new IllegalArgumentException("Can't calculate branch lengths because node heights not known");
+        }
+        if (!heightsKnown) {
+            calculateNodeHeights();
+        }
+
+        for (int i = 0; i < nodeCount; i++) {
+            double parentHeight = parents[i] != NONE ? heights[parents[i]] : heights[i];
+            lengths[i] = heights[i] >= 0.0 ? parentHeight - heights[i] : 1.0;
+        }
+        lengthsKnown = true;
+    }
+
+    // Tree
+
+    public Set<Node> getExternalNodes() {
+        return new NodeSet(externalNodes, externalNodeCount, null, 0);
+    }
+
+    public Set<Node> getInternalNodes() {
+        return new NodeSet(internalNodes, internalNodeCount, null, 0);
+    }
+
+    public Set<Edge> getExternalEdges() {
+        Set<Edge> edges = new LinkedHashSet<Edge>();
+        for (int i = 0; i < externalNodeCount; i++) {
+            edges.add(getEdge(externalNodes[i]));
+        }
+        return edges;
+    }
+
+    public Set<Edge> getInternalEdges() {
+        Set<Edge> edges = new LinkedHashSet<Edge>();
+        for (int i = 0; i < internalNodeCount; i++) {
+            if (internalNodes[i] != rootIndex) {
+                edges.add(getEdge(internalNodes[i]));
+            }
+        }
+        return edges;
+    }
+
+    public Set<Taxon> getTaxa() {
+        return new AbstractSet<Taxon>() {
+            public Iterator<Taxon> iterator() {
+                final Iterator<Node> nodeIterator = getExternalNodes().iterator();
+                return new Iterator<Taxon>() {
+                    public boolean hasNext() {
+                        return nodeIterator.hasNext();
+                    }
+
+                    public Taxon next() {
+                        return taxa[((ArrayNode)nodeIterator.next()).index];
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public boolean contains(Object o) {
+                return taxonNodes.containsKey(o);
+            }
+
+            public int size() {
+                return externalNodeCount;
+            }
+        };
+    }
+
+    public Taxon getTaxon(Node node) {
+        return taxa[getIndex(node)];
+    }
+
+    public boolean isExternal(Node node) {
+        return childCounts[getIndex(node)] == 0;
+    }
+
+    public Node getNode(Taxon taxon) {
+        return taxonNodes.get(taxon);
+    }
+
+    public void renameTaxa(Taxon from, Taxon to) {
+        Node node = taxonNodes.remove(from);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown taxon " + from + "; can't rename to " + to);
+        }
+        taxa[getIndex(node)] = to;
+        taxonNodes.put(to, node);
+    }
+
+    // Graph
+
+    public List<Edge> getEdges(Node node) {
+        List<Edge> edges = new ArrayList<Edge>();
+        for (Node adjacency : getAdjacencies(node)) {
+            edges.add(getEdge(getIndex(adjacency)));
+        }
+        return edges;
+    }
+
+    public List<Node> getAdjacencies(Node node) {
+        List<Node> adjacencies = getChildren(node);
+        Node parent = getParent(node);
+        if (parent != null) {
+            adjacencies.add(parent);
+        }
+        return adjacencies;
+    }
+
+    public Edge getEdge(Node node1, Node node2) throws Graph.NoEdgeException {
+        int index1 = getIndex(node1);
+        int index2 = getIndex(node2);
+        if (parents[index1] == index2) {
+            return getEdge(index1);
+        }
+        if (parents[index2] == index1) {
+            return getEdge(index2);
+        }
+        throw new Graph.NoEdgeException();
+    }
+
+    public double getEdgeLength(Node node1, Node node2) throws Graph.NoEdgeException {
+        int index1 = getIndex(node1);
+        int index2 = getIndex(node2);
+        if (parents[index1] == index2) {
+            return heightsKnown ? heights[index2] - heights[index1] : lengths[index1];
+        }
+        if (parents[index2] == index1) {
+            return heightsKnown ? heights[index1] - heights[index2] : lengths[index2];
+        }
+        throw new Graph.NoEdgeException();
+    }
+
+    public Node[] getNodes(Edge edge) {
+        if (edge instanceof ArrayEdge && ((ArrayEdge)edge).getTree() == this) {
+            int index = ((ArrayEdge)edge).index;
+            return new Node[] { nodes[index], nodes[parents[index]] };
+        }
+        return null;
+    }
+
+    /**
+     * @return the internal nodes followed by the tips, as SimpleRootedTree orders them
+     */
+    public Set<Node> getNodes() {
+        return new NodeSet(internalNodes, internalNodeCount, externalNodes, externalNodeCount);
+    }
+
+    public Set<Edge> getEdges() {
+        Set<Edge> edges = new LinkedHashSet<Edge>();
+        for (Node node : getNodes()) {
+            int index = ((ArrayNode)node).index;
+            if (index != rootIndex) {
+                edges.add(getEdge(index));
+            }
+        }
+        return edges;
+    }
+
+    public Set<Node> getNodes(int degree) {
+        Set<Node> degreeNodes = new LinkedHashSet<Node>();
+        for (Node node : getNodes()) {
+            if (node.getDegree() == degree) {
+                degreeNodes.add(node);
+            }
+        }
+        return degreeNodes;
+    }
+
+    /**
+     * @return the edge from the node to its parent, which holds the same attributes as
+     *         the node
+     */
+    private Edge getEdge(int index) {
+        if (edges == null) {
+            edges = new ArrayEdge[nodes.length];
+        } else if (edges.length < nodeCount) {
+            edges = Arrays.copyOf(edges, nodes.length);
+        }
+        if (edges[index] == null) {
+            edges[index] = new ArrayEdge(index);
+        }
+        return edges[index];
+    }
+
+    // Attributable
+
+    public void setAttribute(String name, Object value) {
+        if (helper == null) {
+            helper = new AttributableHelper();
+        }
+        helper.setAttribute(name, value);
+    }
+
+    public Object getAttribute(String name) {
+        return helper != null ? helper.getAttribute(name) : null;
+    }
+
+    public void removeAttribute(String name) {
+        if (helper != null) {
+            helper.removeAttribute(name);
+        }
+    }
+
+    public Set<String> getAttributeNames() {
+        if (helper == null) {
+            return Collections.emptySet();
+        }
+        return helper.getAttributeNames();
+    }
+
+    public Map<String, Object> getAttributeMap() {
+        if (helper == null) {
+            return Collections.emptyMap();
+        }
+        return helper.getAttributeMap();
+    }
+
+    /**
+     * The nodes of one or two arrays of indices, in order, as an unmodifiable set.
+     */
+    private class NodeSet extends AbstractSet<Node> implements AttributeTable.Rows {
+        NodeSet(int[] first, int firstCount, int[] second, int secondCount) {
+            this.first = first;
+            this.firstCount = firstCount;
+            this.second = second;
+            this.secondCount = secondCount;
+        }
+
+        public Iterator<Node> iterator() {
+            return new Iterator<Node>() {
+                public boolean hasNext() {
+                    return position < firstCount + secondCount;
+                }
+
+                public Node next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return nodes[getRow(position++)];
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private int position = 0;
+            };
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof ArrayNode) || ((ArrayNode)o).getTree() != ArrayRootedTree.this) {
+                return false;
+            }
+            int index = ((ArrayNode)o).index;
+            if (second != null) {
+                // all the nodes
+                return index < nodeCount;
+            }
+            // only tips have taxa
+            return (first == externalNodes) == (taxa[index] != null);
+        }
+
+        public int size() {
+            return firstCount + secondCount;
+        }
+
+        public AttributeTable getAttributeTable() {
+            return attributes;
+        }
+
+        public int getRowCount() {
+            return firstCount + secondCount;
+        }
+
+        public int getRow(int index) {
+            return index < firstCount ? first[index] : second[index - firstCount];
+        }
+
+        private final int[] first;
+        private final int firstCount;
+        private final int[] second;
+        private final int secondCount;
+    }
+
+    /**
+     * A node, whose attributes are kept in the tree's attribute table.
+     */
+    private final class ArrayNode implements Node {
+        ArrayNode(int index) {
+            this.index = index;
+        }
+
+        ArrayRootedTree getTree() {
+            return ArrayRootedTree.this;
+        }
+
+        public int getDegree() {
+            return childCounts[index] + (index == rootIndex ? 0 : 1);
+        }
+
+        public void setAttribute(String name, Object value) {
+            attributes.setAttribute(index, name, value);
+        }
+
+        public Object getAttribute(String name) {
+            return attributes.getAttribute(index, name);
+        }
+
+        public void removeAttribute(String name) {
+            attributes.removeAttribute(index, name);
+        }
+
+        public Set<String> getAttributeNames() {
+            return attributes.getAttributeNames(index);
+        }
+
+        public Map<String, Object> getAttributeMap() {
+            return attributes.getAttributeMap(index);
+        }
+
+        final int index;
+    }
+
+    private final class ArrayEdge extends BaseEdge {
+        ArrayEdge(int index) {
+            this.index = index;
+        }
+
+        ArrayRootedTree getTree() {
+            return ArrayRootedTree.this;
+        }
+
+        public double getLength() {
+            return ArrayRootedTree.this.getLength(nodes[index]);
+        }
+
+        public void setAttribute(String name, Object value) {
+            nodes[index].setAttribute(name, value);
+        }
+
+        public Object getAttribute(String name) {
+            return nodes[index].getAttribute(name);
+        }
+
+        public void removeAttribute(String name) {
+            nodes[index].removeAttribute(name);
+        }
+
+        public Set<String> getAttributeNames() {
+            return nodes[index].getAttributeNames();
+        }
+
+        public Map<String, Object> getAttributeMap() {
+            return nodes[index].getAttributeMap();
+        }
+
+        final int index;
+    }
+
+    private ArrayNode[] nodes;
+    private int nodeCount = 0;
+    private int rootIndex = NONE;
+
+    // the parent of each node (or NONE), and where its children start in the children array
+    private int[] parents;
+    private int[] childStarts;
+    private int[] childCounts;
+    private int[] children;
+    private int childIndexCount = 0;
+
+    private double[] heights;
+    private double[] lengths;
+    private Taxon[] taxa;
+    private final Map<Taxon, Node> taxonNodes = new HashMap<Taxon, Node>();
+
+    // the tips and internal nodes in the order they were created
+    private int[] externalNodes;
+    private int externalNodeCount = 0;
+    private int[] internalNodes;
+    private int internalNodeCount = 0;
+
+    private ArrayEdge[] edges = null;
+
+    private final AttributeTable attributes;
+
+    private boolean heightsKnown = false;
+    private boolean lengthsKnown = false;
+    private boolean hasHeights = false;
+    private boolean hasLengths = false;
+    private boolean conceptuallyUnrooted = false;
+
+    private AttributableHelper helper = null;
+}
@@ -23,6 +23,7 @@ package figtree.treeviewer;
 import figtree.treeviewer.decorators.*;
 import jam.controlpalettes.AbstractController;
 import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
 import jebl.evolution.trees.Tree;
 import jebl.util.Attributable;
 
@@ -52,6 +53,19 @@ public class AttributeColourController extends AbstractController {
     public AttributeColourController(final TreeViewer treeViewer, final JFrame frame) {
         this.treeViewer = treeViewer;
         this.frame = frame;
+        this.trees = null;
+    }
+
+    /**
+     * Creates a controller that makes colour decorators for a fixed list of trees
+     * rather than for the trees in a viewer. It has no user interface and is used
+     * when rendering without one.
+     * @param trees the trees whose attributes are coloured
+     */
+    public AttributeColourController(final List<Tree> trees) {
+        this.treeViewer = null;
+        this.frame = null;
+        this.trees = trees;
     }
 
     public void setupControls(
@@ -148,19 +162,7 @@ public class AttributeColourController extends AbstractController {
     public ColourDecorator getDecoratorForAttribute(String attribute) {
         ColourDecorator colourDecorator = attributeDecoratorMap.get(attribute);
 
-        Set<Attributable> items = new HashSet<Attributable>();
-        for (Tree tree : treeViewer.getTrees()) {
-            for (Node node : tree.getNodes()) {
-                if (node.getAttribute(attribute) != null) {
-                    items.add(node);
-                }
-                if (tree.getTaxon(node) != null) {
-                    items.add(tree.getTaxon(node));
-                }
-            }
-        }
-
-        //
+        Set<? extends Attributable> items = getItems(attribute);
 
         if (colourDecorator == null) {
 
@@ -189,6 +191,44 @@ public class AttributeColourController extends AbstractController {
         return colourDecorator;
     }
 
+    /**
+     * The nodes and taxa of the trees that the colours of an attribute are taken from.
+     * For a single tree that keeps its attributes in a table (as trees read from a file
+     * do), and whose taxa don't have the attribute, this is the tree's own set of nodes,
+     * so that the decorators can read the attribute's column directly.
+     */
+    private Set<? extends Attributable> getItems(String attribute) {
+        List<Tree> loadedTrees = (treeViewer != null ? treeViewer.getLoadedTrees() : trees);
+
+        if (loadedTrees.size() == 1 && loadedTrees.get(0) instanceof ArrayRootedTree) {
+            Tree tree = loadedTrees.get(0);
+            boolean taxaHaveAttribute = false;
+            for (Taxon taxon : tree.getTaxa()) {
+                if (taxon.getAttribute(attribute) != null) {
+                    taxaHaveAttribute = true;
+                    break;
+                }
+            }
+            if (!taxaHaveAttribute) {
+                // the nodes without the attribute are passed over by the decorators
+                return tree.getNodes();
+            }
+        }
+
+        Set<Attributable> items = new HashSet<Attributable>();
+        for (Tree tree : loadedTrees) {
+            for (Node node : tree.getNodes()) {
+                if (node.getAttribute(attribute) != null) {
+                    items.add(node);
+                }
+                if (tree.getTaxon(node) != null) {
+                    items.add(tree.getTaxon(node));
+                }
+            }
+        }
+        return items;
+    }
+
     private void setDecoratorForAttribute(String attribute, ColourDecorator decorator) {
         attributeDecoratorMap.put(attribute, decorator);
     }
@@ -316,6 +356,7 @@ public class AttributeColourController extends AbstractController {
 
     private final TreeViewer treeViewer;
     private final JFrame frame;
+    private final List<Tree> trees;
 
     private Map<String, ColourDecorator> attributeDecoratorMap = new HashMap<String, ColourDecorator>();
     private Map<String, ContinuousScale> attributeScaleMap = new HashMap<String, ContinuousScale>();
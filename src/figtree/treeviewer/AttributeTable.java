@@ -0,0 +1,525 @@
+/*
+ * AttributeTable.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.util.*;
+
+/**
+ * The attributes of a set of numbered items (the nodes of an ArrayRootedTree), kept as
+ * a column for each attribute rather than a map for each item. Each column holds one
+ * type of value in an array: real numbers (Doubles) in a double[], whole numbers
+ * (Integers) in an int[], strings as indices into a list of their distinct values, and
+ * pairs of real numbers (such as BEAST's 95% HPD ranges) in two double[]s. A column
+ * that is given a value of another type (or any other kind of value) turns into one
+ * that holds the values as they are.
+ *
+ * Values are boxed again as they are got, so a Double or pair got twice will be equal
+ * but not the same object. Numeric and string columns can also be gone through without
+ * boxing, for finding the range or distinct values of an attribute.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public final class AttributeTable {
+
+    /**
+     * Some of the items of a table (e.g., the tips of a tree), which can be gone
+     * through by row to read a column directly.
+     */
+    public interface Rows {
+        AttributeTable getAttributeTable();
+
+        int getRowCount();
+
+        int getRow(int index);
+    }
+
+    /**
+     * @param rowCount the expected number of items, so the columns don't need to grow
+     */
+    public AttributeTable(int rowCount) {
+        this.rowCapacity = Math.max(rowCount, 16);
+    }
+
+    public Object getAttribute(int row, String name) {
+        Column column = columns.get(name);
+        return column != null && column.has(row) ? column.get(row) : null;
+    }
+
+    public void setAttribute(int row, String name, Object value) {
+        Column column = columns.get(name);
+        if (column == null) {
+            column = createColumn(value);
+            columns.put(name, column);
+        } else if (!column.accepts(value)) {
+            column = new ObjectColumn(column);
+            columns.put(name, column);
+        }
+        column.set(row, value);
+    }
+
+    public void removeAttribute(int row, String name) {
+        Column column = columns.get(name);
+        if (column != null) {
+            column.remove(row);
+        }
+    }
+
+    /**
+     * @return the names of the attributes the item has, in the order the columns were made
+     */
+    public Set<String> getAttributeNames(int row) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            if (entry.getValue().has(row)) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    public Map<String, Object> getAttributeMap(int row) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            if (entry.getValue().has(row)) {
+                map.put(entry.getKey(), entry.getValue().get(row));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Renames an attribute for all the items at once.
+     */
+    public void renameAttribute(String name, String newName) {
+        Column column = columns.remove(name);
+        if (column != null) {
+            Column existing = columns.get(newName);
+            if (existing != null) {
+                // the values of the renamed column replace those already under the new name
+                for (int row = column.present.nextSetBit(0); row >= 0; row = column.present.nextSetBit(row + 1)) {
+                    setAttribute(row, newName, column.get(row));
+                }
+            } else {
+                columns.put(newName, column);
+            }
+        }
+    }
+
+    /**
+     * @return the names of all the columns, in the order they were made
+     */
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * @return the column of the attribute, or null if no item has ever had it
+     */
+    public Column getColumn(String name) {
+        return columns.get(name);
+    }
+
+    /**
+     * Puts in a whole column at once (e.g., one read back from a file), replacing any
+     * column the attribute had.
+     */
+    public void putColumn(String name, Column column) {
+        columns.put(name, column);
+    }
+
+    /**
+     * @return a table with the same values as this one, which can be changed without
+     *         changing this one
+     */
+    public AttributeTable copy() {
+        AttributeTable copy = new AttributeTable(rowCapacity);
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            copy.columns.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    private Column createColumn(Object value) {
+        if (value instanceof Double) {
+            return new DoubleColumn(rowCapacity);
+        } else if (value instanceof Integer) {
+            return new IntegerColumn(rowCapacity);
+        } else if (value instanceof String) {
+            return new StringColumn(rowCapacity);
+        } else if (RangeColumn.isRange(value)) {
+            return new RangeColumn(rowCapacity);
+        }
+        return new ObjectColumn(rowCapacity);
+    }
+
+    private static int grow(int capacity, int row) {
+        return Math.max(capacity * 2, row + 1);
+    }
+
+    /**
+     * The values of one attribute, by row.
+     */
+    public static abstract class Column {
+
+        Column(BitSet present) {
+            this.present = present;
+        }
+
+        public boolean has(int row) {
+            return present.get(row);
+        }
+
+        /**
+         * @return the first row from the given one on that has a value, or -1 if none do
+         */
+        public int nextRow(int row) {
+            return present.nextSetBit(row);
+        }
+
+        /**
+         * @return the value of the row, which must have one
+         */
+        public abstract Object get(int row);
+
+        /**
+         * @return true if the values are numbers that can be got with getDouble
+         */
+        public boolean isNumeric() {
+            return false;
+        }
+
+        public double getDouble(int row) {
+            throw new UnsupportedOperationException("The values of this column are not numbers");
+        }
+
+        abstract boolean accepts(Object value);
+
+        abstract void set(int row, Object value);
+
+        abstract Column copy();
+
+        void remove(int row) {
+            present.clear(row);
+        }
+
+        final BitSet present;
+    }
+
+    public static final class DoubleColumn extends Column {
+        DoubleColumn(int capacity) {
+            this(new double[capacity], new BitSet());
+        }
+
+        /**
+         * @param values the value of each row
+         * @param present the rows that have a value
+         */
+        public DoubleColumn(double[] values, BitSet present) {
+            super(present);
+            this.values = values;
+        }
+
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        boolean accepts(Object value) {
+            return value instanceof Double;
+        }
+
+        void set(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, grow(values.length, row));
+            }
+            values[row] = (Double)value;
+            present.set(row);
+        }
+
+        Column copy() {
+            return new DoubleColumn(values.clone(), (BitSet)present.clone());
+        }
+
+        private double[] values;
+    }
+
+    public static final class IntegerColumn extends Column {
+        IntegerColumn(int capacity) {
+            this(new int[capacity], new BitSet());
+        }
+
+        /**
+         * @param values the value of each row
+         * @param present the rows that have a value
+         */
+        public IntegerColumn(int[] values, BitSet present) {
+            super(present);
+            this.values = values;
+        }
+
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        public int getInt(int row) {
+            return values[row];
+        }
+
+        boolean accepts(Object value) {
+            return value instanceof Integer;
+        }
+
+        void set(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, grow(values.length, row));
+            }
+            values[row] = (Integer)value;
+            present.set(row);
+        }
+
+        Column copy() {
+            return new IntegerColumn(values.clone(), (BitSet)present.clone());
+        }
+
+        private int[] values;
+    }
+
+    /**
+     * Strings, each kept once however many rows have it.
+     */
+    public static final class StringColumn extends Column {
+        StringColumn(int capacity) {
+            this(new int[capacity], new ArrayList<String>(), new BitSet());
+        }
+
+        /**
+         * @param codes the index of each row's value in the distinct values
+         * @param values the distinct values
+         * @param present the rows that have a value
+         */
+        public StringColumn(int[] codes, List<String> values, BitSet present) {
+            super(present);
+            this.codes = codes;
+            this.values = new ArrayList<String>(values);
+            for (int code = 0; code < values.size(); code++) {
+                valueCodes.put(values.get(code), code);
+            }
+        }
+
+        public Object get(int row) {
+            return values.get(codes[row]);
+        }
+
+        /**
+         * @return the index of the row's value in the distinct values
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        public String getValue(int code) {
+            return values.get(code);
+        }
+
+        /**
+         * @return the number of distinct values the column has held (some of which
+         *         no row may have any more)
+         */
+        public int getValueCount() {
+            return values.size();
+        }
+
+        boolean accepts(Object value) {
+            return value instanceof String;
+        }
+
+        void set(int row, Object value) {
+            if (row >= codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length, row));
+            }
+            Integer code = valueCodes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add((String)value);
+                valueCodes.put((String)value, code);
+            }
+            codes[row] = code;
+            present.set(row);
+        }
+
+        Column copy() {
+            return new StringColumn(codes.clone(), values, (BitSet)present.clone());
+        }
+
+        private int[] codes;
+        private final List<String> values;
+        private final Map<String, Integer> valueCodes = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Pairs of real numbers, got as an Object[] of two Doubles.
+     */
+    public static final class RangeColumn extends Column {
+        RangeColumn(int capacity) {
+            this(new double[capacity], new double[capacity], new BitSet());
+        }
+
+        /**
+         * @param lowers the first number of each row's pair
+         * @param uppers the second number of each row's pair
+         * @param present the rows that have a value
+         */
+        public RangeColumn(double[] lowers, double[] uppers, BitSet present) {
+            super(present);
+            this.lowers = lowers;
+            this.uppers = uppers;
+        }
+
+        static boolean isRange(Object value) {
+            if (!(value instanceof Object[])) {
+                return false;
+            }
+            Object[] values = (Object[])value;
+            return values.getClass() == Object[].class && values.length == 2 &&
+                    values[0] instanceof Double && values[1] instanceof Double;
+        }
+
+        public Object get(int row) {
+            return new Object[] { lowers[row], uppers[row] };
+        }
+
+        public double getLower(int row) {
+            return lowers[row];
+        }
+
+        public double getUpper(int row) {
+            return uppers[row];
+        }
+
+        boolean accepts(Object value) {
+            return isRange(value);
+        }
+
+        void set(int row, Object value) {
+            if (row >= lowers.length) {
+                lowers = Arrays.copyOf(lowers, grow(lowers.length, row));
+                uppers = Arrays.copyOf(uppers, lowers.length);
+            }
+            Object[] values = (Object[])value;
+            lowers[row] = (Double)values[0];
+            uppers[row] = (Double)values[1];
+            present.set(row);
+        }
+
+        Column copy() {
+            return new RangeColumn(lowers.clone(), uppers.clone(), (BitSet)present.clone());
+        }
+
+        private double[] lowers;
+        private double[] uppers;
+    }
+
+    /**
+     * Values of any kind, kept as they are.
+     */
+    public static final class ObjectColumn extends Column {
+        ObjectColumn(int capacity) {
+            this(new Object[capacity], new BitSet());
+        }
+
+        /**
+         * @param values the value of each row
+         * @param present the rows that have a value
+         */
+        public ObjectColumn(Object[] values, BitSet present) {
+            super(present);
+            this.values = values;
+        }
+
+        /**
+         * Makes a column with the values of another one.
+         */
+        ObjectColumn(Column column) {
+            this(Math.max(column.present.length(), 16));
+            for (int row = column.present.nextSetBit(0); row >= 0; row = column.present.nextSetBit(row + 1)) {
+                set(row, column.get(row));
+            }
+        }
+
+        public Object get(int row) {
+            return values[row];
+        }
+
+        boolean accepts(Object value) {
+            return true;
+        }
+
+        void set(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, grow(values.length, row));
+            }
+            values[row] = value;
+            present.set(row);
+        }
+
+        @Override
+        void remove(int row) {
+            super.remove(row);
+            if (row < values.length) {
+                values[row] = null;
+            }
+        }
+
+        Column copy() {
+            return new ObjectColumn(values.clone(), (BitSet)present.clone());
+        }
+
+        private Object[] values;
+    }
+
+    private final int rowCapacity;
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+}
@@ -94,20 +94,29 @@ public class DefaultTreeViewer extends TreeViewer {
     }
     /////
     public void setTree(Tree tree) {
-        trees.clear();
+        trees = new ArrayList<Tree>();
         addTree(tree);
         showTree(0);
     }
 
     public void setTrees(Collection<? extends Tree> trees) {
-        this.trees.clear();
-        for (Tree tree : trees) {
-            addTree(tree);
+        if (trees instanceof LazyTreeList) {
+            // kept as it is, so that only the trees that are shown are made
+            this.trees = (LazyTreeList)trees;
+        } else {
+            this.trees = new ArrayList<Tree>();
+            for (Tree tree : trees) {
+                addTree(tree);
+            }
         }
         showTree(0);
     }
 
     public void addTree(Tree tree) {
+        if (trees instanceof LazyTreeList) {
+            // adding to a lazy list makes all its trees
+            trees = new ArrayList<Tree>(trees);
+        }
         this.trees.add(tree);
 
 //        if (treePane.getTipLabelPainter() != null) {
@@ -182,7 +191,16 @@ public class DefaultTreeViewer extends TreeViewer {
             return;
         }
 
-        Tree tree = trees.get(index);
+        Tree tree;
+        try {
+            tree = trees.get(index);
+        } catch (IllegalStateException ise) {
+            // a tree of a lazily read file that can't be parsed - the current tree is kept
+            JOptionPane.showMessageDialog(frame, "Error reading tree file: \n" + ise.getMessage(),
+                    "Import Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         if (tree instanceof RootedTree) {
             treePane.setTree((RootedTree)tree);
         } else {
@@ -205,6 +223,16 @@ public class DefaultTreeViewer extends TreeViewer {
         }
     }
 
+    /**
+     * Called before the current tree is changed, so that the changes aren't lost if the
+     * trees are a LazyTreeList that would otherwise drop it.
+     */
+    protected void keepCurrentTree() {
+        if (trees instanceof LazyTreeList && currentTreeIndex < trees.size()) {
+            ((LazyTreeList)trees).keepTree(currentTreeIndex);
+        }
+    }
+
     public void setTreeLayout(TreeLayout treeLayout) {
         treePane.setTreeLayout(treeLayout);
         fireTreeSettingsChanged();
@@ -523,67 +551,80 @@ public class DefaultTreeViewer extends TreeViewer {
     }
 
     public void cartoonSelectedNodes() {
+        keepCurrentTree();
         treePane.cartoonSelectedNodes();
         fireTreeSettingsChanged();
     }
 
     public void collapseSelectedNodes() {
+        keepCurrentTree();
         treePane.collapseSelectedNodes();
         fireTreeSettingsChanged();
     }
 
     public void clearCollapsedNodes() {
+        keepCurrentTree();
         treePane.clearCollapsedNodes();
         fireTreeSettingsChanged();
     }
 
     public void hilightSelectedNodes(Color color) {
+        keepCurrentTree();
         treePane.hilightSelectedNodes(color);
         fireTreeSettingsChanged();
     }
 
     public void clearHilighting() {
+        keepCurrentTree();
         treePane.clearHilightedNodes();
         fireTreeSettingsChanged();
     }
 
     public void rerootOnSelectedBranch() {
+        keepCurrentTree();
         treePane.rerootOnSelectedBranch();
         fireTreeSettingsChanged();
     }
 
     public void clearRooting() {
+        keepCurrentTree();
         treePane.clearRooting();
         fireTreeSettingsChanged();
     }
 
     public void rotateSelectedNode() {
+        keepCurrentTree();
         treePane.rotateSelectedNode();
         fireTreeSettingsChanged();
     }
 
     public void clearRotations() {
+        keepCurrentTree();
         treePane.clearSelectedNodeRotations();
         fireTreeSettingsChanged();
     }
 
     public void annotateSelectedNodes(String name, Object value) {
+        keepCurrentTree();
         treePane.annotateSelectedNodes(name, value);
         fireTreeSettingsChanged();
     }
 
     public void annotateSelectedTips(String name, Object value) {
+        keepCurrentTree();
         treePane.annotateSelectedTips(name, value);
         fireTreeSettingsChanged();
     }
 
     public void clearAnnotation(String name) {
+        keepCurrentTree();
         treePane.clearSelectedNodeAnnotation(name);
         treePane.clearSelectedTipAnnotation(name);
         fireTreeSettingsChanged();
     }
 
     public void clearColouring() {
+        keepCurrentTree();
         treePane.clearSelectedNodeAnnotation("!color");
         treePane.clearSelectedTipAnnotation("!color");
         fireTreeSettingsChanged();
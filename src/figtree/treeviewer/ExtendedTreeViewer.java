@@ -167,6 +167,8 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
     }
 
     public void annotateNodesFromTips(String annotationName) {
+        keepCurrentTree();
+
         List<Object> stateCodes = new ArrayList<Object>();
         Map<Taxon, Integer> stateMap = new HashMap<Taxon, Integer>();
 
@@ -198,6 +200,7 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
     }
 
     public void annotateTipsFromNodes(String annotationName) {
+        keepCurrentTree();
 
         Tree tree = treePane.getTree();
         for (Node node : tree.getExternalNodes()) {
@@ -224,7 +227,7 @@ public class ExtendedTreeViewer extends DefaultTreeViewer implements StatusProvi
         fireTreeChanged();
     }
 
-    private static Map<String, AnnotationDefinition> annotations = null;
+    private Map<String, AnnotationDefinition> annotations = null;
     private final StatusProvider.Helper statusHelper = new StatusProvider.Helper();
 
     public void addStatusListener(StatusListener statusListener) {
@@ -0,0 +1,53 @@
+/*
+ * LazyTreeList.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import jebl.evolution.trees.Tree;
+
+import java.util.List;
+
+/**
+ * A list of trees that are only made when they are asked for (e.g., read from a file
+ * as they are shown), and that may be dropped and made again later. A tree viewer keeps
+ * such a list rather than copying it, and looks only at the loaded trees for things
+ * like the attribute names, so that the rest are never made.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public interface LazyTreeList extends List<Tree> {
+
+    /**
+     * @return the trees that have been made and are being kept, without making any more
+     */
+    List<Tree> getLoadedTrees();
+
+    /**
+     * Keeps a tree from being dropped, because it has been changed (e.g., annotated) and
+     * the changes would be lost if it were made again.
+     */
+    void keepTree(int index);
+}
@@ -0,0 +1,207 @@
+/*
+ * ScreenGrid.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+/**
+ * A uniform grid over the screen for finding the things (e.g., branches or labels) whose
+ * bounds are in an area without going through all of them. Each thing is put in every
+ * cell its bounds cover, except for the few that would cover many cells (such as the
+ * branches near the root of a rectilinear tree), which are kept in a list that is gone
+ * through for every area.
+ *
+ * The grid is made when it is first searched, once all the things have been added.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+final class ScreenGrid<T> {
+
+    // things that would be put in more cells than this are kept in a list instead
+    private final static int MAX_CELLS_PER_ITEM = 16;
+
+    // the number of things there are for each cell on average
+    private final static int ITEMS_PER_CELL = 4;
+
+    private final static int MAX_CELL_COUNT = 1 << 20;
+
+    public void add(T item, Rectangle2D bounds) {
+        if (cells != null) {
+            throw new IllegalStateException("Things can't be added once the grid has been searched");
+        }
+        items.add(item);
+        itemBounds.add(bounds);
+    }
+
+    /**
+     * @return the things whose bounds intersect (or touch) the area, in the order they
+     *         were added
+     */
+    public List<T> getItems(Rectangle2D area) {
+        if (cells == null) {
+            build();
+        }
+
+        int[] found = new int[16];
+        int count = 0;
+
+        if (cells.length > 0) {
+            final int column0 = getColumn(area.getMinX());
+            final int column1 = getColumn(area.getMaxX());
+            final int row0 = getRow(area.getMinY());
+            final int row1 = getRow(area.getMaxY());
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    final int cell = row * columnCount + column;
+                    for (int i = 0; i < cellSizes[cell]; i++) {
+                        final int index = cells[cell][i];
+                        if (intersects(itemBounds.get(index), area)) {
+                            if (count == found.length) {
+                                found = Arrays.copyOf(found, count * 2);
+                            }
+                            found[count] = index;
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int index : largeItems) {
+            if (intersects(itemBounds.get(index), area)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count] = index;
+                count++;
+            }
+        }
+
+        // a thing in more than one of the cells is found more than once
+        Arrays.sort(found, 0, count);
+        List<T> result = new ArrayList<T>();
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || found[i] != found[i - 1]) {
+                result.add(items.get(found[i]));
+            }
+        }
+        return result;
+    }
+
+    private void build() {
+        final int itemCount = items.size();
+        if (itemCount == 0) {
+            cells = new int[0][];
+            return;
+        }
+
+        Rectangle2D extent = null;
+        for (Rectangle2D bounds : itemBounds) {
+            if (extent == null) {
+                extent = bounds.getBounds2D();
+            } else {
+                extent.add(bounds);
+            }
+        }
+        minX = extent.getMinX();
+        minY = extent.getMinY();
+
+        // square cells, enough of them for a few things each
+        final int cellCount = Math.min(Math.max(itemCount / ITEMS_PER_CELL, 1), MAX_CELL_COUNT);
+        cellSize = Math.sqrt(extent.getWidth() * extent.getHeight() / cellCount);
+        if (!(cellSize > 0.0)) {
+            // the things are all in a line (or at a point)
+            cellSize = Math.max(Math.max(extent.getWidth(), extent.getHeight()) / cellCount, 1.0);
+        }
+        columnCount = (int)Math.min(extent.getWidth() / cellSize, MAX_CELL_COUNT) + 1;
+        rowCount = (int)Math.min(extent.getHeight() / cellSize, MAX_CELL_COUNT / columnCount) + 1;
+
+        cells = new int[columnCount * rowCount][];
+        cellSizes = new int[cells.length];
+        for (int index = 0; index < itemCount; index++) {
+            final Rectangle2D bounds = itemBounds.get(index);
+            final int column0 = getColumn(bounds.getMinX());
+            final int column1 = getColumn(bounds.getMaxX());
+            final int row0 = getRow(bounds.getMinY());
+            final int row1 = getRow(bounds.getMaxY());
+            if ((long)(column1 - column0 + 1) * (row1 - row0 + 1) > MAX_CELLS_PER_ITEM) {
+                largeItems.add(index);
+                continue;
+            }
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    addToCell(row * columnCount + column, index);
+                }
+            }
+        }
+    }
+
+    private void addToCell(int cell, int index) {
+        if (cells[cell] == null) {
+            cells[cell] = new int[ITEMS_PER_CELL];
+        } else if (cellSizes[cell] == cells[cell].length) {
+            cells[cell] = Arrays.copyOf(cells[cell], cellSizes[cell] * 2);
+        }
+        cells[cell][cellSizes[cell]] = index;
+        cellSizes[cell]++;
+    }
+
+    private int getColumn(double x) {
+        return clamp((int)Math.floor((x - minX) / cellSize), columnCount);
+    }
+
+    private int getRow(double y) {
+        return clamp((int)Math.floor((y - minY) / cellSize), rowCount);
+    }
+
+    private static int clamp(int index, int count) {
+        return Math.max(0, Math.min(index, count - 1));
+    }
+
+    /**
+     * Unlike Rectangle2D.intersects, this counts bounds with no width or height (e.g., those
+     * of a straight branch) and bounds that only touch the area.
+     */
+    private static boolean intersects(Rectangle2D bounds, Rectangle2D area) {
+        return bounds.getMaxX() >= area.getMinX() && bounds.getMinX() <= area.getMaxX() &&
+                bounds.getMaxY() >= area.getMinY() && bounds.getMinY() <= area.getMaxY();
+    }
+
+    private final List<T> items = new ArrayList<T>();
+    private final List<Rectangle2D> itemBounds = new ArrayList<Rectangle2D>();
+
+    private int[][] cells = null;
+    private int[] cellSizes;
+    private final List<Integer> largeItems = new ArrayList<Integer>();
+
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int columnCount;
+    private int rowCount;
+}
@@ -32,6 +32,8 @@ import figtree.treeviewer.treelayouts.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
 import java.awt.print.*;
 import java.util.*;
 import java.util.List;
@@ -49,6 +51,14 @@ import java.util.List;
 public class TreePane extends JComponent implements PainterListener, Printable {
     public final static boolean DEBUG_OUTLINE = false;
 
+    // the width and height of the tiles the tree is drawn on the screen in, and the number
+    // of them kept (each takes 256K)
+    private final static int TILE_SIZE = 256;
+    private final static int MAX_TILE_COUNT = 128;
+
+    // how far outside its bounds a label can be drawn (e.g., by its border or a glyph that overhangs)
+    private final static double LABEL_MARGIN = 2.0;
+
     public enum RootingType {
         USER_ROOTING("User Selection"),
         MID_POINT("Midpoint");
@@ -90,8 +100,40 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
     }
 
-    private void recalibrate() {
-        calibrated = false;
+    /**
+     * The tree is drawn in stages, each worked out from the ones before it: the tree
+     * transform (rerooting, ordering and transforming the branches of the original tree,
+     * which is done as soon as it changes), the layout of the nodes, the label metrics
+     * (the sizes of the labels and shapes, and so the bounds of everything in layout
+     * space), the screen transform (scaling everything into the pane) and then painting.
+     * Each change invalidates only the stage it affects and those after it, so, e.g.,
+     * changing the colour of the branches doesn't lay out the tree or measure the labels
+     * again. The stages that are invalid are worked out again before the next paint.
+     */
+    public void invalidateLayout() {
+        layoutValid = false;
+        invalidateLabelMetrics();
+    }
+
+    private void invalidateLabelMetrics() {
+        labelMetricsValid = false;
+        invalidateTransform();
+    }
+
+    private void invalidateTransform() {
+        transformValid = false;
+        clearTiles();
+    }
+
+    /**
+     * Asks for the tree to be drawn again because something about how it looks has changed,
+     * so the tiles of it that have been drawn are thrown away. Changes to just the selection
+     * call repaintSelection instead.
+     */
+    @Override
+    public void repaint() {
+        clearTiles();
+        super.repaint();
     }
 
     private void setupTree() {
@@ -99,7 +141,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         recalculateCollapsedNodes();
 
-        recalibrate();
+        invalidateLayout();
         invalidate();
         repaint();
     }
@@ -155,11 +197,11 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         treeLayout.addTreeLayoutListener(new TreeLayoutListener() {
             public void treeLayoutChanged() {
-                recalibrate();
+                invalidateLayout();
                 repaint();
             }
         });
-        recalibrate();
+        invalidateLayout();
         invalidate();
         repaint();
     }
@@ -171,7 +213,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     public void setTimeScale(TimeScale timeScale) {
         this.timeScale = timeScale;
         this.timeScale.setReversed(isAxisReversed());
-        recalibrate();
+        // labels can show ages or times on the time scale
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -237,7 +280,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             }
             node.setAttribute("!rotate", rotate);
 
-            recalibrate();
+            invalidateLayout();
             invalidate();
             repaint();
         }
@@ -251,7 +294,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 node.removeAttribute("!rotate");
             }
 
-            recalibrate();
+            invalidateLayout();
             invalidate();
             repaint();
         }
@@ -336,14 +379,14 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setAxisOrigin(double axisOrigin) {
         this.axisOrigin = axisOrigin;
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
     public void setAxisReversed(final boolean isAxisReversed) {
         this.isAxisReversed = isAxisReversed;
         this.timeScale.setReversed(isAxisReversed());
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -371,7 +414,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     public void setRootAge(double rootAge) {
         double rootLength = timeScale.getHeight(rootAge, tree) - tree.getHeight(tree.getRootNode());
         treeLayout.setRootLength(rootLength);
-        recalibrate();
+        invalidateLayout();
         repaint();
     }
 
@@ -390,28 +433,32 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setTickSpacing(double userMajorTickSpacing, double userMinorTickSpacing) {
         scaleAxis.setManualAxis(userMajorTickSpacing, userMinorTickSpacing);
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
     public void setAutomaticScale() {
         scaleAxis.setAutomatic();
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
     public void painterChanged() {
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
     public void painterSettingsChanged() {
-        recalibrate();
+        invalidateLabelMetrics();
+        repaint();
+    }
+
+    public void painterAppearanceChanged() {
         repaint();
     }
 
     public void attributesChanged() {
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -444,6 +491,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 selectionColor.getGreen(),
                 selectionColor.getBlue(),
                 128);
+        repaintSelection();
     }
 
     public boolean isTransformBranchesOn() {
@@ -510,7 +558,6 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setShowingTipCallouts(boolean showingTipCallouts) {
         this.showingTipCallouts = showingTipCallouts;
-        recalibrate();
         repaint();
     }
 
@@ -550,7 +597,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         amendNodeSelection(selectedNode, toggle, extend);
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void addSelectedTip(Node selectedTip) {
@@ -562,7 +609,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectTipsFromSelectedNodes();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
 
@@ -576,7 +623,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     private void amendNodeSelection(Node selectedNode, boolean toggle, boolean extend) {
@@ -642,7 +689,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     private void addSelectedChildTips(Node selectedNode, boolean toggle) {
@@ -667,7 +714,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void selectTipsFromSelectedNodes() {
@@ -677,7 +724,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedNodes.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void selectNodesFromSelectedTips() {
@@ -689,21 +736,21 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTips.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void selectAllTaxa() {
         selectedTips.addAll(tree.getExternalNodes());
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void selectAllNodes() {
         selectedNodes.addAll(tree.getNodes());
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public void clearSelection() {
@@ -711,7 +758,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         selectedTips.clear();
         fireSelectionChanged();
         clearSelectionPaths();
-        repaint();
+        repaintSelection();
     }
 
     public boolean hasSelection() {
@@ -734,7 +781,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipCount, height };
                     node.setAttribute(CARTOON_ATTRIBUTE_NAME, values);
                 }
-                recalibrate();
+                invalidateLayout();
                 repaint();
             } else {
                 for (Node child : tree.getChildren(node)) {
@@ -760,7 +807,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipName, height };
                     node.setAttribute(COLLAPSE_ATTRIBUTE_NAME, values);
                 }
-                recalibrate();
+                invalidateLayout();
                 repaint();
             } else {
                 for (Node child : tree.getChildren(node)) {
@@ -783,7 +830,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 Object[] values = new Object[] { tipCount, height, color };
                 node.setAttribute(HILIGHT_ATTRIBUTE_NAME, values);
 
-                recalibrate();
+                invalidateLayout();
                 repaint();
             } else {
                 for (Node child : tree.getChildren(node)) {
@@ -820,7 +867,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     Object[] values = new Object[] { tipCount, height, oldValues[2] };
                     node.setAttribute(HILIGHT_ATTRIBUTE_NAME, values);
                 }
-                recalibrate();
+                invalidateLayout();
                 repaint();
             } else {
                 for (Node child : tree.getChildren(node)) {
@@ -842,7 +889,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     node.removeAttribute(CARTOON_ATTRIBUTE_NAME);
                 }
             }
-            recalibrate();
+            invalidateLayout();
             repaint();
         }
     }
@@ -860,7 +907,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 if (node.getAttribute(CARTOON_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(CARTOON_ATTRIBUTE_NAME);
                 }
-                recalibrate();
+                invalidateLayout();
                 repaint();
             } else {
                 for (Node child : tree.getChildren(node)) {
@@ -879,7 +926,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     node.removeAttribute(HILIGHT_ATTRIBUTE_NAME);
                 }
             }
-            recalibrate();
+            invalidateLayout();
             repaint();
         }
     }
@@ -890,7 +937,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             if (selectedNodes.size() == 0 || selectedNodes.contains(node)) {
                 if (node.getAttribute(HILIGHT_ATTRIBUTE_NAME) != null) {
                     node.removeAttribute(HILIGHT_ATTRIBUTE_NAME);
-                    recalibrate();
+                    invalidateLayout();
                     repaint();
                 }
             }
@@ -991,7 +1038,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.tipLabelPainter != null) {
             this.tipLabelPainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1008,7 +1055,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.nodeLabelPainter != null) {
             this.nodeLabelPainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1025,7 +1072,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.branchLabelPainter != null) {
             this.branchLabelPainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1042,7 +1089,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.nodeBarPainter != null) {
             this.nodeBarPainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1059,7 +1106,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.tipShapePainter != null) {
             this.tipShapePainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1076,7 +1123,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.nodeShapePainter != null) {
             this.nodeShapePainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1092,7 +1139,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         scalePainters.add(scalePainter);
 
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
@@ -1103,7 +1150,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         scalePainters.remove(scalePainter);
 
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
@@ -1116,7 +1163,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (this.scaleGridPainter != null) {
             this.scaleGridPainter.addPainterListener(this);
         }
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
@@ -1126,7 +1173,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         this.legendPainter = legendPainter;
 
-        recalibrate();
+        invalidateTransform();
         repaint();
     }
 
@@ -1140,7 +1187,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     public void setLabelSpacing(float labelSpacing) {
         this.labelXOffset = labelSpacing;
-        recalibrate();
+        invalidateLabelMetrics();
         repaint();
     }
 
@@ -1151,7 +1198,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             super.setPreferredSize(dimension);
         }
 
-        recalibrate();
+        invalidateTransform();
     }
 
     public double getHeightAt(Graphics2D graphics2D, Point2D point) {
@@ -1167,7 +1214,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         Rectangle rect = new Rectangle(point.x - 1, point.y - 1, 3, 3);
         rect.translate(-insets.left, -insets.top);
 
-        for (Node node : tree.getExternalNodes()) {
+        for (Node node : getTipLabelGrid().getItems(rect)) {
             Shape taxonLabelBound = tipLabelBounds.get(node);
 
             if (taxonLabelBound != null && taxonLabelBound.intersects(rect.x, rect.y, rect.height, rect.width)) {
@@ -1177,7 +1224,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         if (transform == null) return null;
 
-        for (Node node : tree.getNodes()) {
+        for (Node node : getBranchGrid().getItems(rect)) {
             Shape branchPath = transform.createTransformedShape(treeLayoutCache.getBranchPath(node));
             if (branchPath != null && branchPath.intersects(rect.x, rect.y, rect.height, rect.width)) {
                 return node;
@@ -1194,20 +1241,22 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     public Set<Node> getNodesAt(Graphics2D g2, Rectangle rect) {
 
         Set<Node> nodes = new HashSet<Node>();
-        for (Node node : tree.getExternalNodes()) {
+        for (Node node : getTipLabelGrid().getItems(rect)) {
             Shape taxonLabelBound = tipLabelBounds.get(node);
-            if (taxonLabelBound != null && taxonLabelBound.intersects(rect.x, rect.y, rect.height, rect.width)) {
+            if (taxonLabelBound != null && taxonLabelBound.intersects(rect.x, rect.y, rect.width, rect.height)) {
                 nodes.add(node);
             }
         }
 
-        for (Node node : tree.getNodes()) {
+        if (transform == null) return nodes;
+
+        for (Node node : getBranchGrid().getItems(rect)) {
             Shape branchPath = transform.createTransformedShape(treeLayoutCache.getBranchPath(node));
-            if (branchPath != null && branchPath.intersects(rect.x, rect.y, rect.height, rect.width)) {
+            if (branchPath != null && branchPath.intersects(rect.x, rect.y, rect.width, rect.height)) {
                 nodes.add(node);
             }
             Shape collapsedShape = transform.createTransformedShape(treeLayoutCache.getCollapsedShape(node));
-            if (collapsedShape != null && collapsedShape.intersects(rect.x, rect.y, rect.height, rect.width)) {
+            if (collapsedShape != null && collapsedShape.intersects(rect.x, rect.y, rect.width, rect.height)) {
                 nodes.add(node);
             }
         }
@@ -1215,6 +1264,51 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         return nodes;
     }
 
+    /**
+     * @return the index of the tip labels on the screen (only those that are drawn), made
+     *         when it is first needed after the transform is calibrated
+     */
+    private ScreenGrid<Node> getTipLabelGrid() {
+        if (tipLabelGrid == null) {
+            tipLabelGrid = new ScreenGrid<Node>();
+            if (tree != null) {
+                for (Node node : tree.getExternalNodes()) {
+                    Rectangle2D bounds = tipLabelScreenBounds.get(node);
+                    if (bounds != null && tipLabelsDrawn.contains(node)) {
+                        tipLabelGrid.add(node, bounds);
+                    }
+                }
+            }
+        }
+        return tipLabelGrid;
+    }
+
+    /**
+     * @return the index of the branches and collapsed clades on the screen (by the bounds
+     *         of both for each node), made when it is first needed after the transform is
+     *         calibrated
+     */
+    private ScreenGrid<Node> getBranchGrid() {
+        if (branchGrid == null) {
+            branchGrid = new ScreenGrid<Node>();
+            if (tree != null) {
+                for (Node node : tree.getNodes()) {
+                    Rectangle2D bounds = branchScreenBounds.get(node);
+                    Rectangle2D collapsedBounds = collapsedShapeScreenBounds.get(node);
+                    if (bounds == null) {
+                        bounds = collapsedBounds;
+                    } else if (collapsedBounds != null) {
+                        bounds = bounds.createUnion(collapsedBounds);
+                    }
+                    if (bounds != null) {
+                        branchGrid.add(node, bounds);
+                    }
+                }
+            }
+        }
+        return branchGrid;
+    }
+
     public Set<Node> getSelectedNodes() {
         return selectedNodes;
     }
@@ -1308,8 +1402,10 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     }
 
     public void setDragRectangle(Rectangle2D dragRectangle) {
+        // only the areas the rectangle was and now is in are painted again
+        repaintArea(this.dragRectangle, 0.0);
         this.dragRectangle = dragRectangle;
-        repaint();
+        repaintArea(dragRectangle, 0.0);
     }
 
     public void setRuler(double rulerHeight) {
@@ -1355,6 +1451,28 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         treePaneListeners.remove(treePaneListener);
     }
 
+    private final Set<TreePaneStageListener> stageListeners = new HashSet<TreePaneStageListener>();
+
+    public void addStageListener(TreePaneStageListener stageListener) {
+        stageListeners.add(stageListener);
+    }
+
+    public void removeStageListener(TreePaneStageListener stageListener) {
+        stageListeners.remove(stageListener);
+    }
+
+    private void fireStageStarted(String stage) {
+        for (TreePaneStageListener stageListener : stageListeners) {
+            stageListener.stageStarted(stage);
+        }
+    }
+
+    private void fireStageFinished(String stage) {
+        for (TreePaneStageListener stageListener : stageListeners) {
+            stageListener.stageFinished(stage);
+        }
+    }
+
     private void fireSettingsChanged() {
         for (TreePaneListener treePaneListener : treePaneListeners) {
             treePaneListener.treePaneSettingsChanged();
@@ -1373,12 +1491,12 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         final Graphics2D g2 = (Graphics2D) graphics;
         g2.translate(insets.left, insets.top);
 
-        if (!calibrated) {
-            calibrate(g2, getWidth(), getHeight());
+        if (isCachingTiles(g2)) {
+            drawTreeTiles(g2, getWidth(), getHeight());
+        } else {
+            drawTree(g2, getWidth(), getHeight());
         }
 
-        drawTree(g2, getWidth(), getHeight());
-
         Paint oldPaint = g2.getPaint();
         Stroke oldStroke = g2.getStroke();
 
@@ -1395,6 +1513,105 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 //
 //		}
 
+        // the selection is drawn over the tree (and its tiles) so that changing it only
+        // needs the area it was and is in to be painted again (see repaintSelection)
+        createSelectionPaths();
+
+        g2.setPaint(selectionPaint);
+        g2.setStroke(selectionStroke);
+        g2.draw(branchSelection);
+        g2.fill(labelSelection);
+
+        g2.setPaint(oldPaint);
+        g2.setStroke(oldStroke);
+
+        if (dragRectangle != null) {
+            g2.setPaint(new Color(128, 128, 128, 128));
+            g2.fill(dragRectangle);
+        }
+    }
+
+    /**
+     * @return true if the tree is being drawn on the screen, where it is drawn from tiles
+     *         that are kept between paints (rather than exported or printed)
+     */
+    boolean isCachingTiles(Graphics2D g2) {
+        return !isPaintingForPrint() &&
+                (g2.getTransform().getType() & ~AffineTransform.TYPE_TRANSLATION) == 0 &&
+                g2.getDeviceConfiguration().getDevice().getType() == GraphicsDevice.TYPE_RASTER_SCREEN;
+    }
+
+    /**
+     * Draws the tree by copying the tiles of it that cover the area being painted, drawing
+     * each tile the first time it is needed. So scrolling or uncovering the window only
+     * copies the tiles, which are thrown away when anything about how the tree looks
+     * changes (see repaint and invalidateLayout).
+     */
+    private void drawTreeTiles(Graphics2D g2, double width, double height) {
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // the tiles are drawn with the same font metrics, so this throws them away if the
+        // tree has to be fitted again
+        calibrate(g2, width, height);
+
+        final GraphicsConfiguration configuration = g2.getDeviceConfiguration();
+        if (configuration != tileConfiguration) {
+            // e.g., the window has moved to another screen
+            clearTiles();
+            tileConfiguration = configuration;
+        }
+
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, (int)Math.ceil(width), (int)Math.ceil(height));
+        }
+        final int column0 = Math.floorDiv(clip.x, TILE_SIZE);
+        final int column1 = Math.floorDiv(clip.x + clip.width - 1, TILE_SIZE);
+        final int row0 = Math.floorDiv(clip.y, TILE_SIZE);
+        final int row1 = Math.floorDiv(clip.y + clip.height - 1, TILE_SIZE);
+
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                final Point key = new Point(column, row);
+                Image tile = tiles.get(key);
+                if (tile == null) {
+                    tile = drawTile(g2, column * TILE_SIZE, row * TILE_SIZE, width, height);
+                    tiles.put(key, tile);
+                }
+                g2.drawImage(tile, column * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    private Image drawTile(Graphics2D g2, int x, int y, double width, double height) {
+        // a translucent image so that whatever is behind the pane shows through
+        final BufferedImage tile = tileConfiguration.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+        final Graphics2D tileGraphics = tile.createGraphics();
+        tileGraphics.setRenderingHints(g2.getRenderingHints());
+        tileGraphics.setFont(g2.getFont());
+        tileGraphics.setPaint(g2.getPaint());
+        tileGraphics.setStroke(g2.getStroke());
+        tileGraphics.translate(-x, -y);
+        tileGraphics.clipRect(x, y, TILE_SIZE, TILE_SIZE);
+
+        drawTree(tileGraphics, width, height);
+
+        tileGraphics.dispose();
+        return tile;
+    }
+
+    private void clearTiles() {
+        // this can be called by JComponent before the tiles are set up
+        if (tiles != null) {
+            tiles.clear();
+        }
+    }
+
+    /**
+     * Makes the paths on the screen of the selected branches and tip labels, if they
+     * haven't been made since the selection or the transform last changed.
+     */
+    private void createSelectionPaths() {
         if (branchSelection == null) {
             branchSelection = new GeneralPath();
             for (Node selectedNode : selectedNodes) {
@@ -1410,29 +1627,19 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                     branchSelection.append(transPath, false);
                 }
             }
+            branchSelectionBounds = branchSelection.getCurrentPoint() != null ? branchSelection.getBounds2D() : null;
         }
 
         if (labelSelection == null) {
             labelSelection = new GeneralPath();
             for (Node selectedTip : selectedTips) {
                 Shape labelBounds = tipLabelBounds.get(selectedTip);
-                if (labelBounds != null) {
+                // a hidden label isn't hilighted
+                if (labelBounds != null && tipLabelsDrawn.contains(selectedTip)) {
                     labelSelection.append(labelBounds, false);
                 }
             }
-        }
-
-        g2.setPaint(selectionPaint);
-        g2.setStroke(selectionStroke);
-        g2.draw(branchSelection);
-        g2.fill(labelSelection);
-
-        g2.setPaint(oldPaint);
-        g2.setStroke(oldStroke);
-
-        if (dragRectangle != null) {
-            g2.setPaint(new Color(128, 128, 128, 128));
-            g2.fill(dragRectangle);
+            labelSelectionBounds = labelSelection.getCurrentPoint() != null ? labelSelection.getBounds2D() : null;
         }
     }
 
@@ -1441,9 +1648,54 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         labelSelection = null;
     }
 
+    /**
+     * Asks for the selection to be drawn again, over the tiles of the tree that have already
+     * been drawn. Only the areas the selection was and now is in are painted again.
+     */
+    private void repaintSelection() {
+        if (transform == null || !transformValid) {
+            // the selection will be drawn along with the whole tree
+            super.repaint();
+            return;
+        }
+
+        final double margin = getStrokeMargin(selectionStroke);
+        repaintArea(branchSelectionBounds, margin);
+        repaintArea(labelSelectionBounds, 0.0);
+
+        createSelectionPaths();
+
+        repaintArea(branchSelectionBounds, margin);
+        repaintArea(labelSelectionBounds, 0.0);
+    }
+
+    /**
+     * Asks for an area of the tree (e.g., where a selected branch is) to be painted again,
+     * over the tiles of the tree that have already been drawn.
+     *
+     * @param margin how far outside the area the drawing in it can go
+     */
+    private void repaintArea(Rectangle2D area, double margin) {
+        if (area != null) {
+            if (Double.isInfinite(margin)) {
+                super.repaint();
+                return;
+            }
+            // a pixel more for antialiasing
+            final int m = (int)Math.ceil(margin) + 1;
+            final Rectangle bounds = area.getBounds();
+            super.repaint(bounds.x + insets.left - m, bounds.y + insets.top - m,
+                    bounds.width + 2 * m, bounds.height + 2 * m);
+        }
+    }
+
     private GeneralPath branchSelection = null;
     private GeneralPath labelSelection = null;
 
+    // the bounds of the paths of the selection, or null if they are empty
+    private Rectangle2D branchSelectionBounds = null;
+    private Rectangle2D labelSelectionBounds = null;
+
     public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
 
         if (tree == null || pageIndex > 0) return NO_SUCH_PAGE;
@@ -1451,13 +1703,13 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         Graphics2D g2 = (Graphics2D) graphics;
         g2.translate(pageFormat.getImageableX(), pageFormat.getImageableY());
 
-        recalibrate();
+        // the page's size (and font metrics) are different from the pane's, so the tree
+        // is fitted to the page and then back to the pane when it is next painted
         setDoubleBuffered(false);
 
         drawTree(g2, pageFormat.getImageableWidth(), pageFormat.getImageableHeight());
 
         setDoubleBuffered(true);
-        recalibrate();
 
         return PAGE_EXISTS;
     }
@@ -1470,9 +1722,13 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         }
 
-        if (!calibrated) {
-            calibrate(g2, width, height);
-        }
+        calibrate(g2, width, height);
+
+        fireStageStarted(TreePaneStageListener.DRAW);
+
+        // only the things that can be seen in the area being drawn (e.g., the part of the
+        // tree that has been scrolled to) are drawn
+        final Rectangle clip = g2.getClipBounds();
 
         // save graphics state which draw changes so that upon exit it can be restored
 
@@ -1506,7 +1762,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         if (nodeBackgroundDecorator != null) {
             for (Node node : treeLayoutCache.getNodeAreaMap().keySet() ) {
                 Shape nodeArea = treeLayoutCache.getNodeArea(node);
-                if (nodeArea != null) {
+                if (nodeArea != null && isInClip(getScreenBounds(nodeArea), clip, 0.0)) {
                     nodeBackgroundDecorator.setItem(node);
                     Shape transNodePath = transform.createTransformedShape(nodeArea);
                     Paint background = new Color(0,0,0,0);
@@ -1526,6 +1782,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             Object[] values = (Object[])node.getAttribute(HILIGHT_ATTRIBUTE_NAME);
 
             Shape hilightShape = treeLayoutCache.getHilightShape(node);
+            if (!isInClip(getScreenBounds(hilightShape), clip, 0.5)) {
+                continue;
+            }
 
             Shape transShape = transform.createTransformedShape(hilightShape);
             Paint paint = ((Color)values[2]).darker();
@@ -1562,7 +1821,6 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         for (Node node : treeLayoutCache.getCollapsedShapeMap().keySet() ) {
             Shape collapsedShape = treeLayoutCache.getCollapsedShape(node);
 
-            Shape transShape = transform.createTransformedShape(collapsedShape);
             Paint paint = Color.BLACK;
             Paint fillPaint = null;
             Stroke stroke = branchLineStroke;
@@ -1574,6 +1832,12 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 stroke = branchDecorator.getStroke(stroke);
             }
 
+            if (!isInClip(collapsedShapeScreenBounds.get(node), clip, getStrokeMargin(stroke))) {
+                continue;
+            }
+
+            Shape transShape = transform.createTransformedShape(collapsedShape);
+
             if (fillPaint != null) {
                 g2.setPaint(fillPaint);
                 g2.fill(transShape);
@@ -1591,6 +1855,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 branchDecorator.setItem(node);
                 stroke = branchDecorator.getStroke(stroke);
             }
+            if (!isInClip(branchScreenBounds.get(node), clip, getStrokeMargin(stroke))) {
+                continue;
+            }
             g2.setStroke(stroke);
 
             Object[] branchColouring = null;
@@ -1661,7 +1928,11 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node bars
         if (!isTransformBranchesOn() && nodeBarPainter != null && nodeBarPainter.isVisible()) {
+            final double margin = getStrokeMargin(nodeBarPainter.getStroke());
             for (Node node : nodeBars.keySet() ) {
+                if (!isInClip(nodeBarScreenBounds.get(node), clip, margin)) {
+                    continue;
+                }
                 Shape nodeBar = nodeBars.get(node);
                 nodeBar = transform.createTransformedShape(nodeBar);
                 nodeBarPainter.paint(g2, node, NodePainter.Justification.CENTER, nodeBar);
@@ -1670,17 +1941,25 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node shapes
         if (nodeShapePainter != null && nodeShapePainter.isVisible()) {
+            final double margin = nodeShapePainter.getMaxShapeWidth() / 2;
             for (Node node : nodePoints.keySet()) {
                 Point2D point = nodePoints.get(node);
                 point = transform.transform(point, null);
+                if (!isInClip(new Rectangle2D.Double(point.getX(), point.getY(), 0.0, 0.0), clip, margin)) {
+                    continue;
+                }
                 nodeShapePainter.paint(g2, node, point, nodeShapeTransforms.get(node));
             }
         }
 
         if (tipShapePainter != null && tipShapePainter.isVisible()) {
+            final double margin = tipShapePainter.getMaxShapeWidth() / 2;
             for (Node node : tipPoints.keySet()) {
                 Point2D point = tipPoints.get(node);
                 point = transform.transform(point, null);
+                if (!isInClip(new Rectangle2D.Double(point.getX(), point.getY(), 0.0, 0.0), clip, margin)) {
+                    continue;
+                }
                 tipShapePainter.paint(g2, node, point, nodeShapeTransforms.get(node));
             }
         }
@@ -1688,24 +1967,26 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         // Paint tip labels
         if (tipLabelPainter != null && tipLabelPainter.isVisible()) {
 
-            for (Node node : tipLabelTransforms.keySet()) {
+            for (Node node : tipLabelsDrawn) {
 
-                AffineTransform tipLabelTransform = tipLabelTransforms.get(node);
+                if (isInClip(tipLabelScreenBounds.get(node), clip, LABEL_MARGIN)) {
+                    AffineTransform tipLabelTransform = tipLabelTransforms.get(node);
 
-                Painter.Justification tipLabelJustification = tipLabelJustifications.get(node);
-                g2.transform(tipLabelTransform);
+                    Painter.Justification tipLabelJustification = tipLabelJustifications.get(node);
+                    g2.transform(tipLabelTransform);
 
-                double labelWidth = tipLabelWidths.get(node);
-                tipLabelPainter.paint(g2, node, tipLabelJustification,
-                        new Rectangle2D.Double(0.0, 0.0, labelWidth, tipLabelPainter.getPreferredHeight()));
+                    double labelWidth = tipLabelWidths.get(node);
+                    tipLabelPainter.paint(g2, node, tipLabelJustification,
+                            new Rectangle2D.Double(0.0, 0.0, labelWidth, tipLabelPainter.getPreferredHeight()));
 
-                g2.setTransform(oldTransform);
+                    g2.setTransform(oldTransform);
+                }
 
                 if (showingTipCallouts) {
-                    Shape calloutPath = transform.createTransformedShape(treeLayoutCache.getCalloutPath(node));
-                    if (calloutPath != null) {
+                    Shape calloutPath = treeLayoutCache.getCalloutPath(node);
+                    if (calloutPath != null && isInClip(getScreenBounds(calloutPath), clip, getStrokeMargin(calloutStroke))) {
                         g2.setStroke(calloutStroke);
-                        g2.draw(calloutPath);
+                        g2.draw(transform.createTransformedShape(calloutPath));
                     }
                 }
             }
@@ -1713,7 +1994,10 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Paint node labels
         if (nodeLabelPainter != null && nodeLabelPainter.isVisible()) {
-            for (Node node : nodeLabelTransforms.keySet() ) {
+            for (Node node : nodeLabelsDrawn) {
+                if (!isInClip(nodeLabelScreenBounds.get(node), clip, LABEL_MARGIN)) {
+                    continue;
+                }
 
                 AffineTransform nodeTransform = nodeLabelTransforms.get(node);
 
@@ -1730,7 +2014,10 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         // Paint branch labels
         if (branchLabelPainter != null && branchLabelPainter.isVisible()) {
 
-            for (Node node : branchLabelTransforms.keySet() ) {
+            for (Node node : branchLabelsDrawn) {
+                if (!isInClip(branchLabelScreenBounds.get(node), clip, LABEL_MARGIN)) {
+                    continue;
+                }
 
                 AffineTransform branchTransform = branchLabelTransforms.get(node);
 
@@ -1750,21 +2037,62 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         g2.setStroke(oldStroke);
         g2.setPaint(oldPaint);
         g2.setFont(oldFont);
+
+        fireStageFinished(TreePaneStageListener.DRAW);
     }
 
+    /**
+     * Works out again the stages of drawing the tree that are invalid (see invalidateLayout).
+     */
     private void calibrate(Graphics2D g2, double width, double height) {
 
-        // First layout the tree
-        treeLayout.layout(tree, treeLayoutCache);
+        if (!layoutValid) {
+            fireStageStarted(TreePaneStageListener.LAYOUT);
+            treeLayout.layout(tree, treeLayoutCache);
+            fireStageFinished(TreePaneStageListener.LAYOUT);
+            layoutValid = true;
+        }
+
+        // the labels are measured again if they are to be drawn with different font
+        // metrics (e.g., when printing) and everything is fitted again to a new size
+        final FontRenderContext fontRenderContext = g2.getFontRenderContext();
+        if (!fontRenderContext.equals(labelMetricsContext)) {
+            invalidateLabelMetrics();
+        }
+        if (width != transformWidth || height != transformHeight) {
+            invalidateTransform();
+        }
+
+        if (!transformValid) {
+            fireStageStarted(TreePaneStageListener.CALIBRATE);
+            if (!labelMetricsValid) {
+                calibrateLabelMetrics(g2);
+                labelMetricsContext = fontRenderContext;
+                labelMetricsValid = true;
+            }
+            calibrateTransform(g2, width, height);
+            calibrateScreenBounds();
+            transformWidth = width;
+            transformHeight = height;
+            transformValid = true;
+            fireStageFinished(TreePaneStageListener.CALIBRATE);
+        }
+    }
+
+    /**
+     * Measures the labels and shapes and finds the bounds of the tree, and of the tree
+     * with its labels, in layout space.
+     */
+    private void calibrateLabelMetrics(Graphics2D g2) {
 
         maxTreeHeight = tree.getHeight(tree.getRootNode()) + treeLayout.getRootLength();
         rootHeightOffset = 0.0;
 
 
         // First of all get the bounds for the unscaled tree
-        treeBounds = null;
+        layoutTreeBounds = null;
 
-        // There are two sets of bounds here. The treeBounds are the bounds of the elements
+        // There are two sets of bounds here. The layoutTreeBounds are the bounds of the elements
         // that make up the actual tree. These are scaled from branch length space
 
         // The bounds are then the extra stuff that doesn't get scaled with the tree such
@@ -1774,10 +2102,10 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         for (Shape branchPath : treeLayoutCache.getBranchPathMap().values()) {
             // Add the bounds of the branch path to the overall bounds
             final Rectangle2D branchBounds = branchPath.getBounds2D();
-            if (treeBounds == null) {
-                treeBounds = branchBounds;
+            if (layoutTreeBounds == null) {
+                layoutTreeBounds = branchBounds;
             } else {
-                treeBounds.add(branchBounds);
+                layoutTreeBounds.add(branchBounds);
             }
         }
 
@@ -1786,27 +2114,27 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             // Get the line that represents the path for the taxon label
             // and add the translated bounds to the overall bounds
             final Rectangle2D calloutBounds = calloutPath.getBounds2D();
-            treeBounds.add(calloutBounds);
+            layoutTreeBounds.add(calloutBounds);
         }
 
 
         for (Shape collapsedShape : treeLayoutCache.getCollapsedShapeMap().values()) {
             // Add the bounds of the branch path to the overall bounds
             final Rectangle2D branchBounds = collapsedShape.getBounds2D();
-            if (treeBounds == null) {
-                treeBounds = branchBounds;
+            if (layoutTreeBounds == null) {
+                layoutTreeBounds = branchBounds;
             } else {
-                treeBounds.add(branchBounds);
+                layoutTreeBounds.add(branchBounds);
             }
         }
 
         for (Shape hilightShape : treeLayoutCache.getHilightShapeMap().values()) {
             // Add the bounds of the branch path to the overall bounds
             final Rectangle2D branchBounds = hilightShape.getBounds2D();
-            if (treeBounds == null) {
-                treeBounds = branchBounds;
+            if (layoutTreeBounds == null) {
+                layoutTreeBounds = branchBounds;
             } else {
-                treeBounds.add(branchBounds);
+                layoutTreeBounds.add(branchBounds);
             }
         }
 
@@ -1819,7 +2147,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
                 Rectangle2D shapeBounds = nodeBarPainter.calibrate(g2, node);
                 if (shapeBounds != null) {
-                    treeBounds.add(shapeBounds);
+                    layoutTreeBounds.add(shapeBounds);
                     nodeBars.put(node, nodeBarPainter.getNodeBar());
                 }
             }
@@ -1832,11 +2160,11 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
 
         // totalTreeBounds includes all the stuff which is not in a tree scale (like labels and shapes) but in
-        // screen pixel scale. This is added to the treeBounds to make space round the edge.
+        // screen pixel scale. This is added to the layoutTreeBounds to make space round the edge.
 
         // add the tree bounds
-        final Rectangle2D totalTreeBounds = treeBounds.getBounds2D();
-//        final Rectangle2D totalTreeBounds = new Rectangle2D.Double(0.0, 0.0,treeBounds.getWidth(),treeBounds.getHeight());
+        final Rectangle2D totalTreeBounds = layoutTreeBounds.getBounds2D();
+//        final Rectangle2D totalTreeBounds = new Rectangle2D.Double(0.0, 0.0,layoutTreeBounds.getWidth(),layoutTreeBounds.getHeight());
 
         tipLabelWidths.clear();
 
@@ -1846,6 +2174,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
             // put this in a recursive function to allow for collapsed node labels
             calibrateTipLabels(g2, tree.getRootNode(), totalTreeBounds);
+            tipLabelHeight = tipLabelPainter.getPreferredHeight();
         }
 
         if (nodeLabelPainter != null && nodeLabelPainter.isVisible()) {
@@ -1865,6 +2194,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 // and add the translated bounds to the overall bounds
                 totalTreeBounds.add(labelTransform.createTransformedShape(labelBounds).getBounds2D());
             }
+            // the labels are all fitted to the pane with the last size measured
+            nodeLabelWidth = nodeLabelPainter.getPreferredWidth();
+            nodeLabelHeight = nodeLabelPainter.getPreferredHeight();
         }
 
         if (branchLabelPainter != null && branchLabelPainter.isVisible()) {
@@ -1885,6 +2217,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 // and add the translated bounds to the overall bounds
                 totalTreeBounds.add(labelTransform.createTransformedShape(labelBounds).getBounds2D());
             }
+            branchLabelWidth = branchLabelPainter.getPreferredWidth();
+            branchLabelHeight = branchLabelPainter.getPreferredHeight();
         }
 
         // bounds on nodeShapes
@@ -1917,6 +2251,18 @@ public class TreePane extends JComponent implements PainterListener, Printable {
             }
         }
 
+        layoutTotalBounds = totalTreeBounds;
+    }
+
+    /**
+     * Fits the tree and its labels into the given size and works out where everything
+     * is drawn.
+     */
+    private void calibrateTransform(Graphics2D g2, double width, double height) {
+
+        treeBounds = layoutTreeBounds.getBounds2D();
+        final Rectangle2D totalTreeBounds = layoutTotalBounds;
+
         // Now rescale the scale axis
         setupScaleAxis();
 
@@ -2070,11 +2416,12 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         // Clear the map of individual taxon label bounds and transforms
         tipLabelBounds.clear();
+        tipLabelScreenBounds.clear();
         tipLabelTransforms.clear();
         tipLabelJustifications.clear();
 
         if (tipLabelPainter != null && tipLabelPainter.isVisible()) {
-            final double labelHeight = tipLabelPainter.getPreferredHeight();
+            final double labelHeight = tipLabelHeight;
 
             // Iterate though the external nodes with tip labels
             for (Node node : treeLayoutCache.getTipLabelPathMap().keySet()) {
@@ -2088,7 +2435,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 AffineTransform taxonTransform = calculateTransform(transform, tipPath, labelWidth, labelHeight, true);
 
                 // Store the transformed bounds in the map for use when selecting
-                tipLabelBounds.put(node, taxonTransform.createTransformedShape(labelBounds));
+                Shape taxonLabelBounds = taxonTransform.createTransformedShape(labelBounds);
+                tipLabelBounds.put(node, taxonLabelBounds);
+                tipLabelScreenBounds.put(node, taxonLabelBounds.getBounds2D());
 
                 // Store the transform in the map for use when drawing
                 tipLabelTransforms.put(node, taxonTransform);
@@ -2099,15 +2448,17 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 tipLabelJustifications.put(node, just);
             }
         }
+        tipLabelsDrawn = getLabelsDrawn(tree, tipLabelPainter, tipLabelScreenBounds);
 
         // Clear the map of individual node label bounds and transforms
         nodeLabelBounds.clear();
+        nodeLabelScreenBounds.clear();
         nodeLabelTransforms.clear();
         nodeLabelJustifications.clear();
 
         if (nodeLabelPainter != null && nodeLabelPainter.isVisible()) {
-            final double labelHeight = nodeLabelPainter.getPreferredHeight();
-            final double labelWidth = nodeLabelPainter.getPreferredWidth();
+            final double labelHeight = nodeLabelHeight;
+            final double labelWidth = nodeLabelWidth;
             final Rectangle2D labelBounds = new Rectangle2D.Double(0.0, 0.0, labelWidth, labelHeight);
 
             // Iterate though the external nodes with node labels
@@ -2119,7 +2470,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 AffineTransform labelTransform = calculateTransform(transform, labelPath, labelWidth, labelHeight, true);
 
                 // Store the transformed bounds in the map for use when selecting
-                nodeLabelBounds.put(node, labelTransform.createTransformedShape(labelBounds));
+                Shape nodeLabelShape = labelTransform.createTransformedShape(labelBounds);
+                nodeLabelBounds.put(node, nodeLabelShape);
+                nodeLabelScreenBounds.put(node, nodeLabelShape.getBounds2D());
 
                 // Store the transform in the map for use when drawing
                 nodeLabelTransforms.put(node, labelTransform);
@@ -2132,8 +2485,10 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 }
             }
         }
+        nodeLabelsDrawn = getLabelsDrawn(tree, nodeLabelPainter, nodeLabelScreenBounds);
 
         branchLabelBounds.clear();
+        branchLabelScreenBounds.clear();
         branchLabelTransforms.clear();
         branchLabelJustifications.clear();
 
@@ -2145,8 +2500,8 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 // Get the line that represents the path for the branch label
                 Line2D labelPath = treeLayoutCache.getBranchLabelPath(node);
 
-                final double labelHeight = branchLabelPainter.getPreferredHeight();
-                final double labelWidth = branchLabelPainter.getPreferredWidth();
+                final double labelHeight = branchLabelHeight;
+                final double labelWidth = branchLabelWidth;
                 final Rectangle2D labelBounds = new Rectangle2D.Double(0.0, 0.0, labelWidth, labelHeight);
 
                 final double dx = labelPath.getP2().getX() - labelPath.getP1().getX();
@@ -2163,7 +2518,9 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 labelTransform.translate(-direction * xScale * branchLength /2, 0);
 
                 // Store the transformed bounds in the map for use when selecting
-                branchLabelBounds.put(node, labelTransform.createTransformedShape(labelBounds));
+                Shape branchLabelShape = labelTransform.createTransformedShape(labelBounds);
+                branchLabelBounds.put(node, branchLabelShape);
+                branchLabelScreenBounds.put(node, branchLabelShape.getBounds2D());
 
                 // Store the transform in the map for use when drawing
                 branchLabelTransforms.put(node, labelTransform);
@@ -2172,6 +2529,7 @@ public class TreePane extends JComponent implements PainterListener, Printable {
                 branchLabelJustifications.put(node, just);
             }
         }
+        branchLabelsDrawn = getLabelsDrawn(tree, branchLabelPainter, branchLabelScreenBounds);
 
         y = availableH;
         for (ScalePainter scalePainter : scalePainters) {
@@ -2204,8 +2562,6 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
         calloutPaths.clear();
         clearSelectionPaths();
-
-        calibrated = true;
     }
 
 //    private void calculateMaxTipLabelWidth(final Graphics2D g2, final Node node) {
@@ -2249,6 +2605,158 @@ public class TreePane extends JComponent implements PainterListener, Printable {
         }
     }
 
+    /**
+     * Finds the bounds on the screen of the branches, collapsed clades and node bars (those
+     * of the labels are found as they are placed).
+     */
+    private void calibrateScreenBounds() {
+        branchScreenBounds.clear();
+        for (Node node : treeLayoutCache.getBranchPathMap().keySet()) {
+            branchScreenBounds.put(node, getScreenBounds(treeLayoutCache.getBranchPath(node)));
+        }
+
+        collapsedShapeScreenBounds.clear();
+        for (Node node : treeLayoutCache.getCollapsedShapeMap().keySet()) {
+            collapsedShapeScreenBounds.put(node, getScreenBounds(treeLayoutCache.getCollapsedShape(node)));
+        }
+
+        nodeBarScreenBounds.clear();
+        for (Node node : nodeBars.keySet()) {
+            nodeBarScreenBounds.put(node, getScreenBounds(nodeBars.get(node)));
+        }
+
+        // the indices for finding what is under the mouse are made again when next needed
+        tipLabelGrid = null;
+        branchGrid = null;
+    }
+
+    /**
+     * @return the bounds on the screen of a shape in layout space (those of its bounds,
+     *         which is quicker than transforming the whole shape)
+     */
+    private Rectangle2D getScreenBounds(Shape shape) {
+        final Rectangle2D bounds = shape.getBounds2D();
+        final double[] corners = new double[] {
+                bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMinY(),
+                bounds.getMaxX(), bounds.getMaxY(), bounds.getMinX(), bounds.getMaxY()
+        };
+        transform.transform(corners, 0, corners, 0, 4);
+
+        double minX = corners[0];
+        double maxX = corners[0];
+        double minY = corners[1];
+        double maxY = corners[1];
+        for (int i = 2; i < corners.length; i += 2) {
+            minX = Math.min(minX, corners[i]);
+            maxX = Math.max(maxX, corners[i]);
+            minY = Math.min(minY, corners[i + 1]);
+            maxY = Math.max(maxY, corners[i + 1]);
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * @param clip the area being drawn, or null if it is all being drawn
+     * @param margin how far outside the bounds the drawing can go (e.g., half a line width)
+     * @return true if something with the given bounds on the screen could be seen in the clip
+     */
+    private static boolean isInClip(Rectangle2D bounds, Rectangle clip, double margin) {
+        return clip == null || bounds == null ||
+                (bounds.getMaxX() + margin >= clip.getMinX() && bounds.getMinX() - margin <= clip.getMaxX() &&
+                        bounds.getMaxY() + margin >= clip.getMinY() && bounds.getMinY() - margin <= clip.getMaxY());
+    }
+
+    /**
+     * @return how far outside the line being drawn the stroke can go
+     */
+    private static double getStrokeMargin(Stroke stroke) {
+        if (stroke instanceof BasicStroke) {
+            // enough for the corners of lines meeting at right angles
+            return ((BasicStroke)stroke).getLineWidth();
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Works out which labels are drawn. If the painter hides overlaps, the labels are swept
+     * down the screen in order of their tops and each is kept only if it doesn't overlap
+     * one already kept, which only needs checking against the kept labels that reach down
+     * past its top. Rotated labels are taken as their bounding rectangles on the screen.
+     * Labels at the same place are taken in the order of their nodes in the tree (parents
+     * before children), so the same labels are drawn every time.
+     */
+    private static Set<Node> getLabelsDrawn(RootedTree tree, LabelPainter<Node> labelPainter, Map<Node, Rectangle2D> labelBounds) {
+        if (labelPainter == null || !labelPainter.isHidingOverlaps()) {
+            return labelBounds.keySet();
+        }
+
+        List<Node> labelled = new ArrayList<Node>(labelBounds.size());
+        for (Node node : getNodesInPreorder(tree)) {
+            if (labelBounds.containsKey(node)) {
+                labelled.add(node);
+            }
+        }
+        final Node[] nodes = labelled.toArray(new Node[labelled.size()]);
+        final Rectangle2D[] bounds = new Rectangle2D[nodes.length];
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            bounds[i] = labelBounds.get(nodes[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                int c = Double.compare(bounds[i1].getMinY(), bounds[i2].getMinY());
+                c = c != 0 ? c : Double.compare(bounds[i1].getMinX(), bounds[i2].getMinX());
+                return c != 0 ? c : i1.compareTo(i2);
+            }
+        });
+
+        // in the order they are found, i.e., down the screen
+        Set<Node> drawn = new LinkedHashSet<Node>();
+        List<Rectangle2D> active = new ArrayList<Rectangle2D>();
+        for (int i : order) {
+            final Rectangle2D label = bounds[i];
+            boolean overlaps = false;
+            int kept = 0;
+            for (int j = 0; j < active.size(); j++) {
+                final Rectangle2D other = active.get(j);
+                if (other.getMaxY() > label.getMinY()) {
+                    active.set(kept, other);
+                    kept++;
+                    overlaps |= other.getMinX() < label.getMaxX() && label.getMinX() < other.getMaxX();
+                }
+            }
+            active.subList(kept, active.size()).clear();
+            if (!overlaps) {
+                active.add(label);
+                drawn.add(nodes[i]);
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * @return the nodes of the tree, each before its children and the children in order
+     */
+    private static List<Node> getNodesInPreorder(RootedTree tree) {
+        List<Node> nodes = new ArrayList<Node>();
+        if (tree == null) {
+            return nodes;
+        }
+        // a stack rather than recursion, as very deep trees would overflow the call stack
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(tree.getRootNode());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            nodes.add(node);
+            List<Node> children = tree.getChildren(node);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return nodes;
+    }
+
     private AffineTransform calculateTransform(AffineTransform globalTransform, Line2D line,
                                                double width, double height, boolean justify) {
         final Point2D origin = line.getP1();
@@ -2305,22 +2813,22 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     // Overridden methods to recalibrate tree when bounds change
     public void setBounds(int x, int y, int width, int height) {
-        recalibrate();
+        invalidateTransform();
         super.setBounds(x, y, width, height);
     }
 
     public void setBounds(Rectangle rectangle) {
-        recalibrate();
+        invalidateTransform();
         super.setBounds(rectangle);
     }
 
     public void setSize(Dimension dimension) {
-        recalibrate();
+        invalidateTransform();
         super.setSize(dimension);
     }
 
     public void setSize(int width, int height) {
-        recalibrate();
+        invalidateTransform();
         super.setSize(width, height);
     }
 
@@ -2358,6 +2866,16 @@ public class TreePane extends JComponent implements PainterListener, Printable {
 
     private double rulerHeight = -1.0;
     private Rectangle2D dragRectangle = null;
+
+    // the tiles of the tree drawn on the screen, by column and row, keeping those most
+    // recently drawn up to a limit
+    private final Map<Point, Image> tiles = new LinkedHashMap<Point, Image>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Point, Image> eldest) {
+            return size() > MAX_TILE_COUNT;
+        }
+    };
+    private GraphicsConfiguration tileConfiguration = null;
     private Point2D cursorPosition = null;
 
     private boolean isCrosshairShown = true;
@@ -2403,25 +2921,58 @@ public class TreePane extends JComponent implements PainterListener, Printable {
     private Stroke cursorStroke = new BasicStroke(0.5F, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
     private Paint cursorPaint = Color.DARK_GRAY;
 
-    private boolean calibrated = false;
+    private boolean layoutValid = false;
+    private boolean labelMetricsValid = false;
+    private boolean transformValid = false;
+
+    // what the label metrics and screen transform were worked out for
+    private FontRenderContext labelMetricsContext = null;
+    private double transformWidth;
+    private double transformHeight;
+
+    // the bounds of the tree, and of the tree with its labels, in layout space
+    private Rectangle2D layoutTreeBounds = null;
+    private Rectangle2D layoutTotalBounds = null;
+
+    private double tipLabelHeight;
+    private double nodeLabelWidth;
+    private double nodeLabelHeight;
+    private double branchLabelWidth;
+    private double branchLabelHeight;
     private AffineTransform transform = null;
 
     private boolean showingTipCallouts = true;
 
     private Map<Node, AffineTransform> tipLabelTransforms = new HashMap<Node, AffineTransform>();
     private Map<Node, Shape> tipLabelBounds = new HashMap<Node, Shape>();
+    private Map<Node, Rectangle2D> tipLabelScreenBounds = new HashMap<Node, Rectangle2D>();
     private Map<Node, Double> tipLabelWidths = new HashMap<Node, Double>();
     private Map<Node, Painter.Justification> tipLabelJustifications = new HashMap<Node, Painter.Justification>();
 
     private Map<Node, AffineTransform> nodeLabelTransforms = new HashMap<Node, AffineTransform>();
     private Map<Node, Shape> nodeLabelBounds = new HashMap<Node, Shape>();
+    private Map<Node, Rectangle2D> nodeLabelScreenBounds = new HashMap<Node, Rectangle2D>();
     private Map<Node, Painter.Justification> nodeLabelJustifications = new HashMap<Node, Painter.Justification>();
 
     private Map<Node, AffineTransform> branchLabelTransforms = new HashMap<Node, AffineTransform>();
     private Map<Node, Shape> branchLabelBounds = new HashMap<Node, Shape>();
+    private Map<Node, Rectangle2D> branchLabelScreenBounds = new HashMap<Node, Rectangle2D>();
     private Map<Node, Painter.Justification> branchLabelJustifications = new HashMap<Node, Painter.Justification>();
 
+    // the labels of each kind that are drawn (all of them unless the painter hides overlaps)
+    private Set<Node> tipLabelsDrawn = Collections.emptySet();
+    private Set<Node> nodeLabelsDrawn = Collections.emptySet();
+    private Set<Node> branchLabelsDrawn = Collections.emptySet();
+
     private Map<Node, Shape> nodeBars = new HashMap<Node, Shape>();
+
+    // the bounds on the screen of the branches, collapsed clades and node bars, for
+    // leaving out those that aren't in the area being drawn
+    private Map<Node, Rectangle2D> branchScreenBounds = new HashMap<Node, Rectangle2D>();
+    private Map<Node, Rectangle2D> collapsedShapeScreenBounds = new HashMap<Node, Rectangle2D>();
+    private Map<Node, Rectangle2D> nodeBarScreenBounds = new HashMap<Node, Rectangle2D>();
+    private ScreenGrid<Node> tipLabelGrid = null;
+    private ScreenGrid<Node> branchGrid = null;
     private Map<Node, Point2D> tipPoints = new HashMap<Node, Point2D>();
     private Map<Node, Point2D> nodePoints = new HashMap<Node, Point2D>();
     private Map<Node, AffineTransform> nodeShapeTransforms = new HashMap<Node, AffineTransform>();
@@ -0,0 +1,49 @@
+/*
+ * TreePaneStageListener.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+/**
+ * Told as a tree pane starts and finishes each stage of drawing a tree (e.g., to time
+ * them). Stages are never nested and a listener is called on the thread that paints.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public interface TreePaneStageListener {
+
+    // the tree layout positioning the nodes
+    String LAYOUT = "layout";
+
+    // measuring the labels and fitting the tree and everything else into the pane
+    String CALIBRATE = "calibrate";
+
+    // drawing the tree, labels and scales
+    String DRAW = "draw";
+
+    void stageStarted(String stage);
+
+    void stageFinished(String stage);
+}
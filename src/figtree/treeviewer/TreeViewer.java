@@ -50,6 +50,18 @@ public abstract class TreeViewer extends JPanel implements Printable {
 
     public abstract java.util.List<Tree> getTrees();
 
+    /**
+     * @return the trees that are in memory, which are all the trees unless they are a
+     *         LazyTreeList
+     */
+    public java.util.List<Tree> getLoadedTrees() {
+        java.util.List<Tree> trees = getTrees();
+        if (trees instanceof LazyTreeList) {
+            return ((LazyTreeList)trees).getLoadedTrees();
+        }
+        return trees;
+    }
+
     public abstract Tree getCurrentTree();
 
     public abstract int getCurrentTreeIndex();
@@ -20,6 +20,7 @@
 
 package figtree.treeviewer.decorators;
 
+import figtree.treeviewer.AttributeTable;
 import jebl.evolution.graphs.Node;
 import jebl.evolution.taxa.Taxon;
 import jebl.util.Attributable;
@@ -163,6 +164,23 @@ public abstract class ColourDecorator implements Decorator {
     }
 
     public static boolean isDiscrete(String attributeName, Set<? extends Attributable> items) {
+        if (items instanceof AttributeTable.Rows) {
+            AttributeTable.Rows rows = (AttributeTable.Rows)items;
+            AttributeTable.Column column = rows.getAttributeTable().getColumn(attributeName);
+            if (column instanceof AttributeTable.StringColumn || column instanceof AttributeTable.IntegerColumn) {
+                return true;
+            }
+            if (column instanceof AttributeTable.DoubleColumn) {
+                for (int i = 0; i < rows.getRowCount(); i++) {
+                    int row = rows.getRow(i);
+                    if (column.has(row) && column.getDouble(row) != (int)column.getDouble(row)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
         // First collect the set of all attribute values
         Set<Object> values = new HashSet<Object>();
         for (Attributable item : items) {
@@ -20,6 +20,7 @@
 
 package figtree.treeviewer.decorators;
 
+import figtree.treeviewer.AttributeTable;
 import jebl.util.Attributable;
 
 import java.util.Set;
@@ -86,6 +87,11 @@ public class ContinuousScale {
     public void setAttributes(String attributeName, Set<? extends Attributable> items) {
         this.attributeName = attributeName;
 
+        if (findColumnRange(attributeName, items)) {
+            setRange();
+            return;
+        }
+
         // First collect the set of all attribute values
         Set<Object> values = new TreeSet<Object>();
 
@@ -135,6 +141,10 @@ public class ContinuousScale {
             throw new NumberFormatException("One or more values for this attribute are not numbers");
         }
 
+        setRange();
+    }
+
+    private void setRange() {
         if (normalize && minValue < 0 && maxValue > 0) {
             // if normalizing, and some are negative, assume we are normalizing with 0 at 0.5
             minValue = - maxValue;
@@ -146,7 +156,37 @@ public class ContinuousScale {
             minValue = Math.log(minValue);
             maxValue = Math.log(maxValue);
         }
+    }
+
+    /**
+     * Finds the range of an attribute straight from its column, if the items are
+     * rows of an attribute table and the column holds numbers.
+     *
+     * @return false if the items have to be gone through one by one
+     */
+    private boolean findColumnRange(String attributeName, Set<? extends Attributable> items) {
+        if (!(items instanceof AttributeTable.Rows)) {
+            return false;
+        }
+        AttributeTable.Rows rows = (AttributeTable.Rows)items;
+        AttributeTable.Column column = rows.getAttributeTable().getColumn(attributeName);
+        if (column == null || !column.isNumeric()) {
+            return false;
+        }
 
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            int row = rows.getRow(i);
+            if (column.has(row)) {
+                double realValue = column.getDouble(row);
+                if (realValue < minValue) {
+                    minValue = realValue;
+                }
+                if (realValue > maxValue) {
+                    maxValue = realValue;
+                }
+            }
+        }
+        return true;
     }
 
     public double getValue(Attributable item) {
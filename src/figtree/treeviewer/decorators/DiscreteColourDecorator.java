@@ -20,6 +20,7 @@
 
 package figtree.treeviewer.decorators;
 
+import figtree.treeviewer.AttributeTable;
 import jebl.util.Attributable;
 
 import java.awt.*;
@@ -100,13 +101,15 @@ public class DiscreteColourDecorator extends ColourDecorator {
         Set<Object> sortedValues = new TreeSet<Object>();
         Set<Object> unsortedValues = new HashSet<Object>();
 
-        for (Attributable item : items) {
-            Object value = item.getAttribute(attributeName);
-            if (value != null) {
-                if (value instanceof Comparable) {
-                    sortedValues.add(value);
-                } else {
-                    unsortedValues.add(value);
+        if (!addColumnValues(attributeName, items, sortedValues)) {
+            for (Attributable item : items) {
+                Object value = item.getAttribute(attributeName);
+                if (value != null) {
+                    if (value instanceof Comparable) {
+                        sortedValues.add(value);
+                    } else {
+                        unsortedValues.add(value);
+                    }
                 }
             }
         }
@@ -133,6 +136,38 @@ public class DiscreteColourDecorator extends ColourDecorator {
         setupColours();
     }
 
+    /**
+     * Adds the distinct values of a column of strings, marking which of them the items
+     * have by their codes rather than putting every item's value in a set.
+     *
+     * @return false if the items aren't rows of an attribute table with such a column
+     */
+    private static boolean addColumnValues(String attributeName, Set<? extends Attributable> items, Set<Object> values) {
+        if (!(items instanceof AttributeTable.Rows)) {
+            return false;
+        }
+        AttributeTable.Rows rows = (AttributeTable.Rows)items;
+        AttributeTable.Column column = rows.getAttributeTable().getColumn(attributeName);
+        if (!(column instanceof AttributeTable.StringColumn)) {
+            return false;
+        }
+
+        AttributeTable.StringColumn strings = (AttributeTable.StringColumn)column;
+        boolean[] isPresent = new boolean[strings.getValueCount()];
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            int row = rows.getRow(i);
+            if (strings.has(row)) {
+                isPresent[strings.getCode(row)] = true;
+            }
+        }
+        for (int code = 0; code < isPresent.length; code++) {
+            if (isPresent[code]) {
+                values.add(strings.getValue(code));
+            }
+        }
+        return true;
+    }
+
     public List<Object> getValues() {
         return values;
     }
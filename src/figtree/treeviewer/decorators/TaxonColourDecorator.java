@@ -0,0 +1,103 @@
+/*
+ * TaxonColourDecorator.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer.decorators;
+
+import jebl.evolution.taxa.Taxon;
+import jebl.util.Attributable;
+
+import java.awt.*;
+import java.util.Map;
+
+/**
+ * An AttributableDecorator that takes the colour of a taxon from a map, when the map
+ * has one for it, rather than from the taxon's attributes. jebl keeps a single Taxon
+ * for each name, shared by every tree read, so colours that only belong to one drawing
+ * (e.g., those given with -colors on the command line) are kept here instead of being
+ * set on the taxa.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TaxonColourDecorator extends AttributableDecorator {
+
+    /**
+     * @param taxonColours the colour of each taxon (a Color or anything Color.decode
+     *                     can read), which is not copied
+     */
+    public TaxonColourDecorator(Map<Taxon, ?> taxonColours) {
+        this.taxonColours = taxonColours;
+    }
+
+    @Override
+    public Paint getPaint(Paint paint) {
+        if (colour == null) return super.getPaint(paint);
+        return colour;
+    }
+
+    @Override
+    public Paint getFillPaint(Paint paint) {
+        if (colour == null) return super.getFillPaint(paint);
+        return colour.brighter();
+    }
+
+    @Override
+    public void setItem(Attributable item, Attributable fallbackItem) {
+        super.setItem(item, fallbackItem);
+        colour = getTaxonColour(item != null ? item : fallbackItem);
+    }
+
+    @Override
+    public void setItem(Object item) {
+        super.setItem(item);
+        colour = getTaxonColour(item);
+    }
+
+    @Override
+    public void setItems(final Object item1, final Object item2) {
+        super.setItems(item1, item2);
+        colour = getTaxonColour(item1 != null ? item1 : item2);
+    }
+
+    private Color getTaxonColour(Object item) {
+        if (item instanceof Taxon) {
+            Object value = taxonColours.get(item);
+            if (value instanceof Color) {
+                return (Color)value;
+            }
+            if (value != null) {
+                try {
+                    return Color.decode(value.toString());
+                } catch (NumberFormatException nfe) {
+                    //
+                }
+            }
+        }
+        return null;
+    }
+
+    private final Map<Taxon, ?> taxonColours;
+    private Color colour = null;
+}
@@ -54,6 +54,12 @@ public abstract class AbstractPainter<T> implements Painter<T> {
         }
     }
 
+    public void firePainterAppearanceChanged() {
+        for (PainterListener listener : listeners) {
+            listener.painterAppearanceChanged();
+        }
+    }
+
     public void fireAttributesChanged() {
         for (PainterListener listener : listeners) {
             listener.attributesChanged();
@@ -96,7 +96,7 @@ public class AttributeComboHelper {
 
         treeViewer.addTreeViewerListener(new TreeViewerListener() {
             public void treeChanged() {
-                List<Tree> trees = treeViewer.getTrees();
+                List<Tree> trees = treeViewer.getLoadedTrees();
 
                 Object selected = attributeComboBox.getSelectedItem();
 
@@ -242,7 +242,7 @@ public class AttributeComboHelper {
         }
     }
 
-    private static void getAttributeNames(List<String> attributeNames, Collection<? extends Tree> trees, final boolean includeLineageColourings) {
+    public static void getAttributeNames(List<String> attributeNames, Collection<? extends Tree> trees, final boolean includeLineageColourings) {
         for (Tree tree : trees) {
             Set<String> attributes = new TreeSet<String>();
 
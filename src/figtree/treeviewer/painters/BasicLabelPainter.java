@@ -30,7 +30,9 @@ import jebl.evolution.trees.Tree;
 import jebl.util.Attributable;
 
 import java.awt.*;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.Rectangle2D;
+import java.text.NumberFormat;
 import java.util.*;
 import java.util.List;
 
@@ -83,6 +85,14 @@ public class BasicLabelPainter extends LabelPainter<Node> {
     }
 
     protected String getLabel(Tree tree, Node node) {
+        return formatValue(getLabelValue(tree, node));
+    }
+
+    /**
+     * @return the value that the label of the node shows (e.g., the name of its taxon or
+     *         its height), before it is formatted
+     */
+    private Object getLabelValue(Tree tree, Node node) {
         if (displayAttribute.equalsIgnoreCase(NAMES)) {
             if (getIntent() == PainterIntent.TIP) {
                 Taxon taxon = tree.getTaxon(node);
@@ -121,16 +131,14 @@ public class BasicLabelPainter extends LabelPainter<Node> {
 
             if (displayAttribute.equalsIgnoreCase(NODE_AGES) ) {
                 TimeScale timeScale = treePane.getTimeScale();
-                double age = timeScale.getAge(rtree.getHeight(node), rtree);
-                return getNumberFormat().format(age);
+                return timeScale.getAge(rtree.getHeight(node), rtree);
             } else if (displayAttribute.equalsIgnoreCase(NODE_HEIGHTS) ) {
-                return getNumberFormat().format(rtree.getHeight(node));
+                return rtree.getHeight(node);
             } else if (displayAttribute.equalsIgnoreCase(BRANCH_TIMES) ) {
                 TimeScale timeScale = treePane.getTimeScale();
-                double time = timeScale.getTime(rtree.getLength(node), rtree);
-                return getNumberFormat().format(time);
+                return timeScale.getTime(rtree.getLength(node), rtree);
             } else if (displayAttribute.equalsIgnoreCase(BRANCH_LENGTHS) ) {
-                return getNumberFormat().format(rtree.getLength(node));
+                return rtree.getLength(node);
             }
         }
 
@@ -149,7 +157,7 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             value = node.getAttribute(displayAttribute);
         }
 
-        return formatValue(value);
+        return value;
     }
 
     private String formatValue(Object value) {
@@ -176,31 +184,100 @@ public class BasicLabelPainter extends LabelPainter<Node> {
         return null;
     }
 
+    /**
+     * The label of a node and, once it has been measured, its bounds in a font. The cached
+     * labels are kept until the tree, display attribute or number format are changed, and
+     * a label is only formatted again if the value it shows has changed, or measured again
+     * if it is to be drawn in another font.
+     */
+    private static final class CachedLabel {
+        CachedLabel(Object value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+
+        final Object value;
+        final String text;
+
+        Font font = null;
+        FontRenderContext fontRenderContext = null;
+        Rectangle2D bounds = null;
+    }
+
+    private CachedLabel getCachedLabel(Tree tree, Node item) {
+        if (tree != cachedTree) {
+            labelCache.clear();
+            cachedTree = tree;
+        }
+
+        Object value = getLabelValue(tree, item);
+
+        CachedLabel label = labelCache.get(item);
+        if (label == null || !isSameValue(label.value, value)) {
+            label = new CachedLabel(value, formatValue(value));
+            labelCache.put(item, label);
+        }
+        return label;
+    }
+
+    private static boolean isSameValue(Object value1, Object value2) {
+        if (value1 == value2) {
+            return true;
+        }
+        if (value1 instanceof Object[] && value2 instanceof Object[]) {
+            // arrays (such as HPD ranges) may be made afresh each time they are got
+            return Arrays.deepEquals((Object[])value1, (Object[])value2);
+        }
+        return value1 != null && value1.equals(value2);
+    }
+
+    /**
+     * @return the bounds of the label's text (which must not be null) in the font
+     */
+    private Rectangle2D getLabelBounds(Graphics2D g2, CachedLabel label, Font font) {
+        FontRenderContext frc = g2.getFontRenderContext();
+        if (!frc.equals(fontRenderContext)) {
+            // the labels share one context so they can be checked against it quickly
+            fontRenderContext = frc;
+        }
+
+        if (label.bounds == null ||
+                (label.font != font && !font.equals(label.font)) ||
+                (label.fontRenderContext != fontRenderContext && !fontRenderContext.equals(label.fontRenderContext))) {
+            label.bounds = font.getStringBounds(label.text, fontRenderContext);
+            label.font = font;
+            label.fontRenderContext = fontRenderContext;
+        }
+        return label.bounds;
+    }
+
+    private void clearLabelCache() {
+        labelCache.clear();
+        cachedTree = null;
+    }
+
     public Rectangle2D calibrate(Graphics2D g2, Node item) {
         Tree tree = treePane.getTree();
 
-        String label = getLabel(tree, item);
+        CachedLabel label = getCachedLabel(tree, item);
 
-        final Font oldFont = g2.getFont();
+        final Font font;
         if (textDecorator != null) {
-            g2.setFont(textDecorator.getFont(getFont()));
+            font = textDecorator.getFont(getFont());
         } else {
-            g2.setFont(getFont());
+            font = getFont();
         }
 
-        FontMetrics fm = g2.getFontMetrics();
+        FontMetrics fm = g2.getFontMetrics(font);
         preferredHeight = fm.getHeight();
         preferredWidth = 0;
 
-        if (label != null) {
-            Rectangle2D rect = fm.getStringBounds(label, g2);
-            preferredWidth = rect.getWidth();
+        if (label.text != null) {
+            preferredWidth = getLabelBounds(g2, label, font).getWidth();
         }
 
         yOffset = (float)fm.getAscent();
 
-        g2.setFont(oldFont);
-
         return new Rectangle2D.Double(0.0, 0.0, preferredWidth, preferredHeight);
     }
 
@@ -224,7 +301,7 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             g2.draw(bounds);
         }
 
-        String label = getLabel(tree, item);
+        CachedLabel label = getCachedLabel(tree, item);
 
         Font oldFont = g2.getFont();
 
@@ -266,9 +343,9 @@ public class BasicLabelPainter extends LabelPainter<Node> {
             g2.setFont(getFont());
         }
 
-        if (label != null) {
+        if (label.text != null) {
 
-            Rectangle2D rect = g2.getFontMetrics().getStringBounds(label, g2);
+            Rectangle2D rect = getLabelBounds(g2, label, g2.getFont());
 
             float xOffset;
             float y = yOffset + (float) bounds.getY();
@@ -289,7 +366,7 @@ public class BasicLabelPainter extends LabelPainter<Node> {
                     throw new IllegalArgumentException("Unrecognized alignment enum option");
             }
 
-            g2.drawString(label, xOffset, y);
+            g2.drawString(label.text, xOffset, y);
         }
 
         g2.setFont(oldFont);
@@ -309,9 +386,17 @@ public class BasicLabelPainter extends LabelPainter<Node> {
 
     public void setDisplayAttribute(String displayAttribute) {
         this.displayAttribute = displayAttribute;
+        clearLabelCache();
         firePainterChanged();
     }
 
+    @Override
+    public void setNumberFormat(NumberFormat numberFormat) {
+        // the format may be the same one, changed
+        clearLabelCache();
+        super.setNumberFormat(numberFormat);
+    }
+
     private double preferredWidth;
     private double preferredHeight;
     private float yOffset;
@@ -323,5 +408,9 @@ public class BasicLabelPainter extends LabelPainter<Node> {
     private Decorator textDecorator = null;
     private Decorator borderDecorator = null;
 
+    private final Map<Node, CachedLabel> labelCache = new HashMap<Node, CachedLabel>();
+    private Tree cachedTree = null;
+    private FontRenderContext fontRenderContext = null;
+
 
 }
@@ -91,17 +91,24 @@ public abstract class LabelPainter<T> extends AbstractPainter<T> {
 	    return visible;
 	}
 
+    /**
+     * @return true if labels that would be drawn over ones already drawn are left out
+     */
+    public boolean isHidingOverlaps() {
+        return hidingOverlaps;
+    }
+
     // Setters
 
 	public void setBackground(Paint background) {
 	    this.background = background;
-	    firePainterChanged();
+	    firePainterAppearanceChanged();
 	}
 
 	public void setBorder(Paint borderPaint, Stroke borderStroke) {
 	    this.borderPaint = borderPaint;
 	    this.borderStroke = borderStroke;
-	    firePainterChanged();
+	    firePainterAppearanceChanged();
 	}
 
 	public void setFont(Font font) {
@@ -111,7 +118,7 @@ public abstract class LabelPainter<T> extends AbstractPainter<T> {
 
 	public void setForeground(Paint foreground) {
 	    this.foreground = foreground;
-	    firePainterChanged();
+	    firePainterAppearanceChanged();
 	}
 
 	public void setNumberFormat(NumberFormat numberFormat) {
@@ -124,6 +131,16 @@ public abstract class LabelPainter<T> extends AbstractPainter<T> {
 	    firePainterChanged();
 	}
 
+    /**
+     * Sets whether labels that overlap ones already drawn are left out, so that a dense
+     * tree shows as many labels as there is room for and more of them appear as it is
+     * zoomed or expanded.
+     */
+    public void setHidingOverlaps(boolean hidingOverlaps) {
+        this.hidingOverlaps = hidingOverlaps;
+        firePainterChanged();
+    }
+
     public PainterIntent getIntent() {
         return intent;
     }
@@ -135,6 +152,7 @@ public abstract class LabelPainter<T> extends AbstractPainter<T> {
 
 	private Font font;
 	private boolean visible = true;
+	private boolean hidingOverlaps = false;
 
 	private NumberFormat numberFormat = null;
 
@@ -65,6 +65,7 @@ public class LabelPainterController extends AbstractController {
 
     public static final String DISPLAY_ATTRIBUTE_KEY = "displayAttribute";
     public static final String SIGNIFICANT_DIGITS_KEY = "significantDigits";
+    public static final String HIDE_OVERLAPS_KEY = "hideOverlaps";
 
     // The defaults if there is nothing in the preferences
     public static String DEFAULT_FONT_NAME = "sansserif";
@@ -202,6 +203,15 @@ public class LabelPainterController extends AbstractController {
             }
         });
 
+        hideOverlapsCheck = new JCheckBox("Hide overlapping labels");
+        hideOverlapsCheck.setOpaque(false);
+        hideOverlapsCheck.setSelected(labelPainter.isHidingOverlaps());
+        hideOverlapsCheck.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                labelPainter.setHidingOverlaps(hideOverlapsCheck.isSelected());
+            }
+        });
+
 //        labelPainter.addPainterListener(new PainterListener() {
 //            public void painterChanged() {
 //
@@ -219,6 +229,7 @@ public class LabelPainterController extends AbstractController {
         final JLabel label4 = optionsPanel.addComponentWithLabel("Setup:", panel);
         final JLabel label5 = optionsPanel.addComponentWithLabel("Format:", numericalFormatCombo);
         final JLabel label6 = optionsPanel.addComponentWithLabel("Sig. Digits:", digitsSpinner);
+        optionsPanel.addComponent(hideOverlapsCheck);
 
         addComponent(label1);
         addComponent(displayAttributeCombo);
@@ -233,6 +244,7 @@ public class LabelPainterController extends AbstractController {
         addComponent(numericalFormatCombo);
         addComponent(label6);
         addComponent(digitsSpinner);
+        addComponent(hideOverlapsCheck);
         enableComponents(titleCheckBox.isSelected());
 
         titleCheckBox.addChangeListener(new ChangeListener() {
@@ -282,6 +294,7 @@ public class LabelPainterController extends AbstractController {
         int style = (Integer)settings.get(key + "." + FONT_STYLE_KEY);
         labelPainter.setFont(new Font(name, style, size));
         digitsSpinner.setValue((Integer) settings.get(key + "." + SIGNIFICANT_DIGITS_KEY));
+        hideOverlapsCheck.setSelected((Boolean) settings.get(key + "." + HIDE_OVERLAPS_KEY));
     }
 
     public void getSettings(Map<String, Object> settings) {
@@ -293,6 +306,7 @@ public class LabelPainterController extends AbstractController {
         settings.put(key+"."+FONT_SIZE_KEY, font.getSize());
         settings.put(key+"."+FONT_STYLE_KEY, font.getStyle());
         settings.put(key+"."+SIGNIFICANT_DIGITS_KEY, digitsSpinner.getValue());
+        settings.put(key+"."+HIDE_OVERLAPS_KEY, hideOverlapsCheck.isSelected());
     }
 
     public String getTitle() {
@@ -311,6 +325,7 @@ public class LabelPainterController extends AbstractController {
 
     private final JComboBox numericalFormatCombo;
     private final JSpinner digitsSpinner;
+    private final JCheckBox hideOverlapsCheck;
 
     private final String title;
     private final String key;
@@ -70,23 +70,23 @@ public abstract class NodePainter extends AbstractPainter<Node> {
 
     public void setStroke(Stroke stroke) {
         this.stroke = stroke;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     public void setBackground(Paint background) {
         this.background = background;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     public void setBorder(Paint borderPaint, Stroke borderStroke) {
         this.borderPaint = borderPaint;
         this.borderStroke = borderStroke;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     public void setForeground(Paint foreground) {
         this.foreground = foreground;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     public void setVisible(boolean visible) {
@@ -179,6 +179,14 @@ public class NodeShapePainter extends NodePainter {
         throw new UnsupportedOperationException("This version of paint is not used in NodeShapePainter");
     }
 
+    /**
+     * @return the largest width a shape can take up when drawn (that of a diamond on its
+     *         point, with its outline)
+     */
+    public double getMaxShapeWidth() {
+        return Math.sqrt(2.0) * (minSize + maxSize) + outlineStroke;
+    }
+
     public void setMaxSize(double maxSize) {
         this.maxSize = maxSize;
         firePainterChanged();
@@ -197,13 +205,13 @@ public class NodeShapePainter extends NodePainter {
 
     public void setColourDecorator(Decorator colourDecorator) {
         this.colourDecorator = colourDecorator;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     public void setOutline(final float outlineStroke, final Paint outlinePaint) {
         this.outlineStroke = outlineStroke;
         this.outlinePaint = outlinePaint;
-        firePainterChanged();
+        firePainterAppearanceChanged();
     }
 
     private Shape createNodeShape(Node node, double x, double y) {
@@ -36,5 +36,11 @@ public interface PainterListener {
 
     void painterSettingsChanged();
 
+    /**
+     * Called when only the colours or strokes of the painter have changed, so nothing
+     * it paints has moved or changed size.
+     */
+    void painterAppearanceChanged();
+
     void attributesChanged();
 }
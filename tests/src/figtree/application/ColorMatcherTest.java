@@ -0,0 +1,122 @@
+/*
+ * ColorMatcherTest.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.test.TestCase;
+import jebl.evolution.taxa.Taxon;
+
+import java.util.*;
+
+/**
+ * Checks that a ColorMatcher colours names just as testing each -colors pattern in turn
+ * did, with the last pattern (in map order) that a name contains winning.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class ColorMatcherTest extends TestCase {
+
+    /**
+     * Colours a name by testing each pattern in turn, as it was done before ColorMatcher.
+     */
+    private static Object matchEachPattern(Map<String, ?> colorMap, String name) {
+        Object color = null;
+        for (Map.Entry<String, ?> entry : colorMap.entrySet()) {
+            if (name.contains(entry.getKey())) {
+                color = entry.getValue();
+            }
+        }
+        return color;
+    }
+
+    private static String createString(Random random, int maxLength) {
+        // few letters, so that patterns overlap and are often found
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            builder.append((char)('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+
+    public void testMatchesEachPatternInTurn() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
+            int patternCount = random.nextInt(20);
+            for (int j = 0; j < patternCount; j++) {
+                colorMap.put(createString(random, 4), "#" + j);
+            }
+
+            ColorMatcher matcher = new ColorMatcher(colorMap);
+            for (int j = 0; j < 50; j++) {
+                String name = createString(random, 10);
+                assertEquals("name " + name + " with patterns " + colorMap.keySet(),
+                        matchEachPattern(colorMap, name), matcher.match(name));
+            }
+        }
+    }
+
+    public void testLastPatternWins() {
+        Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
+        colorMap.put("SAMPLE_1", "#ff0000");
+        colorMap.put("1_2019", "#00ff00");
+        colorMap.put("MISSING", "#0000ff");
+
+        ColorMatcher matcher = new ColorMatcher(colorMap);
+        assertEquals("both patterns", "#00ff00", matcher.match("X_SAMPLE_1_2019"));
+        assertEquals("the first pattern", "#ff0000", matcher.match("X_SAMPLE_12"));
+        assertNull("no pattern", matcher.match("OTHER"));
+    }
+
+    public void testEmptyPatternMatchesEverything() {
+        Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
+        colorMap.put("ab", "#ff0000");
+        colorMap.put("", "#00ff00");
+
+        ColorMatcher matcher = new ColorMatcher(colorMap);
+        assertEquals("a later empty pattern", "#00ff00", matcher.match("xaby"));
+        assertEquals("the empty name", "#00ff00", matcher.match(""));
+    }
+
+    public void testColorsOfTaxa() {
+        Map<String, Object> colorMap = new LinkedHashMap<String, Object>();
+        colorMap.put("match_", "#ff0000");
+
+        Taxon matched = Taxon.getTaxon("match_1");
+        Taxon unmatched = Taxon.getTaxon("other_1");
+        Map<Taxon, Object> colors = new ColorMatcher(colorMap).getColors(Arrays.asList(matched, unmatched));
+
+        assertEquals("colours", Collections.singletonMap(matched, (Object)"#ff0000"), colors);
+        assertNull("the colour isn't set on the shared taxon", matched.getAttribute(ColorMatcher.COLOR_ATTRIBUTE));
+    }
+
+    public void testNoPatterns() {
+        ColorMatcher matcher = new ColorMatcher(Collections.<String, Object>emptyMap());
+        assertNull("no patterns", matcher.match("anything"));
+        assertTrue("no colours", matcher.getColors(Collections.singletonList(Taxon.getTaxon("anything"))).isEmpty());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * IndexedTreeFileTest.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.test.TestCase;
+import figtree.test.Trees;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Tree;
+
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Checks that the trees of an IndexedTreeFile are found and read just as TreeFileImporter
+ * reads the whole file, with semicolons in quoted names and (nested) comments that mustn't
+ * be taken for the ends of commands, and that trees are dropped and kept as they should be.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class IndexedTreeFileTest extends TestCase {
+
+    // more than are kept, so that some are dropped and read again
+    private final static int TREE_COUNT = IndexedTreeFile.DEFAULT_CACHE_SIZE + 8;
+
+    private static String createNexus(int treeCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("#NEXUS\n");
+        builder.append("[ a comment; with [a nested; comment] and 'a quote;' ]\n");
+        builder.append("begin taxa;\n");
+        builder.append(" dimensions ntax=4;\n");
+        builder.append(" taxlabels 'idx a;b' idx_B 'idx [c];' idx_D;\n");
+        builder.append("end;\n");
+        builder.append("begin figtree;\n");
+        builder.append(" set branchLabels.isShown=true;\n");
+        builder.append("end;\n");
+        builder.append("begin trees;\n");
+        builder.append(" translate 1 'idx a;b', 2 idx_B, 3 'idx [c];', 4 idx_D;\n");
+        for (int i = 0; i < treeCount; i++) {
+            builder.append(" tree 'tree ").append(i + 1).append(";' = [&R][&lnP=-").append(i).append(".5] ");
+            builder.append("(1[&note=\"x;y\",n=").append(i).append("]:1,");
+            builder.append("(2:[c;[d;]]0.").append(i % 10 + 1).append(",3:0.5)[&posterior=0.9]:0.5,4:2);\n");
+        }
+        builder.append("end;\n");
+        builder.append("begin figtree;\n");
+        builder.append(" set legend.fontSize=12;\n");
+        builder.append("end;\n");
+        return builder.toString();
+    }
+
+    private static File createFile(String content) throws IOException {
+        File file = File.createTempFile("figtree", ".trees");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static Node getTip(RootedTree tree, String name) {
+        for (Node node : tree.getExternalNodes()) {
+            if (tree.getTaxon(node).getName().equals(name)) {
+                return node;
+            }
+        }
+        throw new AssertionError("No tip " + name);
+    }
+
+    public void testTreesMatchImporter() throws Exception {
+        String nexus = createNexus(TREE_COUNT);
+        List<Tree> expected = new TreeFileImporter(new StringReader(nexus), true).importTrees();
+        IndexedTreeFile trees = IndexedTreeFile.open(createFile(nexus));
+
+        assertNotNull("the file is indexed", trees);
+        assertEquals("tree count", expected.size(), trees.size());
+        // backwards, so that the first trees have been dropped and are read again
+        for (int i = trees.size() - 1; i >= 0; i--) {
+            assertEquals("tree " + (i + 1), Trees.describe(expected.get(i)), Trees.describe(trees.get(i)));
+        }
+        assertEquals("tree name with a semicolon", expected.get(0).getAttribute("name"), trees.get(0).getAttribute("name"));
+    }
+
+    public void testFigTreeBlocks() throws Exception {
+        IndexedTreeFile trees = IndexedTreeFile.open(createFile(createNexus(TREE_COUNT)));
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        assertTrue("a FIGTREE block is found", trees.readFigTreeBlocks(settings));
+        assertEquals("setting before the trees", true, settings.get("branchLabels.isShown"));
+        assertEquals("setting after the trees", 12, settings.get("legend.fontSize"));
+    }
+
+    public void testDroppedTreesAreReadAgain() throws Exception {
+        IndexedTreeFile trees = IndexedTreeFile.open(createFile(createNexus(TREE_COUNT)));
+
+        Tree first = trees.get(0);
+        assertSame("a tree that is kept", first, trees.get(0));
+        for (int i = 1; i < trees.size(); i++) {
+            trees.get(i);
+        }
+        assertEquals("trees kept", IndexedTreeFile.DEFAULT_CACHE_SIZE, trees.getLoadedTrees().size());
+        assertNotSame("a dropped tree", first, trees.get(0));
+        assertEquals("a dropped tree read again", Trees.describe(first), Trees.describe(trees.get(0)));
+    }
+
+    public void testEditedTreesAreKept() throws Exception {
+        IndexedTreeFile trees = IndexedTreeFile.open(createFile(createNexus(TREE_COUNT)));
+
+        Tree edited = trees.get(1);
+        Node root = ((RootedTree)edited).getRootNode();
+        root.setAttribute("edited", true);
+        trees.keepTree(1);
+
+        for (int i = 0; i < trees.size(); i++) {
+            trees.get(i);
+        }
+        assertSame("an edited tree", edited, trees.get(1));
+        assertEquals("an edit", true, ((RootedTree)trees.get(1)).getRootNode().getAttribute("edited"));
+        assertTrue("an edited tree is loaded", trees.getLoadedTrees().contains(edited));
+    }
+
+    public void testRenameNodeAttribute() throws Exception {
+        IndexedTreeFile trees = IndexedTreeFile.open(createFile(createNexus(TREE_COUNT)));
+
+        RootedTree loaded = (RootedTree)trees.get(0);
+        trees.renameNodeAttribute("note", "label");
+
+        Node tip = getTip(loaded, "idx a;b");
+        assertEquals("a tree already read", "x;y", tip.getAttribute("label"));
+        assertNull("the old name", tip.getAttribute("note"));
+
+        RootedTree read = (RootedTree)trees.get(TREE_COUNT - 1);
+        tip = getTip(read, "idx a;b");
+        assertEquals("a tree read afterwards", "x;y", tip.getAttribute("label"));
+    }
+
+    public void testTreesInTwoBlocksAreNotIndexed() throws Exception {
+        String nexus = createNexus(3) + "begin trees;\n tree extra = (1,2);\nend;\n";
+        assertNull("trees in two blocks", IndexedTreeFile.open(createFile(nexus)));
+    }
+
+    public void testNewickIsNotIndexed() throws Exception {
+        assertNull("a Newick file", IndexedTreeFile.open(createFile("((A:1,B:1):1,C:2);\n")));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * TreeFileCacheTest.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.test.TestCase;
+import figtree.test.Trees;
+import jebl.evolution.io.NewickImporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.Tree;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Checks that a TreeFileCache gives back the trees, settings and taxon attributes of a
+ * file just as they were read, and that it has no entry for a file once the file has
+ * changed, even if its size and modification time haven't.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeFileCacheTest extends TestCase {
+
+    private final static String NEXUS =
+            "#NEXUS\n" +
+            "begin taxa;\n" +
+            " dimensions ntax=4;\n" +
+            " taxlabels 'cache A'[&!color=#ff0000,rate=0.5] cache_B cache_C cache_D;\n" +
+            "end;\n" +
+            "begin trees;\n" +
+            " translate 1 'cache A', 2 cache_B, 3 cache_C, 4 cache_D;\n" +
+            " tree one = [&R][&lnP=-10.5] ((1[&state=\"x\",n=1]:0.1,2:0.2[&l={1,2.5,\"a\"},flag])[&posterior=0.9,height_95%_HPD={0.1,0.4}]:0.3," +
+            "(3:0.25,4:0.5)'lab':0.4):0.0;\n" +
+            " tree two = [&R] ((1[&state=\"y\",n=2]:1,3:1):1,(2:1,4:1)[&!color=#00ff00]:1);\n" +
+            "end;\n" +
+            "begin figtree;\n" +
+            " set branchLabels.isShown=true;\n" +
+            " set legend.fontSize=12;\n" +
+            "end;\n";
+
+    public TreeFileCacheTest() throws IOException {
+        directory = Files.createTempDirectory("figtree").toFile();
+        cache = new TreeFileCache(new File(directory, "cache"), TreeFileCache.DEFAULT_SIZE_LIMIT);
+    }
+
+    private File createFile(String content) throws IOException {
+        File file = File.createTempFile("figtree", ".trees", directory);
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads a file as FigTreeFrame does and keeps it in the cache.
+     */
+    private void readAndWrite(File file) throws Exception {
+        Reader reader = new FileReader(file);
+        boolean hasFigTreeBlock;
+        try {
+            TreeFileImporter importer = new TreeFileImporter(reader, true, false);
+            trees = importer.importTrees();
+            taxonAttributes = importer.getTaxonAttributes();
+            settings = new HashMap<String, Object>();
+            hasFigTreeBlock = importer.readFigTreeBlocks(settings);
+        } finally {
+            reader.close();
+        }
+
+        assertTrue("the trees are kept", cache.write(file, trees, taxonAttributes, settings, hasFigTreeBlock));
+    }
+
+    private void deleteAll(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        try {
+            File file = createFile(NEXUS);
+            readAndWrite(file);
+
+            TreeFileCache.Entry entry = cache.read(file);
+            assertNotNull("an entry", entry);
+            assertEquals("tree count", trees.size(), entry.getTrees().size());
+            for (int i = 0; i < trees.size(); i++) {
+                assertEquals("tree " + (i + 1), Trees.describe(trees.get(i)), Trees.describe(entry.getTrees().get(i)));
+            }
+            assertTrue("a FIGTREE block", entry.hasFigTreeBlock());
+            assertEquals("settings", settings, entry.getSettings());
+            assertEquals("taxon attributes", taxonAttributes, entry.getTaxonAttributes());
+            assertNull("attributes aren't set on the shared taxa", Taxon.getTaxon("cache A").getAttribute("rate"));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    public void testNoEntryForAnotherFile() throws Exception {
+        try {
+            readAndWrite(createFile(NEXUS));
+            assertNull("a file that wasn't kept", cache.read(createFile(NEXUS)));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    public void testChangedFileIsNotRead() throws Exception {
+        try {
+            File file = createFile(NEXUS);
+            readAndWrite(file);
+            assertNotNull("an entry before the change", cache.read(file));
+            long lastModified = file.lastModified();
+
+            // the same size and modification time, with a change part way through
+            String changed = NEXUS.replace("(3:0.25,4:0.5)", "(3:0.75,4:0.5)");
+            assertEquals("the same size", NEXUS.length(), changed.length());
+            Writer writer = new FileWriter(file);
+            try {
+                writer.write(changed);
+            } finally {
+                writer.close();
+            }
+            assertTrue("the modification time put back", file.setLastModified(lastModified));
+
+            assertNull("a file changed in place", cache.read(file));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    public void testTouchedFileIsNotRead() throws Exception {
+        try {
+            File file = createFile(NEXUS);
+            readAndWrite(file);
+            assertNotNull("an entry before the change", cache.read(file));
+            assertTrue("the modification time changed", file.setLastModified(file.lastModified() - 60000L));
+
+            assertNull("a file with another modification time", cache.read(file));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    public void testOtherTreesAreNotKept() throws Exception {
+        try {
+            File file = createFile("((cache_A:1,cache_B:1):1,cache_C:2);\n");
+            Reader reader = new FileReader(file);
+            List<Tree> jeblTrees;
+            try {
+                jeblTrees = new NewickImporter(reader, true).importTrees();
+            } finally {
+                reader.close();
+            }
+
+            assertFalse("JEBL's trees", cache.write(file, jeblTrees, Collections.<Taxon, Map<String, Object>>emptyMap(),
+                    Collections.<String, Object>emptyMap(), false));
+            assertNull("no entry", cache.read(file));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    private final File directory;
+    private final TreeFileCache cache;
+
+    private List<Tree> trees;
+    private Map<Taxon, Map<String, Object>> taxonAttributes;
+    private Map<String, Object> settings;
+}
@@ -0,0 +1,167 @@
+/*
+ * TreeFileImporterTest.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.application;
+
+import figtree.test.TestCase;
+import figtree.test.Trees;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.io.NewickImporter;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Tree;
+
+import java.io.StringReader;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Checks that TreeFileImporter reads trees just as the JEBL importers it replaced do
+ * (FigTreeNexusImporter for NEXUS and NewickImporter for Newick), including the awkward
+ * parts of the formats: quoted names, nested comments and meta comments of every type.
+ *
+ * Each test uses its own taxon names, as JEBL keeps one Taxon for each name.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class TreeFileImporterTest extends TestCase {
+
+    private final static String NEXUS =
+            "#NEXUS\n" +
+            "[ a comment with 'quote' and [nested] ]\n" +
+            "begin taxa;\n" +
+            " dimensions ntax=4;\n" +
+            " taxlabels 'imp A b'[&state=\"x\",rate=0.5] imp_B_c 'imp it''s' imp_D;\n" +
+            "end;\n" +
+            "begin figtree;\n" +
+            " set appearance.backgroundColorAttribute=\"Default\";\n" +
+            " set branchLabels.isShown=true;\n" +
+            "end;\n" +
+            "begin trees;\n" +
+            " translate 1 'imp A b', 2 imp_B_c, 3 'imp it''s', 4 imp_D;\n" +
+            " tree * 'my tree' = [&U][&W 0.5] ((1[&x=1]:0.1,2:0.2[&l={1,2.5,\"a\"},flag])99:0.3[&posterior=0.9]," +
+            "(3:1e-3,4:2)'lab':0.4):0.0;\n" +
+            " tree tree_2 = [&R][&lnP=-123.4,name2=\"q r\"] ((1,2),(3,4)0.5);\n" +
+            " utree t3 = ((1:1,2:1):1,3:1,4:1);\n" +
+            " tree t4 = [&R] ((1:1[&!color=#ff0000,height_95%_HPD={0.5,1.5}],2:1):1,(3:1,4:1)[&set={\"a\",\"b\"}]:1);\n" +
+            "end;\n" +
+            "begin figtree;\n" +
+            " set legend.fontSize=12;\n" +
+            "end;\n";
+
+    private final static String NEWICK =
+            "((imp2 A b:1,imp2_C:2)x:1,(imp2_D:1, imp2 E f g :3):2);\n" +
+            "[c] ('imp2 q''r':1,imp2_s:2,imp2_t);\n";
+
+    public void testNexusTreesMatchJebl() throws Exception {
+        List<Tree> expected = new FigTreeNexusImporter(new StringReader(NEXUS)).importTrees();
+        List<Tree> trees = new TreeFileImporter(new StringReader(NEXUS), true).importTrees();
+
+        assertEquals("tree count", expected.size(), trees.size());
+        for (int i = 0; i < trees.size(); i++) {
+            assertEquals("tree " + (i + 1), Trees.describe(expected.get(i)), Trees.describe(trees.get(i)));
+        }
+    }
+
+    public void testNewickTreesMatchJebl() throws Exception {
+        List<Tree> expected = new NewickImporter(new StringReader(NEWICK), true).importTrees();
+        List<Tree> trees = new TreeFileImporter(new StringReader(NEWICK), false).importTrees();
+
+        assertEquals("tree count", expected.size(), trees.size());
+        for (int i = 0; i < trees.size(); i++) {
+            assertEquals("tree " + (i + 1), Trees.describe(expected.get(i)), Trees.describe(trees.get(i)));
+        }
+    }
+
+    public void testNewickMetaComments() throws Exception {
+        // JEBL's NewickImporter makes these part of the taxon names
+        String newick = "(imp3_D[&rate=0.1]:1,(imp3_C:0.5,imp3_s:0.5)[&rate=2,posterior=1.0]:0.5);";
+        RootedTree tree = (RootedTree)new TreeFileImporter(new StringReader(newick), false).importNextTree();
+
+        for (Node node : tree.getExternalNodes()) {
+            if (tree.getTaxon(node).getName().equals("imp3_D")) {
+                assertEquals("tip attribute", 0.1, node.getAttribute("rate"));
+            } else {
+                Node parent = tree.getParent(node);
+                assertEquals("integer attribute", 2, parent.getAttribute("rate"));
+                assertEquals("double attribute", 1.0, parent.getAttribute("posterior"));
+            }
+        }
+        assertEquals("taxa", 3, tree.getTaxa().size());
+    }
+
+    public void testTreesReadOneAtATime() throws Exception {
+        List<Tree> expected = new TreeFileImporter(new StringReader(NEXUS), true).importTrees();
+
+        TreeFileImporter importer = new TreeFileImporter(new StringReader(NEXUS), true);
+        int count = 0;
+        while (importer.hasTree()) {
+            assertEquals("tree " + (count + 1), Trees.describe(expected.get(count)), Trees.describe(importer.importNextTree()));
+            count++;
+        }
+        assertEquals("tree count", expected.size(), count);
+    }
+
+    public void testFigTreeBlocksBeforeAndAfterTrees() throws Exception {
+        TreeFileImporter importer = new TreeFileImporter(new StringReader(NEXUS), true);
+        importer.importNextTree();
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        assertTrue("a FIGTREE block is found", importer.readFigTreeBlocks(settings));
+        assertEquals("setting before the trees", true, settings.get("branchLabels.isShown"));
+        assertEquals("setting after the trees", 12, settings.get("legend.fontSize"));
+        assertEquals("string setting", "Default", settings.get("appearance.backgroundColorAttribute"));
+    }
+
+    public void testNoFigTreeBlock() throws Exception {
+        TreeFileImporter importer = new TreeFileImporter(new StringReader(NEWICK), false);
+        Map<String, Object> settings = new HashMap<String, Object>();
+        assertFalse("a Newick file has no FIGTREE block", importer.readFigTreeBlocks(settings));
+        assertTrue("no settings", settings.isEmpty());
+    }
+
+    public void testTaxonAttributesKeptToFile() throws Exception {
+        String nexus = NEXUS.replace("imp", "own");
+        TreeFileImporter importer = new TreeFileImporter(new StringReader(nexus), true, false);
+        importer.importTrees();
+
+        Taxon taxon = Taxon.getTaxon("own A b");
+        assertNull("attribute set on the shared taxon", taxon.getAttribute("state"));
+
+        Map<String, Object> attributes = importer.getTaxonAttributes().get(taxon);
+        assertNotNull("attributes of the file's taxon", attributes);
+        assertEquals("string attribute", "x", attributes.get("state"));
+        assertEquals("number attribute", 0.5, attributes.get("rate"));
+        assertNull("taxon without attributes", importer.getTaxonAttributes().get(Taxon.getTaxon("own_D")));
+    }
+
+    public void testTaxonAttributesSetOnTaxa() throws Exception {
+        String nexus = NEXUS.replace("imp", "set");
+        new TreeFileImporter(new StringReader(nexus), true).importTrees();
+
+        assertEquals("attribute set on the taxon", "x", Taxon.getTaxon("set A b").getAttribute("state"));
+    }
+}
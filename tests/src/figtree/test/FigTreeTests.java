@@ -0,0 +1,100 @@
+/*
+ * FigTreeTests.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.test;
+
+import figtree.application.ColorMatcherTest;
+import figtree.application.IndexedTreeFileTest;
+import figtree.application.TreeFileCacheTest;
+import figtree.application.TreeFileImporterTest;
+import figtree.treeviewer.AttributeTableTest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Runs all of the tests (the Ant test target runs this), printing each one that fails,
+ * and exits with a non-zero status if any of them did.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class FigTreeTests {
+
+    private final static Class<?>[] TESTS = {
+            TreeFileImporterTest.class,
+            IndexedTreeFileTest.class,
+            AttributeTableTest.class,
+            TreeFileCacheTest.class,
+            ColorMatcherTest.class
+    };
+
+    public static void main(String[] args) {
+        int run = 0;
+        int failed = 0;
+
+        for (Class<?> test : TESTS) {
+            for (Method method : getTestMethods(test)) {
+                String name = test.getSimpleName() + "." + method.getName();
+                run++;
+                try {
+                    method.invoke(test.newInstance());
+                } catch (InvocationTargetException ite) {
+                    failed++;
+                    System.out.println("FAILED " + name + ": " + ite.getCause());
+                    ite.getCause().printStackTrace(System.out);
+                } catch (Exception e) {
+                    failed++;
+                    System.out.println("FAILED " + name + ": couldn't be run: " + e);
+                }
+            }
+        }
+
+        System.out.println("Ran " + run + " tests, " + failed + " failed");
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return the test methods of a test, in order of name so that runs are repeatable
+     */
+    private static List<Method> getTestMethods(Class<?> test) {
+        List<Method> methods = new ArrayList<Method>();
+        for (Method method : test.getMethods()) {
+            if (method.getName().startsWith("test") && method.getParameterTypes().length == 0 &&
+                    !Modifier.isStatic(method.getModifiers())) {
+                methods.add(method);
+            }
+        }
+        Collections.sort(methods, new Comparator<Method>() {
+            public int compare(Method method1, Method method2) {
+                return method1.getName().compareTo(method2.getName());
+            }
+        });
+        return methods;
+    }
+}
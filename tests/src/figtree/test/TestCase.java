@@ -0,0 +1,97 @@
+/*
+ * TestCase.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.test;
+
+import java.util.Arrays;
+
+/**
+ * The base of the tests that the Ant test target runs. Each public method of a test
+ * whose name starts with "test" is run on a new instance of it, and the test fails if
+ * the method throws (e.g., the AssertionError of one of the checks here). JUnit isn't
+ * one of the libraries FigTree is built with, so this does the little of it that the
+ * tests need.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public abstract class TestCase {
+
+    protected static void fail(String message) {
+        throw new AssertionError(message);
+    }
+
+    protected static void assertTrue(String message, boolean condition) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    protected static void assertFalse(String message, boolean condition) {
+        assertTrue(message, !condition);
+    }
+
+    protected static void assertNull(String message, Object object) {
+        if (object != null) {
+            fail(message + ": expected null but was <" + object + ">");
+        }
+    }
+
+    protected static void assertNotNull(String message, Object object) {
+        if (object == null) {
+            fail(message + ": expected a value but was null");
+        }
+    }
+
+    protected static void assertSame(String message, Object expected, Object actual) {
+        if (expected != actual) {
+            fail(message + ": expected the same object as <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    protected static void assertNotSame(String message, Object unexpected, Object actual) {
+        if (unexpected == actual) {
+            fail(message + ": expected another object than <" + actual + ">");
+        }
+    }
+
+    protected static void assertEquals(String message, Object expected, Object actual) {
+        boolean isEqual;
+        if (expected instanceof Object[] && actual instanceof Object[]) {
+            isEqual = Arrays.deepEquals((Object[])expected, (Object[])actual);
+        } else {
+            isEqual = (expected == null ? actual == null : expected.equals(actual));
+        }
+        if (!isEqual) {
+            fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    protected static void assertEquals(String message, double expected, double actual, double tolerance) {
+        if (Math.abs(expected - actual) > tolerance) {
+            fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Trees.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.test;
+
+import jebl.evolution.graphs.Node;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.Tree;
+import jebl.util.Attributable;
+
+import java.util.*;
+import java.util.List;
+
+/**
+ * Describes trees as text, so that trees read in different ways (e.g., by JEBL's
+ * importers and by TreeFileImporter) can be compared.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class Trees {
+
+    private Trees() {
+    }
+
+    /**
+     * Describes a rooted tree: its nodes in pre-order, each with its taxon, branch
+     * length, height and attributes (with the type of each value), the order in which
+     * the tree gives its nodes, tips and internal nodes, and the tree's own attributes.
+     */
+    public static String describe(Tree tree) {
+        RootedTree rootedTree = (RootedTree)tree;
+
+        List<Node> order = new ArrayList<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(rootedTree.getRootNode());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            order.add(node);
+            List<Node> children = rootedTree.getChildren(node);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (Node node : order) {
+            builder.append(rootedTree.isExternal(node) ? rootedTree.getTaxon(node).getName() : "-");
+            if (!rootedTree.isRoot(node) && rootedTree.hasLengths()) {
+                builder.append(" length=").append(rootedTree.getLength(node));
+            }
+            if (rootedTree.hasHeights()) {
+                builder.append(" height=").append(rootedTree.getHeight(node));
+            }
+            builder.append(' ').append(describeAttributes(node)).append('\n');
+        }
+
+        builder.append("nodes:");
+        for (Node node : rootedTree.getNodes()) {
+            builder.append(' ').append(order.indexOf(node));
+        }
+        builder.append("\ntips:");
+        for (Node node : rootedTree.getExternalNodes()) {
+            builder.append(' ').append(order.indexOf(node));
+        }
+        builder.append("\ninternal:");
+        for (Node node : rootedTree.getInternalNodes()) {
+            builder.append(' ').append(order.indexOf(node));
+        }
+        builder.append("\ntaxa: ").append(new TreeSet<Object>(rootedTree.getTaxa()));
+        builder.append("\ntree: ").append(describeAttributes(rootedTree));
+        builder.append(rootedTree.conceptuallyUnrooted() ? " unrooted" : " rooted");
+        return builder.toString();
+    }
+
+    /**
+     * @return the attributes of an item, in order of name
+     */
+    public static String describeAttributes(Attributable item) {
+        Map<String, String> attributes = new TreeMap<String, String>();
+        for (String name : item.getAttributeNames()) {
+            attributes.put(name, describeValue(item.getAttribute(name)));
+        }
+        return attributes.toString();
+    }
+
+    private static String describeValue(Object value) {
+        if (value instanceof Object[]) {
+            StringBuilder builder = new StringBuilder("{");
+            for (Object element : (Object[])value) {
+                if (builder.length() > 1) {
+                    builder.append(",");
+                }
+                builder.append(describeValue(element));
+            }
+            return builder.append("}").toString();
+        }
+        return value + ":" + (value != null ? value.getClass().getSimpleName() : "null");
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * AttributeTableTest.java
+ *
+ * Copyright (C) 2006-2014 Andrew Rambaut
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package figtree.treeviewer;
+
+import figtree.test.TestCase;
+
+import java.util.*;
+
+/**
+ * Checks that an AttributeTable keeps each attribute in a column of the right type, moves
+ * a column to one of objects when a value of another type is put in it, and renames
+ * attributes (merging them into a column that is already there) without losing values.
+ *
+ * @version $Id$
+ *
+ * $HeadURL$
+ *
+ * $LastChangedBy$
+ * $LastChangedDate$
+ * $LastChangedRevision$
+ */
+public class AttributeTableTest extends TestCase {
+
+    public void testColumnTypes() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "double", 0.5);
+        table.setAttribute(0, "integer", 3);
+        table.setAttribute(0, "string", "a");
+        table.setAttribute(0, "range", new Object[] { 1.0, 2.0 });
+        table.setAttribute(0, "boolean", true);
+
+        assertTrue("double column", table.getColumn("double") instanceof AttributeTable.DoubleColumn);
+        assertTrue("integer column", table.getColumn("integer") instanceof AttributeTable.IntegerColumn);
+        assertTrue("string column", table.getColumn("string") instanceof AttributeTable.StringColumn);
+        assertTrue("range column", table.getColumn("range") instanceof AttributeTable.RangeColumn);
+        assertTrue("object column", table.getColumn("boolean") instanceof AttributeTable.ObjectColumn);
+
+        assertEquals("double", 0.5, table.getAttribute(0, "double"));
+        assertEquals("integer", 3, table.getAttribute(0, "integer"));
+        assertEquals("string", "a", table.getAttribute(0, "string"));
+        assertEquals("range", new Object[] { 1.0, 2.0 }, table.getAttribute(0, "range"));
+        assertEquals("boolean", true, table.getAttribute(0, "boolean"));
+        assertEquals("names in the order the columns were made",
+                Arrays.asList("double", "integer", "string", "range", "boolean"),
+                new ArrayList<String>(table.getAttributeNames(0)));
+    }
+
+    public void testPromotionToObjects() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "value", 1);
+        table.setAttribute(5, "value", 2);
+        table.setAttribute(7, "value", 2.5);
+
+        assertTrue("a column of mixed values", table.getColumn("value") instanceof AttributeTable.ObjectColumn);
+        assertEquals("an integer before", 1, table.getAttribute(0, "value"));
+        assertEquals("another integer before", 2, table.getAttribute(5, "value"));
+        assertEquals("the double", 2.5, table.getAttribute(7, "value"));
+        assertNull("a row without the attribute", table.getAttribute(3, "value"));
+
+        table.setAttribute(3, "value", "text");
+        assertEquals("a string", "text", table.getAttribute(3, "value"));
+        assertEquals("an integer after", 1, table.getAttribute(0, "value"));
+    }
+
+    public void testRangeOfIntegersIsNotARange() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "hpd", new Object[] { 1, 2 });
+
+        assertTrue("an array of integers", table.getColumn("hpd") instanceof AttributeTable.ObjectColumn);
+        assertEquals("the array", new Object[] { 1, 2 }, table.getAttribute(0, "hpd"));
+    }
+
+    public void testNumericColumns() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "integer", 3);
+        table.setAttribute(1, "double", -1.5);
+        table.setAttribute(2, "string", "4");
+
+        assertTrue("integers are numbers", table.getColumn("integer").isNumeric());
+        assertEquals("integer as a double", 3.0, table.getColumn("integer").getDouble(0), 0.0);
+        assertTrue("doubles are numbers", table.getColumn("double").isNumeric());
+        assertEquals("double", -1.5, table.getColumn("double").getDouble(1), 0.0);
+        assertFalse("strings aren't numbers", table.getColumn("string").isNumeric());
+    }
+
+    public void testStringsAreShared() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "state", "a");
+        table.setAttribute(1, "state", "b");
+        table.setAttribute(2, "state", "a");
+
+        AttributeTable.StringColumn column = (AttributeTable.StringColumn)table.getColumn("state");
+        assertEquals("distinct values", 2, column.getValueCount());
+        assertEquals("the same value has the same code", column.getCode(0), column.getCode(2));
+        assertEquals("value of a code", "b", column.getValue(column.getCode(1)));
+    }
+
+    public void testColumnsGrow() {
+        AttributeTable table = new AttributeTable(2);
+        for (int row = 0; row < 100; row++) {
+            table.setAttribute(row, "row", row);
+            table.setAttribute(row, "half", row / 2.0);
+            table.setAttribute(row, "name", "n" + row);
+        }
+        for (int row = 0; row < 100; row++) {
+            assertEquals("integer " + row, row, table.getAttribute(row, "row"));
+            assertEquals("double " + row, row / 2.0, table.getAttribute(row, "half"));
+            assertEquals("string " + row, "n" + row, table.getAttribute(row, "name"));
+        }
+    }
+
+    public void testRemoveAttribute() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "a", 1);
+        table.setAttribute(1, "a", 2);
+        table.removeAttribute(0, "a");
+        table.removeAttribute(0, "missing");
+
+        assertNull("removed", table.getAttribute(0, "a"));
+        assertTrue("no names left", table.getAttributeNames(0).isEmpty());
+        assertEquals("another row", 2, table.getAttribute(1, "a"));
+        assertEquals("attribute map", Collections.singletonMap("a", (Object)2), table.getAttributeMap(1));
+    }
+
+    public void testRenameAttribute() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "label", "x");
+        table.setAttribute(2, "label", "y");
+        AttributeTable.Column column = table.getColumn("label");
+
+        table.renameAttribute("label", "name");
+        table.renameAttribute("missing", "other");
+
+        assertNull("the old name", table.getColumn("label"));
+        assertSame("the column is moved as it is", column, table.getColumn("name"));
+        assertEquals("renamed", "y", table.getAttribute(2, "name"));
+        assertFalse("nothing made for a missing attribute", table.getColumnNames().contains("other"));
+    }
+
+    public void testRenameAttributeMerges() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "label", 1);
+        table.setAttribute(1, "label", 2);
+        table.setAttribute(1, "name", "b");
+        table.setAttribute(2, "name", "c");
+
+        table.renameAttribute("label", "name");
+
+        assertNull("the old name", table.getColumn("label"));
+        assertEquals("a value moved", 1, table.getAttribute(0, "name"));
+        assertEquals("a value replaced by the renamed one", 2, table.getAttribute(1, "name"));
+        assertEquals("a value kept", "c", table.getAttribute(2, "name"));
+        assertTrue("a column of mixed values", table.getColumn("name") instanceof AttributeTable.ObjectColumn);
+    }
+
+    public void testCopyIsIndependent() {
+        AttributeTable table = new AttributeTable(4);
+        table.setAttribute(0, "double", 0.5);
+        table.setAttribute(0, "string", "a");
+        table.setAttribute(0, "range", new Object[] { 1.0, 2.0 });
+
+        AttributeTable copy = table.copy();
+        copy.setAttribute(0, "double", 1.5);
+        copy.setAttribute(1, "string", "b");
+        copy.removeAttribute(0, "range");
+        copy.setAttribute(0, "new", 1);
+
+        assertEquals("double", 0.5, table.getAttribute(0, "double"));
+        assertNull("string", table.getAttribute(1, "string"));
+        assertEquals("range", new Object[] { 1.0, 2.0 }, table.getAttribute(0, "range"));
+        assertNull("new column", table.getColumn("new"));
+        assertEquals("copied double", 1.5, copy.getAttribute(0, "double"));
+        assertEquals("copied string", "a", copy.getAttribute(0, "string"));
+    }
+}